@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Several locomotives driven as one unit (double or triple header). Speed and function changes are sent to all members
+ * as one batch. Members running backwards relative to the consist are marked as inverted and receive the opposite
+ * direction.
+ *
+ * @author Wolfgang Reder
+ * @see LocoControl#createConsist()
+ */
+public interface Consist extends AutoCloseable
+{
+
+  public Controller getController();
+
+  /**
+   * Adds a member or changes its inversion. The consist takes the ownership of a new member and keeps it until the
+   * member is removed or the consist is closed.
+   *
+   * @param address loco address
+   * @param inverted {@code true} if the loco runs backwards relative to the consist
+   * @throws IOException if the ownership cannot be taken
+   */
+  public void addMember(int address,
+                        boolean inverted) throws IOException;
+
+  public boolean removeMember(int address);
+
+  /**
+   * The members in the order they were added. The first member is the lead loco.
+   *
+   * @return addresses of the members
+   */
+  public List<Integer> getMembers();
+
+  public boolean isInverted(int address);
+
+  public void control(Direction dir,
+                      int speed) throws IOException;
+
+  /**
+   * Speed of the lead loco as last seen on the bus.
+   *
+   * @return speed or {@code null} if unknown
+   */
+  public Integer getCurrentSpeed();
+
+  /**
+   * Direction of the consist derived from the lead loco.
+   *
+   * @return direction or {@code null} if unknown
+   */
+  public Direction getDirection();
+
+  /**
+   * Speed of a member as last seen on the bus.
+   *
+   * @param address member address
+   * @return speed or {@code null} if unknown
+   */
+  public Integer getCurrentSpeed(int address);
+
+  /**
+   * Direction of a member relative to the consist.
+   *
+   * @param address member address
+   * @return direction or {@code null} if unknown
+   */
+  public Direction getDirection(int address);
+
+  /**
+   * Sets functions of all members. Only functions differing from the state seen on the bus are sent.
+   *
+   * @param functions function number to value
+   * @throws IOException on error
+   */
+  public void setFunctions(Map<Integer, Integer> functions) throws IOException;
+
+  public default void setFunction(int iFunction,
+                                  int val) throws IOException
+  {
+    if (iFunction < 0 || iFunction >= DCCConstants.NUM_FUNCTION) {
+      throw new IndexOutOfBoundsException();
+    }
+    setFunctions(Collections.singletonMap(iFunction,
+                                          val));
+  }
+
+  /**
+   * Releases the consist. The members keep their current speed.
+   *
+   * @throws IOException on error
+   */
+  @Override
+  public void close() throws IOException;
+
+}
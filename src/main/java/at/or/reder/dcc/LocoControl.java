@@ -16,6 +16,7 @@
 package at.or.reder.dcc;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -27,6 +28,18 @@ public interface LocoControl extends BaseControl
 
   Locomotive getLocomotive(int locoAddress) throws IOException, TimeoutException;
 
+  /**
+   * Creates an empty consist.
+   *
+   * @return new consist
+   * @throws IOException if the controller is not connected
+   * @throws UnsupportedOperationException if the controller does not support consists
+   */
+  public default Consist createConsist() throws IOException
+  {
+    throw new UnsupportedOperationException("consists not supported");
+  }
+
   /**
    *
    * @param loco address 0 is wildcard
@@ -35,6 +48,26 @@ public interface LocoControl extends BaseControl
   public void addLocomotiveSpeedEventListener(int loco,
                                               LocomotiveSpeedEventListener listener);
 
+  /**
+   * Registers {@code listener} in conflated mode. Only the latest speed of every loco is kept and delivered at most once
+   * per {@code minInterval}. Use this for observers that cannot keep up with the bus. The listener is removed with
+   * {@link #removeLocomotiveSpeedEventListener(int, at.or.reder.dcc.LocomotiveSpeedEventListener) }. Controllers not
+   * supporting conflation register the listener unconflated.
+   *
+   * @param loco address 0 is wildcard
+   * @param listener listener
+   * @param minInterval minimum time between two deliveries to {@code listener}
+   * @param unit unit of {@code minInterval}
+   */
+  public default void addLocomotiveSpeedEventListener(int loco,
+                                                      LocomotiveSpeedEventListener listener,
+                                                      long minInterval,
+                                                      TimeUnit unit)
+  {
+    addLocomotiveSpeedEventListener(loco,
+                                    listener);
+  }
+
   public void removeLocomotiveSpeedEventListener(int loco,
                                                  LocomotiveSpeedEventListener listener);
 
@@ -47,6 +80,26 @@ public interface LocoControl extends BaseControl
   public void addLocomotiveTachoEventListener(int loco,
                                               LocomotiveTachoEventListener listener);
 
+  /**
+   * Registers {@code listener} in conflated mode, only the latest tacho event of every loco is delivered at most once per
+   * {@code minInterval}.
+   *
+   * @param loco address 0 is wildcard
+   * @param listener listener
+   * @param minInterval minimum time between two deliveries to {@code listener}
+   * @param unit unit of {@code minInterval}
+   * @see #addLocomotiveSpeedEventListener(int, at.or.reder.dcc.LocomotiveSpeedEventListener, long,
+   * java.util.concurrent.TimeUnit)
+   */
+  public default void addLocomotiveTachoEventListener(int loco,
+                                                      LocomotiveTachoEventListener listener,
+                                                      long minInterval,
+                                                      TimeUnit unit)
+  {
+    addLocomotiveTachoEventListener(loco,
+                                    listener);
+  }
+
   public void removeLocomotiveTachoEventListener(int loco,
                                                  LocomotiveTachoEventListener listener);
 
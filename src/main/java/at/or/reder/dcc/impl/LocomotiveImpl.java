@@ -21,6 +21,7 @@ import at.or.reder.dcc.Direction;
 import at.or.reder.dcc.Locomotive;
 import at.or.reder.zcan20.Loco;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.concurrent.TimeoutException;
@@ -116,12 +117,15 @@ public final class LocomotiveImpl implements Locomotive
   @Override
   public void setFunctions(Map<Integer, Integer> functions) throws IOException
   {
+    Map<Integer, Integer> valid = new HashMap<>();
     for (Map.Entry<Integer, Integer> e : functions.entrySet()) {
-      if (e.getValue() != null && e.getKey() != null && e.getKey() >= 0 && e.getValue() < DCCConstants.NUM_FUNCTION) {
-        loco.setFunction(e.getKey(),
-                         e.getValue());
+      if (e.getValue() != null && e.getKey() != null && e.getKey() >= 0 && e.getKey() < DCCConstants.NUM_FUNCTION) {
+        valid.put(e.getKey(),
+                  e.getValue());
       }
     }
+    // only the changed functions are sent
+    loco.setFunctions(valid);
   }
 
   @Override
@@ -15,29 +15,49 @@
  */
 package at.or.reder.dcc.util;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.concurrent.Semaphore;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.openide.util.RequestProcessor;
 
 /**
- * Implements a Pool of ByteBuffer with a fixed buffer capacity
+ * Implements a Pool of ByteBuffer with a fixed buffer capacity.
+ * <p>
+ * Every thread keeps the last released buffer in a thread local slot. All other free buffers are kept on a lock free stack
+ * shared by all threads. Free buffers not used for {@link #getMaxAge() } ms are dropped by a background task, so releasing
+ * a buffer never scans the pool. The thread local slots hold no reference to the pool, so a pool no longer used is
+ * collected even if its threads live on.</p>
  *
  * @author Wolfgang Reder
  */
-public final class BufferPool
+public final class BufferPool implements AutoCloseable
 {
 
-  public final class BufferItem implements AutoCloseable
+  public static final long DEFAULT_MAX_AGE = 3_600_000L;
+  private static final long TRIM_INTERVAL = 60_000L;
+  private static final RequestProcessor TRIMMER = new RequestProcessor("BufferPool-Trimmer",
+                                                                       1,
+                                                                       false,
+                                                                       false);
+
+  public static final class BufferItem implements AutoCloseable
   {
 
+    private final BufferPool pool;
     private final ByteBuffer buffer;
-    private long lastUsed;
+    volatile int outstanding = 1;
 
-    private BufferItem(ByteBuffer buffer)
+    private BufferItem(BufferPool pool,
+                       ByteBuffer buffer)
     {
+      this.pool = pool;
       this.buffer = buffer;
-      touch();
     }
 
     public ByteBuffer getBuffer()
@@ -45,57 +65,311 @@ public final class BufferPool
       return buffer;
     }
 
+    /**
+     * Returns the buffer to the pool. Closing an item more than once has no effect.
+     */
     @Override
     public void close()
     {
-      buffer.rewind();
-      buffer.limit(buffer.capacity());
-      putBack(this);
+      if (OUTSTANDING.compareAndSet(this,
+                                    1,
+                                    0)) {
+        buffer.rewind();
+        buffer.limit(buffer.capacity());
+        pool.putBack(buffer);
+      }
+    }
+
+  }
+
+  /**
+   * Thread local slot. Must not reference the pool, the slot lives as long as its thread.
+   */
+  private static final class Cached
+  {
+
+    private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+    private final AtomicReference<ByteBuffer> buffer = new AtomicReference<>();
+    private volatile long lastUsed;
+
+  }
+
+  private static final class Node
+  {
+
+    private final ByteBuffer buffer;
+    private final long lastUsed;
+    private final Node next;
+
+    private Node(ByteBuffer buffer,
+                 long lastUsed,
+                 Node next)
+    {
+      this.buffer = buffer;
+      this.lastUsed = lastUsed;
+      this.next = next;
+    }
+
+  }
+
+  private static final class Trimmer implements Runnable
+  {
+
+    private final WeakReference<BufferPool> pool;
+    private final RequestProcessor.Task task;
+
+    private Trimmer(BufferPool pool)
+    {
+      this.pool = new WeakReference<>(pool);
+      this.task = TRIMMER.create(this);
     }
 
-    private void touch()
+    @Override
+    public void run()
     {
-      lastUsed = System.currentTimeMillis();
+      BufferPool p = pool.get();
+      if (p != null && !p.closed) {
+        p.trim();
+        task.schedule((int) TRIM_INTERVAL);
+      }
     }
 
   }
-  private final Deque<BufferItem> freePool = new LinkedList<>();
-  private final Semaphore sem;
+  private static final AtomicIntegerFieldUpdater<BufferItem> OUTSTANDING = AtomicIntegerFieldUpdater.newUpdater(
+          BufferItem.class,
+          "outstanding");
+  private final ThreadLocal<Cached> threadCache = new ThreadLocal<>();
+  private final Queue<Cached> threadSlots = new ConcurrentLinkedQueue<>();
+  private final AtomicReference<Node> freeStack = new AtomicReference<>();
+  private final AtomicInteger freeCount = new AtomicInteger();
+  private final AtomicInteger outstandingCount = new AtomicInteger();
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
   private final int capacity;
+  private final int maxFree;
+  private final boolean direct;
+  private final long maxAge;
+  private final Trimmer trimmer;
+  private volatile boolean closed;
 
+  /**
+   * Creates a pool of heap buffers.
+   *
+   * @param bufferCapacity capacity of each buffer.
+   * @param maxBuffers maximum number of free buffers kept on the shared stack.
+   */
   public BufferPool(int bufferCapacity,
                     int maxBuffers)
   {
+    this(bufferCapacity,
+         maxBuffers,
+         false,
+         DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * Creates a pool.
+   *
+   * @param bufferCapacity capacity of each buffer.
+   * @param maxBuffers maximum number of free buffers kept on the shared stack.
+   * @param direct if {@code true} direct buffers are allocated.
+   * @param maxAge free buffers not used for {@code maxAge} ms are dropped.
+   */
+  public BufferPool(int bufferCapacity,
+                    int maxBuffers,
+                    boolean direct,
+                    long maxAge)
+  {
+    if (bufferCapacity <= 0) {
+      throw new IllegalArgumentException("bufferCapacity <= 0");
+    }
     this.capacity = bufferCapacity;
-    sem = new Semaphore(maxBuffers);
+    this.maxFree = Math.max(1,
+                            maxBuffers);
+    this.direct = direct;
+    this.maxAge = maxAge;
+    trimmer = new Trimmer(this);
+    trimmer.task.schedule((int) TRIM_INTERVAL);
+  }
+
+  public int getBufferCapacity()
+  {
+    return capacity;
+  }
+
+  public boolean isDirect()
+  {
+    return direct;
   }
 
+  public long getMaxAge()
+  {
+    return maxAge;
+  }
+
+  /**
+   * Number of requests served from a pooled buffer.
+   *
+   * @return hit count
+   */
+  public long getHitCount()
+  {
+    return hitCount.sum();
+  }
+
+  /**
+   * Number of requests that required a new buffer.
+   *
+   * @return miss count
+   */
+  public long getMissCount()
+  {
+    return missCount.sum();
+  }
+
+  /**
+   * Number of buffers currently handed out and not yet closed.
+   *
+   * @return outstanding count
+   */
+  public int getOutstandingCount()
+  {
+    return outstandingCount.get();
+  }
+
+  /**
+   * Number of free buffers on the shared stack. Buffers cached by threads are not included.
+   *
+   * @return free count
+   */
+  public int getFreeCount()
+  {
+    return freeCount.get();
+  }
+
+  /**
+   * Hands out a buffer. A closed pool still hands out buffers, but does not keep them.
+   *
+   * @return a buffer owned by the caller until the item is closed
+   */
   public BufferItem getBuffer()
   {
-    sem.acquireUninterruptibly();
-    BufferItem result;
-    synchronized (freePool) {
-      if (freePool.isEmpty()) {
-        result = new BufferItem(ByteBuffer.allocate(capacity));
-      } else {
-        result = freePool.getFirst();
+    Cached cached = threadCache.get();
+    ByteBuffer result = cached != null ? cached.buffer.getAndSet(null) : null;
+    if (result == null) {
+      result = pop();
+    }
+    if (result != null) {
+      hitCount.increment();
+    } else {
+      missCount.increment();
+      result = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+    outstandingCount.incrementAndGet();
+    result.clear();
+    return new BufferItem(this,
+                          result);
+  }
+
+  private void putBack(ByteBuffer buffer)
+  {
+    outstandingCount.decrementAndGet();
+    if (closed) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Cached cached = threadCache.get();
+    if (cached == null) {
+      cached = new Cached();
+      threadCache.set(cached);
+      threadSlots.add(cached);
+    }
+    cached.lastUsed = now;
+    if (!cached.buffer.compareAndSet(null,
+                                     buffer)) {
+      push(buffer,
+           now);
+    }
+  }
+
+  private ByteBuffer pop()
+  {
+    Node head;
+    do {
+      head = freeStack.get();
+      if (head == null) {
+        return null;
       }
+    } while (!freeStack.compareAndSet(head,
+                                      head.next));
+    freeCount.decrementAndGet();
+    return head.buffer;
+  }
+
+  private void push(ByteBuffer buffer,
+                    long lastUsed)
+  {
+    if (freeCount.incrementAndGet() > maxFree) {
+      freeCount.decrementAndGet();
+      return;
     }
-    result.buffer.clear();
-    return result;
+    Node head;
+    Node node;
+    do {
+      head = freeStack.get();
+      node = new Node(buffer,
+                      lastUsed,
+                      head);
+    } while (!freeStack.compareAndSet(head,
+                                      node));
   }
 
-  private void putBack(BufferItem item)
+  /**
+   * Drops all free buffers on the shared stack and in the thread local slots, that are not used for
+   * {@link #getMaxAge() } ms. Called periodically from a background task.
+   */
+  public void trim()
   {
-    if (item != null) {
-      synchronized (freePool) {
-        freePool.addFirst(item);
-        item.touch();
-        long oldestEntry = System.currentTimeMillis() - 3_600_000L;
-        freePool.removeIf((i) -> i.lastUsed < oldestEntry);
+    Node head = freeStack.getAndSet(null);
+    long oldestEntry = System.currentTimeMillis() - maxAge;
+    for (Node n = head; n != null; n = n.next) {
+      freeCount.decrementAndGet();
+      if (n.lastUsed >= oldestEntry) {
+        push(n.buffer,
+             n.lastUsed);
       }
-      sem.release();
     }
+    for (Iterator<Cached> i = threadSlots.iterator(); i.hasNext();) {
+      Cached c = i.next();
+      if (c.owner.get() == null) {
+        i.remove();
+      } else {
+        ByteBuffer b = c.buffer.get();
+        if (b != null && c.lastUsed < oldestEntry) {
+          c.buffer.compareAndSet(b,
+                                 null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops all free buffers and stops the background task. Buffers handed out may still be closed, but are not kept.
+   */
+  @Override
+  public void close()
+  {
+    closed = true;
+    trimmer.task.cancel();
+    Node head = freeStack.getAndSet(null);
+    for (Node n = head; n != null; n = n.next) {
+      freeCount.decrementAndGet();
+    }
+    Cached c;
+    while ((c = threadSlots.poll()) != null) {
+      c.buffer.set(null);
+    }
+    threadCache.remove();
   }
 
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven CRC for the reflected (LSB first) CRCs used by ZIMO devices. Bulk updates use slicing by 4, single bytes
+ * can be fed with {@link #update(int, byte)} while a frame is parsed.
+ * <p>
+ * The results are identical to {@link DCCUtils#crc(int, java.nio.ByteBuffer, int, int)}.</p>
+ *
+ * @author Wolfgang Reder
+ */
+public final class CRC
+{
+
+  /*
+   * x⁸ + x⁵ + x⁴ + 1
+   */
+  public static final CRC CRC8 = new CRC(0x8c,
+                                         0xff);
+  /*
+   * x¹⁶ + x¹² + x⁵+1
+   */
+  public static final CRC CRC16 = new CRC(0x8810,
+                                          0xffff);
+  private final int mask;
+  private final int[] table0 = new int[256];
+  private final int[] table1 = new int[256];
+  private final int[] table2 = new int[256];
+  private final int[] table3 = new int[256];
+
+  private CRC(int poly,
+              int mask)
+  {
+    this.mask = mask;
+    for (int i = 0; i < 256; ++i) {
+      int crc = i;
+      for (int b = 0; b < 8; ++b) {
+        if ((crc & 0x01) != 0) {
+          crc = (crc >>> 1) ^ poly;
+        } else {
+          crc >>>= 1;
+        }
+      }
+      table0[i] = crc;
+    }
+    for (int i = 0; i < 256; ++i) {
+      table1[i] = (table0[i] >>> 8) ^ table0[table0[i] & 0xff];
+      table2[i] = (table1[i] >>> 8) ^ table0[table1[i] & 0xff];
+      table3[i] = (table2[i] >>> 8) ^ table0[table2[i] & 0xff];
+    }
+  }
+
+  /**
+   * Feeds one byte into the crc.
+   *
+   * @param crc current crc
+   * @param b byte to add
+   * @return the new crc
+   */
+  public int update(int crc,
+                    byte b)
+  {
+    int c = crc & mask;
+    return (c >>> 8) ^ table0[(c ^ b) & 0xff];
+  }
+
+  /**
+   * Feeds the bytes between position and limit of {@code buffer} into the crc. Position and limit of {@code buffer} are not
+   * changed.
+   *
+   * @param crc current crc
+   * @param buffer bytes to add
+   * @return the new crc
+   */
+  public int update(int crc,
+                    ByteBuffer buffer)
+  {
+    return update(crc,
+                  buffer,
+                  buffer.position(),
+                  buffer.remaining());
+  }
+
+  /**
+   * Feeds {@code length} bytes starting at the absolute index {@code offset} of {@code buffer} into the crc. Position and
+   * limit of {@code buffer} are not changed.
+   *
+   * @param crc current crc
+   * @param buffer bytes to add
+   * @param offset absolute index of the first byte
+   * @param length number of bytes
+   * @return the new crc
+   */
+  public int update(int crc,
+                    ByteBuffer buffer,
+                    int offset,
+                    int length)
+  {
+    if (buffer.hasArray()) {
+      return update(crc,
+                    buffer.array(),
+                    buffer.arrayOffset() + offset,
+                    length);
+    }
+    int c = crc & mask;
+    int i = offset;
+    final int end = offset + length;
+    for (; i + 4 <= end; i += 4) {
+      c ^= (buffer.get(i) & 0xff)
+                   | ((buffer.get(i + 1) & 0xff) << 8)
+                   | ((buffer.get(i + 2) & 0xff) << 16)
+                   | ((buffer.get(i + 3) & 0xff) << 24);
+      c = table3[c & 0xff] ^ table2[(c >>> 8) & 0xff] ^ table1[(c >>> 16) & 0xff] ^ table0[c >>> 24];
+    }
+    for (; i < end; ++i) {
+      c = (c >>> 8) ^ table0[(c ^ buffer.get(i)) & 0xff];
+    }
+    return c;
+  }
+
+  /**
+   * Feeds {@code length} bytes of {@code data} starting at {@code offset} into the crc.
+   *
+   * @param crc current crc
+   * @param data bytes to add
+   * @param offset index of the first byte
+   * @param length number of bytes
+   * @return the new crc
+   */
+  public int update(int crc,
+                    byte[] data,
+                    int offset,
+                    int length)
+  {
+    int c = crc & mask;
+    int i = offset;
+    final int end = offset + length;
+    for (; i + 4 <= end; i += 4) {
+      c ^= (data[i] & 0xff)
+                   | ((data[i + 1] & 0xff) << 8)
+                   | ((data[i + 2] & 0xff) << 16)
+                   | ((data[i + 3] & 0xff) << 24);
+      c = table3[c & 0xff] ^ table2[(c >>> 8) & 0xff] ^ table1[(c >>> 16) & 0xff] ^ table0[c >>> 24];
+    }
+    for (; i < end; ++i) {
+      c = (c >>> 8) ^ table0[(c ^ data[i]) & 0xff];
+    }
+    return c;
+  }
+
+}
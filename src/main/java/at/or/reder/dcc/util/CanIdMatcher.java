@@ -34,18 +34,32 @@ public final class CanIdMatcher implements Predicate<Packet>
   public static final int MASK_COMMANDGROUP = 0x1f000000;
   public static final int MASK_MODE = 0x10300000;
   public static final int MASK_COMMAND = 0x1fc00000;
-  private final CanId canId;
+  private final int canId;
   private final int mask;
+  private final int pattern;
 
   public CanIdMatcher(@NotNull CanId canId,
                       int mask)
   {
-    this.canId = Objects.requireNonNull(canId,
-                                        "canId is null");
+    this(Objects.requireNonNull(canId,
+                                "canId is null").intValue(),
+         mask);
+  }
+
+  public CanIdMatcher(int canId,
+                      int mask)
+  {
+    this.canId = canId;
     this.mask = mask | (1 << 28);
+    this.pattern = canId & this.mask;
   }
 
   public CanId getCanId()
+  {
+    return CanId.valueOf(canId);
+  }
+
+  public int getCanIdValue()
   {
     return canId;
   }
@@ -63,19 +77,24 @@ public final class CanIdMatcher implements Predicate<Packet>
 
   public boolean matchesPacket(@NotNull Packet packet)
   {
-    return matchesId(packet.getCanId());
+    return matchesId(packet.getCanIdValue());
   }
 
   public boolean matchesId(@NotNull CanId ci)
   {
-    return (ci.intValue() & mask) == (canId.intValue() & mask);
+    return matchesId(ci.intValue());
+  }
+
+  public boolean matchesId(int ci)
+  {
+    return (ci & mask) == pattern;
   }
 
   @Override
   public int hashCode()
   {
     int hash = 3;
-    hash = 97 * hash + Objects.hashCode(this.canId);
+    hash = 97 * hash + this.canId;
     hash = 97 * hash + this.mask;
     return hash;
   }
@@ -96,14 +115,13 @@ public final class CanIdMatcher implements Predicate<Packet>
     if (this.mask != other.mask) {
       return false;
     }
-    return Objects.equals(this.canId,
-                          other.canId);
+    return this.canId == other.canId;
   }
 
   @Override
   public String toString()
   {
-    return "CanIdMatcher{" + "canId=" + Integer.toHexString(canId.intValue()) + ", mask=" + Integer.toHexString(mask) + '}';
+    return "CanIdMatcher{" + "canId=" + Integer.toHexString(canId) + ", mask=" + Integer.toHexString(mask) + '}';
   }
 
 }
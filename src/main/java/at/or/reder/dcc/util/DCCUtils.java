@@ -741,10 +741,8 @@ public final class DCCUtils
   public static byte crc8(byte crcIn,
                           ByteBuffer bufferIn)
   {
-    return (byte) crc(crcIn & 0xff,
-                      bufferIn,
-                      0x8c,
-                      0xff);
+    return (byte) CRC.CRC8.update(crcIn & 0xff,
+                                  bufferIn);
   }
 
   /*
@@ -755,12 +753,20 @@ public final class DCCUtils
   public static short crc16(short crcIn,
                             ByteBuffer bufferIn)
   {
-    return (short) crc(crcIn & 0xffff,
-                       bufferIn,
-                       0x8810,
-                       0xffff);
+    return (short) CRC.CRC16.update(crcIn & 0xffff,
+                                    bufferIn);
   }
 
+  /**
+   * Calculates a reflected crc bit by bit. Use {@link CRC} for the polynoms used by {@link #crc8(byte, java.nio.ByteBuffer) }
+   * and {@link #crc16(short, java.nio.ByteBuffer) }.
+   *
+   * @param crcIn initial crc
+   * @param bufferIn data between position and limit is used
+   * @param poly reflected polynom
+   * @param mask mask of the crc width
+   * @return crc
+   */
   public static int crc(int crcIn,
                         ByteBuffer bufferIn,
                         int poly,
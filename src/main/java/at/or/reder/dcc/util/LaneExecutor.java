@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Executes tasks on a fixed number of serial lanes. Tasks with the same key always run on the same lane in submission
+ * order, tasks on different lanes run in parallel.
+ *
+ * @author Wolfgang Reder
+ */
+public final class LaneExecutor
+{
+
+  private final class Lane implements Runnable
+  {
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private void execute(Runnable task)
+    {
+      queue.add(task);
+      if (depth.getAndIncrement() == 0) {
+        // the lane was idle, nobody drains it
+        try {
+          pool.execute(this);
+        } catch (RejectedExecutionException ex) {
+          // take the task back, otherwise the lane is never drained again
+          queue.remove(task);
+          if (depth.decrementAndGet() > 0) {
+            // tasks submitted in the meantime rely on this drain
+            run();
+          }
+          throw ex;
+        }
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      do {
+        Runnable task = queue.poll();
+        long start = System.nanoTime();
+        try {
+          task.run();
+        } catch (Throwable th) {
+          DCCUtils.LOGGER.log(Level.SEVERE,
+                              "Error in lane task",
+                              th);
+        } finally {
+          long duration = System.nanoTime() - start;
+          executed.increment();
+          executionNanos.add(duration);
+          maxExecutionNanos.accumulateAndGet(duration,
+                                             Math::max);
+        }
+      } while (depth.decrementAndGet() > 0);
+    }
+
+  }
+
+  private final Lane[] lanes;
+  private final Executor pool;
+  private final LongAdder executed = new LongAdder();
+  private final LongAdder executionNanos = new LongAdder();
+  private final AtomicLong maxExecutionNanos = new AtomicLong();
+
+  /**
+   * Creates a LaneExecutor with its own threads. Idle threads terminate after one minute.
+   *
+   * @param numLanes number of lanes
+   * @param threadFactory factory for the threads
+   */
+  public LaneExecutor(int numLanes,
+                      @NotNull ThreadFactory threadFactory)
+  {
+    this(numLanes,
+         createPool(numLanes,
+                    threadFactory));
+  }
+
+  /**
+   * Creates a LaneExecutor running its lanes on {@code executor}. At most {@code numLanes} tasks of
+   * {@code executor} are used at the same time.
+   *
+   * @param numLanes number of lanes
+   * @param executor executor
+   */
+  public LaneExecutor(int numLanes,
+                      @NotNull Executor executor)
+  {
+    if (numLanes < 1) {
+      throw new IllegalArgumentException("numLanes < 1");
+    }
+    this.pool = Objects.requireNonNull(executor,
+                                       "executor is null");
+    lanes = new Lane[numLanes];
+    for (int i = 0; i < numLanes; ++i) {
+      lanes[i] = new Lane();
+    }
+  }
+
+  private static Executor createPool(int numLanes,
+                                     ThreadFactory threadFactory)
+  {
+    ThreadPoolExecutor result = new ThreadPoolExecutor(numLanes,
+                                                       numLanes,
+                                                       60,
+                                                       TimeUnit.SECONDS,
+                                                       new LinkedBlockingQueue<>(),
+                                                       Objects.requireNonNull(threadFactory,
+                                                                              "threadFactory is null"));
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+
+  /**
+   * Runs {@code task} on the lane selected by {@code key}.
+   *
+   * @param key partition key
+   * @param task the task
+   * @throws RejectedExecutionException if the underlying executor rejects the lane. The task is not run.
+   */
+  public void execute(int key,
+                      @NotNull Runnable task)
+  {
+    Objects.requireNonNull(task,
+                           "task is null");
+    lanes[laneOf(key)].execute(task);
+  }
+
+  int laneOf(int key)
+  {
+    int h = key * 0x9e3779b9;
+    return (int) (((h ^ (h >>> 16)) & 0xffffffffL) % lanes.length);
+  }
+
+  public int getLaneCount()
+  {
+    return lanes.length;
+  }
+
+  /**
+   * Number of tasks queued or running on lane {@code lane}.
+   *
+   * @param lane index of the lane
+   * @return queue depth
+   */
+  public int getQueueDepth(int lane)
+  {
+    return lanes[lane].depth.get();
+  }
+
+  /**
+   * Number of tasks queued or running on all lanes.
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth()
+  {
+    int result = 0;
+    for (Lane l : lanes) {
+      result += l.depth.get();
+    }
+    return result;
+  }
+
+  public long getExecutedCount()
+  {
+    return executed.sum();
+  }
+
+  public long getTotalExecutionNanos()
+  {
+    return executionNanos.sum();
+  }
+
+  public long getMaxExecutionNanos()
+  {
+    return maxExecutionNanos.get();
+  }
+
+}
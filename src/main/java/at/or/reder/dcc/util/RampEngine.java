@@ -0,0 +1,398 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import at.or.reder.dcc.Direction;
+import at.or.reder.dcc.Locomotive;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.validation.constraints.NotNull;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs speed ramps for any number of locos from one periodic tick.
+ * <p>
+ * Each tick evaluates the {@link RampProfile.Ramp} of every active ramp and sends a speed command only if the speed
+ * differs from the last one sent. The tick task only runs while ramps are active. Starting a ramp for a loco replaces
+ * its running ramp, the future of the replaced ramp is cancelled. A ramp reversing a moving loco first brakes to 0 in the
+ * old direction and then accelerates in the new one.
+ *
+ * @author Wolfgang Reder
+ */
+public final class RampEngine
+{
+
+  /**
+   * Receives the speed commands of a ramp. Matches {@link Locomotive#control(at.or.reder.dcc.Direction, int) } and
+   * {@code at.or.reder.zcan20.Loco.control}.
+   */
+  @FunctionalInterface
+  public static interface SpeedControl
+  {
+
+    public void control(Direction dir,
+                        int speed) throws IOException;
+
+  }
+
+  private final class ActiveRamp
+  {
+
+    private final Object key;
+    private final SpeedControl control;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    // all fields below are only accessed by the tick task after construction
+    private Direction direction;
+    private RampProfile.Ramp ramp;
+    private int target;
+    private long startNanos = System.nanoTime();
+    private int lastSpeed;
+    // second phase after a stop for a change of direction
+    private final Direction nextDirection;
+    private final int nextTarget;
+    private RampProfile nextProfile;
+
+    private ActiveRamp(Object key,
+                       SpeedControl control,
+                       Direction direction,
+                       RampProfile.Ramp ramp,
+                       int target,
+                       int lastSpeed,
+                       Direction nextDirection,
+                       int nextTarget,
+                       RampProfile nextProfile)
+    {
+      this.key = key;
+      this.control = control;
+      this.direction = direction;
+      this.ramp = ramp;
+      this.target = target;
+      this.lastSpeed = lastSpeed;
+      this.nextDirection = nextDirection;
+      this.nextTarget = nextTarget;
+      this.nextProfile = nextProfile;
+    }
+
+    private void tick(long now)
+    {
+      if (future.isDone()) {
+        ramps.remove(key,
+                     this);
+        return;
+      }
+      try {
+        int speed = ramp.speedAt(TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+        if (speed != lastSpeed) {
+          control.control(direction,
+                          speed);
+          lastSpeed = speed;
+        }
+        if (speed == target && nextProfile != null) {
+          // stopped, change the direction and start the second phase
+          direction = nextDirection;
+          ramp = nextProfile.start(0,
+                                   nextTarget);
+          target = nextTarget;
+          nextProfile = null;
+          startNanos = now;
+          // speed is 0 here
+          control.control(direction,
+                          speed);
+        }
+        if (speed == target) {
+          ramps.remove(key,
+                       this);
+          future.complete(null);
+        }
+      } catch (IOException | RuntimeException ex) {
+        ramps.remove(key,
+                     this);
+        future.completeExceptionally(ex);
+      }
+    }
+
+  }
+
+  private static RampEngine defaultEngine;
+
+  /**
+   * A shared engine ticking every 50ms.
+   *
+   * @return the shared engine.
+   */
+  public static synchronized RampEngine getDefault()
+  {
+    if (defaultEngine == null) {
+      defaultEngine = new RampEngine("RampEngine",
+                                     50);
+    }
+    return defaultEngine;
+  }
+
+  private final ConcurrentMap<Object, ActiveRamp> ramps = new ConcurrentHashMap<>();
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final RequestProcessor.Task tickTask;
+  private final int tickMillis;
+
+  /**
+   * Creates a new engine.
+   *
+   * @param name name of the thread running the ramps
+   * @param tickMillis interval between two speed commands of a ramp
+   */
+  public RampEngine(@NotNull String name,
+                    int tickMillis)
+  {
+    if (tickMillis < 1) {
+      throw new IllegalArgumentException("tickMillis < 1");
+    }
+    this.tickMillis = tickMillis;
+    tickTask = new RequestProcessor(Objects.requireNonNull(name,
+                                                           "name is null"),
+                                    1,
+                                    false,
+                                    false).create(this::onTick);
+  }
+
+  /**
+   * Starts a ramp for a locomotive. The ramp starts at the current speed and direction of {@code loco}.
+   *
+   * @param loco locomotive
+   * @param dir direction
+   * @param targetSpeed speed to reach
+   * @param profile shape of the ramp
+   * @return future completing when the target speed is sent
+   */
+  public CompletableFuture<Void> start(@NotNull Locomotive loco,
+                                       @NotNull Direction dir,
+                                       int targetSpeed,
+                                       @NotNull RampProfile profile)
+  {
+    Integer current = loco.getCurrentSpeed();
+    int startSpeed = current != null ? current : 0;
+    Direction currentDir = loco.getDirection();
+    if (currentDir == null) {
+      return start(loco,
+                   loco::control,
+                   dir,
+                   startSpeed,
+                   targetSpeed,
+                   profile,
+                   -1);
+    }
+    return start(loco,
+                 loco::control,
+                 currentDir,
+                 startSpeed,
+                 dir,
+                 targetSpeed,
+                 profile);
+  }
+
+  /**
+   * Starts a ramp. Only speeds different from {@code startSpeed} are sent.
+   *
+   * @param key identifies the loco, a running ramp with an equal key is replaced
+   * @param control receives the speed commands
+   * @param dir direction
+   * @param startSpeed current speed
+   * @param targetSpeed speed to reach
+   * @param profile shape of the ramp
+   * @return future completing when the target speed is sent
+   */
+  public CompletableFuture<Void> start(@NotNull Object key,
+                                       @NotNull SpeedControl control,
+                                       @NotNull Direction dir,
+                                       int startSpeed,
+                                       int targetSpeed,
+                                       @NotNull RampProfile profile)
+  {
+    return start(key,
+                 control,
+                 dir,
+                 startSpeed,
+                 targetSpeed,
+                 profile,
+                 startSpeed);
+  }
+
+  /**
+   * Starts a ramp that may change the direction. If {@code currentDir} differs from {@code dir}, the ramp brakes to 0
+   * in {@code currentDir} first and then accelerates to {@code targetSpeed} in {@code dir}.
+   *
+   * @param key identifies the loco, a running ramp with an equal key is replaced
+   * @param control receives the speed commands
+   * @param currentDir current direction
+   * @param startSpeed current speed
+   * @param dir direction
+   * @param targetSpeed speed to reach
+   * @param profile shape of the ramp
+   * @return future completing when the target speed is sent
+   */
+  public CompletableFuture<Void> start(@NotNull Object key,
+                                       @NotNull SpeedControl control,
+                                       @NotNull Direction currentDir,
+                                       int startSpeed,
+                                       @NotNull Direction dir,
+                                       int targetSpeed,
+                                       @NotNull RampProfile profile)
+  {
+    Objects.requireNonNull(currentDir,
+                           "currentDir is null");
+    if (currentDir == dir) {
+      return start(key,
+                   control,
+                   dir,
+                   startSpeed,
+                   targetSpeed,
+                   profile,
+                   startSpeed);
+    }
+    if (startSpeed == 0) {
+      // standing, only the direction has to be sent
+      return start(key,
+                   control,
+                   dir,
+                   0,
+                   targetSpeed,
+                   profile,
+                   -1);
+    }
+    Objects.requireNonNull(dir,
+                           "dir is null");
+    return start(key,
+                 control,
+                 currentDir,
+                 startSpeed,
+                 0,
+                 profile,
+                 startSpeed,
+                 dir,
+                 targetSpeed,
+                 profile);
+  }
+
+  private CompletableFuture<Void> start(Object key,
+                                        SpeedControl control,
+                                        Direction dir,
+                                        int startSpeed,
+                                        int targetSpeed,
+                                        RampProfile profile,
+                                        int lastSpeed)
+  {
+    return start(key,
+                 control,
+                 dir,
+                 startSpeed,
+                 targetSpeed,
+                 profile,
+                 lastSpeed,
+                 null,
+                 0,
+                 null);
+  }
+
+  private CompletableFuture<Void> start(Object key,
+                                        SpeedControl control,
+                                        Direction dir,
+                                        int startSpeed,
+                                        int targetSpeed,
+                                        RampProfile profile,
+                                        int lastSpeed,
+                                        Direction nextDirection,
+                                        int nextTarget,
+                                        RampProfile nextProfile)
+  {
+    Objects.requireNonNull(key,
+                           "key is null");
+    Objects.requireNonNull(control,
+                           "control is null");
+    Objects.requireNonNull(dir,
+                           "dir is null");
+    Objects.requireNonNull(profile,
+                           "profile is null");
+    ActiveRamp ramp = new ActiveRamp(key,
+                                     control,
+                                     dir,
+                                     profile.start(startSpeed,
+                                                   targetSpeed),
+                                     targetSpeed,
+                                     lastSpeed,
+                                     nextDirection,
+                                     nextTarget,
+                                     nextProfile);
+    ActiveRamp old = ramps.put(key,
+                               ramp);
+    if (old != null) {
+      old.future.completeExceptionally(new CancellationException("replaced by a new ramp"));
+    }
+    if (running.compareAndSet(false,
+                              true)) {
+      tickTask.schedule(0);
+    }
+    return ramp.future;
+  }
+
+  /**
+   * Stops the ramp of {@code key}. The last speed sent is kept.
+   *
+   * @param key identifies the loco
+   * @return {@code true} if a ramp was running
+   */
+  public boolean cancel(@NotNull Object key)
+  {
+    ActiveRamp ramp = ramps.remove(key);
+    if (ramp != null) {
+      ramp.future.cancel(false);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Number of running ramps.
+   *
+   * @return active ramps
+   */
+  public int getActiveCount()
+  {
+    return ramps.size();
+  }
+
+  private void onTick()
+  {
+    long now = System.nanoTime();
+    for (ActiveRamp ramp : ramps.values()) {
+      ramp.tick(now);
+    }
+    if (!ramps.isEmpty()) {
+      tickTask.schedule(tickMillis);
+    } else {
+      running.set(false);
+      if (!ramps.isEmpty() && running.compareAndSet(false,
+                                                    true)) {
+        tickTask.schedule(0);
+      }
+    }
+  }
+
+}
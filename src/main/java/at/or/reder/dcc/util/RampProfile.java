@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Shape of a speed ramp run by {@link RampEngine}.
+ *
+ * @author Wolfgang Reder
+ */
+@FunctionalInterface
+public interface RampProfile
+{
+
+  /**
+   * State of one running ramp. Only called by the tick of the engine.
+   */
+  @FunctionalInterface
+  public static interface Ramp
+  {
+
+    /**
+     * Speed at {@code elapsedMillis} after the start. The ramp is finished as soon as the target speed is returned.
+     *
+     * @param elapsedMillis time since the start of the ramp, never decreasing
+     * @return speed
+     */
+    public int speedAt(long elapsedMillis);
+
+  }
+
+  /**
+   * Creates the state of a new ramp.
+   *
+   * @param startSpeed current speed
+   * @param targetSpeed speed to reach
+   * @return ramp
+   */
+  public Ramp start(int startSpeed,
+                    int targetSpeed);
+
+  /**
+   * Changes the speed at a constant rate.
+   *
+   * @param stepsPerSecond rate
+   * @return profile
+   */
+  public static RampProfile linear(double stepsPerSecond)
+  {
+    if (!(stepsPerSecond > 0)) {
+      throw new IllegalArgumentException("stepsPerSecond <= 0");
+    }
+    return (start, target) -> (elapsed) -> {
+      double delta = Math.min(Math.abs(target - start),
+                              stepsPerSecond * elapsed / 1000);
+      return (int) Math.round(start + Math.signum(target - start) * delta);
+    };
+  }
+
+  /**
+   * Starts and ends smoothly ({@code 3t²-2t³}). The ramp takes as long as a linear ramp with the same average rate, the
+   * rate in the middle is 1.5 times the average.
+   *
+   * @param averageStepsPerSecond average rate
+   * @return profile
+   */
+  public static RampProfile sCurve(double averageStepsPerSecond)
+  {
+    if (!(averageStepsPerSecond > 0)) {
+      throw new IllegalArgumentException("averageStepsPerSecond <= 0");
+    }
+    return (start, target) -> {
+      double duration = Math.abs(target - start) * 1000 / averageStepsPerSecond;
+      return (elapsed) -> {
+        if (elapsed >= duration) {
+          return target;
+        }
+        double t = elapsed / duration;
+        return (int) Math.round(start + (target - start) * t * t * (3 - 2 * t));
+      };
+    };
+  }
+
+  /**
+   * Brakes to stop at a given distance. The distance travelled is integrated from the speed sent, so
+   * {@code distancePerStepSecond} must match the speed curve of the decoder.
+   *
+   * @param distance distance to the stop point
+   * @param distancePerStepSecond distance travelled in one second at speed 1
+   * @param remaining remaining distances, ascending
+   * @param speeds maximum speed at the corresponding remaining distance, interpolated linearly between the entries
+   * @return profile
+   */
+  public static RampProfile brakingTable(double distance,
+                                         double distancePerStepSecond,
+                                         @NotNull double[] remaining,
+                                         @NotNull int[] speeds)
+  {
+    if (remaining.length == 0 || remaining.length != speeds.length) {
+      throw new IllegalArgumentException("illegal table size");
+    }
+    for (int i = 1; i < remaining.length; ++i) {
+      if (remaining[i] <= remaining[i - 1]) {
+        throw new IllegalArgumentException("remaining not ascending");
+      }
+    }
+    double[] tableRemaining = remaining.clone();
+    int[] tableSpeeds = speeds.clone();
+    return (start, target) -> new Ramp()
+    {
+      private final int min = Math.min(start,
+                                       target);
+      private final int max = Math.max(start,
+                                       target);
+      private double travelled;
+      private long lastElapsed;
+      private int current = start;
+
+      @Override
+      public int speedAt(long elapsed)
+      {
+        travelled += current * distancePerStepSecond * (elapsed - lastElapsed) / 1000;
+        lastElapsed = elapsed;
+        double rest = distance - travelled;
+        if (rest <= 0) {
+          current = target;
+        } else {
+          current = Math.max(min,
+                             Math.min(max,
+                                      speedAtRemaining(rest)));
+        }
+        return current;
+      }
+
+      private int speedAtRemaining(double rest)
+      {
+        int last = tableRemaining.length - 1;
+        if (rest <= tableRemaining[0]) {
+          return tableSpeeds[0];
+        } else if (rest >= tableRemaining[last]) {
+          return tableSpeeds[last];
+        }
+        int i = 0;
+        while (tableRemaining[i + 1] < rest) {
+          ++i;
+        }
+        double f = (rest - tableRemaining[i]) / (tableRemaining[i + 1] - tableRemaining[i]);
+        return (int) Math.round(tableSpeeds[i] + (tableSpeeds[i + 1] - tableSpeeds[i]) * f);
+      }
+
+    };
+  }
+
+}
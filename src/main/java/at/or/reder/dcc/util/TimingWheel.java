@@ -0,0 +1,293 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Hashed timing wheel for large numbers of short, mostly cancelled timeouts.
+ *
+ * <p>
+ * Scheduling and cancelling are O(1) and lock free. Timeouts are sorted into {@code wheelSize} buckets of
+ * {@code tickMillis} each; one task advances the wheel and runs the expired timeouts. That task only runs while
+ * timeouts are pending. Expired tasks run on the wheel thread, so they must be short.</p>
+ *
+ * @author Wolfgang Reder
+ */
+public final class TimingWheel
+{
+
+  public static interface Timeout
+  {
+
+    /**
+     * Cancels this timeout.
+     *
+     * @return {@code true} if the task will not run because of this call.
+     */
+    public boolean cancel();
+
+    public boolean isExpired();
+
+    public boolean isCancelled();
+
+  }
+
+  private static final int STATE_PENDING = 0;
+  private static final int STATE_CANCELLED = 1;
+  private static final int STATE_EXPIRED = 2;
+  private static final AtomicIntegerFieldUpdater<TimeoutImpl> STATE = AtomicIntegerFieldUpdater.newUpdater(
+          TimeoutImpl.class,
+          "state");
+  private static TimingWheel defaultWheel;
+
+  private final class TimeoutImpl implements Timeout
+  {
+
+    private final Runnable task;
+    private final long deadline;
+    private long rounds;
+    volatile int state = STATE_PENDING;
+
+    private TimeoutImpl(Runnable task,
+                        long deadline)
+    {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public boolean cancel()
+    {
+      if (STATE.compareAndSet(this,
+                              STATE_PENDING,
+                              STATE_CANCELLED)) {
+        // the entry stays in its bucket until the wheel passes it
+        pending.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean isExpired()
+    {
+      return state == STATE_EXPIRED;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+      return state == STATE_CANCELLED;
+    }
+
+    private void expire()
+    {
+      if (STATE.compareAndSet(this,
+                              STATE_PENDING,
+                              STATE_EXPIRED)) {
+        pending.decrementAndGet();
+        try {
+          task.run();
+        } catch (Throwable th) {
+          DCCUtils.LOGGER.log(Level.SEVERE,
+                              "Error in timeout task",
+                              th);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * A shared wheel with a resolution of 10ms and a period of about 5s.
+   *
+   * @return the shared wheel.
+   */
+  public static synchronized TimingWheel getDefault()
+  {
+    if (defaultWheel == null) {
+      defaultWheel = new TimingWheel("TimingWheel",
+                                     10,
+                                     512);
+    }
+    return defaultWheel;
+  }
+
+  private final long tickNanos;
+  private final int mask;
+  private final List<TimeoutImpl>[] buckets;
+  private final Queue<TimeoutImpl> added = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final RequestProcessor.Task tickTask;
+  private final long startTime = System.nanoTime();
+  // only accessed by tickTask
+  private long tick;
+  private int inBuckets;
+
+  /**
+   * Creates a new wheel.
+   *
+   * @param name name of the thread driving the wheel
+   * @param tickMillis resolution
+   * @param wheelSize number of buckets, rounded up to a power of 2
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public TimingWheel(@NotNull String name,
+                     long tickMillis,
+                     int wheelSize)
+  {
+    if (tickMillis < 1) {
+      throw new IllegalArgumentException("tickMillis < 1");
+    }
+    if (wheelSize < 1 || wheelSize > (1 << 20)) {
+      throw new IllegalArgumentException("wheelSize out of range");
+    }
+    int size = Integer.highestOneBit(wheelSize);
+    if (size < wheelSize) {
+      size <<= 1;
+    }
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    this.mask = size - 1;
+    this.buckets = new List[size];
+    for (int i = 0; i < size; ++i) {
+      buckets[i] = new ArrayList<>();
+    }
+    tickTask = new RequestProcessor(Objects.requireNonNull(name,
+                                                           "name is null"),
+                                    1,
+                                    false,
+                                    false).create(this::onTick);
+  }
+
+  /**
+   * Runs {@code task} after {@code delay}. The task runs at most one tick late.
+   *
+   * @param task the task
+   * @param delay delay
+   * @param unit unit of {@code delay}
+   * @return handle to cancel the timeout
+   */
+  public Timeout schedule(@NotNull Runnable task,
+                          long delay,
+                          @NotNull TimeUnit unit)
+  {
+    Objects.requireNonNull(task,
+                           "task is null");
+    TimeoutImpl result = new TimeoutImpl(task,
+                                         System.nanoTime() + unit.toNanos(Math.max(0,
+                                                                                   delay)));
+    pending.incrementAndGet();
+    added.add(result);
+    if (running.compareAndSet(false,
+                              true)) {
+      tickTask.schedule(0);
+    }
+    return result;
+  }
+
+  /**
+   * Number of timeouts neither expired nor cancelled.
+   *
+   * @return pending timeouts
+   */
+  public int getPendingCount()
+  {
+    return pending.get();
+  }
+
+  private long tickOf(long nanos)
+  {
+    return (nanos - startTime) / tickNanos;
+  }
+
+  private void onTick()
+  {
+    final long now = System.nanoTime();
+    final long target = tickOf(now);
+    if (inBuckets == 0 && tick < target) {
+      // the wheel was idle, nothing to do for the ticks in between
+      tick = target;
+    }
+    while (tick <= target) {
+      transferAdded();
+      expireBucket(buckets[(int) (tick & mask)]);
+      ++tick;
+    }
+    if (inBuckets > 0 || !added.isEmpty()) {
+      long delay = TimeUnit.NANOSECONDS.toMillis(startTime + tick * tickNanos - System.nanoTime());
+      tickTask.schedule((int) Math.max(1,
+                                       delay));
+    } else {
+      running.set(false);
+      if (!added.isEmpty() && running.compareAndSet(false,
+                                                    true)) {
+        tickTask.schedule(0);
+      }
+    }
+  }
+
+  private void transferAdded()
+  {
+    TimeoutImpl t;
+    while ((t = added.poll()) != null) {
+      if (t.state != STATE_PENDING) {
+        continue;
+      }
+      // round up, a timeout must never fire early
+      long deadlineTick = Math.max(tick,
+                                   (t.deadline - startTime + tickNanos - 1) / tickNanos);
+      t.rounds = (deadlineTick - tick) / buckets.length;
+      buckets[(int) (deadlineTick & mask)].add(t);
+      ++inBuckets;
+    }
+  }
+
+  private void expireBucket(List<TimeoutImpl> bucket)
+  {
+    int w = 0;
+    final int size = bucket.size();
+    for (int r = 0; r < size; ++r) {
+      TimeoutImpl t = bucket.get(r);
+      if (t.state != STATE_PENDING) {
+        --inBuckets;
+      } else if (t.rounds <= 0) {
+        --inBuckets;
+        t.expire();
+      } else {
+        --t.rounds;
+        bucket.set(w++,
+                   t);
+      }
+    }
+    for (int i = size - 1; i >= w; --i) {
+      bucket.remove(i);
+    }
+  }
+
+}
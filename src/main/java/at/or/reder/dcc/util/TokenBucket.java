@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Token bucket limiting a rate of events with bursts up to the capacity of the bucket.
+ *
+ * @author Wolfgang Reder
+ */
+public final class TokenBucket
+{
+
+  private final double tokensPerNano;
+  private final double capacity;
+  private final LongSupplier clock;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Creates a full bucket.
+   *
+   * @param ratePerSecond tokens added per second
+   * @param capacity maximum number of tokens
+   */
+  public TokenBucket(double ratePerSecond,
+                     int capacity)
+  {
+    this(ratePerSecond,
+         capacity,
+         System::nanoTime);
+  }
+
+  /**
+   * Creates a full bucket.
+   *
+   * @param ratePerSecond tokens added per second
+   * @param capacity maximum number of tokens
+   * @param clock source of the current time in ns
+   */
+  public TokenBucket(double ratePerSecond,
+                     int capacity,
+                     @NotNull LongSupplier clock)
+  {
+    if (!(ratePerSecond > 0)) {
+      throw new IllegalArgumentException("ratePerSecond <= 0");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1");
+    }
+    this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.capacity = capacity;
+    this.clock = Objects.requireNonNull(clock,
+                                        "clock is null");
+    this.tokens = capacity;
+    this.lastRefill = clock.getAsLong();
+  }
+
+  private void refill()
+  {
+    long now = clock.getAsLong();
+    tokens = Math.min(capacity,
+                      tokens + (now - lastRefill) * tokensPerNano);
+    lastRefill = now;
+  }
+
+  /**
+   * Takes a token if one is available.
+   *
+   * @return {@code true} if a token was taken
+   */
+  public boolean tryAcquire()
+  {
+    return tryAcquire(1);
+  }
+
+  /**
+   * Takes {@code permits} tokens if they are available. More permits than the capacity are granted with a full bucket,
+   * the excess is taken as debt.
+   *
+   * @param permits number of tokens
+   * @return {@code true} if the tokens were taken
+   */
+  public synchronized boolean tryAcquire(int permits)
+  {
+    checkPermits(permits);
+    refill();
+    if (tokens >= Math.min(permits,
+                           capacity)) {
+      tokens -= permits;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Takes a token even if none is available. The debt, limited to the capacity, delays later callers of
+   * {@link #tryAcquire()}.
+   */
+  public void acquire()
+  {
+    acquire(1);
+  }
+
+  /**
+   * Takes {@code permits} tokens even if they are not available. The debt is limited like in {@link #acquire()}.
+   *
+   * @param permits number of tokens
+   */
+  public synchronized void acquire(int permits)
+  {
+    checkPermits(permits);
+    refill();
+    tokens = Math.max(-capacity,
+                      tokens - permits);
+  }
+
+  /**
+   * Time until {@link #tryAcquire()} succeeds.
+   *
+   * @return time in ns, {@code 0} if a token is available
+   */
+  public long getWaitNanos()
+  {
+    return getWaitNanos(1);
+  }
+
+  /**
+   * Time until {@link #tryAcquire(int)} succeeds.
+   *
+   * @param permits number of tokens
+   * @return time in ns, {@code 0} if the tokens are available
+   */
+  public synchronized long getWaitNanos(int permits)
+  {
+    checkPermits(permits);
+    refill();
+    double required = Math.min(permits,
+                               capacity);
+    if (tokens >= required) {
+      return 0;
+    }
+    return (long) Math.ceil((required - tokens) / tokensPerNano);
+  }
+
+  private static void checkPermits(int permits)
+  {
+    if (permits < 1) {
+      throw new IllegalArgumentException("permits < 1");
+    }
+  }
+
+  public synchronized double getTokens()
+  {
+    refill();
+    return tokens;
+  }
+
+}
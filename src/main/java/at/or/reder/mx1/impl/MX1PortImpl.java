@@ -15,6 +15,7 @@
  */
 package at.or.reder.mx1.impl;
 
+import at.or.reder.dcc.util.CRC;
 import at.or.reder.dcc.util.DCCUtils;
 import at.or.reder.mx1.MX1Command;
 import at.or.reder.mx1.MX1Packet;
@@ -278,11 +279,15 @@ final class MX1PortImpl implements MX1Port
     buffer.put((byte) packet.getCommand().getCmd());
     buffer.put(packet.getData());
     if (longFrame) {
-      buffer.putShort(DCCUtils.crc16((short) CRC_INIT,
-                                  buffer.slice().limit(buffer.position())));
+      buffer.putShort((short) CRC.CRC16.update(CRC_INIT,
+                                               buffer,
+                                               0,
+                                               buffer.position()));
     } else {
-      buffer.put(DCCUtils.crc8((byte) CRC_INIT,
-                            buffer.slice().limit(buffer.position())));
+      buffer.put((byte) CRC.CRC8.update(CRC_INIT,
+                                        buffer,
+                                        0,
+                                        buffer.position()));
     }
     return buffer.rewind();
   }
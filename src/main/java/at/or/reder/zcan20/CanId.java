@@ -25,24 +25,81 @@ import javax.validation.constraints.NotNull;
 public final class CanId extends Number
 {
 
+  private static final int CACHE_SIZE = 1024;
+  private static final CanId[] CACHE = new CanId[CACHE_SIZE];
   private final int value;
 
+  /**
+   * Returns the CanId for {@code val}. Instances are kept in a small direct mapped cache, so frequently used ids are
+   * not allocated again.
+   *
+   * @param val raw 29 bit id
+   * @return CanId
+   * @throws IllegalArgumentException if bit 28 is not set
+   */
   public static CanId valueOf(int val)
   {
-    return new CanId(val);
+    final int slot = (val ^ (val >>> 10) ^ (val >>> 18)) & (CACHE_SIZE - 1);
+    CanId result = CACHE[slot];
+    if (result == null || result.value != val) {
+      // racy by design, CanId is immutable and a lost update only costs an allocation
+      result = new CanId(val);
+      CACHE[slot] = result;
+    }
+    return result;
   }
 
   public static CanId valueOf(@NotNull CommandGroup group,
                               byte command,
                               @NotNull CommandMode mode,
                               short senderNid)
+  {
+    return valueOf(intValueOf(group,
+                              command,
+                              mode,
+                              senderNid));
+  }
+
+  /**
+   * Calculates the raw id without creating a CanId.
+   *
+   * @param group command group
+   * @param command command
+   * @param mode command mode
+   * @param senderNid sender
+   * @return raw 29 bit id
+   */
+  public static int intValueOf(@NotNull CommandGroup group,
+                               byte command,
+                               @NotNull CommandMode mode,
+                               short senderNid)
   {
     int result = 1 << 28;
     result |= (group.getMagic() & 0xf) << 24;
     result |= (command & 0x3f) << 18;
     result |= (mode.getMagic() & 0x3) << 16;
     result |= (senderNid & 0xffff);
-    return new CanId(result);
+    return result;
+  }
+
+  public static CommandGroup commandGroupOf(int canId)
+  {
+    return CommandGroup.valueOf((byte) ((canId >> 24) & 0x0f));
+  }
+
+  public static byte commandOf(int canId)
+  {
+    return (byte) ((canId >> 18) & 0x3f);
+  }
+
+  public static CommandMode commandModeOf(int canId)
+  {
+    return CommandMode.valueOfMagic((byte) ((canId >> 16) & 0x3));
+  }
+
+  public static short senderNidOf(int canId)
+  {
+    return (short) canId;
   }
 
   private CanId(int value)
@@ -55,22 +112,22 @@ public final class CanId extends Number
 
   public CommandGroup getCommandGroup()
   {
-    return CommandGroup.valueOf((byte) ((value >> 24) & 0x0f));
+    return commandGroupOf(value);
   }
 
   public byte getCommand()
   {
-    return (byte) ((value >> 18) & 0x3f);
+    return commandOf(value);
   }
 
   public CommandMode getCommandMode()
   {
-    return CommandMode.valueOfMagic((byte) ((value >> 16) & 0x3));
+    return commandModeOf(value);
   }
 
   public short getSenderNid()
   {
-    return (short) value;
+    return senderNidOf(value);
   }
 
   @Override
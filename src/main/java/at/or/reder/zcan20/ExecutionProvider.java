@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20;
+
+import java.util.concurrent.ExecutorService;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Supplies the threads a connection runs on. Implementations are registered with
+ * {@code @ServiceProvider(service = ExecutionProvider.class)} and selected by their name with the connection property
+ * {@link ZCANFactory#PROP_EXECUTOR}.
+ *
+ * @author Wolfgang Reder
+ */
+public interface ExecutionProvider
+{
+
+  /**
+   * Name used as value of {@link ZCANFactory#PROP_EXECUTOR}.
+   *
+   * @return name of the provider
+   */
+  public String getName();
+
+  /**
+   * Tests if the provider can be used on the current runtime.
+   *
+   * @return {@code true} if {@link #createExecutor(java.lang.String) } will succeed.
+   */
+  public boolean isAvailable();
+
+  /**
+   * Creates the executor for a connection. The packet reader, the listener lanes, the timers and asynchronous requests
+   * of the connection run on it. The packet reader occupies a thread as long as the connection is open and a listener
+   * may block while it waits for a response, so the executor must be able to run at least one task per listener lane
+   * besides the reader. A bounded executor should run rejected tasks in the submitting thread instead of dropping them.
+   * The connection never shuts the executor down, idle threads have to terminate by themselves and must not keep the
+   * VM alive.
+   *
+   * @param connectionName name of the connection, may be used to name threads.
+   * @return executor
+   */
+  public ExecutorService createExecutor(@NotNull String connectionName);
+
+}
@@ -17,9 +17,14 @@ package at.or.reder.zcan20;
 
 import at.or.reder.dcc.Direction;
 import at.or.reder.zcan20.packet.CVInfoAdapter;
+import at.or.reder.zcan20.util.Completions;
 import java.io.IOException;
+import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -47,6 +52,25 @@ public interface Loco extends AutoCloseable
 
   public Future<CVInfoAdapter> readCV(int cv) throws IOException;
 
+  /**
+   * Reads a CV without blocking. The stage fails with a {@link TimeoutException} if the decoder does not answer within
+   * {@code timeout}. The default implementation composes on the future returned by {@link #readCV(int)}, see
+   * {@link Completions#requestAsync(java.util.concurrent.Callable, long, java.util.concurrent.TimeUnit) }.
+   *
+   * @param cv cv to read
+   * @param timeout time to wait for the answer
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the value read.
+   */
+  public default CompletionStage<CVInfoAdapter> readCVAsync(int cv,
+                                                            long timeout,
+                                                            TimeUnit unit)
+  {
+    return Completions.requestAsync(() -> readCV(cv),
+                                    timeout,
+                                    unit);
+  }
+
   public void clearCV() throws IOException;
 
   public void control(Direction dir,
@@ -65,6 +89,51 @@ public interface Loco extends AutoCloseable
   public void setFunction(int iFunction,
                           int iFuncValue) throws IOException;
 
+  /**
+   * Sets several functions at once. Only the functions whose value differs from the last known state are sent, unknown
+   * functions are always sent. The default implementation compares with {@link #getFunction(int) } and calls
+   * {@link #setFunction(int, int) } for each changed function.
+   *
+   * @param functions function number to value, entries with {@code null} key or value are ignored
+   * @return number of packets sent
+   * @throws IOException on send error
+   * @throws IndexOutOfBoundsException if a function number is out of range
+   */
+  public default int setFunctions(Map<Integer, Integer> functions) throws IOException
+  {
+    int result = 0;
+    for (Map.Entry<Integer, Integer> e : functions.entrySet()) {
+      if (e.getKey() != null && e.getValue() != null && !e.getValue().equals(getFunction(e.getKey()))) {
+        setFunction(e.getKey(),
+                    e.getValue());
+        ++result;
+      }
+    }
+    return result;
+  }
+
   public void scanFunctions() throws IOException;
 
+  /**
+   * Reads the state of all functions. The requests are pipelined, only a few of them are in flight at the same time.
+   * Functions not answered within {@code timeout} are mapped to {@code null}.
+   *
+   * The default implementation calls {@link #scanFunctions() } and completes with {@link #getAllFunctions() } after
+   * {@code timeout}. No thread waits in between. Functions not answered are missing instead of mapped to {@code null}.
+   *
+   * @param timeout time to wait for each answer
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the state of all functions
+   */
+  public default CompletionStage<SortedMap<Integer, Integer>> scanFunctionsAsync(long timeout,
+                                                                                  TimeUnit unit)
+  {
+    return Completions.callAsync(() -> {
+      scanFunctions();
+      return null;
+    }).thenApplyAsync((v) -> getAllFunctions(),
+                      CompletableFuture.delayedExecutor(timeout,
+                                                        unit));
+  }
+
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20;
+
+/**
+ * What a {@link PacketPublisher} does with packets a subscriber has not requested yet, when its buffer is full.
+ *
+ * @author Wolfgang Reder
+ */
+public enum OverflowPolicy
+{
+  /**
+   * The oldest buffered packet is discarded.
+   */
+  DROP_OLDEST,
+  /**
+   * Only the latest packet of every CAN id is buffered. If the buffer is full with distinct ids, the packet of the
+   * oldest id is discarded.
+   */
+  CONFLATE,
+  /**
+   * The subscription is terminated with an {@link IllegalStateException}.
+   */
+  FAIL;
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20;
+
+import at.or.reder.zcan20.packet.DecoderResponsePacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.function.Predicate;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Publishes the received packets to subscribers at the rate they request them. Every subscriber has its own bounded
+ * buffer, a subscriber falling behind loses packets according to the {@link OverflowPolicy} of the publisher but never
+ * delays the connection or other listeners. Filters are applied before a packet is buffered.
+ *
+ * @author Wolfgang Reder
+ */
+public interface PacketPublisher extends Flow.Publisher<Packet>
+{
+
+  /**
+   * Creates a publisher delivering only the packets accepted by {@code filter} and by the filters of this publisher.
+   * The filter is called on the thread receiving the packets and must not block.
+   *
+   * @param filter the filter
+   * @return a new publisher
+   */
+  public PacketPublisher filter(@NotNull Predicate<? super Packet> filter);
+
+  public default PacketPublisher filter(@NotNull CommandGroup group)
+  {
+    Objects.requireNonNull(group,
+                           "group is null");
+    return filter((packet) -> packet.getCommandGroup() == group);
+  }
+
+  public default PacketPublisher filter(@NotNull PacketSelector selector)
+  {
+    Objects.requireNonNull(selector,
+                           "selector is null");
+    return filter(selector::matches);
+  }
+
+  /**
+   * Creates a publisher delivering only packets concerning the decoder {@code decoderId}.
+   *
+   * @param decoderId decoder address
+   * @return a new publisher
+   * @see DecoderResponsePacketAdapter
+   */
+  public default PacketPublisher filterDecoder(short decoderId)
+  {
+    return filter((packet) -> {
+      DecoderResponsePacketAdapter adapter = packet.getAdapter(DecoderResponsePacketAdapter.class);
+      return adapter != null && adapter.getDecoderId() == decoderId;
+    });
+  }
+
+}
@@ -27,4 +27,21 @@ public interface PacketSelector extends Predicate<PacketSelector>
 
   public boolean matches(Packet packet);
 
+  /**
+   * Matches the raw id and the dlc of a packet without looking at the packet itself. Only the information carried by
+   * the CAN id is available here, so command groups sharing the lower 4 bits of their magic cannot be told apart.
+   *
+   * The default implementation cannot decide anything from the id alone and answers {@code true}. A {@code true}
+   * result is therefore only a candidate, use {@link #matches(at.or.reder.zcan20.packet.Packet) } to decide.
+   *
+   * @param canId raw 29 bit id
+   * @param dlc length of the payload
+   * @return {@code false} if a packet with this id and dlc is never selected.
+   */
+  public default boolean matches(int canId,
+                                 int dlc)
+  {
+    return true;
+  }
+
 }
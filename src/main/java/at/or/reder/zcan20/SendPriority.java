@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20;
+
+/**
+ * Priority classes of outgoing packets. A packet of a class is only sent if all packets of higher classes are sent.
+ *
+ * @author Wolfgang Reder
+ */
+public enum SendPriority
+{
+  /**
+   * Emergency stops and power commands. Never delayed by the rate limit.
+   */
+  SAFETY,
+  /**
+   * Speed, function and accessory commands.
+   */
+  CONTROL,
+  /**
+   * Loco keepalives and network pings.
+   */
+  KEEPALIVE,
+  /**
+   * Programming, scans and data transfer.
+   */
+  BULK;
+
+}
@@ -17,7 +17,10 @@
 import at.or.reder.dcc.PowerPort;
 import at.or.reder.zcan20.packet.CVInfoAdapter;
 import at.or.reder.zcan20.packet.TSETrackModePacketAdapter;
+import at.or.reder.zcan20.util.Completions;
 import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public interface TrackConfig
@@ -25,9 +28,46 @@ public interface TrackConfig
 
   public void requestPowerPortMode(PowerPort port) throws IOException;
 
+  /**
+   * Queries the mode of {@code port} without blocking. The default implementation calls
+   * {@link #getPowerPortMode(at.or.reder.dcc.PowerPort, long) } on a pool thread.
+   *
+   * @param port port to query
+   * @param timeout time to wait for the answer
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the mode, or failing with a {@link TimeoutException}.
+   */
+  public default CompletionStage<TSETrackModePacketAdapter> getPowerPortModeAsync(PowerPort port,
+                                                                                  long timeout,
+                                                                                  TimeUnit unit)
+  {
+    return Completions.callAsync(() -> getPowerPortMode(port,
+                                                        unit.toMillis(timeout)));
+  }
+
   public TSETrackModePacketAdapter getPowerPortMode(PowerPort port,
                                                     long timeout) throws IOException, TimeoutException;
 
+  /**
+   * Sets the mode of {@code port} without blocking. The default implementation calls
+   * {@link #enterPowerMode(at.or.reder.dcc.PowerPort, byte, long) } on a pool thread.
+   *
+   * @param port port to change
+   * @param mode new mode
+   * @param timeout time to wait for the answer
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the new mode, or failing with a {@link TimeoutException}.
+   */
+  public default CompletionStage<TSETrackModePacketAdapter> enterPowerModeAsync(PowerPort port,
+                                                                                byte mode,
+                                                                                long timeout,
+                                                                                TimeUnit unit)
+  {
+    return Completions.callAsync(() -> enterPowerMode(port,
+                                                      mode,
+                                                      unit.toMillis(timeout)));
+  }
+
   public TSETrackModePacketAdapter enterPowerMode(PowerPort port,
                                                   byte mode,
                                                   long timeout) throws IOException, TimeoutException;
@@ -36,6 +76,35 @@ public interface TrackConfig
                       int cv,
                       short value) throws IOException;
 
+  /**
+   * Writes a CV without blocking. The default implementation calls {@link #writeCV(short, int, short, long) } on a
+   * pool thread.
+   *
+   * @param address decoder address
+   * @param cv cv to write
+   * @param value new value
+   * @param timeout time to wait for the acknowledge
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the acknowledge, or failing with a {@link TimeoutException}.
+   */
+  public default CompletionStage<CVInfoAdapter> writeCVAsync(short address,
+                                                             int cv,
+                                                             short value,
+                                                             long timeout,
+                                                             TimeUnit unit)
+  {
+    return Completions.callAsync(() -> {
+      CVInfoAdapter result = writeCV(address,
+                                     cv,
+                                     value,
+                                     unit.toMillis(timeout));
+      if (result == null) {
+        throw new TimeoutException("No response within timeout");
+      }
+      return result;
+    });
+  }
+
   public CVInfoAdapter writeCV(short address,
                                int cv,
                                short value,
@@ -15,8 +15,9 @@
  */
 package at.or.reder.zcan20;
 
+import at.or.reder.zcan20.util.Completions;
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -32,24 +33,32 @@ public interface ZAccessoryControl
                                        byte port,
                                        long timeout) throws IOException, TimeoutException
   {
-    Future<Byte> tmp = getAccessoryState(decoder,
-                                         port);
-    try {
-      Byte result = tmp.get(timeout,
-                            TimeUnit.MILLISECONDS);
-      if (result != null) {
-        return result;
-      }
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-    } catch (ExecutionException ex) {
-      if (ex.getCause() instanceof IOException) {
-        throw (IOException) ex.getCause();
-      } else {
-        throw new IOException(ex.getCause());
-      }
-    }
-    return -1;
+    Byte result = Completions.await(getAccessoryStateAsync(decoder,
+                                                           port,
+                                                           timeout,
+                                                           TimeUnit.MILLISECONDS));
+    return result != null ? result : -1;
+  }
+
+  /**
+   * Queries the state of an accessory port without blocking. The default implementation composes on the future
+   * returned by {@link #getAccessoryState(short, byte) }.
+   *
+   * @param decoder decoder address
+   * @param port port of the decoder
+   * @param timeout time to wait for the answer
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the state, or failing with a {@link TimeoutException}.
+   */
+  public default CompletionStage<Byte> getAccessoryStateAsync(short decoder,
+                                                              byte port,
+                                                              long timeout,
+                                                              TimeUnit unit)
+  {
+    return Completions.requestAsync(() -> getAccessoryState(decoder,
+                                                            port),
+                                    timeout,
+                                    unit);
   }
 
   public Future<Byte> getAccessoryState(short decoder,
@@ -64,25 +73,36 @@ public interface ZAccessoryControl
                                               byte state,
                                               long timeout) throws IOException, TimeoutException
   {
-    Future<Byte> tmp = setAccessoryStateChecked(decoder,
-                                                port,
-                                                state);
-    try {
-      Byte result = tmp.get(timeout,
-                            TimeUnit.MILLISECONDS);
-      if (result != null) {
-        return result;
-      }
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-    } catch (ExecutionException ex) {
-      if (ex.getCause() instanceof IOException) {
-        throw (IOException) ex.getCause();
-      } else {
-        throw new IOException(ex.getCause());
-      }
-    }
-    return -1;
+    Byte result = Completions.await(setAccessoryStateCheckedAsync(decoder,
+                                                                  port,
+                                                                  state,
+                                                                  timeout,
+                                                                  TimeUnit.MILLISECONDS));
+    return result != null ? result : -1;
+  }
+
+  /**
+   * Sets the state of an accessory port and completes with the state acknowledged by the decoder. The default
+   * implementation composes on the future returned by {@link #setAccessoryStateChecked(short, byte, byte) }.
+   *
+   * @param decoder decoder address
+   * @param port port of the decoder
+   * @param state new state
+   * @param timeout time to wait for the acknowledge
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the state, or failing with a {@link TimeoutException}.
+   */
+  public default CompletionStage<Byte> setAccessoryStateCheckedAsync(short decoder,
+                                                                     byte port,
+                                                                     byte state,
+                                                                     long timeout,
+                                                                     TimeUnit unit)
+  {
+    return Completions.requestAsync(() -> setAccessoryStateChecked(decoder,
+                                                                   port,
+                                                                   state),
+                                    timeout,
+                                    unit);
   }
 
   public Future<Byte> setAccessoryStateChecked(short decoder,
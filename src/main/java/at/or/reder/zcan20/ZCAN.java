@@ -17,8 +17,12 @@
 import at.or.reder.dcc.LinkState;
 import at.or.reder.dcc.LinkStateListener;
 import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.PacketAdapter;
 import at.or.reder.zcan20.packet.PacketBuilder;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import org.openide.util.Lookup;
@@ -63,6 +67,42 @@ public interface ZCAN extends AutoCloseable, Lookup.Provider
 
   public Predicate<Packet> getLocoDecoderPacketMatcher(int decoderAddress);
 
+  /**
+   * Sends {@code packet} and completes with the adapter of the first received packet accepted by {@code matcher}. No
+   * thread waits for the response. The stage fails with a {@link java.util.concurrent.TimeoutException} if no response
+   * arrives within {@code timeout}, and with an {@link IOException} if the packet cannot be sent or the connection is
+   * lost. Dependent stages run on the executor of the connection, never on the packet reader.
+   *
+   * The default implementation has no way to send and fails with an {@link UnsupportedOperationException}.
+   *
+   * @param <T> type of the response adapter
+   * @param packet packet to send
+   * @param matcher selects the response
+   * @param adapterClass adapter of the response
+   * @param timeout time to wait for the response
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the response
+   */
+  public default <T extends PacketAdapter> CompletionStage<T> sendReceiveAsync(Packet packet,
+                                                                               Predicate<? super Packet> matcher,
+                                                                               Class<? extends T> adapterClass,
+                                                                               long timeout,
+                                                                               TimeUnit unit)
+  {
+    return CompletableFuture.failedFuture(new UnsupportedOperationException("sendReceiveAsync"));
+  }
+
+  /**
+   * Creates a publisher of the received packets. Each subscriber gets its own buffer of {@code capacity} packets,
+   * {@code policy} decides what happens if it is full. Subscriptions are completed when the connection is closed.
+   *
+   * @param policy overflow policy of the subscriber buffers
+   * @param capacity capacity of the subscriber buffers
+   * @return a new publisher
+   */
+  public PacketPublisher createPacketPublisher(OverflowPolicy policy,
+                                               int capacity);
+
   @Override
   public default Lookup getLookup()
   {
@@ -35,6 +35,21 @@ public final class ZCANFactory
 
   public static final String PROP_NID = "at.or.reder.zcan20.nid";
   public static final String DEFAULT_NID = "c2ff";
+  /**
+   * Name of the {@link ExecutionProvider} of the connection. Builtin are {@code platform} (a thread pool per
+   * connection), {@code shared} (one thread pool for all connections) and {@code virtual} (a virtual thread per task,
+   * requires a runtime supporting virtual threads, {@code platform} is used otherwise).
+   */
+  public static final String PROP_EXECUTOR = "at.or.reder.zcan20.executor";
+  public static final String DEFAULT_EXECUTOR = "platform";
+  /**
+   * Packets per second sent to the link. Defaults to a value suitable for the transport.
+   */
+  public static final String PROP_SEND_RATE = "at.or.reder.zcan20.send.rate";
+  /**
+   * Number of packets sent back to back before the rate limit applies. Defaults to a value suitable for the transport.
+   */
+  public static final String PROP_SEND_BURST = "at.or.reder.zcan20.send.burst";
   public static final String PROP_PING_JITTER_LEVEL = "at.or.reder.zcan20.jitter.level";
   public static final int DEFAULT_PING_JITTER_LEVEL = 10;
   public static final int MAX_LOCO_FX = 32;
@@ -141,6 +156,20 @@ public final class ZCANFactory
             commandMode(canId.getCommandMode());
   }
 
+  /**
+   * Create a PacketBuilder preset with the fields of a raw CAN id.
+   *
+   * @param canId raw 29 bit id
+   * @return a new PacketBuilder
+   */
+  public static PacketBuilder createPacketBuilder(int canId)
+  {
+    return new DefaultPacketBuilder(CanId.senderNidOf(canId)).
+            command(CanId.commandOf(canId)).
+            commandGroup(CanId.commandGroupOf(canId)).
+            commandMode(CanId.commandModeOf(canId));
+  }
+
   public static short toLongAddress(short cv17,
                                     short cv18)
   {
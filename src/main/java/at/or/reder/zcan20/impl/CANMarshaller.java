@@ -15,7 +15,6 @@
  */
 package at.or.reder.zcan20.impl;
 
-import at.or.reder.zcan20.CanId;
 import at.or.reder.zcan20.ZCANFactory;
 import at.or.reder.zcan20.packet.Packet;
 import java.io.IOException;
@@ -39,7 +38,7 @@ public class CANMarshaller
    */
   public static int getRequiredBufferSize(@NotNull Packet packet)
   {
-    return PREFIX_LEN + packet.getData().remaining();
+    return PREFIX_LEN + packet.getDLC();
   }
 
   public static int marshalPacket(@NotNull Packet packet,
@@ -49,7 +48,7 @@ public class CANMarshaller
     ByteBuffer data = packet.getData();
     int dlc = data.remaining();
     buffer.limit(PREFIX_LEN + dlc);
-    buffer.putInt(packet.getCanId().intValue());
+    buffer.putInt(packet.getCanIdValue());
     buffer.put((byte) (dlc & 0x0f));
     buffer.put(data);
     return buffer.position();
@@ -61,12 +60,15 @@ public class CANMarshaller
     if (packetBytes.remaining() < PREFIX_LEN) {
       throw new IOException("Received ZCAN Packet too small");
     }
-    final int i = packetBytes.getInt();
-    CanId canId = CanId.valueOf(i);
+    final int canId = packetBytes.getInt();
+    if ((canId & (1 << 28)) == 0) {
+      throw new IOException("Invalid zimo can id");
+    }
     final int dlc = packetBytes.get() & 0xff;
     if (packetBytes.remaining() < dlc) {
       throw new IOException("Received ZCAN Packet too small");
     }
+    packetBytes.limit(packetBytes.position() + dlc);
     return ZCANFactory.createPacketBuilder(canId).
             data(packetBytes).
             build();
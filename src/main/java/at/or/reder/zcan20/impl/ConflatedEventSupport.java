@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.util.IntIndexedListenerSupport;
+import java.util.EventListener;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Listeners registered in conflated mode. Only the latest event of every loco is kept, each listener receives the locos
+ * changed since its last delivery at most once per interval. The event is created once per packet and shared by all
+ * listeners, a listener only costs one bit per changed loco. The interval is timed by a {@link TimingWheel}, the
+ * listeners are called on the executor of the connection.
+ *
+ * @param <L> listener type
+ * @param <E> event type
+ * @author Wolfgang Reder
+ */
+final class ConflatedEventSupport<L extends EventListener, E>
+{
+
+  private static final int NUM_LOCOS = ZCANFactory.LOCO_MAX + 1;
+
+  private static final class Registration<L, E> implements EventListener, Runnable
+  {
+
+    private final L listener;
+    private final BiConsumer<? super L, ? super E> deliverer;
+    private final AtomicReferenceArray<E> latest;
+    private final long intervalNanos;
+    private final AtomicLongArray dirty = new AtomicLongArray((NUM_LOCOS + 63) / 64);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final DeadlineTimer task;
+    private volatile long lastDelivery;
+
+    private Registration(L listener,
+                         BiConsumer<? super L, ? super E> deliverer,
+                         AtomicReferenceArray<E> latest,
+                         long intervalNanos,
+                         Executor executor,
+                         LocoKeepAlive.Scheduler scheduler)
+    {
+      this.listener = listener;
+      this.deliverer = deliverer;
+      this.latest = latest;
+      this.intervalNanos = intervalNanos;
+      this.task = new DeadlineTimer(this,
+                                    executor,
+                                    scheduler,
+                                    System::nanoTime);
+      lastDelivery = System.nanoTime() - intervalNanos;
+    }
+
+    private void mark(int loco)
+    {
+      int word = loco >> 6;
+      long bit = 1L << loco;
+      long current;
+      do {
+        current = dirty.get(word);
+      } while ((current & bit) == 0 && !dirty.compareAndSet(word,
+                                                            current,
+                                                            current | bit));
+      if (!scheduled.getAndSet(true)) {
+        long delay = lastDelivery + intervalNanos - System.nanoTime();
+        task.schedule(TimeUnit.NANOSECONDS.toMillis(delay));
+      }
+    }
+
+    private void cancel()
+    {
+      task.cancel();
+    }
+
+    // two runs may overlap on the executor, the listener must not be called concurrently
+    @Override
+    public synchronized void run()
+    {
+      // reset first, a loco marked during the delivery schedules the next run
+      scheduled.set(false);
+      lastDelivery = System.nanoTime();
+      for (int word = 0; word < dirty.length(); ++word) {
+        long bits = dirty.getAndSet(word,
+                                    0);
+        while (bits != 0) {
+          int loco = (word << 6) + Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+          E event = latest.get(loco);
+          if (event != null) {
+            deliver(event);
+          }
+        }
+      }
+    }
+
+    private void deliver(E event)
+    {
+      try {
+        deliverer.accept(listener,
+                         event);
+      } catch (Throwable th) {
+        ZCAN.LOGGER.log(Level.SEVERE,
+                        "Error in conflated event listener",
+                        th);
+      }
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Registration)) {
+        return false;
+      }
+      return listener.equals(((Registration<?, ?>) obj).listener);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return listener.hashCode();
+    }
+
+  }
+
+  private final BiConsumer<? super L, ? super E> deliverer;
+  private final Executor executor;
+  private final LocoKeepAlive.Scheduler scheduler;
+  private final AtomicReferenceArray<E> latest = new AtomicReferenceArray<>(NUM_LOCOS);
+  private final IntIndexedListenerSupport<Registration<L, E>> registrations;
+
+  @SuppressWarnings("unchecked")
+  ConflatedEventSupport(@NotNull BiConsumer<? super L, ? super E> deliverer,
+                        @NotNull Executor executor,
+                        @NotNull LocoKeepAlive.Scheduler scheduler)
+  {
+    this.deliverer = Objects.requireNonNull(deliverer,
+                                            "deliverer is null");
+    this.executor = Objects.requireNonNull(executor,
+                                           "executor is null");
+    this.scheduler = Objects.requireNonNull(scheduler,
+                                            "scheduler is null");
+    registrations = new IntIndexedListenerSupport<>(0,
+                                                    (n) -> (Registration<L, E>[]) new Registration<?, ?>[n]);
+  }
+
+  /**
+   * Registers {@code listener}. A listener registered twice for the same loco keeps its first interval.
+   *
+   * @param loco loco address, {@code 0} for all locos
+   * @param listener listener
+   * @param interval minimum time between two deliveries to {@code listener}
+   * @param unit unit of {@code interval}
+   */
+  void addEventListener(int loco,
+                        L listener,
+                        long interval,
+                        @NotNull TimeUnit unit)
+  {
+    if (listener != null) {
+      registrations.addEventListener(loco,
+                                     new Registration<>(listener,
+                                                        deliverer,
+                                                        latest,
+                                                        unit.toNanos(Math.max(0,
+                                                                              interval)),
+                                                        executor,
+                                                        scheduler));
+    }
+  }
+
+  void removeEventListener(int loco,
+                           L listener)
+  {
+    if (listener != null) {
+      for (Registration<L, E> r : registrations.getListener(loco)) {
+        if (r.listener.equals(listener) && registrations.removeEventListener(loco,
+                                                                             r)) {
+          r.cancel();
+        }
+      }
+    }
+  }
+
+  boolean hasListener(int loco)
+  {
+    return registrations.getListener(loco).length > 0;
+  }
+
+  /**
+   * Records {@code event} as the latest event of {@code loco}. Events of addresses outside of the loco range are
+   * delivered immediately.
+   *
+   * @param loco loco address
+   * @param event event
+   */
+  void offer(int loco,
+             E event)
+  {
+    Registration<L, E>[] regs = registrations.getListener(loco);
+    if (regs.length == 0) {
+      return;
+    }
+    if (loco < 0 || loco >= NUM_LOCOS) {
+      for (Registration<L, E> r : regs) {
+        r.deliver(event);
+      }
+      return;
+    }
+    latest.set(loco,
+               event);
+    for (Registration<L, E> r : regs) {
+      r.mark(loco);
+    }
+  }
+
+}
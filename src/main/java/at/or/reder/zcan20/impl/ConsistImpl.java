@@ -0,0 +1,267 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.Consist;
+import at.or.reder.dcc.Controller;
+import at.or.reder.dcc.DCCConstants;
+import at.or.reder.dcc.Direction;
+import at.or.reder.dcc.NotConnectedException;
+import at.or.reder.zcan20.LocoActive;
+import at.or.reder.zcan20.SpeedFlags;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Consist of a {@link MX10Control}. Commands for all members are sent with {@link ZCANImpl#doSendBatch(java.util.List)
+ * }, so they leave in as few datagrams as possible. The state of the members is read from the {@link LocoStateTable}
+ * of the connection. The members are kept alive by the {@link LocoKeepAlive} of the connection.
+ *
+ * @author Wolfgang Reder
+ */
+final class ConsistImpl implements Consist
+{
+
+  private static final Set<SpeedFlags> FORWARD = Set.of(SpeedFlags.FORWARD_TO_SYSTEM);
+  private static final Set<SpeedFlags> REVERSE = Set.of(SpeedFlags.REVERSE_TO_SYSTEM);
+  private final Controller controller;
+  private final Supplier<ZCANImpl> devices;
+  // guarded by this, value is the inversion flag
+  private final Map<Integer, Boolean> members = new LinkedHashMap<>();
+
+  /**
+   * Creates a consist.
+   *
+   * @param controller the controller creating the consist
+   * @param devices supplies the current connection of {@code controller}, {@code null} if not connected
+   */
+  ConsistImpl(@NotNull Controller controller,
+              @NotNull Supplier<ZCANImpl> devices)
+  {
+    this.controller = Objects.requireNonNull(controller,
+                                             "controller is null");
+    this.devices = Objects.requireNonNull(devices,
+                                          "devices is null");
+  }
+
+  private ZCANImpl getDevice() throws NotConnectedException
+  {
+    ZCANImpl device = devices.get();
+    if (device == null) {
+      throw new NotConnectedException();
+    }
+    return device;
+  }
+
+  private LocoStateTable getStateTable()
+  {
+    ZCANImpl device = devices.get();
+    return device != null ? device.getLocoStateTable() : null;
+  }
+
+  private synchronized Map<Integer, Boolean> getMemberSnapshot()
+  {
+    return new LinkedHashMap<>(members);
+  }
+
+  @Override
+  public Controller getController()
+  {
+    return controller;
+  }
+
+  @Override
+  public void addMember(int address,
+                        boolean inverted) throws IOException
+  {
+    if (address < 1 || address > ZCANFactory.LOCO_MAX) {
+      throw new IllegalArgumentException("address out of range");
+    }
+    synchronized (this) {
+      if (members.containsKey(address)) {
+        members.put(address,
+                    inverted);
+        return;
+      }
+    }
+    ZCANImpl device = getDevice();
+    device.doSendPacket(device.createPacketBuilder().buildLocoActivePacket((short) address,
+                                                                           LocoActive.ACTIVE).build());
+    synchronized (this) {
+      if (members.put(address,
+                      inverted) == null) {
+        device.getLocoKeepAlive().register((short) address);
+      }
+    }
+  }
+
+  @Override
+  public boolean removeMember(int address)
+  {
+    synchronized (this) {
+      if (members.remove(address) == null) {
+        return false;
+      }
+    }
+    release(address);
+    return true;
+  }
+
+  private void release(int address)
+  {
+    ZCANImpl device = devices.get();
+    if (device != null) {
+      device.getLocoKeepAlive().unregister((short) address);
+    }
+  }
+
+  @Override
+  public synchronized List<Integer> getMembers()
+  {
+    return List.copyOf(members.keySet());
+  }
+
+  @Override
+  public synchronized boolean isInverted(int address)
+  {
+    return members.getOrDefault(address,
+                                false);
+  }
+
+  private synchronized Integer getLead()
+  {
+    return members.isEmpty() ? null : members.keySet().iterator().next();
+  }
+
+  @Override
+  public void control(Direction dir,
+                      int speed) throws IOException
+  {
+    Objects.requireNonNull(dir,
+                           "dir is null");
+    ZCANImpl device = getDevice();
+    short s = (short) (Math.min(1023,
+                                speed) & 0x3ff);
+    Map<Integer, Boolean> snapshot = getMemberSnapshot();
+    List<Packet> packets = new ArrayList<>(snapshot.size());
+    for (Map.Entry<Integer, Boolean> e : snapshot.entrySet()) {
+      boolean forward = (dir == Direction.FORWARD) != e.getValue();
+      packets.add(device.createPacketBuilder().buildLocoSpeedPacket(e.getKey().shortValue(),
+                                                                    s,
+                                                                    forward ? FORWARD : REVERSE,
+                                                                    (short) 1));
+    }
+    device.doSendBatch(packets);
+  }
+
+  @Override
+  public Integer getCurrentSpeed()
+  {
+    Integer lead = getLead();
+    return lead != null ? getCurrentSpeed(lead) : null;
+  }
+
+  @Override
+  public Direction getDirection()
+  {
+    Integer lead = getLead();
+    return lead != null ? getDirection(lead) : null;
+  }
+
+  @Override
+  public Integer getCurrentSpeed(int address)
+  {
+    LocoStateTable table = getStateTable();
+    if (table == null) {
+      return null;
+    }
+    int speed = table.getSpeed(address);
+    return speed != LocoStateTable.UNKNOWN ? speed : null;
+  }
+
+  @Override
+  public Direction getDirection(int address)
+  {
+    LocoStateTable table = getStateTable();
+    if (table == null) {
+      return null;
+    }
+    Direction dir = table.getDirection(address);
+    if (dir != null && isInverted(address)) {
+      return dir == Direction.FORWARD ? Direction.REVERSE : Direction.FORWARD;
+    }
+    return dir;
+  }
+
+  @Override
+  public void setFunctions(Map<Integer, Integer> functions) throws IOException
+  {
+    Objects.requireNonNull(functions,
+                           "functions is null");
+    ZCANImpl device = getDevice();
+    LocoStateTable table = device.getLocoStateTable();
+    List<Packet> packets = new ArrayList<>();
+    for (Integer address : getMembers()) {
+      for (Map.Entry<Integer, Integer> e : functions.entrySet()) {
+        Integer iFunction = e.getKey();
+        Integer value = e.getValue();
+        if (iFunction == null || value == null) {
+          continue;
+        }
+        if (iFunction < 0 || iFunction >= DCCConstants.NUM_FUNCTION) {
+          throw new IndexOutOfBoundsException();
+        }
+        int state = table.getFunction(address,
+                                      iFunction);
+        if (state == LocoStateTable.UNKNOWN || state != (value != 0 ? 1 : 0)) {
+          packets.add(device.createPacketBuilder().buildLocoFunctionPacket(address.shortValue(),
+                                                                           iFunction.shortValue(),
+                                                                           value.shortValue()));
+        }
+      }
+    }
+    device.doSendBatch(packets);
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    List<Integer> released;
+    synchronized (this) {
+      released = List.copyOf(members.keySet());
+      members.clear();
+    }
+    for (Integer address : released) {
+      release(address);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Consist " + getMembers() + "@" + controller;
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.TimingWheel;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.validation.constraints.NotNull;
+
+/**
+ * A restartable task that runs on an executor after a delay measured by a {@link TimingWheel}.
+ * <p>
+ * Like {@code RequestProcessor.Task} every call of {@link #schedule(long) } replaces the previous deadline. Moving the
+ * deadline into the future does not touch the wheel, the pending timeout notices the new deadline when it expires and
+ * waits for the rest. So a timer pushed back on every packet costs no more than a field write. The task itself runs on
+ * the executor, never on the wheel thread; two runs may overlap if the task is scheduled again while it is running.
+ *
+ * @author Wolfgang Reder
+ */
+final class DeadlineTimer
+{
+
+  private final Runnable task;
+  private final Executor executor;
+  private final LocoKeepAlive.Scheduler scheduler;
+  private final LongSupplier clock;
+  // guarded by this
+  private long deadline;
+  private long timeoutDeadline;
+  private TimingWheel.Timeout timeout;
+  private int generation;
+
+  DeadlineTimer(@NotNull Runnable task,
+                @NotNull Executor executor,
+                @NotNull LocoKeepAlive.Scheduler scheduler,
+                @NotNull LongSupplier clock)
+  {
+    this.task = Objects.requireNonNull(task,
+                                       "task is null");
+    this.executor = Objects.requireNonNull(executor,
+                                           "executor is null");
+    this.scheduler = Objects.requireNonNull(scheduler,
+                                            "scheduler is null");
+    this.clock = Objects.requireNonNull(clock,
+                                        "clock is null");
+  }
+
+  /**
+   * Runs the task after {@code delayMillis}, a pending run is replaced. A delay {@code <= 0} posts the task to the
+   * executor at once.
+   *
+   * @param delayMillis delay in milliseconds
+   */
+  void schedule(long delayMillis)
+  {
+    synchronized (this) {
+      if (delayMillis > 0) {
+        deadline = clock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        if (timeout == null || deadline - timeoutDeadline < 0) {
+          cancelTimeout();
+          arm();
+        }
+        return;
+      }
+      cancelTimeout();
+    }
+    executor.execute(task);
+  }
+
+  /**
+   * Cancels a pending run. A run already passed to the executor is not affected.
+   */
+  synchronized void cancel()
+  {
+    cancelTimeout();
+  }
+
+  // guarded by this
+  private void cancelTimeout()
+  {
+    ++generation;
+    if (timeout != null) {
+      timeout.cancel();
+      timeout = null;
+    }
+  }
+
+  // guarded by this
+  private void arm()
+  {
+    final int gen = generation;
+    timeoutDeadline = deadline;
+    timeout = scheduler.schedule(() -> onTimeout(gen),
+                                 deadline - clock.getAsLong(),
+                                 TimeUnit.NANOSECONDS);
+  }
+
+  private void onTimeout(int gen)
+  {
+    synchronized (this) {
+      if (gen != generation) {
+        return;
+      }
+      timeout = null;
+      if (deadline - clock.getAsLong() > 0) {
+        arm();
+        return;
+      }
+      ++generation;
+    }
+    executor.execute(task);
+  }
+
+}
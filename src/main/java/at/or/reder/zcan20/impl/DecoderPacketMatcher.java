@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.CanId;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.packet.DecoderResponsePacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.function.Predicate;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Matches packets of one command group and command addressed to one decoder. The mode and the sender are ignored.
+ *
+ * Unlike a plain predicate this matcher declares its key, so {@link PacketListenerIndex} can find it without testing
+ * it against every packet.
+ *
+ * @author Wolfgang Reder
+ */
+final class DecoderPacketMatcher implements Predicate<Packet>
+{
+
+  static final int MASK = 0x1ffc0000;
+  private final int pattern;
+  private final short decoder;
+
+  DecoderPacketMatcher(@NotNull CommandGroup group,
+                       byte command,
+                       short decoder)
+  {
+    this.pattern = CanId.intValueOf(group,
+                                    command,
+                                    CommandMode.REQUEST,
+                                    (short) 0) & MASK;
+    this.decoder = decoder;
+  }
+
+  int getPattern()
+  {
+    return pattern;
+  }
+
+  short getDecoder()
+  {
+    return decoder;
+  }
+
+  @Override
+  public boolean test(Packet packet)
+  {
+    if ((packet.getCanIdValue() & MASK) != pattern) {
+      return false;
+    }
+    DecoderResponsePacketAdapter adapter = packet.getAdapter(DecoderResponsePacketAdapter.class);
+    return adapter != null && adapter.getDecoderId() == decoder;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = 5;
+    hash = 41 * hash + this.pattern;
+    hash = 41 * hash + this.decoder;
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final DecoderPacketMatcher other = (DecoderPacketMatcher) obj;
+    if (this.pattern != other.pattern) {
+      return false;
+    }
+    return this.decoder == other.decoder;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "DecoderPacketMatcher{" + "pattern=" + Integer.toHexString(pattern) + ", decoder=" + Integer.toHexString(
+            decoder & 0xffff) + '}';
+  }
+
+}
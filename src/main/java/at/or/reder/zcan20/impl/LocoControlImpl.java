@@ -49,7 +49,7 @@ public final class LocoControlImpl implements LocoControl
     // 1. abfrage fahrzeug mode LOCO.0x01.COMMAND
     Packet packet = zcan.createPacketBuilder().buildLocoModePacket(loco);
     LocoMode locoMode = zcan.sendReceive(packet,
-                                         LocoModePacketAdapter.SELECTOR::matches,
+                                         SelectorMatcher.of(LocoModePacketAdapter.SELECTOR),
                                          LocoModePacketAdapter.class,
                                          500);
     if (locoMode != null) {
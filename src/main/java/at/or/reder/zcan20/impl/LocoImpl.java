@@ -16,6 +16,7 @@
 package at.or.reder.zcan20.impl;
 
 import at.or.reder.dcc.DCCConstants;
+import at.or.reder.dcc.NotConnectedException;
 import at.or.reder.dcc.Direction;
 import at.or.reder.dcc.util.DCCUtils;
 import at.or.reder.zcan20.CommandGroup;
@@ -33,20 +34,26 @@ import at.or.reder.zcan20.packet.LocoFuncPacketAdapter;
 import at.or.reder.zcan20.packet.LocoModePacketAdapter;
 import at.or.reder.zcan20.packet.LocoSpeedPacketAdapter;
 import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.util.Completions;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import org.openide.util.Exceptions;
-import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -55,14 +62,89 @@ import org.openide.util.RequestProcessor;
 final class LocoImpl implements Loco
 {
 
+  /**
+   * Number of function requests in flight during a scan.
+   */
+  static final int MAX_SCAN_IN_FLIGHT = 4;
+
+  private final class FunctionScan
+  {
+
+    private final long timeout;
+    private final TimeUnit unit;
+    private final Integer[] values = new Integer[DCCConstants.NUM_FUNCTION];
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger(DCCConstants.NUM_FUNCTION);
+    private final CompletableFuture<SortedMap<Integer, Integer>> result = new CompletableFuture<>();
+
+    private FunctionScan(long timeout,
+                         TimeUnit unit)
+    {
+      this.timeout = timeout;
+      this.unit = unit;
+    }
+
+    private CompletionStage<SortedMap<Integer, Integer>> start()
+    {
+      for (int i = 0; i < MAX_SCAN_IN_FLIGHT; ++i) {
+        sendNext();
+      }
+      return result;
+    }
+
+    private void sendNext()
+    {
+      int fx = next.getAndIncrement();
+      if (fx >= DCCConstants.NUM_FUNCTION || result.isDone()) {
+        return;
+      }
+      Packet packet = zcan.createPacketBuilder().buildLocoFunctionPacket(loco,
+                                                                         (short) fx);
+      zcan.sendReceiveAsync(packet,
+                            (p) -> isFunctionResponse(p,
+                                                      fx),
+                            LocoFuncPacketAdapter.class,
+                            timeout,
+                            unit).
+              whenComplete((func, th) -> onResponse(fx,
+                                                    func,
+                                                    th));
+    }
+
+    private void onResponse(int fx,
+                            LocoFuncPacketAdapter func,
+                            Throwable th)
+    {
+      Throwable cause = th instanceof CompletionException ? th.getCause() : th;
+      if (cause != null && !(cause instanceof TimeoutException)) {
+        result.completeExceptionally(cause);
+        return;
+      }
+      if (func != null) {
+        values[fx] = func.getFxValue() & 0xffff;
+      }
+      if (remaining.decrementAndGet() == 0) {
+        SortedMap<Integer, Integer> map = new TreeMap<>();
+        for (int i = 0; i < values.length; ++i) {
+          map.put(i,
+                  values[i]);
+        }
+        result.complete(map);
+      } else {
+        sendNext();
+      }
+    }
+
+  }
+
   private final ZCANImpl zcan;
   private final LocoMode mode;
   private final short loco;
-  private final RequestProcessor.Task pingTask;
+  private final AtomicBoolean owned = new AtomicBoolean();
   private final PacketListener funcListener = this::onFuncPacket;
   private final PacketListener speedListener = this::onSpeedPacket;
-  private final Predicate<Packet> funcFilter = this::isFuncPacket;
-  private final Predicate<Packet> speedFilter = this::isSpeedPacket;
+  private final Predicate<Packet> funcFilter;
+  private final Predicate<Packet> speedFilter;
   private Integer _speed;
   private Direction _direction;
   private final SortedMap<Integer, Integer> _functions = new TreeMap<>();
@@ -75,13 +157,16 @@ final class LocoImpl implements Loco
     this.zcan = zcan;
     this.mode = mode;
     this.loco = loco;
+    funcFilter = new DecoderPacketMatcher(CommandGroup.LOCO,
+                                          CommandGroup.LOCO_FUNC_SWITCH,
+                                          loco);
+    speedFilter = new DecoderPacketMatcher(CommandGroup.LOCO,
+                                           CommandGroup.LOCO_SPEED,
+                                           loco);
     zcan.addPacketListener(speedFilter,
                            speedListener);
     zcan.addPacketListener(funcFilter,
                            funcListener);
-    RequestProcessor rp = zcan.getLookup().lookup(RequestProcessor.class);
-    pingTask = rp.create(this::sendLocoPing,
-                         true);
     for (int i = 0; i < DCCConstants.NUM_FUNCTION; ++i) {
       _functions.put(i,
                      null);
@@ -92,10 +177,36 @@ final class LocoImpl implements Loco
   @Override
   public void scanFunctions() throws IOException
   {
-    for (int i = 0; i < DCCConstants.NUM_FUNCTION; ++i) {
-      zcan.doSendPacket(zcan.createPacketBuilder().buildLocoFunctionPacket(loco,
-                                                                           (short) i));
+    if (!zcan.isOpen()) {
+      throw new NotConnectedException();
+    }
+    // the answers are collected by onFuncPacket
+    scanFunctionsAsync(ZCANImpl.DEFAULT_REQUEST_TIMEOUT,
+                       TimeUnit.MILLISECONDS).
+            exceptionally((th) -> {
+              ZCAN.LOGGER.log(Level.FINE,
+                              "Function scan of loco " + loco + " failed",
+                              th);
+              return null;
+            });
+  }
+
+  @Override
+  public CompletionStage<SortedMap<Integer, Integer>> scanFunctionsAsync(long timeout,
+                                                                          TimeUnit unit)
+  {
+    return new FunctionScan(timeout,
+                            unit).start();
+  }
+
+  private boolean isFunctionResponse(Packet packet,
+                                     int fx)
+  {
+    if (packet.getCommandMode() != CommandMode.ACK || !funcFilter.test(packet)) {
+      return false;
     }
+    LocoFuncPacketAdapter func = packet.getAdapter(LocoFuncPacketAdapter.class);
+    return func != null && (func.getFxNumber() & 0xffff) == fx;
   }
 
   private Object getLock()
@@ -115,7 +226,7 @@ final class LocoImpl implements Loco
             build();
     // 2. max.500ms auf antwort warten
     LocoActivePacketAdapter locoActive = zcan.sendReceive(packet,
-                                                          LocoActivePacketAdapter.SELECTOR::matches,
+                                                          SelectorMatcher.of(LocoActivePacketAdapter.SELECTOR),
                                                           LocoActivePacketAdapter.class,
                                                           500);
     if ((locoActive != null && locoActive.getState() != LocoActive.UNKNOWN) && !force) {
@@ -129,7 +240,7 @@ final class LocoImpl implements Loco
     // 3. abfrage fahrzeug mode LOCO.0x01.COMMAND
     packet = zcan.createPacketBuilder().buildLocoModePacket(loco);
     LocoMode locoMode = zcan.sendReceive(packet,
-                                         LocoModePacketAdapter.SELECTOR::matches,
+                                         SelectorMatcher.of(LocoModePacketAdapter.SELECTOR),
                                          LocoModePacketAdapter.class,
                                          500);
     if (locoMode != null) {
@@ -137,12 +248,24 @@ final class LocoImpl implements Loco
                       "Controlling Loco {0} with mode {1}",
                       new Object[]{loco, locoMode});
     }
+    if (owned.compareAndSet(false,
+                            true)) {
+      zcan.getLocoKeepAlive().register(loco);
+    }
+  }
+
+  private void releaseOwnership()
+  {
+    if (owned.compareAndSet(true,
+                            false)) {
+      zcan.getLocoKeepAlive().unregister(loco);
+    }
   }
 
   @Override
   public boolean isOwner()
   {
-    return !pingTask.isFinished();
+    return owned.get();
   }
 
   @Override
@@ -152,7 +275,7 @@ final class LocoImpl implements Loco
       if (owner) {
         takeOwnership(false);
       } else {
-        pingTask.cancel();
+        releaseOwnership();
       }
     }
   }
@@ -182,17 +305,13 @@ final class LocoImpl implements Loco
                                                                          LocoActive.ACTIVE).build());
     } catch (IOException ex) {
       Exceptions.printStackTrace(ex);
-    } finally {
-      pingTask.schedule(500);
     }
   }
 
   @Override
   public void close() throws IOException
   {
-    if (!pingTask.isFinished()) {
-      pingTask.cancel();
-    }
+    releaseOwnership();
     zcan.doSendPacket(zcan.createPacketBuilder().buildLocoActivePacket(loco,
                                                                        LocoActive.UNKNOWN).build());
     zcan.removePacketListener(funcFilter,
@@ -205,29 +324,34 @@ final class LocoImpl implements Loco
   public byte readCV(int cv,
                      int timeout) throws IOException, TimeoutException
   {
-    try {
-      Future<CVInfoAdapter> result = readCV(cv);
-      CVInfoAdapter adapter = result.get(timeout,
-                                         TimeUnit.MILLISECONDS);
-      return (byte) (adapter.getValue() & 0xff);
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-      throw new IOException(ex);
-    } catch (ExecutionException ex) {
-      throw new IOException(ex);
-    }
+    CVInfoAdapter adapter = Completions.await(readCVAsync(cv,
+                                                          timeout,
+                                                          TimeUnit.MILLISECONDS));
+    return (byte) (adapter.getValue() & 0xff);
   }
 
   @Override
   public Future<CVInfoAdapter> readCV(int cv) throws IOException
+  {
+    return readCVAsync(cv,
+                       ZCANImpl.DEFAULT_REQUEST_TIMEOUT,
+                       TimeUnit.MILLISECONDS).toCompletableFuture();
+  }
+
+  @Override
+  public CompletionStage<CVInfoAdapter> readCVAsync(int cv,
+                                                    long timeout,
+                                                    TimeUnit unit)
   {
     Packet packet = zcan.createPacketBuilder().buildReadCVPacket(zcan.getMasterNID(),
                                                                  loco,
                                                                  cv);
     sendLocoPing();
-    return zcan.doSendPacket(packet,
-                             CVInfoAdapter.SELECTOR::matches,
-                             CVInfoAdapter.class);
+    return zcan.sendReceiveAsync(packet,
+                                 SelectorMatcher.of(CVInfoAdapter.SELECTOR),
+                                 CVInfoAdapter.class,
+                                 timeout,
+                                 unit);
   }
 
   @Override
@@ -284,15 +408,6 @@ final class LocoImpl implements Loco
     zcan.doSendPacket(zcan.createPacketBuilder().buildLocoSpeedPacket(loco));
   }
 
-  private boolean isSpeedPacket(Packet packet)
-  {
-    if (packet.getCommandGroup() == CommandGroup.LOCO && packet.getCommand() == CommandGroup.LOCO_SPEED) {
-      LocoSpeedPacketAdapter speed = packet.getAdapter(LocoSpeedPacketAdapter.class);
-      return speed != null && speed.getDecoderId() == loco;
-    }
-    return false;
-  }
-
   private void onSpeedPacket(ZCAN sender,
                              Packet packet)
   {
@@ -345,13 +460,35 @@ final class LocoImpl implements Loco
     zcan.doSendPacket(packet);
   }
 
-  private boolean isFuncPacket(Packet packet)
+  @Override
+  public int setFunctions(Map<Integer, Integer> functions) throws IOException
   {
-    if (packet.getCommandGroup() == CommandGroup.LOCO && packet.getCommand() == CommandGroup.LOCO_FUNC_SWITCH) {
-      LocoFuncPacketAdapter func = packet.getAdapter(LocoFuncPacketAdapter.class);
-      return func != null && func.getDecoderId() == loco;
+    Objects.requireNonNull(functions,
+                           "functions is null");
+    int[] changed = new int[DCCConstants.NUM_FUNCTION];
+    int[] values = new int[DCCConstants.NUM_FUNCTION];
+    int numChanged = 0;
+    synchronized (getLock()) {
+      for (Map.Entry<Integer, Integer> e : functions.entrySet()) {
+        Integer iFunction = e.getKey();
+        Integer value = e.getValue();
+        if (iFunction == null || value == null) {
+          continue;
+        }
+        if (iFunction < 0 || iFunction >= DCCConstants.NUM_FUNCTION) {
+          throw new IndexOutOfBoundsException();
+        }
+        if (!value.equals(_functions.get(iFunction))) {
+          changed[numChanged] = iFunction;
+          values[numChanged++] = value;
+        }
+      }
+    }
+    for (int i = 0; i < numChanged; ++i) {
+      setFunction(changed[i],
+                  values[i]);
     }
-    return false;
+    return numChanged;
   }
 
   private void onFuncPacket(ZCAN zcan,
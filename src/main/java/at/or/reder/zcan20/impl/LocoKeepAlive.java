@@ -0,0 +1,325 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Sends the {@code LOCO_ACTIVE} keepalive for all locos owned by a connection.
+ * <p>
+ * The interval is split into {@value #NUM_SLOTS} slots driven by a {@link TimingWheel}, each loco is put into the slot
+ * with the fewest locos. A slot is visited once per interval and pings only locos without outgoing traffic since the
+ * last visit, so locos under active control are not pinged at all. A loco is pinged at the latest about two intervals
+ * after its last packet.
+ *
+ * @author Wolfgang Reder
+ */
+public final class LocoKeepAlive
+{
+
+  /**
+   * Sends the keepalive of one loco.
+   */
+  @FunctionalInterface
+  static interface Sender
+  {
+
+    public void sendPing(short loco) throws IOException;
+
+  }
+
+  /**
+   * Runs a task after a delay, usually {@link TimingWheel#schedule(java.lang.Runnable, long,
+   * java.util.concurrent.TimeUnit) }.
+   */
+  @FunctionalInterface
+  static interface Scheduler
+  {
+
+    public TimingWheel.Timeout schedule(Runnable task,
+                                        long delay,
+                                        TimeUnit unit);
+
+  }
+
+  public static final long INTERVAL_MS = 500;
+  public static final int NUM_SLOTS = 10;
+  private static final int NUM_LOCOS = ZCANFactory.LOCO_MAX + 1;
+  static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS);
+  static final long SLOT_NANOS = INTERVAL_NANOS / NUM_SLOTS;
+  private static final short[] EMPTY = new short[0];
+  private final Sender sender;
+  private final Scheduler scheduler;
+  private final Executor executor;
+  private final LongSupplier clock;
+  private final AtomicLongArray lastSent = new AtomicLongArray(NUM_LOCOS);
+  private final AtomicLong pingCount = new AtomicLong();
+  private final AtomicLong skipCount = new AtomicLong();
+  // guarded by this
+  private final int[] refCount = new int[NUM_LOCOS];
+  private final short[][] slots = new short[NUM_SLOTS][];
+  private int numLocos;
+  private boolean running;
+  private int generation;
+  private TimingWheel.Timeout timeout;
+  private int currentSlot;
+  private long nextDeadline;
+  // only accessed by the running slot task
+  private int pingsInCycle;
+  private volatile int pingsLastCycle;
+
+  LocoKeepAlive(@NotNull Sender sender,
+                @NotNull Scheduler scheduler,
+                @NotNull Executor executor,
+                @NotNull LongSupplier clock)
+  {
+    this.sender = Objects.requireNonNull(sender,
+                                         "sender is null");
+    this.scheduler = Objects.requireNonNull(scheduler,
+                                            "scheduler is null");
+    this.executor = Objects.requireNonNull(executor,
+                                           "executor is null");
+    this.clock = Objects.requireNonNull(clock,
+                                        "clock is null");
+    Arrays.fill(slots,
+                EMPTY);
+  }
+
+  /**
+   * Starts sending keepalives for {@code loco}. Registrations are counted, the pings stop after the last call to
+   * {@link #unregister(short)}.
+   *
+   * @param loco loco address
+   */
+  void register(short loco)
+  {
+    int address = loco & 0xffff;
+    if (address >= NUM_LOCOS) {
+      throw new IllegalArgumentException("loco out of range");
+    }
+    synchronized (this) {
+      if (refCount[address]++ == 0) {
+        int slot = 0;
+        for (int i = 1; i < NUM_SLOTS; ++i) {
+          if (slots[i].length < slots[slot].length) {
+            slot = i;
+          }
+        }
+        short[] tmp = Arrays.copyOf(slots[slot],
+                                    slots[slot].length + 1);
+        tmp[tmp.length - 1] = loco;
+        slots[slot] = tmp;
+        ++numLocos;
+        if (!running) {
+          running = true;
+          nextDeadline = clock.getAsLong();
+          schedule(++generation,
+                   0);
+        }
+      }
+    }
+  }
+
+  void unregister(short loco)
+  {
+    int address = loco & 0xffff;
+    if (address >= NUM_LOCOS) {
+      return;
+    }
+    synchronized (this) {
+      if (refCount[address] > 0 && --refCount[address] == 0) {
+        for (int s = 0; s < NUM_SLOTS; ++s) {
+          short[] slot = slots[s];
+          for (int i = 0; i < slot.length; ++i) {
+            if (slot[i] == loco) {
+              short[] tmp = new short[slot.length - 1];
+              System.arraycopy(slot,
+                               0,
+                               tmp,
+                               0,
+                               i);
+              System.arraycopy(slot,
+                               i + 1,
+                               tmp,
+                               i,
+                               tmp.length - i);
+              slots[s] = tmp;
+              --numLocos;
+              return;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops all keepalives.
+   */
+  synchronized void close()
+  {
+    Arrays.fill(refCount,
+                0);
+    Arrays.fill(slots,
+                EMPTY);
+    numLocos = 0;
+    if (timeout != null) {
+      timeout.cancel();
+      timeout = null;
+    }
+    running = false;
+  }
+
+  /**
+   * Called for every packet sent by the connection.
+   *
+   * @param packet outgoing packet
+   */
+  void onPacketSent(Packet packet)
+  {
+    if (packet.getCommandGroup() == CommandGroup.LOCO && packet.getDLC() >= 2) {
+      int address = packet.getData().getShort(0) & 0xffff;
+      if (address < NUM_LOCOS) {
+        lastSent.set(address,
+                     clock.getAsLong());
+      }
+    }
+  }
+
+  // guarded by this
+  private void schedule(int gen,
+                        long delayNanos)
+  {
+    // the wheel thread must not block, the pings are sent by the connection executor
+    timeout = scheduler.schedule(() -> executor.execute(() -> runSlot(gen)),
+                                 delayNanos,
+                                 TimeUnit.NANOSECONDS);
+  }
+
+  private void runSlot(int gen)
+  {
+    short[] locos;
+    synchronized (this) {
+      // a task of a previous start may still be running after close
+      if (!running || gen != generation) {
+        return;
+      }
+      locos = slots[currentSlot];
+    }
+    long now = clock.getAsLong();
+    for (short loco : locos) {
+      // half a slot of tolerance, a visit delayed by the executor must not cause a skip in the next cycle
+      if (now - lastSent.get(loco & 0xffff) < INTERVAL_NANOS - SLOT_NANOS / 2) {
+        skipCount.incrementAndGet();
+      } else {
+        sendPing(loco);
+      }
+    }
+    synchronized (this) {
+      if (!running || gen != generation) {
+        return;
+      }
+      if (++currentSlot == NUM_SLOTS) {
+        currentSlot = 0;
+        pingsLastCycle = pingsInCycle;
+        pingsInCycle = 0;
+      }
+      if (numLocos == 0) {
+        running = false;
+        timeout = null;
+        pingsLastCycle = 0;
+        pingsInCycle = 0;
+      } else {
+        nextDeadline += SLOT_NANOS;
+        schedule(gen,
+                 nextDeadline - clock.getAsLong());
+      }
+    }
+  }
+
+  private void sendPing(short loco)
+  {
+    try {
+      sender.sendPing(loco);
+      ++pingsInCycle;
+      pingCount.incrementAndGet();
+    } catch (IOException | RuntimeException ex) {
+      ZCAN.LOGGER.log(Level.WARNING,
+                      "Cannot send keepalive for loco " + loco,
+                      ex);
+    }
+  }
+
+  synchronized int getSlotLoad(int slot)
+  {
+    return slots[slot].length;
+  }
+
+  /**
+   * Number of locos receiving keepalives.
+   *
+   * @return number of locos
+   */
+  public synchronized int getLocoCount()
+  {
+    return numLocos;
+  }
+
+  /**
+   * Pings sent during the last complete interval, scaled to one second.
+   *
+   * @return pings per second
+   */
+  public double getPingRate()
+  {
+    return pingsLastCycle * 1000d / INTERVAL_MS;
+  }
+
+  /**
+   * Total number of pings sent.
+   *
+   * @return pings sent
+   */
+  public long getPingCount()
+  {
+    return pingCount.get();
+  }
+
+  /**
+   * Total number of pings not sent, because the loco had other traffic.
+   *
+   * @return pings skipped
+   */
+  public long getSkipCount()
+  {
+    return skipCount.get();
+  }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.DCCConstants;
+import at.or.reder.dcc.Direction;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.LocoActive;
+import at.or.reder.zcan20.LocoSpeed;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.LocoTachoPacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * State of all locos on the bus, collected from the speed, function, active and tacho packets passing by. Nothing is
+ * requested from the bus, the table only knows what other devices have sent. All values are kept in arrays indexed by
+ * the loco address, queries are O(1) and can be called from any thread.
+ * <p>
+ * The instance of a connection is available in its lookup.
+ *
+ * @author Wolfgang Reder
+ */
+public final class LocoStateTable
+{
+
+  public static final int UNKNOWN = -1;
+  private static final int NUM_LOCOS = ZCANFactory.LOCO_MAX + 1;
+  private static final int FUNCTION_MASK = (1 << DCCConstants.NUM_FUNCTION) - 1;
+  private static final int REVERSE = 0x800;
+  private final AtomicIntegerArray speedWord = createIntArray();
+  private final AtomicIntegerArray tachoSpeed = createIntArray();
+  private final AtomicIntegerArray owner = createIntArray();
+  private final AtomicIntegerArray functions = new AtomicIntegerArray(NUM_LOCOS);
+  private final AtomicIntegerArray knownFunctions = new AtomicIntegerArray(NUM_LOCOS);
+  private final AtomicLongArray lastSeen = new AtomicLongArray(NUM_LOCOS);
+
+  LocoStateTable()
+  {
+  }
+
+  private static AtomicIntegerArray createIntArray()
+  {
+    AtomicIntegerArray result = new AtomicIntegerArray(NUM_LOCOS);
+    for (int i = 0; i < NUM_LOCOS; ++i) {
+      result.set(i,
+                 UNKNOWN);
+    }
+    return result;
+  }
+
+  private static boolean isValid(int loco)
+  {
+    return loco >= 0 && loco < NUM_LOCOS;
+  }
+
+  void onPacket(ZCAN zcan,
+                Packet packet)
+  {
+    // the adapters only cover some of the modes, the payload is read directly to see commands of other throttles too
+    CommandGroup group = packet.getCommandGroup();
+    if (group == CommandGroup.LOCO) {
+      switch (packet.getCommand()) {
+        case CommandGroup.LOCO_SPEED:
+          onSpeedPacket(packet);
+          break;
+        case CommandGroup.LOCO_FUNC_SWITCH:
+          onFuncPacket(packet);
+          break;
+        case CommandGroup.LOCO_ACTIVE:
+          onActivePacket(packet);
+          break;
+        default:
+      }
+    } else if (group == CommandGroup.CONFIG && packet.getCommand() == CommandGroup.CONFIG_TACHO) {
+      onTachoPacket(packet);
+    }
+  }
+
+  private void onSpeedPacket(Packet packet)
+  {
+    if (packet.getDLC() >= 4) {
+      ByteBuffer data = packet.getData();
+      int loco = data.getShort(0) & 0xffff;
+      if (isValid(loco)) {
+        int word = data.getShort(2) & 0xffff;
+        // commands carry the direction to the system, acks and events the direction reported by the system
+        int reverse = packet.getCommandMode() == CommandMode.COMMAND ? 0x400 : 0x800;
+        // speed and direction are kept in one word, so readers never see them torn apart
+        speedWord.set(loco,
+                      (word & 0x3ff) | ((word & reverse) != 0 ? REVERSE : 0));
+        touch(loco,
+              packet);
+      }
+    }
+  }
+
+  private void onFuncPacket(Packet packet)
+  {
+    if (packet.getDLC() >= 6) {
+      ByteBuffer data = packet.getData();
+      int loco = data.getShort(0) & 0xffff;
+      int fx = data.getShort(2) & 0xffff;
+      if (isValid(loco) && fx < DCCConstants.NUM_FUNCTION) {
+        int bit = 1 << fx;
+        if (data.getShort(4) != 0) {
+          functions.getAndAccumulate(loco,
+                                     bit,
+                                     (a, b) -> a | b);
+        } else {
+          functions.getAndAccumulate(loco,
+                                     ~bit,
+                                     (a, b) -> a & b);
+        }
+        knownFunctions.getAndAccumulate(loco,
+                                        bit,
+                                        (a, b) -> a | b);
+        touch(loco,
+              packet);
+      }
+    }
+  }
+
+  private void onActivePacket(Packet packet)
+  {
+    if (packet.getDLC() >= 4) {
+      ByteBuffer data = packet.getData();
+      int loco = data.getShort(0) & 0xffff;
+      if (isValid(loco)) {
+        // the ack comes from the command station, only the command names the throttle taking the loco
+        if (packet.getCommandMode() == CommandMode.COMMAND
+                    && LocoActive.valueOfMagic(data.getShort(2)) != LocoActive.UNKNOWN) {
+          owner.set(loco,
+                    packet.getSenderNID() & 0xffff);
+        }
+        lastSeen.set(loco,
+                     System.currentTimeMillis());
+      }
+    }
+  }
+
+  private void onTachoPacket(Packet packet)
+  {
+    LocoTachoPacketAdapter adapter = packet.getAdapter(LocoTachoPacketAdapter.class);
+    if (adapter != null) {
+      int loco = adapter.getDecoderId() & 0xffff;
+      if (isValid(loco)) {
+        if (adapter instanceof LocoSpeed) {
+          tachoSpeed.set(loco,
+                         ((LocoSpeed) adapter).getSpeed() & 0xffff);
+        }
+        lastSeen.set(loco,
+                     System.currentTimeMillis());
+      }
+    }
+  }
+
+  private void touch(int loco,
+                     Packet packet)
+  {
+    if (packet.getCommandMode() == CommandMode.COMMAND) {
+      // commands are sent by the throttle controlling the loco
+      owner.set(loco,
+                packet.getSenderNID() & 0xffff);
+    }
+    lastSeen.set(loco,
+                 System.currentTimeMillis());
+  }
+
+  /**
+   * The last speed seen on the bus.
+   *
+   * @param loco loco address
+   * @return speed (0..1023) or {@link #UNKNOWN}
+   */
+  public int getSpeed(int loco)
+  {
+    if (!isValid(loco)) {
+      return UNKNOWN;
+    }
+    int word = speedWord.get(loco);
+    return word != UNKNOWN ? word & 0x3ff : UNKNOWN;
+  }
+
+  /**
+   * The last direction seen on the bus.
+   *
+   * @param loco loco address
+   * @return direction or {@code null} if unknown
+   */
+  public Direction getDirection(int loco)
+  {
+    if (!isValid(loco)) {
+      return null;
+    }
+    int word = speedWord.get(loco);
+    if (word == UNKNOWN) {
+      return null;
+    }
+    return (word & REVERSE) != 0 ? Direction.REVERSE : Direction.FORWARD;
+  }
+
+  /**
+   * The last speed reported by the tacho of the decoder.
+   *
+   * @param loco loco address
+   * @return speed or {@link #UNKNOWN}
+   */
+  public int getTachoSpeed(int loco)
+  {
+    return isValid(loco) ? tachoSpeed.get(loco) : UNKNOWN;
+  }
+
+  /**
+   * State of the functions as bitmask, bit {@code n} is function {@code Fn}.
+   *
+   * @param loco loco address
+   * @return functions switched on
+   * @see #getKnownFunctions(int)
+   */
+  public int getFunctions(int loco)
+  {
+    return isValid(loco) ? functions.get(loco) & FUNCTION_MASK : 0;
+  }
+
+  /**
+   * The functions seen on the bus at least once.
+   *
+   * @param loco loco address
+   * @return bitmask of the functions with a known state
+   */
+  public int getKnownFunctions(int loco)
+  {
+    return isValid(loco) ? knownFunctions.get(loco) : 0;
+  }
+
+  /**
+   * State of a single function.
+   *
+   * @param loco loco address
+   * @param function function number
+   * @return {@code 1} if on, {@code 0} if off, {@link #UNKNOWN} if never seen
+   */
+  public int getFunction(int loco,
+                         int function)
+  {
+    if (!isValid(loco) || function < 0 || function >= DCCConstants.NUM_FUNCTION) {
+      return UNKNOWN;
+    }
+    int bit = 1 << function;
+    if ((knownFunctions.get(loco) & bit) == 0) {
+      return UNKNOWN;
+    }
+    return (functions.get(loco) & bit) != 0 ? 1 : 0;
+  }
+
+  /**
+   * NID of the device that activated or last commanded the loco.
+   *
+   * @param loco loco address
+   * @return nid or {@link #UNKNOWN}
+   */
+  public int getOwner(int loco)
+  {
+    return isValid(loco) ? owner.get(loco) : UNKNOWN;
+  }
+
+  /**
+   * Time the loco was seen on the bus.
+   *
+   * @param loco loco address
+   * @return time in ms since the epoch, {@code 0} if never seen
+   */
+  public long getLastSeen(int loco)
+  {
+    return isValid(loco) ? lastSeen.get(loco) : 0;
+  }
+
+}
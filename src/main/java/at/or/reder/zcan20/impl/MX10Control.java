@@ -17,6 +17,7 @@ package at.or.reder.zcan20.impl;
 
 import at.or.reder.dcc.AccessoryEvent;
 import at.or.reder.dcc.AccessoryEventListener;
+import at.or.reder.dcc.Consist;
 import at.or.reder.dcc.Controller;
 import at.or.reder.dcc.LinkState;
 import at.or.reder.dcc.LinkStateListener;
@@ -33,6 +34,7 @@ import at.or.reder.dcc.PowerEventListener;
 import at.or.reder.dcc.PowerMode;
 import at.or.reder.dcc.PowerPort;
 import at.or.reder.dcc.impl.LocomotiveImpl;
+import at.or.reder.dcc.util.TimingWheel;
 import at.or.reder.zcan20.CommandGroup;
 import at.or.reder.zcan20.Loco;
 import at.or.reder.zcan20.LocoControl;
@@ -50,7 +52,7 @@ import at.or.reder.zcan20.packet.LocoSpeedPacketAdapter;
 import at.or.reder.zcan20.packet.LocoTachoPacketAdapter;
 import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.PowerInfoEx;
-import at.or.reder.zcan20.util.IndexedListenerSupport;
+import at.or.reder.zcan20.util.IntIndexedListenerSupport;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
@@ -61,6 +63,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -81,12 +84,25 @@ final class MX10Control implements Controller
   private final LinkStateListener myLinkStateListener = this::onLinkStateChanged;
   private final Set<PowerEventListener> powerEventListener = new CopyOnWriteArraySet<>();
   private final Set<AccessoryEventListener> accessoryEventListener = new CopyOnWriteArraySet<>();
-  private final IndexedListenerSupport<Integer, LocomotiveSpeedEventListener> locoSpeedEventListener
-                                                                                      = new IndexedListenerSupport<>(0);
-  private final IndexedListenerSupport<Integer, LocomotiveFuncEventListener> locoFuncEventListener
-                                                                                     = new IndexedListenerSupport<>(0);
-  private final IndexedListenerSupport<Integer, LocomotiveTachoEventListener> locoTachoEventListener
-                                                                                      = new IndexedListenerSupport<>(0);
+  private final IntIndexedListenerSupport<LocomotiveSpeedEventListener> locoSpeedEventListener
+                                                                           = new IntIndexedListenerSupport<>(0,
+                                                                                                             LocomotiveSpeedEventListener[]::new);
+  private final IntIndexedListenerSupport<LocomotiveFuncEventListener> locoFuncEventListener
+                                                                          = new IntIndexedListenerSupport<>(0,
+                                                                                                            LocomotiveFuncEventListener[]::new);
+  private final IntIndexedListenerSupport<LocomotiveTachoEventListener> locoTachoEventListener
+                                                                           = new IntIndexedListenerSupport<>(0,
+                                                                                                             LocomotiveTachoEventListener[]::new);
+  private final ConflatedEventSupport<LocomotiveSpeedEventListener, LocomotiveSpeedEvent> conflatedSpeedEventListener
+          = new ConflatedEventSupport<>(LocomotiveSpeedEventListener::onLocomotiveEvent,
+                                        this::executeConflated,
+                                        TimingWheel.getDefault()::schedule);
+  private final ConflatedEventSupport<LocomotiveTachoEventListener, LocomotiveTachoEvent> conflatedTachoEventListener
+          = new ConflatedEventSupport<>(LocomotiveTachoEventListener::onTachoEvent,
+                                        this::executeConflated,
+                                        TimingWheel.getDefault()::schedule);
+  // executor of the latest connection, it is never shut down, so pending conflated events outlive a close
+  private volatile Executor connectionExecutor = Runnable::run;
   private final PacketListener packetListener = this::onPacket;
   private final PropertyChangeSupport propSupport = new PropertyChangeSupport(this);
   private final InstanceContent ic = new InstanceContent();
@@ -146,6 +162,11 @@ final class MX10Control implements Controller
     }
   }
 
+  private void executeConflated(Runnable task)
+  {
+    connectionExecutor.execute(task);
+  }
+
   ZCANImpl getDevice()
   {
     synchronized (getLock()) {
@@ -186,6 +207,7 @@ final class MX10Control implements Controller
                               lock);
         ioTimeout = propertySet.getIntValue(connectionProperties,
                                             MX10PropertiesSet.PROP_IOTIMEOUT);
+        connectionExecutor = device.getExecutor();
         ic.add(device);
         device.addLinkStateListener(myLinkStateListener);
         device.addPacketListener(packetListener);
@@ -435,6 +457,16 @@ final class MX10Control implements Controller
     return result;
   }
 
+  @Override
+  public Consist createConsist() throws IOException
+  {
+    if (getDevice() == null) {
+      throw new NotConnectedException();
+    }
+    return new ConsistImpl(this,
+                           this::getDevice);
+  }
+
   @Override
   public Future<Byte> getAccessoryState(short decoder,
                                         byte port) throws IOException
@@ -526,12 +558,26 @@ final class MX10Control implements Controller
                                             listener);
   }
 
+  @Override
+  public void addLocomotiveSpeedEventListener(int address,
+                                              LocomotiveSpeedEventListener listener,
+                                              long minInterval,
+                                              TimeUnit unit)
+  {
+    conflatedSpeedEventListener.addEventListener(address,
+                                                 listener,
+                                                 minInterval,
+                                                 unit);
+  }
+
   @Override
   public void removeLocomotiveSpeedEventListener(int address,
                                                  LocomotiveSpeedEventListener listener)
   {
     locoSpeedEventListener.removeEventListener(address,
                                                listener);
+    conflatedSpeedEventListener.removeEventListener(address,
+                                                    listener);
   }
 
   private void dispatchLoco(Packet packet)
@@ -550,8 +596,9 @@ final class MX10Control implements Controller
   {
     LocoSpeedPacketAdapter apa = packet.getAdapter(LocoSpeedPacketAdapter.class);
     if (apa != null) {
-      Set<LocomotiveSpeedEventListener> listener = locoSpeedEventListener.getListener(apa.getDecoderId() & 0xffff);
-      if (!listener.isEmpty()) {
+      int address = apa.getDecoderId() & 0xffff;
+      LocomotiveSpeedEventListener[] listener = locoSpeedEventListener.getListener(address);
+      if (listener.length > 0 || conflatedSpeedEventListener.hasListener(address)) {
         LocomotiveSpeedEvent evt = new MX10LocoSpeedEventImpl(this,
                                                               null,
                                                               packet.getSenderNID() & 0xff,
@@ -559,6 +606,8 @@ final class MX10Control implements Controller
         for (LocomotiveSpeedEventListener l : listener) {
           l.onLocomotiveEvent(evt);
         }
+        conflatedSpeedEventListener.offer(address,
+                                          evt);
       }
     }
   }
@@ -583,8 +632,8 @@ final class MX10Control implements Controller
   {
     LocoFuncPacketAdapter apa = packet.getAdapter(LocoFuncPacketAdapter.class);
     if (apa != null) {
-      Set<LocomotiveFuncEventListener> listener = locoFuncEventListener.getListener(apa.getDecoderId() & 0xffff);
-      if (!listener.isEmpty()) {
+      LocomotiveFuncEventListener[] listener = locoFuncEventListener.getListener(apa.getDecoderId() & 0xffff);
+      if (listener.length > 0) {
         LocomotiveFuncEvent evt = new MX10LocoFuncEventImpl(this,
                                                             null,
                                                             packet.getSenderNID() & 0xff,
@@ -604,19 +653,34 @@ final class MX10Control implements Controller
                                             listener);
   }
 
+  @Override
+  public void addLocomotiveTachoEventListener(int loco,
+                                              LocomotiveTachoEventListener listener,
+                                              long minInterval,
+                                              TimeUnit unit)
+  {
+    conflatedTachoEventListener.addEventListener(loco,
+                                                 listener,
+                                                 minInterval,
+                                                 unit);
+  }
+
   @Override
   public void removeLocomotiveTachoEventListener(int loco,
                                                  LocomotiveTachoEventListener listener)
   {
     locoTachoEventListener.removeEventListener(loco,
                                                listener);
+    conflatedTachoEventListener.removeEventListener(loco,
+                                                    listener);
   }
 
   private void dispatchTachoPacket(LocoTachoPacketAdapter tachoPacket)
   {
     if (tachoPacket != null) {
-      Set<LocomotiveTachoEventListener> listener = locoTachoEventListener.getListener(tachoPacket.getDecoderId() & 0xffff);
-      if (!listener.isEmpty()) {
+      int address = tachoPacket.getDecoderId() & 0xffff;
+      LocomotiveTachoEventListener[] listener = locoTachoEventListener.getListener(address);
+      if (listener.length > 0 || conflatedTachoEventListener.hasListener(address)) {
         LocomotiveTachoEvent evt = new MX10LocoTachoEventImpl(this,
                                                               null,
                                                               tachoPacket.getPacket().getSenderNID() & 0xff,
@@ -624,6 +688,8 @@ final class MX10Control implements Controller
         for (LocomotiveTachoEventListener l : listener) {
           l.onTachoEvent(evt);
         }
+        conflatedTachoEventListener.offer(address,
+                                          evt);
       }
     }
   }
@@ -15,7 +15,6 @@
  */
 package at.or.reder.zcan20.impl;
 
-import at.or.reder.zcan20.CanId;
 import at.or.reder.zcan20.ZCANFactory;
 import at.or.reder.zcan20.packet.Packet;
 import java.io.IOException;
@@ -37,7 +36,7 @@ public class McastMarshaller
 
   public static int getRequiredBufferSize(@NotNull Packet packet)
   {
-    return PREFIX_LEN + packet.getData().remaining();
+    return PREFIX_LEN + packet.getDLC();
   }
 
   public static int marshalPacket(@NotNull Packet packet,
@@ -55,7 +54,7 @@ public class McastMarshaller
     buffer.putLong(instant.getEpochSecond());
     buffer.put((byte) intf);
     buffer.put((byte) 1); // extended packet
-    buffer.putInt(packet.getCanId().intValue());
+    buffer.putInt(packet.getCanIdValue());
     buffer.put(data);
     return buffer.position();
   }
@@ -71,13 +70,11 @@ public class McastMarshaller
     final long senconds = packetBytes.getLong();
     final int intf = packetBytes.get() & 0xff;
     final int flags = packetBytes.get() & 0xff;
-    final int a = packetBytes.getInt();
-    final CanId canId = CanId.valueOf(a);
-    return ZCANFactory.createPacketBuilder(canId.getSenderNid()).
-            senderNID(canId.getSenderNid()).
-            command(canId.getCommand()).
-            commandGroup(canId.getCommandGroup()).
-            commandMode(canId.getCommandMode()).
+    final int canId = packetBytes.getInt();
+    if ((canId & (1 << 28)) == 0) {
+      throw new IOException("Invalid zimo can id");
+    }
+    return ZCANFactory.createPacketBuilder(canId).
             data(packetBytes).
             build();
 
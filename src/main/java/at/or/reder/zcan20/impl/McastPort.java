@@ -15,6 +15,7 @@
  */
 package at.or.reder.zcan20.impl;
 
+import at.or.reder.dcc.NotConnectedException;
 import at.or.reder.dcc.util.BufferPool;
 import at.or.reder.dcc.util.CanIdMatcher;
 import at.or.reder.dcc.util.DCCUtils;
@@ -24,14 +25,21 @@ import at.or.reder.zcan20.CommandMode;
 import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.Ping;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
-import java.net.SocketTimeoutException;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.time.LocalDateTime;
+import java.util.Enumeration;
 import java.util.Objects;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
@@ -42,7 +50,7 @@ import java.util.logging.Logger;
  * @author Wolfgang Reder
  */
 @SuppressWarnings("ClassWithMultipleLoggers")
-public final class McastPort implements ZPort
+public final class McastPort implements SelectableZPort
 {
 
   public static final Logger READ_LOGGER = Logger.getLogger("at.or.reder.zcan.zport.read");
@@ -51,9 +59,11 @@ public final class McastPort implements ZPort
   public static final int SO_TRAFFIC = 0x14; // IPTOS_RELIABILITY (0x04),IPTOS_LOWDELAY (0x10)
   private final String name;
   private final InetSocketAddress outAddress;
-  private MulticastSocket socket;
+  private DatagramChannel channel;
+  private Selector readSelector;
   private final int mtu;
   private final BufferPool bufferPool;
+  private final ByteBuffer receiveBuffer;
 
   public McastPort(String address,
                    int remotePort) throws IOException
@@ -64,13 +74,16 @@ public final class McastPort implements ZPort
     outAddress = new InetSocketAddress(inetAddress,
                                        remotePort);
     bufferPool = new BufferPool(mtu,
-                                Runtime.getRuntime().availableProcessors());
+                                Runtime.getRuntime().availableProcessors(),
+                                true,
+                                BufferPool.DEFAULT_MAX_AGE);
+    receiveBuffer = ByteBuffer.allocateDirect(mtu);
   }
 
   private boolean isOpen()
   {
     synchronized (this) {
-      return socket != null;
+      return channel != null;
     }
   }
 
@@ -80,16 +93,63 @@ public final class McastPort implements ZPort
     return name;
   }
 
+  private static NetworkInterface getMulticastInterface(InetAddress group) throws SocketException
+  {
+    NetworkInterface loopback = null;
+    Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+    while (interfaces.hasMoreElements()) {
+      NetworkInterface intf = interfaces.nextElement();
+      if (intf.isUp() && intf.supportsMulticast() && !intf.isVirtual()) {
+        if (!intf.isLoopback()) {
+          return intf;
+        } else if (loopback == null) {
+          loopback = intf;
+        }
+      }
+    }
+    if (loopback == null) {
+      throw new SocketException("No multicast interface found for " + group);
+    }
+    return loopback;
+  }
+
   @Override
   public void start() throws IOException
   {
     synchronized (this) {
       if (!isOpen()) {
-        socket = null;
-        socket = new MulticastSocket(outAddress.getPort());
-        socket.joinGroup(outAddress.getAddress());
-        socket.setSoTimeout(SO_TIMEOUT);
-        socket.setTrafficClass(SO_TRAFFIC);
+        InetAddress group = outAddress.getAddress();
+        ProtocolFamily family = group instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+        DatagramChannel ch = DatagramChannel.open(family);
+        Selector sel = null;
+        try {
+          ch.setOption(StandardSocketOptions.SO_REUSEADDR,
+                       true);
+          ch.setOption(StandardSocketOptions.IP_TOS,
+                       SO_TRAFFIC);
+          ch.bind(new InetSocketAddress(outAddress.getPort()));
+          NetworkInterface intf = ch.getOption(StandardSocketOptions.IP_MULTICAST_IF);
+          if (intf == null) {
+            intf = getMulticastInterface(group);
+          }
+          ch.join(group,
+                  intf);
+          ch.configureBlocking(false);
+          sel = Selector.open();
+          ch.register(sel,
+                      SelectionKey.OP_READ);
+          channel = ch;
+          readSelector = sel;
+          ch = null;
+          sel = null;
+        } finally {
+          if (sel != null) {
+            sel.close();
+          }
+          if (ch != null) {
+            ch.close();
+          }
+        }
       }
     }
   }
@@ -98,8 +158,20 @@ public final class McastPort implements ZPort
   public void close() throws IOException
   {
     synchronized (this) {
-      socket.close();
-      socket = null;
+      if (channel != null) {
+        readSelector.wakeup();
+        try {
+          channel.close();
+        } finally {
+          try {
+            readSelector.close();
+          } finally {
+            channel = null;
+            readSelector = null;
+            bufferPool.close();
+          }
+        }
+      }
     }
   }
 
@@ -117,14 +189,16 @@ public final class McastPort implements ZPort
                                                    LocalDateTime.now(),
                                                    3,
                                                    buffer);
-      DatagramSocket s;
+      buffer.limit(numBytes);
+      DatagramChannel ch;
       synchronized (this) {
-        s = socket;
+        ch = channel;
       }
-      s.send(new DatagramPacket(buffer.array(),
-                                0,
-                                numBytes,
-                                outAddress));
+      if (ch == null) {
+        throw new NotConnectedException();
+      }
+      ch.send(buffer,
+              outAddress);
     }
   }
 
@@ -141,44 +215,75 @@ public final class McastPort implements ZPort
                                                   ' ');
                        return builder.toString();
                      });
-    DatagramSocket s;
+    DatagramChannel ch;
     synchronized (this) {
-      s = socket;
+      ch = channel;
+    }
+    if (ch == null) {
+      throw new NotConnectedException();
     }
-    s.send(new DatagramPacket(buffer.array(),
-                              0,
-                              buffer.remaining(),
-                              outAddress));
+    ch.send(buffer.duplicate(),
+            outAddress);
   }
 
   @Override
   public Packet readPacket() throws IOException
   {
-    try (BufferPool.BufferItem item = bufferPool.getBuffer()) {
-      ByteBuffer buffer = item.getBuffer();
-      DatagramPacket packet = new DatagramPacket(buffer.array(),
-                                                 buffer.capacity());
-      DatagramSocket s;
-      synchronized (this) {
-        s = socket;
-      }
-      try {
-        s.receive(packet);
-      } catch (SocketTimeoutException ex) {
+    DatagramChannel ch;
+    Selector sel;
+    synchronized (this) {
+      ch = channel;
+      sel = readSelector;
+    }
+    if (ch == null) {
+      throw new NotConnectedException();
+    }
+    receiveBuffer.clear();
+    if (ch.receive(receiveBuffer) == null) {
+      sel.select(SO_TIMEOUT);
+      sel.selectedKeys().clear();
+      if (ch.receive(receiveBuffer) == null) {
         READ_LOGGER.log(Level.FINE,
-                        "Packet Timeout",
-                        ex);
+                        "Packet Timeout");
         return null;
       }
-      ByteBuffer packetBytes = ByteBuffer.wrap(packet.getData());
-      packetBytes.limit(packet.getLength() + packet.getOffset());
-      packetBytes.position(packet.getOffset());
-      Packet result = McastMarshaller.unmarshalPacket(packetBytes);
-      READ_LOGGER.log(Level.FINEST,
-                      "Reading {0}",
-                      result.toString());
-      return result;
     }
+    return unmarshalReceived();
+  }
+
+  @Override
+  public SelectableChannel getChannel()
+  {
+    synchronized (this) {
+      return channel;
+    }
+  }
+
+  @Override
+  public Packet receivePacket() throws IOException
+  {
+    DatagramChannel ch;
+    synchronized (this) {
+      ch = channel;
+    }
+    if (ch == null) {
+      throw new NotConnectedException();
+    }
+    receiveBuffer.clear();
+    if (ch.receive(receiveBuffer) == null) {
+      return null;
+    }
+    return unmarshalReceived();
+  }
+
+  private Packet unmarshalReceived() throws IOException
+  {
+    receiveBuffer.flip();
+    Packet result = McastMarshaller.unmarshalPacket(receiveBuffer);
+    READ_LOGGER.log(Level.FINEST,
+                    "Reading {0}",
+                    result);
+    return result;
   }
 
   @Override
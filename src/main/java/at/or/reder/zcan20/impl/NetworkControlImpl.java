@@ -20,7 +20,6 @@ import static at.or.reder.zcan20.ZCAN.LOGGER;
 import java.io.IOException;
 import java.util.Random;
 import java.util.logging.Level;
-import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -30,7 +29,7 @@ final class NetworkControlImpl implements NetworkControl, AutoCloseable
 {
 
   private final ZCANImpl zcan;
-  private volatile RequestProcessor.Task ownerPing;
+  private volatile DeadlineTimer ownerPing;
   private volatile int ownerPingIntervall = 5000;
   private volatile int ownerPingJitter = 100;
   private final Random jitterRandom = new Random();
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.CanIdMatcher;
+import at.or.reder.zcan20.PacketListener;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.packet.DecoderResponsePacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Registry of filtered packet listeners.
+ *
+ * Listeners whose matcher declares a mask and a pattern ({@link CanIdMatcher}, {@link DecoderPacketMatcher} and
+ * {@link SelectorMatcher} over {@link PacketSelectorImpl}) are kept in hash tables, one per distinct mask. A packet
+ * only visits the listeners stored under its own key, so the cost of a dispatch depends on the number of listeners
+ * interested in the packet, not on the number of registered listeners. All other matchers are tested one by one.
+ *
+ * The registry is copy on write. Registering is expensive, dispatching needs neither locks nor allocation.
+ *
+ * @author Wolfgang Reder
+ */
+final class PacketListenerIndex
+{
+
+  private static final class Entry
+  {
+
+    private final Predicate<? super Packet> matcher;
+    private final PacketListener listener;
+
+    private Entry(Predicate<? super Packet> matcher,
+                  PacketListener listener)
+    {
+      this.matcher = matcher;
+      this.listener = listener;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int hash = 7;
+      hash = 67 * hash + Objects.hashCode(this.listener);
+      hash = 67 * hash + Objects.hashCode(this.matcher);
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (getClass() != obj.getClass()) {
+        return false;
+      }
+      final Entry other = (Entry) obj;
+      if (!Objects.equals(this.listener,
+                          other.listener)) {
+        return false;
+      }
+      return Objects.equals(this.matcher,
+                            other.matcher);
+    }
+
+  }
+
+  /**
+   * Open addressing table for one mask. For decoder tables the key is the masked id with the decoder in the lower 16
+   * bits.
+   */
+  private static final class Table
+  {
+
+    private final int mask;
+    private final boolean byDecoder;
+    private final int[] idParts;
+    private final int[] keys;
+    private final Entry[][] values;
+    private final int shift;
+
+    private Table(int mask,
+                  boolean byDecoder,
+                  Map<Integer, List<Entry>> content)
+    {
+      this.mask = mask;
+      this.byDecoder = byDecoder;
+      int bits = 2;
+      while ((1 << bits) < content.size() * 2) {
+        ++bits;
+      }
+      shift = 32 - bits;
+      keys = new int[1 << bits];
+      values = new Entry[1 << bits][];
+      idParts = content.keySet().stream().mapToInt((k) -> k & 0xffff0000).distinct().toArray();
+      for (Map.Entry<Integer, List<Entry>> e : content.entrySet()) {
+        int slot = slot(e.getKey());
+        while (values[slot] != null) {
+          slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = e.getKey();
+        values[slot] = e.getValue().toArray(new Entry[e.getValue().size()]);
+      }
+    }
+
+    private int slot(int key)
+    {
+      return (key * 0x9e3779b9) >>> shift;
+    }
+
+    private boolean containsIdPart(int idPart)
+    {
+      for (int p : idParts) {
+        if (p == idPart) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private Entry[] get(int key)
+    {
+      int slot = slot(key);
+      Entry[] result;
+      while ((result = values[slot]) != null) {
+        if (keys[slot] == key) {
+          return result;
+        }
+        slot = (slot + 1) & (keys.length - 1);
+      }
+      return null;
+    }
+
+  }
+
+  private static final class Snapshot
+  {
+
+    private final Table[] tables;
+    private final Entry[] linear;
+
+    private Snapshot(Table[] tables,
+                     Entry[] linear)
+    {
+      this.tables = tables;
+      this.linear = linear;
+    }
+
+  }
+
+  private static final Snapshot EMPTY = new Snapshot(new Table[0],
+                                                     new Entry[0]);
+  private final List<Entry> entries = new ArrayList<>();
+  private volatile Snapshot snapshot = EMPTY;
+
+  /**
+   * Registers {@code listener} for packets matching {@code matcher}.
+   *
+   * @param matcher the matcher
+   * @param listener the listener
+   * @return {@code false} if this combination was already registered.
+   */
+  synchronized boolean add(@NotNull Predicate<? super Packet> matcher,
+                           @NotNull PacketListener listener)
+  {
+    Entry entry = new Entry(Objects.requireNonNull(matcher,
+                                                   "matcher is null"),
+                            Objects.requireNonNull(listener,
+                                                   "listener is null"));
+    if (entries.contains(entry)) {
+      return false;
+    }
+    entries.add(entry);
+    rebuild();
+    return true;
+  }
+
+  synchronized boolean remove(Predicate<? super Packet> matcher,
+                              PacketListener listener)
+  {
+    if (entries.remove(new Entry(matcher,
+                                 listener))) {
+      rebuild();
+      return true;
+    }
+    return false;
+  }
+
+  synchronized int size()
+  {
+    return entries.size();
+  }
+
+  /**
+   * Passes {@code packet} to all listeners whose matcher accepts it.
+   *
+   * @param connection connection passed to the listeners
+   * @param packet the packet
+   */
+  void dispatch(ZCAN connection,
+                Packet packet)
+  {
+    final Snapshot s = snapshot;
+    final int id = packet.getCanIdValue();
+    int decoder = -1;
+    for (Table t : s.tables) {
+      final int idPart = id & t.mask;
+      int key;
+      if (t.byDecoder) {
+        if (!t.containsIdPart(idPart & 0xffff0000)) {
+          continue;
+        }
+        if (decoder < 0) {
+          DecoderResponsePacketAdapter adapter = packet.getAdapter(DecoderResponsePacketAdapter.class);
+          if (adapter == null) {
+            continue;
+          }
+          decoder = adapter.getDecoderId() & 0xffff;
+        }
+        key = (idPart & 0xffff0000) | decoder;
+      } else {
+        key = idPart;
+      }
+      Entry[] hits = t.get(key);
+      if (hits != null) {
+        for (Entry e : hits) {
+          fire(connection,
+               packet,
+               e);
+        }
+      }
+    }
+    for (Entry e : s.linear) {
+      fire(connection,
+           packet,
+           e);
+    }
+  }
+
+  private void fire(ZCAN connection,
+                    Packet packet,
+                    Entry e)
+  {
+    try {
+      if (e.matcher.test(packet)) {
+        e.listener.onPacket(connection,
+                            packet);
+      }
+    } catch (Throwable th) {
+      ZCAN.LOGGER.log(Level.SEVERE,
+                      "Error while dispatch packet:" + th.getMessage(),
+                      th);
+    }
+  }
+
+  /**
+   * Returns the keys of {@code matcher} as pairs of mask and key, or {@code null} if it cannot be indexed. A negative
+   * mask marks a decoder key.
+   */
+  private static int[] keysOf(Predicate<? super Packet> matcher)
+  {
+    if (matcher instanceof CanIdMatcher) {
+      CanIdMatcher m = (CanIdMatcher) matcher;
+      return new int[]{m.getMask(), m.getCanIdValue() & m.getMask()};
+    } else if (matcher instanceof DecoderPacketMatcher) {
+      DecoderPacketMatcher m = (DecoderPacketMatcher) matcher;
+      return new int[]{DecoderPacketMatcher.MASK | 0x80000000, m.getPattern() | (m.getDecoder() & 0xffff)};
+    } else if (matcher instanceof SelectorMatcher) {
+      PacketSelectorImpl[] selectors = ((SelectorMatcher) matcher).getIndexableSelectors();
+      if (selectors == null || selectors.length == 0) {
+        return null;
+      }
+      int mask = maskOf(selectors[0]);
+      int[] result = new int[0];
+      for (PacketSelectorImpl sel : selectors) {
+        // a single mask guarantees that a packet hits at most one key of the entry
+        if (maskOf(sel) != mask) {
+          return null;
+        }
+        int key = patternOf(sel) & mask;
+        boolean known = false;
+        for (int i = 1; i < result.length; i += 2) {
+          known |= result[i] == key;
+        }
+        if (!known) {
+          result = Arrays.copyOf(result,
+                                 result.length + 2);
+          result[result.length - 2] = mask;
+          result[result.length - 1] = key;
+        }
+      }
+      return result;
+    }
+    return null;
+  }
+
+  private static int maskOf(PacketSelectorImpl sel)
+  {
+    int result = (1 << 28) | 0x00fc0000;
+    if (sel.getCommandGroup() != null) {
+      result |= 0x0f000000;
+    }
+    if (sel.getCommandMode() != null) {
+      result |= 0x00030000;
+    }
+    return result;
+  }
+
+  private static int patternOf(PacketSelectorImpl sel)
+  {
+    int result = (1 << 28) | ((sel.getCommand() & 0x3f) << 18);
+    if (sel.getCommandGroup() != null) {
+      result |= (sel.getCommandGroup().getMagic() & 0xf) << 24;
+    }
+    if (sel.getCommandMode() != null) {
+      result |= (sel.getCommandMode().getMagic() & 0x3) << 16;
+    }
+    return result;
+  }
+
+  private void rebuild()
+  {
+    Map<Integer, Map<Integer, List<Entry>>> byMask = new LinkedHashMap<>();
+    List<Entry> linear = new ArrayList<>();
+    for (Entry e : entries) {
+      int[] keys = keysOf(e.matcher);
+      if (keys == null) {
+        linear.add(e);
+      } else {
+        for (int i = 0; i < keys.length; i += 2) {
+          byMask.computeIfAbsent(keys[i],
+                                 (m) -> new LinkedHashMap<>()).
+                  computeIfAbsent(keys[i + 1],
+                                  (k) -> new ArrayList<>()).
+                  add(e);
+        }
+      }
+    }
+    List<Table> tables = new ArrayList<>(byMask.size());
+    for (Map.Entry<Integer, Map<Integer, List<Entry>>> e : byMask.entrySet()) {
+      tables.add(new Table(e.getKey() & 0x7fffffff,
+                           e.getKey() < 0,
+                           e.getValue()));
+    }
+    snapshot = new Snapshot(tables.toArray(new Table[tables.size()]),
+                            linear.toArray(new Entry[linear.size()]));
+  }
+
+}
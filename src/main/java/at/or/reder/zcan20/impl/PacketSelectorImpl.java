@@ -15,6 +15,7 @@
  */
 package at.or.reder.zcan20.impl;
 
+import at.or.reder.zcan20.CanId;
 import at.or.reder.zcan20.CommandGroup;
 import at.or.reder.zcan20.CommandMode;
 import at.or.reder.zcan20.PacketSelector;
@@ -63,6 +64,22 @@ public final class PacketSelectorImpl implements PacketSelector, PacketSelectorC
     return command == t.getCommand();
   }
 
+  @Override
+  public boolean matches(int canId,
+                         int dlc)
+  {
+    if (group != null && ((canId >> 24) & 0xf) != (group.getMagic() & 0xf)) {
+      return false;
+    }
+    if (mode != null && ((canId >> 16) & 0x3) != mode.getMagic()) {
+      return false;
+    }
+    if (this.dlc >= 0 && dlc != this.dlc) {
+      return false;
+    }
+    return command == CanId.commandOf(canId);
+  }
+
   @Override
   public boolean test(PacketSelector t)
   {
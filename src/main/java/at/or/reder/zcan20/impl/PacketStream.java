@@ -0,0 +1,319 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.OverflowPolicy;
+import at.or.reder.zcan20.PacketPublisher;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Source of the {@link PacketPublisher}s of a connection. {@link #publish(at.or.reder.zcan20.packet.Packet) } only
+ * filters and buffers, delivery runs on {@code executor}, serialized per subscription.
+ *
+ * @author Wolfgang Reder
+ */
+final class PacketStream
+{
+
+  private final Executor executor;
+  private final Set<StreamSubscription> subscriptions = new CopyOnWriteArraySet<>();
+
+  PacketStream(@NotNull Executor executor)
+  {
+    this.executor = Objects.requireNonNull(executor,
+                                           "executor is null");
+  }
+
+  PacketPublisher createPublisher(@NotNull OverflowPolicy policy,
+                                  int capacity)
+  {
+    Objects.requireNonNull(policy,
+                           "policy is null");
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1");
+    }
+    return new Publisher(policy,
+                         capacity,
+                         null);
+  }
+
+  void publish(Packet packet)
+  {
+    for (StreamSubscription s : subscriptions) {
+      s.offer(packet);
+    }
+  }
+
+  /**
+   * Completes all subscriptions. Packets already buffered are still delivered.
+   */
+  void completeAll()
+  {
+    for (StreamSubscription s : subscriptions) {
+      s.complete();
+    }
+  }
+
+  int getSubscriptionCount()
+  {
+    return subscriptions.size();
+  }
+
+  private final class Publisher implements PacketPublisher
+  {
+
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final Predicate<? super Packet> filter;
+
+    private Publisher(OverflowPolicy policy,
+                      int capacity,
+                      Predicate<? super Packet> filter)
+    {
+      this.policy = policy;
+      this.capacity = capacity;
+      this.filter = filter;
+    }
+
+    @Override
+    public PacketPublisher filter(@NotNull Predicate<? super Packet> additionalFilter)
+    {
+      Objects.requireNonNull(additionalFilter,
+                             "filter is null");
+      Predicate<? super Packet> f = filter;
+      return new Publisher(policy,
+                           capacity,
+                           f != null ? (packet) -> f.test(packet) && additionalFilter.test(packet) : additionalFilter);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Packet> subscriber)
+    {
+      StreamSubscription subscription = new StreamSubscription(Objects.requireNonNull(subscriber,
+                                                                                      "subscriber is null"),
+                                                               policy,
+                                                               capacity,
+                                                               filter);
+      subscriber.onSubscribe(subscription);
+      subscriptions.add(subscription);
+      if (subscription.cancelled) {
+        // cancelled concurrently
+        subscriptions.remove(subscription);
+      }
+    }
+
+  }
+
+  private final class StreamSubscription implements Flow.Subscription, Runnable
+  {
+
+    private final Flow.Subscriber<? super Packet> subscriber;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final Predicate<? super Packet> filter;
+    private final ArrayDeque<Packet> queue;
+    private final LinkedHashMap<Integer, Packet> conflated;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private Throwable error;
+    private boolean completed;
+
+    private StreamSubscription(Flow.Subscriber<? super Packet> subscriber,
+                               OverflowPolicy policy,
+                               int capacity,
+                               Predicate<? super Packet> filter)
+    {
+      this.subscriber = subscriber;
+      this.policy = policy;
+      this.capacity = capacity;
+      this.filter = filter;
+      if (policy == OverflowPolicy.CONFLATE) {
+        queue = null;
+        conflated = new LinkedHashMap<>();
+      } else {
+        queue = new ArrayDeque<>();
+        conflated = null;
+      }
+    }
+
+    private void offer(Packet packet)
+    {
+      if (cancelled || (filter != null && !filter.test(packet))) {
+        return;
+      }
+      synchronized (this) {
+        if (error != null || completed) {
+          return;
+        }
+        switch (policy) {
+          case CONFLATE:
+            // replacing keeps the position of the id, a busy id does not starve the others
+            if (conflated.replace(packet.getCanIdValue(),
+                                  packet) == null) {
+              if (conflated.size() >= capacity) {
+                Iterator<Packet> iter = conflated.values().iterator();
+                iter.next();
+                iter.remove();
+              }
+              conflated.put(packet.getCanIdValue(),
+                            packet);
+            }
+            break;
+          case DROP_OLDEST:
+            if (queue.size() >= capacity) {
+              queue.poll();
+            }
+            queue.add(packet);
+            break;
+          default:
+            if (queue.size() >= capacity) {
+              queue.clear();
+              error = new IllegalStateException("Subscriber too slow, more than " + capacity + " packets pending");
+            } else {
+              queue.add(packet);
+            }
+        }
+      }
+      schedule();
+    }
+
+    private synchronized Packet poll()
+    {
+      if (queue != null) {
+        return queue.poll();
+      }
+      Iterator<Packet> iter = conflated.values().iterator();
+      if (iter.hasNext()) {
+        Packet result = iter.next();
+        iter.remove();
+        return result;
+      }
+      return null;
+    }
+
+    private synchronized boolean isEmpty()
+    {
+      return queue != null ? queue.isEmpty() : conflated.isEmpty();
+    }
+
+    private void complete()
+    {
+      synchronized (this) {
+        completed = true;
+      }
+      schedule();
+    }
+
+    @Override
+    public void request(long n)
+    {
+      if (n <= 0) {
+        synchronized (this) {
+          if (error == null) {
+            error = new IllegalArgumentException("non-positive request " + n);
+          }
+        }
+      } else {
+        demand.accumulateAndGet(n,
+                                (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel()
+    {
+      cancelled = true;
+      subscriptions.remove(this);
+      synchronized (this) {
+        if (queue != null) {
+          queue.clear();
+        } else {
+          conflated.clear();
+        }
+      }
+    }
+
+    private void schedule()
+    {
+      if (wip.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      do {
+        drain();
+      } while (wip.decrementAndGet() > 0);
+    }
+
+    private void drain()
+    {
+      while (!cancelled) {
+        Throwable th;
+        boolean done;
+        synchronized (this) {
+          th = error;
+          done = completed && isEmpty();
+        }
+        if (th != null || done) {
+          cancel();
+          if (th != null) {
+            subscriber.onError(th);
+          } else {
+            subscriber.onComplete();
+          }
+          return;
+        }
+        if (demand.get() == 0) {
+          return;
+        }
+        Packet packet = poll();
+        if (packet == null) {
+          return;
+        }
+        demand.decrementAndGet();
+        try {
+          subscriber.onNext(packet);
+        } catch (Throwable ex) {
+          cancel();
+          ZCAN.LOGGER.log(Level.SEVERE,
+                          "Subscriber failed, subscription cancelled",
+                          ex);
+        }
+      }
+    }
+
+  }
+
+}
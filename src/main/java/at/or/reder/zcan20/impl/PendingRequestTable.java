@@ -0,0 +1,344 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.CanIdMatcher;
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.PacketAdapter;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Correlates sent requests with their responses.
+ *
+ * A request is stored under its correlation key, the command group and command of the response combined with the
+ * decoder (loco, CV target or power port) the request addresses. Requests with the same key wait in FIFO order, a
+ * response completes the oldest request that accepts it. Registering, dispatching and removing are hash operations,
+ * their cost does not depend on the number of outstanding requests. Requests whose matcher does not reveal the command
+ * of the response are kept in a short list and tested one by one.
+ *
+ * Every request holds a timeout in a shared {@link TimingWheel}. A request leaves the table when it is answered, when
+ * it times out, when its future is cancelled or when the link is lost.
+ *
+ * @author Wolfgang Reder
+ */
+final class PendingRequestTable
+{
+
+  /**
+   * Bits of the CAN id taken into the key: the lower 4 bits of the command group and the command. The mode differs
+   * between request and response, the sender is the other side.
+   */
+  static final int KEY_MASK = 0x0ffc0000;
+  /**
+   * Decoder part of keys whose command carries no decoder.
+   */
+  static final int NO_DECODER = 0x10000;
+
+  private final class Request<T extends PacketAdapter>
+  {
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private final Predicate<? super Packet> matcher;
+    private final Class<? extends T> resultClass;
+    private final long key;
+    private TimingWheel.Timeout timeout;
+
+    private Request(Predicate<? super Packet> matcher,
+                    Class<? extends T> resultClass,
+                    long key)
+    {
+      this.matcher = matcher;
+      this.resultClass = resultClass;
+      this.key = key;
+    }
+
+    private boolean onPacket(Packet packet)
+    {
+      if (future.isDone() || !matcher.test(packet)) {
+        return false;
+      }
+      T result;
+      if (resultClass.isInstance(packet)) {
+        result = resultClass.cast(packet);
+      } else {
+        result = packet.getAdapter(resultClass);
+      }
+      if (result != null) {
+        ZCAN.LOGGER.log(Level.FINEST,
+                        "Future complete for Packet {0}",
+                        packet);
+        return future.complete(result);
+      }
+      return false;
+    }
+
+    private void onTimeout()
+    {
+      future.completeExceptionally(new TimeoutException("No response within timeout"));
+    }
+
+    /**
+     * Called exactly once, when the future completes.
+     */
+    private void remove()
+    {
+      if (key < 0) {
+        unkeyed.remove(this);
+      } else {
+        keyed.computeIfPresent(key,
+                               (k, queue) -> {
+                                 queue.remove(this);
+                                 return queue.isEmpty() ? null : queue;
+                               });
+      }
+      timeout.cancel();
+      depth.decrementAndGet();
+    }
+
+  }
+
+  private final ConcurrentMap<Long, Queue<Request<?>>> keyed = new ConcurrentHashMap<>();
+  private final Queue<Request<?>> unkeyed = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final TimingWheel wheel;
+
+  PendingRequestTable(@NotNull TimingWheel wheel)
+  {
+    this.wheel = Objects.requireNonNull(wheel,
+                                        "wheel is null");
+  }
+
+  /**
+   * Registers a request. The returned future completes with the adapter of the first packet accepted by
+   * {@code matcher}, or exceptionally with a {@link TimeoutException}.
+   *
+   * @param <T> result type
+   * @param request the request packet, used to derive the correlation key. May be {@code null}.
+   * @param matcher identifies the response
+   * @param resultClass adapter to return
+   * @param timeout timeout
+   * @param unit unit of {@code timeout}
+   * @return future of the response
+   */
+  <T extends PacketAdapter> CompletableFuture<T> register(Packet request,
+                                                          @NotNull Predicate<? super Packet> matcher,
+                                                          @NotNull Class<? extends T> resultClass,
+                                                          long timeout,
+                                                          @NotNull TimeUnit unit)
+  {
+    Request<T> r = new Request<>(Objects.requireNonNull(matcher,
+                                                        "matcher is null"),
+                                 Objects.requireNonNull(resultClass,
+                                                        "resultClass is null"),
+                                 keyOf(request,
+                                       matcher));
+    depth.incrementAndGet();
+    if (r.key < 0) {
+      unkeyed.add(r);
+    } else {
+      keyed.compute(r.key,
+                    (k, queue) -> {
+                      Queue<Request<?>> result = queue != null ? queue : new ConcurrentLinkedQueue<>();
+                      result.add(r);
+                      return result;
+                    });
+    }
+    r.timeout = wheel.schedule(r::onTimeout,
+                               timeout,
+                               unit);
+    r.future.whenComplete((value, th) -> r.remove());
+    return r.future;
+  }
+
+  /**
+   * Completes the oldest request with the key of {@code packet} that accepts it, and every unkeyed request accepting
+   * it.
+   *
+   * @param packet received packet
+   */
+  void dispatch(Packet packet)
+  {
+    if (depth.get() == 0) {
+      return;
+    }
+    if (!keyed.isEmpty()) {
+      int idKey = packet.getCanIdValue() & KEY_MASK;
+      int decoder = decoderOf(idKey,
+                              packet);
+      if (!completeFirst(keyed.get(key(idKey,
+                                       decoder)),
+                         packet) && decoder != NO_DECODER) {
+        completeFirst(keyed.get(key(idKey,
+                                    NO_DECODER)),
+                      packet);
+      }
+    }
+    for (Request<?> r : unkeyed) {
+      fire(r,
+           packet);
+    }
+  }
+
+  private boolean completeFirst(Queue<Request<?>> queue,
+                                Packet packet)
+  {
+    if (queue != null) {
+      for (Request<?> r : queue) {
+        if (fire(r,
+                 packet)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean fire(Request<?> r,
+                       Packet packet)
+  {
+    try {
+      return r.onPacket(packet);
+    } catch (Throwable th) {
+      ZCAN.LOGGER.log(Level.SEVERE,
+                      "Error while dispatch packet:" + th.getMessage(),
+                      th);
+    }
+    return false;
+  }
+
+  /**
+   * Completes all outstanding requests exceptionally, e.g. because the link is lost.
+   *
+   * @param cause exception passed to the futures
+   */
+  void failAll(@NotNull Throwable cause)
+  {
+    for (Queue<Request<?>> queue : keyed.values()) {
+      for (Request<?> r : queue) {
+        r.future.completeExceptionally(cause);
+      }
+    }
+    for (Request<?> r : unkeyed) {
+      r.future.completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * Number of outstanding requests.
+   *
+   * @return depth of the table
+   */
+  int getDepth()
+  {
+    return depth.get();
+  }
+
+  private static long key(int idKey,
+                          int decoder)
+  {
+    return ((long) idKey << 32) | decoder;
+  }
+
+  /**
+   * Returns the correlation key of a request, or -1 if it has none. A request is keyed if its matcher accepts only
+   * one command of one command group, and that command is the command of the request itself. Only then the decoder
+   * can be read from the same place in the request and in the response.
+   */
+  static long keyOf(Packet request,
+                    Predicate<? super Packet> matcher)
+  {
+    if (request == null) {
+      return -1;
+    }
+    int idKey = idKeyOf(matcher);
+    if (idKey < 0 || (request.getCanIdValue() & KEY_MASK) != idKey) {
+      return -1;
+    }
+    return key(idKey,
+               decoderOf(idKey,
+                         request));
+  }
+
+  private static int idKeyOf(Predicate<? super Packet> matcher)
+  {
+    if (matcher instanceof CanIdMatcher) {
+      CanIdMatcher m = (CanIdMatcher) matcher;
+      if ((m.getMask() & KEY_MASK) == KEY_MASK) {
+        return m.getCanIdValue() & KEY_MASK;
+      }
+    } else if (matcher instanceof DecoderPacketMatcher) {
+      return ((DecoderPacketMatcher) matcher).getPattern() & KEY_MASK;
+    } else if (matcher instanceof SelectorMatcher) {
+      PacketSelectorImpl[] selectors = ((SelectorMatcher) matcher).getIndexableSelectors();
+      if (selectors == null || selectors.length == 0) {
+        return -1;
+      }
+      int result = -1;
+      for (PacketSelectorImpl sel : selectors) {
+        if (sel.getCommandGroup() == null) {
+          return -1;
+        }
+        int tmp = ((sel.getCommandGroup().getMagic() & 0xf) << 24) | ((sel.getCommand() & 0x3f) << 18);
+        if (result >= 0 && result != tmp) {
+          return -1;
+        }
+        result = tmp;
+      }
+      return result;
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the decoder addressed by {@code packet}. Loco commands carry the loco in the first word, programming
+   * commands carry the decoder after the system id, and mode commands of the track config group the power port.
+   */
+  static int decoderOf(int idKey,
+                       Packet packet)
+  {
+    int group = (idKey >> 24) & 0xf;
+    byte command = (byte) ((idKey >> 18) & 0x3f);
+    int dlc = packet.getDLC();
+    if (group == (CommandGroup.LOCO.getMagic() & 0xf)) {
+      if (dlc >= 2) {
+        return packet.getData().getShort(0) & 0xffff;
+      }
+    } else if (group == (CommandGroup.TRACK_CONFIG_PUBLIC.getMagic() & 0xf)) {
+      // private and public track config share the lower 4 bits of their magic
+      if ((command == CommandGroup.TSE_PROG_READ || command == CommandGroup.TSE_PROG_WRITE) && dlc >= 4) {
+        return packet.getData().getShort(2) & 0xffff;
+      } else if (command == CommandGroup.TSE_PROG_MODE && dlc >= 3) {
+        return packet.getData().get(2) & 0xff;
+      }
+    }
+    return NO_DECODER;
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.ExecutionProvider;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.validation.constraints.NotNull;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Every connection gets its own bounded pool of platform threads. The pool has room for the packet reader, one thread
+ * per listener lane and a few asynchronous requests; further tasks wait in a queue. If the queue is full, the task runs
+ * in the submitting thread, which slows down the packet reader instead of dropping packets. Idle threads terminate
+ * after one minute.
+ *
+ * @author Wolfgang Reder
+ */
+@ServiceProvider(service = ExecutionProvider.class, position = 100)
+public final class PlatformExecutionProvider implements ExecutionProvider
+{
+
+  public static final String NAME = "platform";
+  static final int MAX_THREADS = Math.max(2,
+                                          Math.min(16,
+                                                   Runtime.getRuntime().availableProcessors())) + 4;
+  static final int QUEUE_SIZE = 256;
+
+  @Override
+  public String getName()
+  {
+    return NAME;
+  }
+
+  @Override
+  public boolean isAvailable()
+  {
+    return true;
+  }
+
+  @Override
+  public ExecutorService createExecutor(@NotNull String connectionName)
+  {
+    Objects.requireNonNull(connectionName,
+                           "connectionName is null");
+    AtomicInteger threadCounter = new AtomicInteger();
+    // a pool only grows beyond its core size when the queue is full, so all threads are core threads
+    ThreadPoolExecutor result = new ThreadPoolExecutor(MAX_THREADS,
+                                                       MAX_THREADS,
+                                                       60,
+                                                       TimeUnit.SECONDS,
+                                                       new LinkedBlockingQueue<>(QUEUE_SIZE),
+                                                       (r) -> {
+                                                         Thread thread = new Thread(r,
+                                                                                    connectionName + "-" + threadCounter.
+                                                                                    incrementAndGet());
+                                                         thread.setDaemon(true);
+                                                         return thread;
+                                                       },
+                                                       new ThreadPoolExecutor.CallerRunsPolicy());
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.packet.Packet;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * A ZPort backed by a non blocking channel. Such ports can be served by the shared {@link ZPortSelector} instead of a
+ * dedicated packet thread per connection.
+ *
+ * @author Wolfgang Reder
+ */
+public interface SelectableZPort extends ZPort
+{
+
+  /**
+   * The channel to register for {@code OP_READ}.
+   *
+   * @return the channel or {@code null} if the port is not started.
+   */
+  public SelectableChannel getChannel();
+
+  /**
+   * Reads the next packet without blocking.
+   *
+   * @return the next packet or {@code null} if no packet is available.
+   * @throws IOException on error
+   */
+  public Packet receivePacket() throws IOException;
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.PacketSelector;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.util.ProxyPacketSelector;
+import java.util.Objects;
+import java.util.function.Predicate;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Adapts a {@link PacketSelector} to a {@code Predicate<Packet>}. Other than a method reference to
+ * {@link PacketSelector#matches(at.or.reder.zcan20.packet.Packet)} it keeps the selector visible, so
+ * {@link PacketListenerIndex} can index {@link PacketSelectorImpl} by CAN id.
+ *
+ * @author Wolfgang Reder
+ */
+final class SelectorMatcher implements Predicate<Packet>
+{
+
+  private final PacketSelector selector;
+
+  static SelectorMatcher of(@NotNull PacketSelector selector)
+  {
+    return new SelectorMatcher(selector);
+  }
+
+  private SelectorMatcher(PacketSelector selector)
+  {
+    this.selector = Objects.requireNonNull(selector,
+                                           "selector is null");
+  }
+
+  PacketSelector getSelector()
+  {
+    return selector;
+  }
+
+  /**
+   * Returns the selectors this matcher consists of, if all of them are {@link PacketSelectorImpl}.
+   *
+   * @return selectors or {@code null}
+   */
+  PacketSelectorImpl[] getIndexableSelectors()
+  {
+    if (selector instanceof PacketSelectorImpl) {
+      return new PacketSelectorImpl[]{(PacketSelectorImpl) selector};
+    } else if (selector instanceof ProxyPacketSelector) {
+      PacketSelector[] children = ((ProxyPacketSelector) selector).getSelectors();
+      PacketSelectorImpl[] result = new PacketSelectorImpl[children.length];
+      for (int i = 0; i < children.length; ++i) {
+        if (!(children[i] instanceof PacketSelectorImpl)) {
+          return null;
+        }
+        result[i] = (PacketSelectorImpl) children[i];
+      }
+      return result;
+    }
+    return null;
+  }
+
+  @Override
+  public boolean test(Packet packet)
+  {
+    return selector.matches(packet);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return selector.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final SelectorMatcher other = (SelectorMatcher) obj;
+    return Objects.equals(this.selector,
+                          other.selector);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "SelectorMatcher{" + selector + '}';
+  }
+
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.NotConnectedException;
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.dcc.util.TokenBucket;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.SendPriority;
+import at.or.reder.zcan20.ZimoPowerMode;
+import at.or.reder.zcan20.packet.Packet;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Sends the packets of a connection in the order of their {@link SendPriority} within the rate of a
+ * {@link TokenBucket}.
+ * <p>
+ * As long as nothing is queued or being transmitted by the drain task and the bucket has a token, a packet is
+ * transmitted by the calling thread. Otherwise it is queued and sent by a drain task on the connection executor as soon
+ * as a token is available. The wait for the next token is timed by a {@link TimingWheel} and may take one tick longer.
+ * {@link SendPriority#SAFETY} packets are always transmitted at once, the token they take may delay the other classes.
+ * <p>
+ * A queued {@code LOCO_SPEED} command is replaced by a newer command for the same loco and direction, so only the
+ * latest speed is transmitted. An emergency stop drops the queued speed commands of its loco, a system stop those of
+ * all locos. Otherwise an older speed would be sent after the stop and the loco would move again.
+ *
+ * @author Wolfgang Reder
+ */
+public final class SendScheduler
+{
+
+  @FunctionalInterface
+  static interface Transmitter
+  {
+
+    public void transmit(Packet packet) throws IOException;
+
+    public default void transmit(List<Packet> packets) throws IOException
+    {
+      for (Packet packet : packets) {
+        transmit(packet);
+      }
+    }
+
+  }
+
+  private static final class Entry
+  {
+
+    // loco of a speed command, -1 for other packets and batches
+    private final int loco;
+    private final long enqueued = System.nanoTime();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    // guarded by SendScheduler.this while queued
+    private Packet packet;
+    private List<Packet> batch;
+
+    private Entry(Packet packet,
+                  List<Packet> batch)
+    {
+      this.packet = packet;
+      this.batch = batch;
+      this.loco = packet != null ? speedAddress(packet) : -1;
+    }
+
+    private int getPermits()
+    {
+      return batch != null ? batch.size() : 1;
+    }
+
+  }
+
+  private static final SendPriority[] PRIORITIES = SendPriority.values();
+  private static final CompletableFuture<Void> SENT = CompletableFuture.completedFuture(null);
+  // weight of a new sample in the average latency
+  private static final double LATENCY_WEIGHT = 0.125;
+  private final Transmitter transmitter;
+  private final TokenBucket bucket;
+  private final DeadlineTimer drainTask;
+  // guarded by this
+  private final ArrayDeque<Entry>[] queues;
+  private final double[] averageLatency = new double[PRIORITIES.length];
+  private final long[] maxLatency = new long[PRIORITIES.length];
+  private final long[] sentCount = new long[PRIORITIES.length];
+  private boolean drainScheduled;
+  // the drain task transmits an entry outside the lock, nothing else may be sent directly meanwhile
+  private boolean inFlight;
+  // the queued speed command of each loco that may still be replaced
+  private final Map<Integer, Entry> speedEntries = new HashMap<>();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  SendScheduler(@NotNull Transmitter transmitter,
+                @NotNull TokenBucket bucket,
+                @NotNull Executor executor,
+                @NotNull LocoKeepAlive.Scheduler scheduler)
+  {
+    this.transmitter = Objects.requireNonNull(transmitter,
+                                              "transmitter is null");
+    this.bucket = Objects.requireNonNull(bucket,
+                                         "bucket is null");
+    this.drainTask = new DeadlineTimer(this::drain,
+                                       executor,
+                                       scheduler,
+                                       System::nanoTime);
+    queues = new ArrayDeque[PRIORITIES.length];
+    for (int i = 0; i < queues.length; ++i) {
+      queues[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * The priority class of a packet.
+   *
+   * @param packet packet
+   * @return priority
+   */
+  static SendPriority classify(@NotNull Packet packet)
+  {
+    CommandGroup group = packet.getCommandGroup();
+    byte command = packet.getCommand();
+    CommandMode mode = packet.getCommandMode();
+    if (group == CommandGroup.SYSTEM) {
+      return SendPriority.SAFETY;
+    } else if (group == CommandGroup.LOCO) {
+      switch (command) {
+        case CommandGroup.LOCO_SPEED:
+          if (mode == CommandMode.COMMAND && packet.getDLC() >= 4 && (packet.getData().getShort(2) & 0x8000) != 0) {
+            return SendPriority.SAFETY;
+          }
+          return mode == CommandMode.REQUEST ? SendPriority.BULK : SendPriority.CONTROL;
+        case CommandGroup.LOCO_FUNC_SWITCH:
+          return mode == CommandMode.REQUEST ? SendPriority.BULK : SendPriority.CONTROL;
+        case CommandGroup.LOCO_ACTIVE:
+          return mode == CommandMode.COMMAND ? SendPriority.KEEPALIVE : SendPriority.CONTROL;
+        default:
+          return SendPriority.CONTROL;
+      }
+    } else if (group == CommandGroup.NETWORK) {
+      return command == CommandGroup.NETWORK_PING ? SendPriority.KEEPALIVE : SendPriority.CONTROL;
+    } else if (group == CommandGroup.TRACK_CONFIG_PUBLIC
+                       || group == CommandGroup.TRACK_CONFIG_PRIVATE
+                       || group == CommandGroup.DATA
+                       || group == CommandGroup.FILE_CONTROL
+                       || group == CommandGroup.FILE_TRANSFER) {
+      return SendPriority.BULK;
+    }
+    return SendPriority.CONTROL;
+  }
+
+  /**
+   * The loco address of a speed command.
+   *
+   * @param packet packet
+   * @return address or -1 if {@code packet} is no {@code LOCO_SPEED} command
+   */
+  static int speedAddress(@NotNull Packet packet)
+  {
+    if (packet.getCommandGroup() == CommandGroup.LOCO
+                && packet.getCommand() == CommandGroup.LOCO_SPEED
+                && packet.getCommandMode() == CommandMode.COMMAND
+                && packet.getDLC() >= 4) {
+      return packet.getData().getShort(0) & 0xffff;
+    }
+    return -1;
+  }
+
+  private static int directionOf(Packet speedCommand)
+  {
+    return speedCommand.getData().getShort(2) & 0x400;
+  }
+
+  private static boolean isSystemStop(Packet packet)
+  {
+    if (packet.getCommandGroup() == CommandGroup.SYSTEM
+                && packet.getCommand() == CommandGroup.SYSTEM_POWER
+                && packet.getCommandMode() == CommandMode.COMMAND
+                && packet.getDLC() >= 4) {
+      int mode = packet.getData().get(3) & 0xff;
+      return mode == ZimoPowerMode.SSP0.getMagic()
+                     || mode == ZimoPowerMode.SSPE.getMagic()
+                     || mode == ZimoPowerMode.OFF.getMagic();
+    }
+    return false;
+  }
+
+  /**
+   * Transmits {@code packet} at once or queues it.
+   *
+   * @param packet packet to send
+   * @param priority priority class of the packet
+   * @return future completing when the packet is transmitted
+   * @throws IOException if the packet was transmitted by the calling thread and the transmission failed
+   */
+  CompletableFuture<Void> send(@NotNull Packet packet,
+                               @NotNull SendPriority priority) throws IOException
+  {
+    return submit(Objects.requireNonNull(packet,
+                                         "packet is null"),
+                  null,
+                  priority);
+  }
+
+  /**
+   * Transmits {@code packets} together, as few transmissions as the port allows. Each packet of the batch takes a token
+   * of the rate limit.
+   *
+   * @param packets packets to send
+   * @param priority priority class of the batch
+   * @return future completing when the packets are transmitted
+   * @throws IOException if the packets were transmitted by the calling thread and the transmission failed
+   */
+  CompletableFuture<Void> send(@NotNull List<Packet> packets,
+                               @NotNull SendPriority priority) throws IOException
+  {
+    return submit(null,
+                  List.copyOf(packets),
+                  priority);
+  }
+
+  private CompletableFuture<Void> submit(Packet packet,
+                                         List<Packet> batch,
+                                         SendPriority priority) throws IOException
+  {
+    Objects.requireNonNull(priority,
+                           "priority is null");
+    int permits = batch != null ? batch.size() : 1;
+    if (permits == 0) {
+      return SENT;
+    }
+    synchronized (this) {
+      if (priority == SendPriority.SAFETY) {
+        if (batch != null) {
+          for (Packet p : batch) {
+            dropSpeedCommands(p);
+          }
+        } else {
+          dropSpeedCommands(packet);
+        }
+        bucket.acquire(permits);
+      } else if (inFlight || !isEmpty() || !bucket.tryAcquire(permits)) {
+        int loco = packet != null ? speedAddress(packet) : -1;
+        if (loco >= 0) {
+          Entry queued = speedEntries.get(loco);
+          if (queued != null && directionOf(queued.packet) == directionOf(packet)) {
+            queued.packet = packet;
+            return queued.future;
+          }
+        }
+        Entry entry = new Entry(packet,
+                                batch);
+        if (loco >= 0) {
+          speedEntries.put(loco,
+                           entry);
+        }
+        queues[priority.ordinal()].add(entry);
+        if (!drainScheduled) {
+          drainScheduled = true;
+          drainTask.schedule(0);
+        }
+        return entry.future;
+      }
+      recordLatency(priority,
+                    0);
+    }
+    transmit(packet,
+             batch);
+    return SENT;
+  }
+
+  // guarded by this
+  private void dropSpeedCommands(Packet safety)
+  {
+    boolean all = isSystemStop(safety);
+    int loco = speedAddress(safety);
+    if (!all && loco < 0) {
+      return;
+    }
+    CancellationException ex = new CancellationException("superseded by a stop");
+    for (ArrayDeque<Entry> q : queues) {
+      for (Iterator<Entry> i = q.iterator(); i.hasNext();) {
+        Entry e = i.next();
+        if (e.batch == null) {
+          if (e.loco >= 0 && (all || e.loco == loco)) {
+            i.remove();
+            speedEntries.remove(e.loco,
+                                e);
+            e.future.completeExceptionally(ex);
+          }
+        } else {
+          List<Packet> kept = new ArrayList<>(e.batch.size());
+          for (Packet p : e.batch) {
+            int l = speedAddress(p);
+            if (l < 0 || (!all && l != loco)) {
+              kept.add(p);
+            }
+          }
+          if (kept.isEmpty()) {
+            i.remove();
+            e.future.completeExceptionally(ex);
+          } else if (kept.size() < e.batch.size()) {
+            e.batch = List.copyOf(kept);
+          }
+        }
+      }
+    }
+  }
+
+  // guarded by this
+  private boolean isEmpty()
+  {
+    for (ArrayDeque<Entry> q : queues) {
+      if (!q.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // guarded by this
+  private void recordLatency(SendPriority priority,
+                             long latency)
+  {
+    int i = priority.ordinal();
+    averageLatency[i] += (latency - averageLatency[i]) * LATENCY_WEIGHT;
+    maxLatency[i] = Math.max(maxLatency[i],
+                             latency);
+    ++sentCount[i];
+  }
+
+  private void drain()
+  {
+    for (;;) {
+      Entry entry = null;
+      Packet packet;
+      List<Packet> batch;
+      synchronized (this) {
+        inFlight = false;
+        for (int i = 0; i < queues.length && entry == null; ++i) {
+          Entry head = queues[i].peek();
+          if (head != null) {
+            if (!bucket.tryAcquire(head.getPermits())) {
+              long wait = TimeUnit.NANOSECONDS.toMillis(bucket.getWaitNanos(head.getPermits()));
+              drainTask.schedule(Math.max(1,
+                                          wait));
+              return;
+            }
+            entry = queues[i].poll();
+            if (entry.loco >= 0) {
+              speedEntries.remove(entry.loco,
+                                  entry);
+            }
+            inFlight = true;
+            recordLatency(PRIORITIES[i],
+                          System.nanoTime() - entry.enqueued);
+          }
+        }
+        if (entry == null) {
+          drainScheduled = false;
+          return;
+        }
+        packet = entry.packet;
+        batch = entry.batch;
+      }
+      try {
+        transmit(packet,
+                 batch);
+        entry.future.complete(null);
+      } catch (IOException | RuntimeException ex) {
+        entry.future.completeExceptionally(ex);
+      }
+    }
+  }
+
+  private void transmit(Packet packet,
+                        List<Packet> batch) throws IOException
+  {
+    if (batch != null) {
+      transmitter.transmit(batch);
+    } else {
+      transmitter.transmit(packet);
+    }
+  }
+
+  /**
+   * Fails all queued packets.
+   */
+  void close()
+  {
+    NotConnectedException ex = new NotConnectedException();
+    synchronized (this) {
+      for (ArrayDeque<Entry> q : queues) {
+        Entry e;
+        while ((e = q.poll()) != null) {
+          e.future.completeExceptionally(ex);
+        }
+      }
+      speedEntries.clear();
+      drainTask.cancel();
+      drainScheduled = false;
+      inFlight = false;
+    }
+  }
+
+  /**
+   * Number of packets waiting.
+   *
+   * @param priority priority class
+   * @return queue length
+   */
+  public synchronized int getQueueLength(@NotNull SendPriority priority)
+  {
+    return queues[priority.ordinal()].size();
+  }
+
+  /**
+   * Moving average of the time the packets of a class spent in the queue. Packets transmitted at once count as 0.
+   *
+   * @param priority priority class
+   * @param unit unit of the result
+   * @return average latency
+   */
+  public synchronized long getAverageLatency(@NotNull SendPriority priority,
+                                             @NotNull TimeUnit unit)
+  {
+    return unit.convert((long) averageLatency[priority.ordinal()],
+                        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Longest time a packet of a class spent in the queue.
+   *
+   * @param priority priority class
+   * @param unit unit of the result
+   * @return maximum latency
+   */
+  public synchronized long getMaxLatency(@NotNull SendPriority priority,
+                                         @NotNull TimeUnit unit)
+  {
+    return unit.convert(maxLatency[priority.ordinal()],
+                        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Number of packets of a class sent.
+   *
+   * @param priority priority class
+   * @return packets sent
+   */
+  public synchronized long getSentCount(@NotNull SendPriority priority)
+  {
+    return sentCount[priority.ordinal()];
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.ExecutionProvider;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.validation.constraints.NotNull;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * All connections share one pool of platform threads. Idle threads terminate after one minute.
+ *
+ * @author Wolfgang Reder
+ */
+@ServiceProvider(service = ExecutionProvider.class, position = 200)
+public final class SharedExecutionProvider implements ExecutionProvider
+{
+
+  public static final String NAME = "shared";
+  private static final AtomicInteger threadCounter = new AtomicInteger();
+  private static final ExecutorService pool = new ThreadPoolExecutor(0,
+                                                                     Integer.MAX_VALUE,
+                                                                     60,
+                                                                     TimeUnit.SECONDS,
+                                                                     new SynchronousQueue<>(),
+                                                                     SharedExecutionProvider::createThread);
+
+  private static Thread createThread(Runnable r)
+  {
+    Thread result = new Thread(r,
+                               "ZCAN-shared-" + threadCounter.incrementAndGet());
+    result.setDaemon(true);
+    return result;
+  }
+
+  @Override
+  public String getName()
+  {
+    return NAME;
+  }
+
+  @Override
+  public boolean isAvailable()
+  {
+    return true;
+  }
+
+  @Override
+  public ExecutorService createExecutor(@NotNull String connectionName)
+  {
+    Objects.requireNonNull(connectionName,
+                           "connectionName is null");
+    return pool;
+  }
+
+}
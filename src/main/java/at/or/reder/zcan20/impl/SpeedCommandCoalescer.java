@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Outgoing stage for {@code LOCO_SPEED} commands keeping at most one pending command per loco.
+ * <p>
+ * A command replaces the pending command of the same loco, so only the latest value is transmitted. Emergency stops
+ * and commands changing the direction are never replaced, they are sent at once by the calling thread. Commands of one
+ * loco are always sent in the order they were offered.
+ *
+ * @author Wolfgang Reder
+ */
+final class SpeedCommandCoalescer
+{
+
+  @FunctionalInterface
+  static interface Sender
+  {
+
+    public void send(Packet packet) throws IOException;
+
+  }
+
+  private static final int NUM_LOCOS = ZCANFactory.LOCO_MAX + 1;
+  private static final int NUM_LOCKS = 64;
+  private static final byte DIR_UNKNOWN = 0;
+  private static final byte DIR_FORWARD = 1;
+  private static final byte DIR_REVERSE = 2;
+  private final Sender sender;
+  private final Executor executor;
+  private final Object[] locks = new Object[NUM_LOCKS];
+  // guarded by locks[loco % NUM_LOCKS]
+  private final Packet[] pending = new Packet[NUM_LOCOS];
+  private final byte[] direction = new byte[NUM_LOCOS];
+  private final Queue<Integer> dirty = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger wip = new AtomicInteger();
+  private final AtomicLong offered = new AtomicLong();
+  private final AtomicLong replaced = new AtomicLong();
+
+  SpeedCommandCoalescer(@NotNull Sender sender,
+                        @NotNull Executor executor)
+  {
+    this.sender = Objects.requireNonNull(sender,
+                                         "sender is null");
+    this.executor = Objects.requireNonNull(executor,
+                                           "executor is null");
+    for (int i = 0; i < NUM_LOCKS; ++i) {
+      locks[i] = new Object();
+    }
+  }
+
+  static boolean isSpeedCommand(Packet packet)
+  {
+    return packet.getCommandGroup() == CommandGroup.LOCO
+                   && packet.getCommand() == CommandGroup.LOCO_SPEED
+                   && packet.getCommandMode() == CommandMode.COMMAND
+                   && packet.getDLC() >= 4;
+  }
+
+  /**
+   * Queues or sends a speed command.
+   *
+   * @param packet a packet for which {@link #isSpeedCommand(at.or.reder.zcan20.packet.Packet) } returns {@code true}
+   * @throws IOException if the packet was sent at once and the transmission failed. Errors of queued commands are
+   * logged.
+   */
+  void offer(@NotNull Packet packet) throws IOException
+  {
+    ByteBuffer data = packet.getData();
+    int loco = data.getShort(0) & 0xffff;
+    if (loco >= NUM_LOCOS) {
+      sender.send(packet);
+      return;
+    }
+    int word = data.getShort(2) & 0xffff;
+    byte dir = (word & 0x400) != 0 ? DIR_REVERSE : DIR_FORWARD;
+    offered.incrementAndGet();
+    synchronized (locks[loco % NUM_LOCKS]) {
+      boolean immediate = (word & 0x8000) != 0 || (direction[loco] != DIR_UNKNOWN && direction[loco] != dir);
+      direction[loco] = dir;
+      Packet old = pending[loco];
+      if (immediate) {
+        // the new command supersedes the pending one and must not wait for the drain task
+        pending[loco] = null;
+        if (old != null) {
+          replaced.incrementAndGet();
+        }
+        sender.send(packet);
+        return;
+      }
+      pending[loco] = packet;
+      if (old != null) {
+        replaced.incrementAndGet();
+        return;
+      }
+    }
+    dirty.add(loco);
+    if (wip.getAndIncrement() == 0) {
+      executor.execute(this::drain);
+    }
+  }
+
+  /**
+   * Drops the pending command of the loco of {@code packet}, because {@code packet} is sent past the coalescer. The
+   * older pending command would otherwise be transmitted after it.
+   *
+   * @param packet a packet for which {@link #isSpeedCommand(at.or.reder.zcan20.packet.Packet) } returns {@code true}
+   */
+  void supersede(@NotNull Packet packet)
+  {
+    ByteBuffer data = packet.getData();
+    int loco = data.getShort(0) & 0xffff;
+    if (loco >= NUM_LOCOS) {
+      return;
+    }
+    int word = data.getShort(2) & 0xffff;
+    synchronized (locks[loco % NUM_LOCKS]) {
+      direction[loco] = (word & 0x400) != 0 ? DIR_REVERSE : DIR_FORWARD;
+      if (pending[loco] != null) {
+        pending[loco] = null;
+        replaced.incrementAndGet();
+      }
+    }
+  }
+
+  private void drain()
+  {
+    int missed = 1;
+    do {
+      Integer loco;
+      while ((loco = dirty.poll()) != null) {
+        flush(loco);
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void flush(int loco)
+  {
+    synchronized (locks[loco % NUM_LOCKS]) {
+      Packet packet = pending[loco];
+      if (packet != null) {
+        pending[loco] = null;
+        try {
+          sender.send(packet);
+        } catch (IOException | RuntimeException ex) {
+          // an exception leaving the drain task would leave wip set, and no command would be sent anymore
+          ZCAN.LOGGER.log(Level.WARNING,
+                          "Cannot send speed command for loco " + loco,
+                          ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Number of speed commands offered.
+   *
+   * @return commands offered
+   */
+  long getOfferedCount()
+  {
+    return offered.get();
+  }
+
+  /**
+   * Number of speed commands replaced by a newer command before transmission.
+   *
+   * @return commands not sent
+   */
+  long getReplacedCount()
+  {
+    return replaced.get();
+  }
+
+}
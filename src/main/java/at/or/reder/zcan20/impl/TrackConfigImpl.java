@@ -25,7 +25,10 @@ import at.or.reder.zcan20.packet.CVInfoAdapter;
 import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.PacketBuilder;
 import at.or.reder.zcan20.packet.TSETrackModePacketAdapter;
+import at.or.reder.zcan20.util.Completions;
 import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -51,30 +54,54 @@ final class TrackConfigImpl implements TrackConfig
   }
 
   @Override
-  public TSETrackModePacketAdapter getPowerPortMode(PowerPort port,
-                                                    long timeout) throws IOException, TimeoutException
+  public CompletionStage<TSETrackModePacketAdapter> getPowerPortModeAsync(PowerPort port,
+                                                                          long timeout,
+                                                                          TimeUnit unit)
   {
     Packet packet = zcan.createPacketBuilder().buildQueryTSEPortModePacket(zcan.getMasterNID(),
                                                                            port);
-    return zcan.sendReceive(packet,
-                            TSETrackModePacketAdapter.SELECTOR::matches,
-                            TSETrackModePacketAdapter.class,
-                            timeout);
+    return zcan.sendReceiveAsync(packet,
+                                 SelectorMatcher.of(TSETrackModePacketAdapter.SELECTOR),
+                                 TSETrackModePacketAdapter.class,
+                                 timeout,
+                                 unit);
   }
 
   @Override
-  public TSETrackModePacketAdapter enterPowerMode(PowerPort port,
-                                                  byte mode,
-                                                  long timeout) throws IOException, TimeoutException
+  public TSETrackModePacketAdapter getPowerPortMode(PowerPort port,
+                                                    long timeout) throws IOException, TimeoutException
+  {
+    return Completions.await(getPowerPortModeAsync(port,
+                                                   timeout,
+                                                   TimeUnit.MILLISECONDS));
+  }
+
+  @Override
+  public CompletionStage<TSETrackModePacketAdapter> enterPowerModeAsync(PowerPort port,
+                                                                        byte mode,
+                                                                        long timeout,
+                                                                        TimeUnit unit)
   {
     PacketBuilder builder = zcan.createPacketBuilder();
     Packet packet = builder.buildSetTSEPowerModePacket(zcan.getMasterNID(),
                                                        port,
                                                        mode);
-    return zcan.sendReceive(packet,
-                            TSETrackModePacketAdapter.SELECTOR::matches,
-                            TSETrackModePacketAdapter.class,
-                            timeout);
+    return zcan.sendReceiveAsync(packet,
+                                 SelectorMatcher.of(TSETrackModePacketAdapter.SELECTOR),
+                                 TSETrackModePacketAdapter.class,
+                                 timeout,
+                                 unit);
+  }
+
+  @Override
+  public TSETrackModePacketAdapter enterPowerMode(PowerPort port,
+                                                  byte mode,
+                                                  long timeout) throws IOException, TimeoutException
+  {
+    return Completions.await(enterPowerModeAsync(port,
+                                                 mode,
+                                                 timeout,
+                                                 TimeUnit.MILLISECONDS));
   }
 
   @Override
@@ -91,10 +118,11 @@ final class TrackConfigImpl implements TrackConfig
   }
 
   @Override
-  public CVInfoAdapter writeCV(short address,
-                               int cv,
-                               short value,
-                               long timeout) throws IOException
+  public CompletionStage<CVInfoAdapter> writeCVAsync(short address,
+                                                     int cv,
+                                                     short value,
+                                                     long timeout,
+                                                     TimeUnit unit)
   {
     short masterNID = zcan.getMasterNID();
     Packet packet = zcan.createPacketBuilder().
@@ -102,14 +130,32 @@ final class TrackConfigImpl implements TrackConfig
                                address,
                                cv,
                                value);
-    return zcan.sendReceive(packet,
-                            new CanIdMatcher(CanId.valueOf(CommandGroup.TRACK_CONFIG_PRIVATE,
-                                                           CommandGroup.TSE_PROG_WRITE,
-                                                           CommandMode.ACK,
-                                                           masterNID),
-                                             CanIdMatcher.MASK_NO_ADDRESS & (~CanIdMatcher.MASK_COMMAND)),
-                            CVInfoAdapter.class,
-                            timeout);
+    return zcan.sendReceiveAsync(packet,
+                                 new CanIdMatcher(CanId.valueOf(CommandGroup.TRACK_CONFIG_PRIVATE,
+                                                                CommandGroup.TSE_PROG_WRITE,
+                                                                CommandMode.ACK,
+                                                                masterNID),
+                                                  CanIdMatcher.MASK_NO_ADDRESS & (~CanIdMatcher.MASK_COMMAND)),
+                                 CVInfoAdapter.class,
+                                 timeout,
+                                 unit);
+  }
+
+  @Override
+  public CVInfoAdapter writeCV(short address,
+                               int cv,
+                               short value,
+                               long timeout) throws IOException
+  {
+    try {
+      return Completions.await(writeCVAsync(address,
+                                            cv,
+                                            value,
+                                            timeout,
+                                            TimeUnit.MILLISECONDS));
+    } catch (TimeoutException ex) {
+      return null;
+    }
   }
 
 }
@@ -41,7 +41,7 @@ public final class UDPMarshaller
    */
   public static int getRequiredBufferSize(@NotNull Packet packet)
   {
-    return PREFIX_LEN + packet.getData().remaining();
+    return PREFIX_LEN + packet.getDLC();
   }
 
   public static int marshalPacket(@NotNull Packet packet,
@@ -80,6 +80,7 @@ public final class UDPMarshaller
     final CommandMode mode = CommandMode.valueOfMagic(mcmd);
     final byte command = (byte) ((mcmd >> 2) & 0x3f);
     final short senderNID = packetBytes.getShort();
+    packetBytes.limit(packetBytes.position() + dlc);
     return ZCANFactory.createPacketBuilder(senderNID).
             senderNID(senderNID).
             command(command).
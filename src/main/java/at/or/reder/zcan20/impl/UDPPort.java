@@ -26,16 +26,18 @@ import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.PacketAdapter;
 import at.or.reder.zcan20.packet.Ping;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -47,24 +49,30 @@ import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 /**
+ * ZPort talking to the MX10 via UDP. The port is backed by a non blocking {@link DatagramChannel}. All received datagrams are
+ * read into one reusable direct buffer, so the path from the socket to {@link UDPMarshaller#unmarshalPacket(java.nio.ByteBuffer)}
+ * does not allocate per packet.
  *
  * @author Wolfgang Reder
  */
 @SuppressWarnings("ClassWithMultipleLoggers")
-public final class UDPPort implements ZPort
+public final class UDPPort implements SelectableZPort
 {
 
   public static final Logger READ_LOGGER = Logger.getLogger("at.or.reder.zcan.zport.read");
   public static final Logger WRITE_LOGGER = Logger.getLogger("at.or.reder.zcan.zport.write");
   public static final int SO_TIMEOUT = 5000;
   public static final int SO_TRAFFIC = 0x14; // IPTOS_RELIABILITY (0x04),IPTOS_LOWDELAY (0x10)
+  private static final int UDP_OVERHEAD = 28; // IPv4 + UDP header
   private final String name;
   private final SocketAddress outAddress;
-  private DatagramSocket socket;
+  private DatagramChannel channel;
+  private Selector readSelector;
   private final int localPort;
   private final InetAddress local2Bound;
   private final int mtu;
   private final BufferPool bufferPool;
+  private final ByteBuffer receiveBuffer;
   private final Set<Byte> readGroupFilter;
   private final Set<Byte> writeGroupFilter;
   private long writeSequence = 0;
@@ -73,6 +81,26 @@ public final class UDPPort implements ZPort
   public UDPPort(String address,
                  int remotePort,
                  int localPort) throws IOException
+  {
+    this(address,
+         remotePort,
+         localPort,
+         0);
+  }
+
+  /**
+   * Creates a port with a given MTU.
+   *
+   * @param address address of the MX10
+   * @param remotePort port of the MX10
+   * @param localPort local port
+   * @param mtu MTU of the link, {@code 0} to use the MTU of the local interface
+   * @throws IOException on error
+   */
+  UDPPort(String address,
+          int remotePort,
+          int localPort,
+          int mtu) throws IOException
   {
     this.name = "UDPPeer to MX10@" + address + ":" + remotePort;
     InetAddress inetAddress = InetAddress.getByName(address);
@@ -81,13 +109,20 @@ public final class UDPPort implements ZPort
       l2b = InetAddress.getLocalHost();
     }
     local2Bound = l2b;
-    NetworkInterface intf = NetworkInterface.getByInetAddress(local2Bound);
-    mtu = intf != null ? intf.getMTU() : 1500; //assume ethernet
+    if (mtu > 0) {
+      this.mtu = mtu;
+    } else {
+      NetworkInterface intf = NetworkInterface.getByInetAddress(local2Bound);
+      this.mtu = intf != null ? intf.getMTU() : 1500; //assume ethernet
+    }
     outAddress = new InetSocketAddress(inetAddress,
                                        remotePort);
     this.localPort = localPort;
-    bufferPool = new BufferPool(mtu,
-                                Runtime.getRuntime().availableProcessors());
+    bufferPool = new BufferPool(this.mtu,
+                                Runtime.getRuntime().availableProcessors(),
+                                true,
+                                BufferPool.DEFAULT_MAX_AGE);
+    receiveBuffer = ByteBuffer.allocateDirect(this.mtu);
     readGroupFilter = createFilter(getLoggerProp("at.or.reder.zcan.zport.read.filter"));
     writeGroupFilter = createFilter(getLoggerProp("at.or.reder.zcan.zport.write.filter"));
   }
@@ -138,7 +173,7 @@ public final class UDPPort implements ZPort
   private boolean isOpen()
   {
     synchronized (this) {
-      return socket != null;
+      return channel != null;
     }
   }
 
@@ -153,11 +188,29 @@ public final class UDPPort implements ZPort
   {
     synchronized (this) {
       if (!isOpen()) {
-        socket = null;
-        socket = new DatagramSocket(localPort,
-                                    local2Bound);
-        socket.setSoTimeout(SO_TIMEOUT);
-        socket.setTrafficClass(SO_TRAFFIC);
+        DatagramChannel ch = DatagramChannel.open();
+        Selector sel = null;
+        try {
+          ch.setOption(StandardSocketOptions.IP_TOS,
+                       SO_TRAFFIC);
+          ch.bind(new InetSocketAddress(local2Bound,
+                                        localPort));
+          ch.configureBlocking(false);
+          sel = Selector.open();
+          ch.register(sel,
+                      SelectionKey.OP_READ);
+          channel = ch;
+          readSelector = sel;
+          ch = null;
+          sel = null;
+        } finally {
+          if (sel != null) {
+            sel.close();
+          }
+          if (ch != null) {
+            ch.close();
+          }
+        }
       }
     }
   }
@@ -166,8 +219,20 @@ public final class UDPPort implements ZPort
   public void close() throws IOException
   {
     synchronized (this) {
-      socket.close();
-      socket = null;
+      if (channel != null) {
+        readSelector.wakeup();
+        try {
+          channel.close();
+        } finally {
+          try {
+            readSelector.close();
+          } finally {
+            channel = null;
+            readSelector = null;
+            bufferPool.close();
+          }
+        }
+      }
     }
   }
 
@@ -219,20 +284,66 @@ public final class UDPPort implements ZPort
       ByteBuffer buffer = item.getBuffer();
       int numBytes = UDPMarshaller.marshalPacket(packet,
                                                  buffer);
-      DatagramSocket s;
+      buffer.limit(numBytes);
+      DatagramChannel ch;
       synchronized (this) {
-        s = socket;
+        ch = channel;
       }
-      if (s != null) {
-        s.send(new DatagramPacket(buffer.array(),
-                                  numBytes,
-                                  outAddress));
+      if (ch != null) {
+        ch.send(buffer,
+                outAddress);
       } else {
         throw new NotConnectedException();
       }
     }
   }
 
+  /**
+   * Puts as many packets into one datagram as the MTU allows.
+   *
+   * @param packets packets to send
+   * @throws IOException on error
+   */
+  @Override
+  public void sendPackets(List<Packet> packets) throws IOException
+  {
+    Objects.requireNonNull(packets,
+                           "packets is null");
+    DatagramChannel ch;
+    synchronized (this) {
+      ch = channel;
+    }
+    if (ch == null) {
+      throw new NotConnectedException();
+    }
+    int maxPayload = mtu - UDP_OVERHEAD;
+    try (BufferPool.BufferItem item = bufferPool.getBuffer()) {
+      ByteBuffer buffer = item.getBuffer();
+      buffer.clear();
+      for (Packet packet : packets) {
+        if (buffer.position() > 0 && buffer.position() + UDPMarshaller.getRequiredBufferSize(packet) > maxPayload) {
+          buffer.flip();
+          ch.send(buffer,
+                  outAddress);
+          buffer.clear();
+        }
+        logPacket(WRITE_LOGGER,
+                  packet,
+                  writeSequence++,
+                  writeGroupFilter,
+                  "send");
+        int numBytes = UDPMarshaller.marshalPacket(packet,
+                                                   buffer.slice());
+        buffer.position(buffer.position() + numBytes);
+      }
+      if (buffer.position() > 0) {
+        buffer.flip();
+        ch.send(buffer,
+                outAddress);
+      }
+    }
+  }
+
   @Override
   public void sendRaw(ByteBuffer buffer) throws IOException
   {
@@ -246,49 +357,87 @@ public final class UDPPort implements ZPort
                                                   ' ');
                        return builder.toString();
                      });
-    DatagramSocket s;
+    DatagramChannel ch;
     synchronized (this) {
-      s = socket;
+      ch = channel;
     }
-    if (s != null) {
-      s.send(new DatagramPacket(buffer.array(),
-                                buffer.remaining(),
-                                outAddress));
+    if (ch != null) {
+      ch.send(buffer.duplicate(),
+              outAddress);
     } else {
       throw new NotConnectedException();
     }
   }
 
+  /**
+   * Reads the next datagram. Only one thread may read from this port at a time (either the packet thread or the
+   * {@link ZPortSelector}), because the receive buffer is shared between calls.
+   *
+   * @return the packet received or {@code null} if no packet arrived within {@link #SO_TIMEOUT} ms.
+   * @throws IOException on error
+   */
   @Override
   public Packet readPacket() throws IOException
   {
-    try (BufferPool.BufferItem item = bufferPool.getBuffer()) {
-      ByteBuffer buffer = item.getBuffer();
-      DatagramPacket packet = new DatagramPacket(buffer.array(),
-                                                 buffer.capacity());
-      DatagramSocket s;
-      synchronized (this) {
-        s = socket;
-      }
-      try {
-        s.receive(packet);
-      } catch (SocketTimeoutException ex) {
+    DatagramChannel ch;
+    Selector sel;
+    synchronized (this) {
+      ch = channel;
+      sel = readSelector;
+    }
+    if (ch == null) {
+      throw new NotConnectedException();
+    }
+    receiveBuffer.clear();
+    SocketAddress sender = ch.receive(receiveBuffer);
+    if (sender == null) {
+      sel.select(SO_TIMEOUT);
+      sel.selectedKeys().clear();
+      sender = ch.receive(receiveBuffer);
+      if (sender == null) {
         READ_LOGGER.log(Level.FINE,
-                        "Packet Timeout",
-                        ex);
+                        "Packet Timeout");
         return null;
       }
-      ByteBuffer packetBytes = ByteBuffer.wrap(packet.getData());
-      packetBytes.limit(packet.getLength() + packet.getOffset());
-      packetBytes.position(packet.getOffset());
-      Packet result = UDPMarshaller.unmarshalPacket(packetBytes);
-      logPacket(READ_LOGGER,
-                result,
-                readSequence++,
-                readGroupFilter,
-                "receive");
-      return result;
     }
+    return unmarshalReceived();
+  }
+
+  @Override
+  public SelectableChannel getChannel()
+  {
+    synchronized (this) {
+      return channel;
+    }
+  }
+
+  @Override
+  public Packet receivePacket() throws IOException
+  {
+    DatagramChannel ch;
+    synchronized (this) {
+      ch = channel;
+    }
+    if (ch == null) {
+      throw new NotConnectedException();
+    }
+    receiveBuffer.clear();
+    if (ch.receive(receiveBuffer) == null) {
+      return null;
+    }
+    return unmarshalReceived();
+  }
+
+  private Packet unmarshalReceived() throws IOException
+  {
+    receiveBuffer.flip();
+    Packet result = UDPMarshaller.unmarshalPacket(receiveBuffer);
+    logPacket(READ_LOGGER,
+              result,
+              readSequence++,
+              readGroupFilter,
+              "receive");
+    return result;
   }
 
   @Override
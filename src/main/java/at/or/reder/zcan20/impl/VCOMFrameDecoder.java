@@ -0,0 +1,219 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.CRC;
+import at.or.reder.dcc.util.DCCUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Streaming decoder for the frames received from a VCOM port.
+ * <pre>
+ * 0x5a 0x32 DLC GRP CMD NID(2) DATA(DLC) CRC(2) 0x32 0x5a
+ * </pre> The CRC16 covers GRP up to the end of DATA and is updated while the frame is copied. The decoder keeps a single
+ * frame buffer, so decoding does not allocate. Frames are passed to the consumer as {@code DLC GRP CMD NID DATA}, the buffer
+ * is only valid during the callback.
+ *
+ * @author Wolfgang Reder
+ */
+final class VCOMFrameDecoder
+{
+
+  public static final byte FRAME_START = 0x5a;
+  public static final byte FRAME_SYNC = 0x32;
+  public static final int MAX_FRAME_SIZE = 1 + 4 + 255 + 2;
+
+  private enum State
+  {
+    HUNT_START,
+    HUNT_SYNC,
+    LENGTH,
+    BODY,
+    TRAILER_SYNC,
+    TRAILER_END;
+  }
+  private final Consumer<? super ByteBuffer> frameConsumer;
+  private final byte[] frame = new byte[MAX_FRAME_SIZE];
+  private final ByteBuffer frameView = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+  private State state = State.HUNT_START;
+  private int frameLength;
+  private int crcEnd;
+  private int crc;
+  private volatile long frameCount;
+  private volatile long crcErrorCount;
+  private volatile long framingErrorCount;
+
+  VCOMFrameDecoder(@NotNull Consumer<? super ByteBuffer> frameConsumer)
+  {
+    this.frameConsumer = Objects.requireNonNull(frameConsumer,
+                                                "frameConsumer is null");
+  }
+
+  public long getFrameCount()
+  {
+    return frameCount;
+  }
+
+  public long getCRCErrorCount()
+  {
+    return crcErrorCount;
+  }
+
+  public long getFramingErrorCount()
+  {
+    return framingErrorCount;
+  }
+
+  public void reset()
+  {
+    state = State.HUNT_START;
+  }
+
+  /**
+   * Consumes all bytes between position and limit of {@code in}.
+   *
+   * @param in received bytes
+   */
+  public void decode(@NotNull ByteBuffer in)
+  {
+    while (in.hasRemaining()) {
+      switch (state) {
+        case HUNT_START:
+          if (skipToFrameStart(in)) {
+            state = State.HUNT_SYNC;
+          }
+          break;
+        case HUNT_SYNC: {
+          byte b = in.get();
+          if (b == FRAME_SYNC) {
+            state = State.LENGTH;
+          } else if (b != FRAME_START) {
+            state = State.HUNT_START;
+          }
+          break;
+        }
+        case LENGTH:
+          frame[0] = in.get();
+          frameLength = 1;
+          crcEnd = 1 + 4 + (frame[0] & 0xff);
+          crc = 0;
+          state = State.BODY;
+          break;
+        case BODY:
+          readBody(in);
+          break;
+        case TRAILER_SYNC:
+          if (in.get() == FRAME_SYNC) {
+            state = State.TRAILER_END;
+          } else {
+            onFramingError();
+            state = State.HUNT_START;
+          }
+          break;
+        case TRAILER_END:
+          if (in.get() == FRAME_START) {
+            emitFrame();
+          } else {
+            onFramingError();
+          }
+          state = State.HUNT_START;
+          break;
+        default:
+          throw new IllegalStateException("Unknown state " + state);
+      }
+    }
+  }
+
+  private boolean skipToFrameStart(ByteBuffer in)
+  {
+    if (in.hasArray()) {
+      byte[] array = in.array();
+      int offset = in.arrayOffset();
+      int end = offset + in.limit();
+      for (int i = offset + in.position(); i < end; ++i) {
+        if (array[i] == FRAME_START) {
+          in.position(i - offset + 1);
+          return true;
+        }
+      }
+      in.position(in.limit());
+      return false;
+    }
+    while (in.hasRemaining()) {
+      if (in.get() == FRAME_START) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void readBody(ByteBuffer in)
+  {
+    int total = crcEnd + 2;
+    int n = Math.min(in.remaining(),
+                     total - frameLength);
+    in.get(frame,
+           frameLength,
+           n);
+    int crcBytes = Math.min(frameLength + n,
+                            crcEnd) - frameLength;
+    if (crcBytes > 0) {
+      crc = CRC.CRC16.update(crc,
+                             frame,
+                             frameLength,
+                             crcBytes);
+    }
+    frameLength += n;
+    if (frameLength == total) {
+      state = State.TRAILER_SYNC;
+    }
+  }
+
+  private void onFramingError()
+  {
+    ++framingErrorCount;
+    VCOMPort.READ_LOGGER.log(Level.WARNING,
+                             () -> "Framing error :" + DCCUtils.byteArray2HexString(Arrays.copyOf(frame,
+                                                                                                   frameLength)));
+  }
+
+  private void emitFrame()
+  {
+    // high byte first, like the reader this decoder replaced; the packet itself is little endian
+    int crcRead = ((frame[crcEnd] & 0xff) << 8) | (frame[crcEnd + 1] & 0xff);
+    if (crcRead != (crc & 0xffff)) {
+      ++crcErrorCount;
+      VCOMPort.READ_LOGGER.log(Level.WARNING,
+                               () -> "CRC error :" + DCCUtils.byteArray2HexString(Arrays.copyOf(frame,
+                                                                                                 frameLength)));
+      return;
+    }
+    ++frameCount;
+    frameView.limit(crcEnd).position(0);
+    try {
+      frameConsumer.accept(frameView);
+    } finally {
+      frameView.clear();
+    }
+  }
+
+}
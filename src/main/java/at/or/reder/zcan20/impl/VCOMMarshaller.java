@@ -31,11 +31,13 @@ import javax.validation.constraints.NotNull;
 public class VCOMMarshaller
 {
 
+  public static final int HEADER_LEN = 5; // DLC + GRP + CMD + NID
+
   public static int marshalPacket(@NotNull Packet packet,
                                   @NotNull ByteBuffer bufferToFill)
   {
     ByteBuffer buffer = bufferToFill.duplicate();
-    ByteBuffer data = packet.getData().duplicate();
+    ByteBuffer data = packet.getData();
     int dlc = data.remaining();
     buffer.limit(8 + dlc);
     buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -52,15 +54,22 @@ public class VCOMMarshaller
     return buffer.position();
   }
 
+  /**
+   * Creates a packet from a frame decoded by {@link VCOMFrameDecoder}.
+   *
+   * @param buffer {@code DLC GRP CMD NID(2) DATA(DLC)} between position and limit.
+   * @return the packet
+   * @throws IOException if the frame is too small
+   */
   public static Packet unmarshalPacket(@NotNull ByteBuffer buffer) throws IOException
   {
     ByteBuffer packetBytes = buffer.duplicate();
-    if (packetBytes.limit() < 8) {
+    if (packetBytes.remaining() < HEADER_LEN) {
       throw new IOException("Received ZCAN Packet too small");
     }
     packetBytes.order(ByteOrder.LITTLE_ENDIAN);
     final int dlc = packetBytes.get() & 0xff;
-    if (packetBytes.limit() < (8 + dlc)) {
+    if (packetBytes.remaining() < (HEADER_LEN - 1 + dlc)) {
       throw new IOException("Received ZCAN Packet too small");
     }
     final CommandGroup group = CommandGroup.valueOf((byte) (packetBytes.get() & 0xff));
@@ -68,14 +77,13 @@ public class VCOMMarshaller
     final CommandMode mode = CommandMode.valueOfMagic((byte) (mcmd));
     final byte command = (byte) (mcmd >> 2);
     final short address = (short) (packetBytes.getShort() & 0xffff);
-    final byte[] data = new byte[dlc];
-    packetBytes.get(data);
+    packetBytes.limit(packetBytes.position() + dlc);
     return ZCANFactory.createPacketBuilder(address).
             senderNID(address).
             command(command).
             commandGroup(group).
             commandMode(mode).
-            data(ByteBuffer.wrap(data)).
+            data(packetBytes).
             build();
 
   }
@@ -36,10 +36,11 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 import java.util.TooManyListenersException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,15 +52,14 @@ import java.util.logging.Logger;
 public final class VCOMPort implements ZPort
 {
 
-  private enum ReaderState
-  {
-    INIT,
-    ZB_READ,
-    TB_READ,
-    DLC_READ,
-    TE_READ;
-  }
   public static final int BUFFER_SIZE = 1500;
+  public static final int READ_BUFFER_SIZE = 512;
+  public static final int RECEIVE_QUEUE_SIZE = 256;
+  /**
+   * Time in ms the serial event thread waits for space in the receive queue. While it waits no data is read from the port,
+   * so RTS/CTS flow control throttles the device.
+   */
+  public static final long BACKPRESSURE_TIMEOUT = 500;
   public static final Logger READ_LOGGER = Logger.getLogger("at.or.reder.zcan.zport.read");
   public static final Logger WRITE_LOGGER = Logger.getLogger("at.or.reder.zcan.zport.write");
 
@@ -67,10 +67,11 @@ public final class VCOMPort implements ZPort
   private final BufferPool bufferPool;
   private RXTXPort port;
   private WritableByteChannel out;
-  private ReadableByteChannel in;
-  private final ByteBuffer receiveBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-  private final TransferQueue<Packet> receiveQueue = new LinkedTransferQueue<>();
-  private ReaderState readerState;
+  private volatile ReadableByteChannel in;
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private final VCOMFrameDecoder decoder = new VCOMFrameDecoder(this::onFrame);
+  private final BlockingQueue<Packet> receiveQueue = new ArrayBlockingQueue<>(RECEIVE_QUEUE_SIZE);
+  private final AtomicLong overrunCount = new AtomicLong();
 
   public VCOMPort(String portName)
   {
@@ -85,6 +86,22 @@ public final class VCOMPort implements ZPort
     return "VCOMPeer to MX10@" + portName;
   }
 
+  /**
+   * A frame carries up to 16 bytes, at 38400 baud the link transfers 240 frames per second. Some headroom is left for
+   * the handshake.
+   */
+  @Override
+  public int getSendRate()
+  {
+    return 200;
+  }
+
+  @Override
+  public int getSendBurst()
+  {
+    return 8;
+  }
+
   @Override
   public void start() throws IOException
   {
@@ -99,8 +116,9 @@ public final class VCOMPort implements ZPort
                                   SerialPort.PARITY_NONE);
             p.setFlowControlMode(SerialPort.FLOWCONTROL_RTSCTS_IN + SerialPort.FLOWCONTROL_RTSCTS_OUT);
             p.addEventListener(this::onSerialEvent);
-            out = Channels.newChannel(port.getOutputStream());
-            in = Channels.newChannel(port.getInputStream());
+            out = Channels.newChannel(p.getOutputStream());
+            decoder.reset();
+            in = Channels.newChannel(p.getInputStream());
             port = p;
             p = null;
           } finally {
@@ -129,6 +147,7 @@ public final class VCOMPort implements ZPort
           port = null;
           out = null;
           in = null;
+          bufferPool.close();
         }
       }
     }
@@ -179,131 +198,68 @@ public final class VCOMPort implements ZPort
     }
   }
 
-  private void onSerialEvent(SerialPortEvent event)
-  {
-    if (event.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
-      ByteBuffer bytesRead = ByteBuffer.allocate(128);
-      while (true) {
-        synchronized (this) {
-          try {
-            in.read(bytesRead);
-          } catch (IOException ex) {
-            DCCUtils.LOGGER.log(Level.SEVERE,
-                             null,
-                             ex);
-            return;
-          }
-        }
-        if (!bytesRead.hasRemaining()) {
-          return;
-        }
-        while (bytesRead.hasRemaining()) {
-          byte b = bytesRead.get();
-          switch (readerState) {
-            case INIT:
-              readerState = doInit(b);
-              break;
-            case ZB_READ:
-              readerState = doZB_READ(b);
-              break;
-            case TB_READ:
-              readerState = doTB_READ(b);
-              break;
-            case DLC_READ:
-              readerState = doDLC_READ(b);
-              break;
-            case TE_READ:
-              readerState = doTE_READ(b);
-              break;
-            default:
-              throw new IllegalStateException("Unknown readerstate " + readerState);
-          }
-        }
-        bytesRead.rewind();
-      }
-    }
-  }
-
-  private ReaderState resetReader()
-  {
-    receiveBuffer.limit(receiveBuffer.capacity());
-    receiveBuffer.rewind();
-    return ReaderState.INIT;
-  }
-
-  private boolean checkCRC()
+  /**
+   * Number of packets dropped, because the receive queue was full.
+   *
+   * @return overrun count
+   */
+  public long getOverrunCount()
   {
-    ByteBuffer b = receiveBuffer.flip();
-    b.limit(b.limit() - 2);
-    short crc = DCCUtils.crc16((short) 0,
-                            b);
-    short crcRead = receiveBuffer.getShort(receiveBuffer.limit() - 2);
-    return crc == crcRead;
+    return overrunCount.get();
   }
 
-  private ReaderState doInit(byte b)
+  public long getCRCErrorCount()
   {
-    if (b == 0x5a) {
-      return ReaderState.ZB_READ;
-    }
-    return ReaderState.INIT;
+    return decoder.getCRCErrorCount();
   }
 
-  private ReaderState doZB_READ(byte b)
+  public long getFramingErrorCount()
   {
-    if (b == 0x32) {
-      return ReaderState.TB_READ;
-    }
-    return ReaderState.INIT;
+    return decoder.getFramingErrorCount();
   }
 
-  private ReaderState doTB_READ(byte b)
-  {
-    receiveBuffer.limit(b + 6); // DLC + CMD + GRP + CRC
-    return ReaderState.DLC_READ;
-  }
-
-  private ReaderState doDLC_READ(byte b)
+  private void onSerialEvent(SerialPortEvent event)
   {
-    if (receiveBuffer.hasRemaining()) {
-      receiveBuffer.put(b);
-      return ReaderState.DLC_READ;
-    } else if (b == 0x32) {
-      receiveBuffer.limit(receiveBuffer.position());
-      if (checkCRC()) {
-        return ReaderState.TE_READ;
-      } else {
-        READ_LOGGER.log(Level.WARNING,
-                        () -> "CRC error :" + DCCUtils.byteArray2HexString(receiveBuffer.array()));
-        return resetReader();
+    if (event.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
+      ReadableByteChannel channel = in;
+      if (channel == null) {
+        return;
+      }
+      try {
+        readBuffer.clear();
+        while (channel.read(readBuffer) > 0) {
+          readBuffer.flip();
+          decoder.decode(readBuffer);
+          readBuffer.clear();
+        }
+      } catch (IOException ex) {
+        DCCUtils.LOGGER.log(Level.SEVERE,
+                            null,
+                            ex);
       }
-    } else {
-      READ_LOGGER.log(Level.WARNING,
-                      () -> "Framing error :" + DCCUtils.byteArray2HexString(receiveBuffer.array()) + " byteTo append:0x" + Integer.
-                      toHexString(b & 0xff));
-      return resetReader();
     }
   }
 
-  private ReaderState doTE_READ(byte b)
+  private void onFrame(ByteBuffer frame)
   {
-    if (b == 0x5a) {
-      receiveBuffer.rewind();
-      try {
-        Packet packet = VCOMMarshaller.unmarshalPacket(receiveBuffer);
-        if (packet != null) {
-          if (!receiveQueue.offer(packet)) {
-            READ_LOGGER.log(Level.SEVERE,
-                            "receiveQueue overrun");
-          }
+    try {
+      Packet packet = VCOMMarshaller.unmarshalPacket(frame);
+      if (!receiveQueue.offer(packet)) {
+        if (!receiveQueue.offer(packet,
+                                BACKPRESSURE_TIMEOUT,
+                                TimeUnit.MILLISECONDS)) {
+          overrunCount.incrementAndGet();
+          READ_LOGGER.log(Level.SEVERE,
+                          "receiveQueue overrun");
         }
-      } catch (IOException ex) {
-        READ_LOGGER.log(Level.SEVERE,
-                        "unmarshalling error",
-                        ex);
       }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (IOException ex) {
+      READ_LOGGER.log(Level.SEVERE,
+                      "unmarshalling error",
+                      ex);
     }
-    return resetReader();
   }
 
   @Override
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.ExecutionProvider;
+import at.or.reder.zcan20.ZCAN;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Runs every task on its own virtual thread. Blocking requests then only cost a virtual thread, so thousands of callers
+ * can wait concurrently. The module is compiled for Java 11, the API is accessed by reflection and is only available
+ * on runtimes providing {@code Thread.ofVirtual()} without preview flags.
+ *
+ * @author Wolfgang Reder
+ */
+@ServiceProvider(service = ExecutionProvider.class, position = 300)
+public final class VirtualExecutionProvider implements ExecutionProvider
+{
+
+  public static final String NAME = "virtual";
+  private static final Method OF_VIRTUAL;
+  private static final Method NAME_METHOD;
+  private static final Method FACTORY;
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method factory = null;
+    Method newExecutor = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      name = builderClass.getMethod("name",
+                                    String.class,
+                                    long.class);
+      factory = builderClass.getMethod("factory");
+      newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                                              ThreadFactory.class);
+      // throws UnsupportedOperationException if virtual threads are a disabled preview feature
+      ofVirtual.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      ZCAN.LOGGER.log(Level.FINE,
+                      "Virtual threads not available",
+                      ex);
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME_METHOD = name;
+    FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+  }
+
+  @Override
+  public String getName()
+  {
+    return NAME;
+  }
+
+  @Override
+  public boolean isAvailable()
+  {
+    return OF_VIRTUAL != null;
+  }
+
+  @Override
+  public ExecutorService createExecutor(@NotNull String connectionName)
+  {
+    Objects.requireNonNull(connectionName,
+                           "connectionName is null");
+    if (!isAvailable()) {
+      throw new UnsupportedOperationException("Virtual threads are not supported by this runtime");
+    }
+    try {
+      Object builder = NAME_METHOD.invoke(OF_VIRTUAL.invoke(null),
+                                          connectionName + "-",
+                                          1L);
+      ThreadFactory threadFactory = (ThreadFactory) FACTORY.invoke(builder);
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null,
+                                                                   threadFactory);
+    } catch (IllegalAccessException | InvocationTargetException ex) {
+      throw new UnsupportedOperationException("Cannot create virtual thread executor",
+                                              ex);
+    }
+  }
+
+}
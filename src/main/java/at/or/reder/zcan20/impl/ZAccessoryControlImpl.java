@@ -20,9 +20,10 @@ import at.or.reder.zcan20.CommandMode;
 import at.or.reder.zcan20.ZAccessoryControl;
 import at.or.reder.zcan20.packet.AccessoryPacketAdapter;
 import at.or.reder.zcan20.packet.Packet;
-import at.or.reder.zcan20.util.ScalarFuture;
 import java.io.IOException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 final class ZAccessoryControlImpl implements ZAccessoryControl
@@ -66,21 +67,34 @@ final class ZAccessoryControlImpl implements ZAccessoryControl
   }
 
   @Override
-  public Future<Byte> getAccessoryState(short decoder,
-                                        byte port) throws IOException
+  public CompletionStage<Byte> getAccessoryStateAsync(short decoder,
+                                                      byte port,
+                                                      long timeout,
+                                                      TimeUnit unit)
   {
     Packet packet = zcan.createPacketBuilder().
             senderNID(zcan.getNID()).
             buildAccessoryRequestPacket(decoder,
                                         port).
             build();
+    return zcan.sendReceiveAsync(packet,
+                                 new MyPacketMatcher(decoder,
+                                                     port,
+                                                     CommandMode.ACK),
+                                 AccessoryPacketAdapter.class,
+                                 timeout,
+                                 unit).
+            thenApply(AccessoryPacketAdapter::getValue);
+  }
 
-    return new ScalarFuture<>(zcan.doSendPacket(packet,
-                                                new MyPacketMatcher(decoder,
-                                                                    port,
-                                                                    CommandMode.ACK),
-                                                AccessoryPacketAdapter.class),
-                              AccessoryPacketAdapter::getValue);
+  @Override
+  public Future<Byte> getAccessoryState(short decoder,
+                                        byte port) throws IOException
+  {
+    return getAccessoryStateAsync(decoder,
+                                  port,
+                                  ZCANImpl.DEFAULT_REQUEST_TIMEOUT,
+                                  TimeUnit.MILLISECONDS).toCompletableFuture();
   }
 
   @Override
@@ -98,9 +112,11 @@ final class ZAccessoryControlImpl implements ZAccessoryControl
   }
 
   @Override
-  public Future<Byte> setAccessoryStateChecked(short decoder,
-                                               byte port,
-                                               byte state) throws IOException
+  public CompletionStage<Byte> setAccessoryStateCheckedAsync(short decoder,
+                                                             byte port,
+                                                             byte state,
+                                                             long timeout,
+                                                             TimeUnit unit)
   {
     Packet packet = zcan.createPacketBuilder().
             senderNID(zcan.getNID()).
@@ -108,13 +124,26 @@ final class ZAccessoryControlImpl implements ZAccessoryControl
                                         port,
                                         state).
             build();
+    return zcan.sendReceiveAsync(packet,
+                                 new MyPacketMatcher(decoder,
+                                                     port,
+                                                     CommandMode.ACK),
+                                 AccessoryPacketAdapter.class,
+                                 timeout,
+                                 unit).
+            thenApply(AccessoryPacketAdapter::getValue);
+  }
 
-    return new ScalarFuture<>(zcan.doSendPacket(packet,
-                                                new MyPacketMatcher(decoder,
-                                                                    port,
-                                                                    CommandMode.ACK),
-                                                AccessoryPacketAdapter.class),
-                              AccessoryPacketAdapter::getValue);
+  @Override
+  public Future<Byte> setAccessoryStateChecked(short decoder,
+                                               byte port,
+                                               byte state) throws IOException
+  {
+    return setAccessoryStateCheckedAsync(decoder,
+                                         port,
+                                         state,
+                                         ZCANImpl.DEFAULT_REQUEST_TIMEOUT,
+                                         TimeUnit.MILLISECONDS).toCompletableFuture();
   }
 
 }
@@ -19,31 +19,42 @@ import at.or.reder.dcc.LinkState;
 import at.or.reder.dcc.LinkStateListener;
 import at.or.reder.dcc.NotConnectedException;
 import at.or.reder.dcc.util.CanIdMatcher;
+import at.or.reder.dcc.util.LaneExecutor;
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.dcc.util.TokenBucket;
 import at.or.reder.zcan20.CanId;
 import at.or.reder.zcan20.CommandGroup;
 import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.ExecutionProvider;
+import at.or.reder.zcan20.LocoActive;
 import at.or.reder.zcan20.MX10PropertiesSet;
+import at.or.reder.zcan20.OverflowPolicy;
 import at.or.reder.zcan20.PacketListener;
+import at.or.reder.zcan20.PacketPublisher;
+import at.or.reder.zcan20.SendPriority;
 import at.or.reder.zcan20.TrackConfig;
 import at.or.reder.zcan20.ZCAN;
 import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.DecoderResponsePacketAdapter;
 import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.PacketAdapter;
 import at.or.reder.zcan20.packet.PacketBuilder;
 import at.or.reder.zcan20.packet.Ping;
 import at.or.reder.zcan20.packet.ZCANDecoderPacketMatcher;
+import at.or.reder.zcan20.util.Completions;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -54,133 +65,36 @@ import java.util.function.Predicate;
 import java.util.logging.Level;
 import javax.validation.constraints.NotNull;
 import org.openide.util.Lookup;
-import org.openide.util.RequestProcessor;
 import org.openide.util.lookup.Lookups;
 
 public final class ZCANImpl implements ZCAN
 {
 
-  private final class FilterListener implements PacketListener
-  {
-
-    private final PacketListener listener;
-    private final Predicate<? super Packet> matcher;
-
-    public FilterListener(PacketListener listener,
-                          Predicate<? super Packet> matcher)
-    {
-      this.listener = Objects.requireNonNull(listener,
-                                             "listener is null");
-      this.matcher = Objects.requireNonNull(matcher,
-                                            "matcher is null");
-    }
-
-    @Override
-    public void onPacket(ZCAN connection,
-                         Packet packet)
-    {
-      if (matcher.test(packet)) {
-        listener.onPacket(connection,
-                          packet);
-      }
-    }
+  /**
+   * Timeout in ms for requests sent without an explicit timeout.
+   */
+  public static final long DEFAULT_REQUEST_TIMEOUT = 30_000;
+  private static final int NUM_LISTENER_LANES = Math.max(2,
+                                                         Math.min(16,
+                                                                  Runtime.getRuntime().availableProcessors()));
 
-    @Override
-    public int hashCode()
-    {
-      int hash = 7;
-      hash = 67 * hash + Objects.hashCode(this.listener);
-      hash = 67 * hash + Objects.hashCode(this.matcher);
-      return hash;
-    }
-
-    @Override
-    public boolean equals(Object obj)
-    {
-      if (this == obj) {
-        return true;
-      }
-      if (obj == null) {
-        return false;
-      }
-      if (getClass() != obj.getClass()) {
-        return false;
-      }
-      final FilterListener other = (FilterListener) obj;
-      if (!Objects.equals(this.listener,
-                          other.listener)) {
-        return false;
-      }
-      return Objects.equals(this.matcher,
-                            other.matcher);
-    }
-
-  }
-
-  private final class FutureListener<T extends PacketAdapter> implements PacketListener
-  {
-
-    private final CompletableFuture<? super T> future;
-    private final Predicate<? super Packet> matcher;
-    private final Class<? extends T> extensionClass;
-
-    public FutureListener(@NotNull CompletableFuture<? super T> future,
-                          Predicate<? super Packet> matcher,
-                          @NotNull Class<? extends T> extensionClass)
-    {
-      this.future = Objects.requireNonNull(future);
-      this.extensionClass = Objects.requireNonNull(extensionClass);
-      this.matcher = matcher;
-    }
-
-    @Override
-    public void onPacket(ZCAN connection,
-                         Packet packet)
-    {
-      if (matcher.test(packet)) {
-        T result;
-        if (extensionClass.isAssignableFrom(packet.getClass())) {
-          result = extensionClass.cast(packet);
-        } else {
-          result = packet.getAdapter(extensionClass);
-        }
-        stop();
-        LOGGER.log(Level.FINEST,
-                   "Future complete for Packet {0}",
-                   packet.toString());
-        if (result != null) {
-          future.complete(result);
-        }
-      }
-    }
-
-    void start()
-    {
-      addPacketListener(this);
-    }
-
-    void stop()
-    {
-      removePacketListener(this);
-    }
-
-  }
   private final ZPort port;
-  private final AtomicInteger threadCounter = new AtomicInteger();
-  private final AtomicInteger listenerThreadCounter = new AtomicInteger();
-  private final ExecutorService listenerNotifer;
-  private final ExecutorService packetThread;
+  private final LaneExecutor listenerLanes;
+  private final ExecutorService executor;
+  private final PacketStream packetStream;
   private final AtomicBoolean abortFlag = new AtomicBoolean();
   private Future<?> terminateResult;
+  private ZPortSelector.Registration selectorRegistration;
   private final Set<PacketListener> packetListener = new CopyOnWriteArraySet<>();
   private final ConcurrentMap<CommandGroup, Set<PacketListener>> filteredPacketListener = new ConcurrentHashMap<>();
+  private final PacketListenerIndex indexedPacketListener = new PacketListenerIndex();
+  private final PendingRequestTable pendingRequests = new PendingRequestTable(TimingWheel.getDefault());
   private final AtomicReference<Short> masterNID = new AtomicReference<>((short) -1);
   private final AtomicInteger masterUID = new AtomicInteger();
   private final AtomicInteger session = new AtomicInteger();
   private final short myNID;
   private volatile LinkState linkState = LinkState.CLOSED;
-  private final RequestProcessor requestProcessor;
-  private final RequestProcessor.Task disconnectTimer;
+  private final DeadlineTimer disconnectTimer;
   private volatile int linkTimeout = 10000;
   private final Set<LinkStateListener> linkStateListener = new CopyOnWriteArraySet<>();
   private final NetworkControlImpl networkControl;
@@ -188,6 +102,10 @@ public final class ZCANImpl implements ZCAN
   private final TrackConfig trackConfig;
   private final LocoControlImpl locoControl;
   private final ZAccessoryControlImpl accessoryImpl;
+  private final LocoStateTable locoStateTable = new LocoStateTable();
+  private final LocoKeepAlive locoKeepAlive;
+  private final SpeedCommandCoalescer speedCommands;
+  private final SendScheduler sendScheduler;
   private final Lookup myLookup;
   private final Object lock;
   private final String appName;
@@ -199,24 +117,58 @@ public final class ZCANImpl implements ZCAN
     this.lock = lock != null ? lock : new Object();
     this.port = Objects.requireNonNull(port,
                                        "port is null");
-    this.packetThread = Executors.newFixedThreadPool(1,
-                                                     this::createPacketThread);
-    this.listenerNotifer = Executors.newSingleThreadExecutor(this::createListenerThread);
     String strNid = ZCANFactory.DEFAULT_NID;
+    String strExecutor = ZCANFactory.DEFAULT_EXECUTOR;
+    int sendRate = port.getSendRate();
+    int sendBurst = port.getSendBurst();
     if (properties != null) {
+      sendRate = Integer.parseInt(properties.getOrDefault(ZCANFactory.PROP_SEND_RATE,
+                                                          Integer.toString(sendRate)));
+      sendBurst = Integer.parseInt(properties.getOrDefault(ZCANFactory.PROP_SEND_BURST,
+                                                           Integer.toString(sendBurst)));
       strNid = properties.getOrDefault(ZCANFactory.PROP_NID,
                                        ZCANFactory.DEFAULT_NID);
+      strExecutor = properties.getOrDefault(ZCANFactory.PROP_EXECUTOR,
+                                            ZCANFactory.DEFAULT_EXECUTOR);
       appName = properties.get(MX10PropertiesSet.PROP_APPNAME);
     } else {
       appName = null;
     }
     myNID = (short) Integer.parseInt(strNid,
                                      16);
-    requestProcessor = new RequestProcessor(port.getName(),
-                                            Runtime.getRuntime().availableProcessors(),
-                                            true,
-                                            true);
-    disconnectTimer = requestProcessor.create(this::onLinkTimeout);
+    executor = lookupExecutionProvider(strExecutor).createExecutor(port.getName());
+    listenerLanes = new LaneExecutor(NUM_LISTENER_LANES,
+                                     executor);
+    packetStream = new PacketStream(executor);
+    locoKeepAlive = new LocoKeepAlive(this::sendLocoPing,
+                                      TimingWheel.getDefault()::schedule,
+                                      executor,
+                                      System::nanoTime);
+    speedCommands = new SpeedCommandCoalescer((p) -> doSendPacket(p,
+                                                                  null,
+                                                                  null,
+                                                                  DEFAULT_REQUEST_TIMEOUT),
+                                              executor);
+    disconnectTimer = createTimer(this::onLinkTimeout);
+    sendScheduler = new SendScheduler(new SendScheduler.Transmitter()
+    {
+      @Override
+      public void transmit(Packet packet) throws IOException
+      {
+        ZCANImpl.this.port.sendPacket(packet);
+      }
+
+      @Override
+      public void transmit(List<Packet> packets) throws IOException
+      {
+        ZCANImpl.this.port.sendPackets(packets);
+      }
+
+    },
+                                      new TokenBucket(sendRate,
+                                                      sendBurst),
+                                      executor,
+                                      TimingWheel.getDefault()::schedule);
     networkControl = new NetworkControlImpl(this);
     systemControl = new SystemControlImpl(this);
     trackConfig = new TrackConfigImpl(this);
@@ -227,8 +179,15 @@ public final class ZCANImpl implements ZCAN
                              systemControl,
                              trackConfig,
                              locoControl,
-                             requestProcessor,
-                             accessoryImpl);
+                             listenerLanes,
+                             accessoryImpl,
+                             locoStateTable,
+                             locoKeepAlive,
+                             sendScheduler);
+    addPacketListener(CommandGroup.LOCO,
+                      locoStateTable::onPacket);
+    addPacketListener(CommandGroup.CONFIG,
+                      locoStateTable::onPacket);
   }
 
   @Override
@@ -243,6 +202,16 @@ public final class ZCANImpl implements ZCAN
     return myLookup;
   }
 
+  public LocoStateTable getLocoStateTable()
+  {
+    return locoStateTable;
+  }
+
+  LocoKeepAlive getLocoKeepAlive()
+  {
+    return locoKeepAlive;
+  }
+
   Object getLock()
   {
     return lock;
@@ -260,22 +229,42 @@ public final class ZCANImpl implements ZCAN
     return myNID;
   }
 
-  private Thread createPacketThread(Runnable r)
+  private static ExecutionProvider lookupExecutionProvider(String name)
   {
-    Thread result = new Thread(r,
-                               port.getName() + "-" + threadCounter.
-                               incrementAndGet());
-    result.setDaemon(true);
-    return result;
+    ExecutionProvider fallback = null;
+    boolean known = false;
+    for (ExecutionProvider provider : Lookup.getDefault().lookupAll(ExecutionProvider.class)) {
+      if (provider.getName().equals(name)) {
+        if (provider.isAvailable()) {
+          return provider;
+        }
+        known = true;
+        LOGGER.log(Level.WARNING,
+                   "Executionprovider {0} not available. Using {1}",
+                   new Object[]{name, ZCANFactory.DEFAULT_EXECUTOR});
+      } else if (ZCANFactory.DEFAULT_EXECUTOR.equals(provider.getName())) {
+        fallback = provider;
+      }
+    }
+    if (!known && !ZCANFactory.DEFAULT_EXECUTOR.equals(name)) {
+      LOGGER.log(Level.WARNING,
+                 "Unknown executionprovider {0}. Using {1}",
+                 new Object[]{name, ZCANFactory.DEFAULT_EXECUTOR});
+    }
+    if (fallback == null) {
+      fallback = new PlatformExecutionProvider();
+    }
+    return fallback;
   }
 
-  private Thread createListenerThread(Runnable r)
+  /**
+   * The executor selected by {@link ZCANFactory#PROP_EXECUTOR}.
+   *
+   * @return executor of this connection
+   */
+  ExecutorService getExecutor()
   {
-    Thread result = new Thread(r,
-                               port.getName() + "-listener-"
-                                       + listenerThreadCounter.incrementAndGet());
-    result.setDaemon(true);
-    return result;
+    return executor;
   }
 
   <T extends PacketAdapter> Future<T> doSendRaw(@NotNull ByteBuffer buffer,
@@ -285,76 +274,242 @@ public final class ZCANImpl implements ZCAN
     if (!isOpen()) {
       throw new NotConnectedException();
     }
-    CompletableFuture<T> future = null;
-    if (matcher != null && resultData != null) {
-      future = new CompletableFuture<>();
-      FutureListener<T> lf = new FutureListener<>(future,
+    CompletableFuture<T> future = registerRequest(null,
                                                   matcher,
-                                                  resultData);
-      lf.start();
+                                                  resultData,
+                                                  DEFAULT_REQUEST_TIMEOUT);
+    try {
+      port.sendRaw(buffer);
+    } catch (IOException | RuntimeException ex) {
+      if (future != null) {
+        future.cancel(false);
+      }
+      throw ex;
     }
-    port.sendRaw(buffer);
     // Wir habe etwas gesendet, also kann der ping warten...
     networkControl.schedulePing();
     return future;
   }
 
+  private <T extends PacketAdapter> CompletableFuture<T> registerRequest(Packet request,
+                                                                         Predicate<? super Packet> matcher,
+                                                                         Class<? extends T> resultData,
+                                                                         long timeout)
+  {
+    if (matcher != null && resultData != null) {
+      return pendingRequests.register(request,
+                                      matcher,
+                                      resultData,
+                                      timeout,
+                                      TimeUnit.MILLISECONDS);
+    }
+    return null;
+  }
+
+  /**
+   * Sends {@code p} without waiting for a response. Speed commands pass the {@link SpeedCommandCoalescer}, a newer
+   * command for the same loco may replace them before transmission.
+   */
   void doSendPacket(@NotNull Packet p) throws IOException
   {
-    doSendPacket(p,
-                 null,
-                 null);
+    if (SpeedCommandCoalescer.isSpeedCommand(p)) {
+      if (!isOpen()) {
+        throw new NotConnectedException();
+      }
+      speedCommands.offer(p);
+    } else {
+      doSendPacket(p,
+                   null,
+                   null);
+    }
   }
 
   <T extends PacketAdapter> Future<T> doSendPacket(@NotNull Packet p,
                                                    Predicate<? super Packet> matcher,
                                                    Class<? extends T> resultData) throws IOException
+  {
+    return doSendPacket(p,
+                        matcher,
+                        resultData,
+                        DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * Sends {@code p} and returns a future for the response. The future completes exceptionally with a
+   * {@link TimeoutException} if no response arrives within {@code timeout} ms, and with a {@link NotConnectedException}
+   * if the link is lost before.
+   */
+  <T extends PacketAdapter> CompletableFuture<T> doSendPacket(@NotNull Packet p,
+                                                              Predicate<? super Packet> matcher,
+                                                              Class<? extends T> resultData,
+                                                              long timeout) throws IOException
   {
     if (!isOpen()) {
       throw new NotConnectedException();
     }
-    CompletableFuture<T> future = null;
-    if (matcher != null && resultData != null) {
-      future = new CompletableFuture<>();
-      FutureListener<T> lf = new FutureListener<>(future,
+    CompletableFuture<T> future = registerRequest(p,
                                                   matcher,
-                                                  resultData);
-      lf.start();
+                                                  resultData,
+                                                  timeout);
+    try {
+      CompletableFuture<Void> sent = sendScheduler.send(p,
+                                                        SendScheduler.classify(p));
+      if (!sent.isDone()) {
+        sent.whenComplete((v, th) -> onQueuedSendComplete(p,
+                                                          future,
+                                                          th));
+      }
+    } catch (IOException | RuntimeException ex) {
+      if (future != null) {
+        future.cancel(false);
+      }
+      throw ex;
     }
-    port.sendPacket(p);
     // Wir habe etwas gesendet, also kann der ping warten...
     networkControl.schedulePing();
+    locoKeepAlive.onPacketSent(p);
     return future;
   }
 
+  private void sendLocoPing(short loco) throws IOException
+  {
+    doSendPacket(createPacketBuilder().buildLocoActivePacket(loco,
+                                                             LocoActive.ACTIVE).build());
+  }
+
+  /**
+   * Sends {@code packets} as one batch, bypassing the {@link SpeedCommandCoalescer}. Pending speed commands of the locos
+   * in the batch are dropped. The batch is scheduled with the highest priority of its packets.
+   */
+  void doSendBatch(@NotNull List<Packet> packets) throws IOException
+  {
+    if (!isOpen()) {
+      throw new NotConnectedException();
+    }
+    if (packets.isEmpty()) {
+      return;
+    }
+    SendPriority priority = SendPriority.BULK;
+    for (Packet p : packets) {
+      SendPriority tmp = SendScheduler.classify(p);
+      if (tmp.compareTo(priority) < 0) {
+        priority = tmp;
+      }
+      if (SpeedCommandCoalescer.isSpeedCommand(p)) {
+        speedCommands.supersede(p);
+      }
+    }
+    CompletableFuture<Void> sent = sendScheduler.send(packets,
+                                                      priority);
+    if (!sent.isDone()) {
+      sent.whenComplete((v, th) -> onQueuedSendComplete(packets,
+                                                        null,
+                                                        th));
+    }
+    networkControl.schedulePing();
+    for (Packet p : packets) {
+      locoKeepAlive.onPacketSent(p);
+    }
+  }
+
+  private void onQueuedSendComplete(Object packet,
+                                    CompletableFuture<?> request,
+                                    Throwable th)
+  {
+    if (th != null) {
+      if (request != null) {
+        request.completeExceptionally(th);
+      } else if (th instanceof CancellationException) {
+        LOGGER.log(Level.FINE,
+                   "Dropped {0}: {1}",
+                   new Object[]{packet, th.getMessage()});
+      } else {
+        LOGGER.log(Level.WARNING,
+                   "Cannot send " + packet,
+                   th);
+      }
+    }
+  }
+
+  @Override
+  public <T extends PacketAdapter> CompletableFuture<T> sendReceiveAsync(@NotNull Packet packet,
+                                                                         @NotNull Predicate<? super Packet> matcher,
+                                                                         @NotNull Class<? extends T> adapterClass,
+                                                                         long timeout,
+                                                                         @NotNull TimeUnit unit)
+  {
+    Objects.requireNonNull(packet,
+                           "packet is null");
+    Objects.requireNonNull(matcher,
+                           "matcher is null");
+    Objects.requireNonNull(adapterClass,
+                           "adapterClass is null");
+    CompletableFuture<T> request;
+    try {
+      request = doSendPacket(packet,
+                             matcher,
+                             adapterClass,
+                             unit.toMillis(timeout));
+    } catch (IOException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    // requests are completed by the listener lanes and the timing wheel, keep client code away from them
+    CompletableFuture<T> result = new CompletableFuture<>();
+    request.whenCompleteAsync((value, th) -> {
+      if (th != null) {
+        result.completeExceptionally(th);
+      } else {
+        result.complete(value);
+      }
+    },
+                              executor);
+    result.whenComplete((value, th) -> request.cancel(false));
+    return result;
+  }
+
+  /**
+   * Blocking variant of {@link #sendReceiveAsync(at.or.reder.zcan20.packet.Packet, java.util.function.Predicate,
+   * java.lang.Class, long, java.util.concurrent.TimeUnit) }.
+   *
+   * @return the response or {@code null} if no response arrived within {@code timeout} ms.
+   */
   <T extends PacketAdapter> T sendReceive(Packet packet,
                                           Predicate<? super Packet> matcher,
                                           Class<? extends T> adapterClass,
                                           long timeout) throws IOException
   {
-    Future<T> future = doSendPacket(packet,
-                                    matcher,
-                                    adapterClass);
     try {
-      return future.get(timeout,
-                        TimeUnit.MILLISECONDS);
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-      return null;
-    } catch (ExecutionException ex) {
-      if (ex.getCause() instanceof IOException) {
-        throw (IOException) ex.getCause();
-      } else {
-        throw new IOException(ex);
-      }
+      return Completions.await(sendReceiveAsync(packet,
+                                                matcher,
+                                                adapterClass,
+                                                timeout,
+                                                TimeUnit.MILLISECONDS));
     } catch (TimeoutException ex) {
       return null;
     }
   }
 
+  @Override
+  public PacketPublisher createPacketPublisher(@NotNull OverflowPolicy policy,
+                                               int capacity)
+  {
+    return packetStream.createPublisher(policy,
+                                        capacity);
+  }
+
+  /**
+   * Number of requests waiting for their response.
+   *
+   * @return depth of the pending request table
+   */
+  public int getPendingRequestCount()
+  {
+    return pendingRequests.getDepth();
+  }
+
   boolean isOpen()
   {
-    return terminateResult != null;
+    return terminateResult != null || selectorRegistration != null;
   }
 
   public void open(long timeout,
@@ -365,7 +520,12 @@ public final class ZCANImpl implements ZCAN
         try {
           abortFlag.set(false);
           port.start();
-          terminateResult = packetThread.submit(this::packetLoop);
+          if (port instanceof SelectableZPort) {
+            selectorRegistration = ZPortSelector.getDefault().register((SelectableZPort) port,
+                                                                       this::onPacketReceived);
+          } else {
+            terminateResult = executor.submit(this::packetLoop);
+          }
           Future<Ping> future = doSendPacket(createPacketBuilder().buildLoginPacket(getAppName()),
                                              new CanIdMatcher(CanId.valueOf(
                                                      CommandGroup.NETWORK,
@@ -373,7 +533,8 @@ public final class ZCANImpl implements ZCAN
                                                      CommandMode.EVENT,
                                                      (short) 0),
                                                               CanIdMatcher.MASK_NO_ADDRESS),
-                                             Ping.class);
+                                             Ping.class,
+                                             unit.toMillis(timeout));
           Ping ping = future.get(timeout,
                                  unit);
           masterNID.set(ping.getPacket().getSenderNID());
@@ -412,6 +573,9 @@ public final class ZCANImpl implements ZCAN
                    th);
       }
     }
+    pendingRequests.dispatch(packet);
+    indexedPacketListener.dispatch(this,
+                                   packet);
     Set<PacketListener> filtered = filteredPacketListener.get(packet.getCommandGroup());
     if (filtered != null) {
       LOGGER.log(Level.FINEST,
@@ -437,16 +601,7 @@ public final class ZCANImpl implements ZCAN
       try {
         Packet packet = port.readPacket();
         if (packet != null) {
-          disconnectTimer.schedule(linkTimeout);
-          if (packet.getAdapter(Ping.class) != null) {
-            handlePing(packet.getAdapter(Ping.class));
-          } else {
-            LOGGER.log(Level.FINER,
-                       packet.toString());
-          }
-          listenerNotifer.execute(() -> {
-            notfyPacketListener(packet);
-          });
+          onPacketReceived(packet);
         }
       } catch (IOException ex) {
         LOGGER.log(Level.SEVERE,
@@ -462,6 +617,34 @@ public final class ZCANImpl implements ZCAN
                "End Packet loop");
   }
 
+  private void onPacketReceived(Packet packet)
+  {
+    disconnectTimer.schedule(linkTimeout);
+    Ping ping = packet.getAdapter(Ping.class);
+    if (ping != null) {
+      handlePing(ping);
+    } else {
+      LOGGER.log(Level.FINER,
+                 packet.toString());
+    }
+    listenerLanes.execute(getLaneKey(packet),
+                          () -> notfyPacketListener(packet));
+    packetStream.publish(packet);
+  }
+
+  /**
+   * Packets of the same decoder, or of the same sender if the packet does not address a decoder, are delivered in order
+   * on one lane.
+   */
+  private static int getLaneKey(Packet packet)
+  {
+    DecoderResponsePacketAdapter adapter = packet.getAdapter(DecoderResponsePacketAdapter.class);
+    if (adapter != null) {
+      return adapter.getDecoderId() & 0xffff;
+    }
+    return (packet.getSenderNID() & 0xffff) | 0x10000;
+  }
+
   private void handlePing(Ping packet)
   {
     int nid = packet.getMasterNID();
@@ -488,14 +671,20 @@ public final class ZCANImpl implements ZCAN
       if (isOpen()) {
         try (port) {
           networkControl.close();
+          locoKeepAlive.close();
+          sendScheduler.close();
           abortFlag.set(true);
-          try {
-            terminateResult.get(10,
-                                TimeUnit.SECONDS);
-          } catch (InterruptedException ex) {
-            Thread.currentThread().
-                    interrupt();
-          } catch (ExecutionException | TimeoutException ex) {
+          if (selectorRegistration != null) {
+            selectorRegistration.close();
+          } else {
+            try {
+              terminateResult.get(10,
+                                  TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().
+                      interrupt();
+            } catch (ExecutionException | TimeoutException ex) {
+            }
           }
           PacketBuilder builder = ZCANFactory.createPacketBuilder(myNID);
           builder.commandGroup(CommandGroup.NETWORK);
@@ -505,8 +694,11 @@ public final class ZCANImpl implements ZCAN
           port.sendPacket(builder.build());
         } finally {
           terminateResult = null;
+          selectorRegistration = null;
           setLinkState(LinkState.CLOSED);
           disconnectTimer.cancel();
+          pendingRequests.failAll(new NotConnectedException());
+          packetStream.completeAll();
         }
       }
     }
@@ -535,6 +727,7 @@ public final class ZCANImpl implements ZCAN
   private void onLinkTimeout()
   {
     setLinkState(LinkState.BROKEN);
+    pendingRequests.failAll(new NotConnectedException());
   }
 
   private void setLinkState(LinkState state)
@@ -592,8 +785,8 @@ public final class ZCANImpl implements ZCAN
                                 PacketListener packetListener)
   {
     if (matcher != null && packetListener != null) {
-      addPacketListener(new FilterListener(packetListener,
-                                           matcher));
+      indexedPacketListener.add(matcher,
+                                packetListener);
     }
   }
 
@@ -602,8 +795,8 @@ public final class ZCANImpl implements ZCAN
                                    PacketListener packetListener)
   {
     if (matcher != null && packetListener != null) {
-      removePacketListener(new FilterListener(packetListener,
-                                              matcher));
+      indexedPacketListener.remove(matcher,
+                                   packetListener);
     }
   }
 
@@ -612,11 +805,26 @@ public final class ZCANImpl implements ZCAN
     return masterNID.get();
   }
 
-  RequestProcessor.Task postTask(Runnable run,
-                                 long timeout)
+  /**
+   * Creates a timer running {@code task} on the executor of this connection.
+   *
+   * @param task task
+   * @return timer, not scheduled
+   */
+  DeadlineTimer createTimer(@NotNull Runnable task)
   {
-    return requestProcessor.post(run,
-                                 linkTimeout);
+    return new DeadlineTimer(task,
+                             executor,
+                             TimingWheel.getDefault()::schedule,
+                             System::nanoTime);
+  }
+
+  DeadlineTimer postTask(Runnable run,
+                         long timeout)
+  {
+    DeadlineTimer result = createTimer(run);
+    result.schedule(linkTimeout);
+    return result;
   }
 
   @Override
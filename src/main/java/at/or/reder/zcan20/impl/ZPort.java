@@ -19,6 +19,7 @@ import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.Ping;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.Future;
 import javax.validation.constraints.NotNull;
 
@@ -38,10 +39,44 @@ public interface ZPort extends AutoCloseable
 
   public void sendPacket(@NotNull Packet packet) throws IOException;
 
+  /**
+   * Sends several packets in as few transmissions as the transport allows.
+   *
+   * @param packets packets to send
+   * @throws IOException on error
+   */
+  public default void sendPackets(@NotNull List<Packet> packets) throws IOException
+  {
+    for (Packet packet : packets) {
+      sendPacket(packet);
+    }
+  }
+
   public void sendRaw(@NotNull ByteBuffer buffer) throws IOException;
 
   public Packet readPacket() throws IOException;
 
   public Future<Ping> sendInitPacket(ZCANImpl zcan) throws IOException;
 
+  /**
+   * Packets per second the link can carry. Used if {@link at.or.reder.zcan20.ZCANFactory#PROP_SEND_RATE} is not set.
+   *
+   * @return packets per second
+   */
+  public default int getSendRate()
+  {
+    return 1000;
+  }
+
+  /**
+   * Number of packets the link accepts back to back. Used if {@link at.or.reder.zcan20.ZCANFactory#PROP_SEND_BURST}
+   * is not set.
+   *
+   * @return burst size
+   */
+  public default int getSendBurst()
+  {
+    return 64;
+  }
+
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.NotConnectedException;
+import at.or.reder.zcan20.ZCAN;
+import at.or.reder.zcan20.packet.Packet;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import javax.validation.constraints.NotNull;
+
+/**
+ * One selector thread serving all {@link SelectableZPort}s of the JVM. Received packets are handed to the consumer given at
+ * registration, which is expected to pass them on to the dispatcher of its connection.
+ *
+ * @author Wolfgang Reder
+ */
+final class ZPortSelector
+{
+
+  /**
+   * Maximum number of packets read from one port before the next port is served.
+   */
+  public static final int MAX_BATCH = 64;
+
+  final class Registration implements AutoCloseable
+  {
+
+    private final SelectableZPort port;
+    private final Consumer<? super Packet> receiver;
+    private volatile SelectionKey key;
+
+    private Registration(SelectableZPort port,
+                         Consumer<? super Packet> receiver)
+    {
+      this.port = port;
+      this.receiver = receiver;
+    }
+
+    public SelectableZPort getPort()
+    {
+      return port;
+    }
+
+    private void drain()
+    {
+      for (int i = 0; i < MAX_BATCH && key.isValid(); ++i) {
+        Packet packet;
+        try {
+          packet = port.receivePacket();
+        } catch (ClosedChannelException | NotConnectedException ex) {
+          key.cancel();
+          return;
+        } catch (IOException ex) {
+          ZCAN.LOGGER.log(Level.SEVERE,
+                          "IOException in packetloop of " + port.getName(),
+                          ex);
+          continue;
+        }
+        if (packet == null) {
+          return;
+        }
+        try {
+          receiver.accept(packet);
+        } catch (Throwable th) {
+          ZCAN.LOGGER.log(Level.SEVERE,
+                          "Exception in packetloop of " + port.getName(),
+                          th);
+        }
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      SelectionKey k = key;
+      if (k != null) {
+        k.cancel();
+      }
+    }
+
+  }
+  private static ZPortSelector instance;
+  private final Selector selector;
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+  static synchronized ZPortSelector getDefault() throws IOException
+  {
+    if (instance == null) {
+      instance = new ZPortSelector("ZPort-Selector");
+    }
+    return instance;
+  }
+
+  private ZPortSelector(String name) throws IOException
+  {
+    selector = Selector.open();
+    Thread thread = new Thread(this::selectLoop,
+                               name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Registers {@code port} for reading. The port must be started.
+   *
+   * @param port port to serve
+   * @param receiver called from the selector thread for every packet received.
+   * @return the registration. Closing it stops the delivery.
+   * @throws IOException if the port cannot be registered.
+   */
+  Registration register(@NotNull SelectableZPort port,
+                        @NotNull Consumer<? super Packet> receiver) throws IOException
+  {
+    Objects.requireNonNull(port,
+                           "port is null");
+    Objects.requireNonNull(receiver,
+                           "receiver is null");
+    SelectableChannel channel = port.getChannel();
+    if (channel == null) {
+      throw new NotConnectedException();
+    }
+    Registration result = new Registration(port,
+                                           receiver);
+    CompletableFuture<SelectionKey> future = new CompletableFuture<>();
+    pendingTasks.add(() -> {
+      try {
+        future.complete(channel.register(selector,
+                                         SelectionKey.OP_READ,
+                                         result));
+      } catch (IOException | RuntimeException ex) {
+        future.completeExceptionally(ex);
+      }
+    });
+    selector.wakeup();
+    try {
+      result.key = future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    }
+    return result;
+  }
+
+  private void processKey(SelectionKey key)
+  {
+    ((Registration) key.attachment()).drain();
+  }
+
+  private void selectLoop()
+  {
+    ZCAN.LOGGER.log(Level.INFO,
+                    "Starting selector loop");
+    while (true) {
+      try {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+          task.run();
+        }
+        selector.select(this::processKey);
+      } catch (ClosedSelectorException ex) {
+        break;
+      } catch (Throwable ex) {
+        ZCAN.LOGGER.log(Level.SEVERE,
+                        "Exception in selector loop",
+                        ex);
+      }
+    }
+    ZCAN.LOGGER.log(Level.INFO,
+                    "End selector loop");
+  }
+
+}
@@ -38,6 +38,16 @@ public interface Packet extends PacketAdapter, Lookup.Provider
    */
   public CanId getCanId();
 
+  /**
+   * The id field as int. Use this on hot paths, it does not create a {@link CanId}.
+   *
+   * @return raw 29 bit id
+   */
+  public default int getCanIdValue()
+  {
+    return getCanId().intValue();
+  }
+
   /**
    * The CommandGroup of the Packet.
    *
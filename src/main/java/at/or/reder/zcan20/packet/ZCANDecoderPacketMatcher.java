@@ -15,51 +15,59 @@
  */
 package at.or.reder.zcan20.packet;
 
-import at.or.reder.zcan20.PacketSelector;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Set;
+import at.or.reder.zcan20.packet.impl.CompiledPacketMatcher;
+import at.or.reder.zcan20.packet.impl.PacketMatcherCompiler;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public final class ZCANDecoderPacketMatcher implements Predicate<Packet>
 {
 
   public static Predicate<Packet> getAccessoryInstance(int decoderAddress)
   {
-    return new ZCANDecoderPacketMatcher(Arrays.asList(AccessoryPacketAdapter.SELECTOR,
-                                                      CVInfoAdapter.SELECTOR),
-                                        decoderAddress | 0x3000);
+    short decoderId = (short) ((decoderAddress | 0x3000) & 0xffff);
+    return new ZCANDecoderPacketMatcher(new PacketMatcherCompiler().
+            addDecoder(AccessoryPacketAdapter.SELECTOR,
+                       0,
+                       decoderId).
+            addDecoder(CVInfoAdapter.SELECTOR,
+                       2,
+                       decoderId).
+            compile());
   }
 
   public static Predicate<Packet> getLocomotiveInstance(int decoderAddress)
   {
-    return new ZCANDecoderPacketMatcher(Arrays.asList(LocoActivePacketAdapter.SELECTOR,
-                                                      LocoFuncPacketAdapter.SELECTOR,
-                                                      LocoModePacketAdapter.SELECTOR,
-                                                      LocoSpeedPacketAdapter.SELECTOR,
-                                                      CVInfoAdapter.SELECTOR),
-                                        decoderAddress);
+    short decoderId = (short) (decoderAddress & 0xffff);
+    return new ZCANDecoderPacketMatcher(new PacketMatcherCompiler().
+            addDecoder(LocoActivePacketAdapter.SELECTOR,
+                       0,
+                       decoderId).
+            addDecoder(LocoFuncPacketAdapter.SELECTOR,
+                       0,
+                       decoderId).
+            addDecoder(LocoModePacketAdapter.SELECTOR,
+                       0,
+                       decoderId).
+            addDecoder(LocoSpeedPacketAdapter.SELECTOR,
+                       0,
+                       decoderId).
+            addDecoder(CVInfoAdapter.SELECTOR,
+                       2,
+                       decoderId).
+            compile());
   }
 
-  private final short decoderId;
-  private final Set<PacketSelector> groups;
+  private final CompiledPacketMatcher matcher;
 
-  private ZCANDecoderPacketMatcher(Collection<? extends PacketSelector> groups,
-                                   int decoderAddress)
+  private ZCANDecoderPacketMatcher(CompiledPacketMatcher matcher)
   {
-    this.decoderId = (short) (decoderAddress & 0xffff);
-    this.groups = groups.stream().filter((g) -> g != null).collect(Collectors.toUnmodifiableSet());
+    this.matcher = matcher;
   }
 
   @Override
   public final boolean test(Packet t)
   {
-    if (groups.stream().parallel().filter((s) -> s.matches(t)).findAny().isPresent()) {
-      DecoderResponsePacketAdapter adapter = t.getAdapter(DecoderResponsePacketAdapter.class);
-      return adapter != null && adapter.getDecoderId() == decoderId;
-    }
-    return false;
+    return matcher.test(t);
   }
 
 }
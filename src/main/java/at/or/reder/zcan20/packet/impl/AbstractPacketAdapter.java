@@ -29,13 +29,21 @@ public abstract class AbstractPacketAdapter implements PacketAdapter
 {
 
   private final Packet packet;
+  /**
+   * Payload of the packet, little endian and read only. For {@link DefaultPacket} this is the buffer of the packet
+   * itself, so subclasses must use absolute reads only.
+   */
   protected final ByteBuffer buffer;
 
   protected AbstractPacketAdapter(Packet packet)
   {
     this.packet = Objects.requireNonNull(packet,
                                          "packet is null");
-    this.buffer = packet.getData().order(ByteOrder.LITTLE_ENDIAN);
+    if (packet instanceof DefaultPacket) {
+      this.buffer = ((DefaultPacket) packet).getDataView();
+    } else {
+      this.buffer = packet.getData().order(ByteOrder.LITTLE_ENDIAN);
+    }
   }
 
   @Override
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.packet.impl;
+
+import at.or.reder.zcan20.PacketSelector;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * Matcher created by {@link PacketMatcherCompiler}. A packet matches if one of the rules matches. Evaluation reads the
+ * raw id, the dlc and at most one short of the payload, it does not create adapters and does not allocate. Only
+ * selectors of unknown type are handed the packet itself.
+ *
+ * @author Wolfgang Reder
+ */
+public final class CompiledPacketMatcher implements Predicate<Packet>
+{
+
+  private final int[] masks;
+  private final int[] patterns;
+  private final int[] dlcs;
+  private final int[] offsets;
+  private final short[] decoders;
+  private final PacketSelector[] selectors;
+
+  CompiledPacketMatcher(int[] masks,
+                        int[] patterns,
+                        int[] dlcs,
+                        int[] offsets,
+                        short[] decoders,
+                        PacketSelector[] selectors)
+  {
+    this.masks = masks;
+    this.patterns = patterns;
+    this.dlcs = dlcs;
+    this.offsets = offsets;
+    this.decoders = decoders;
+    this.selectors = selectors;
+  }
+
+  /**
+   * Number of rules.
+   *
+   * @return number of rules
+   */
+  public int size()
+  {
+    return masks.length;
+  }
+
+  @Override
+  public boolean test(Packet packet)
+  {
+    if (packet == null) {
+      return false;
+    }
+    int canId = packet.getCanIdValue();
+    int dlc = packet.getDLC();
+    ByteBuffer data = null;
+    for (int i = 0; i < masks.length; ++i) {
+      // a dlc of -1 matches every dlc
+      if ((canId & masks[i]) != patterns[i] || (dlcs[i] != dlc && dlcs[i] >= 0)) {
+        continue;
+      }
+      if (selectors[i] != null && !selectors[i].matches(packet)) {
+        continue;
+      }
+      int offset = offsets[i];
+      if (offset < 0) {
+        return true;
+      }
+      if (dlc >= offset + 2) {
+        if (data == null) {
+          data = packet instanceof DefaultPacket ? ((DefaultPacket) packet).getDataView() : packet.getData();
+        }
+        if (data.getShort(offset) == decoders[i]) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+}
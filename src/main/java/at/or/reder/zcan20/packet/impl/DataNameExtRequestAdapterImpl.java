@@ -88,19 +88,14 @@ final class DataNameExtRequestAdapterImpl extends AbstractPacketAdapter implemen
   @Override
   public String getText()
   {
-    ByteBuffer tmp = ByteBuffer.allocate(buffer.remaining());
-    buffer.mark();
-    try {
-      byte b;
-      buffer.position(12);
-      while (buffer.hasRemaining() && (b = buffer.get()) != 0) {
-        tmp.put(b);
-      }
-    } finally {
-      buffer.reset();
+    // the buffer is shared with the packet, so only absolute reads here
+    int end = 12;
+    while (end < buffer.limit() && buffer.get(end) != 0) {
+      ++end;
     }
-    tmp.limit(tmp.position());
-    tmp.rewind();
+    ByteBuffer tmp = buffer.duplicate();
+    tmp.position(12);
+    tmp.limit(end);
     CharBuffer charBuffer = Charset.forName("CP850").decode(tmp);
     return charBuffer.toString();
   }
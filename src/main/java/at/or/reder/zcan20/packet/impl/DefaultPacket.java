@@ -36,16 +36,18 @@ import org.openide.util.lookup.InstanceContent;
 public final class DefaultPacket implements Packet
 {
 
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
   private final CommandGroup group;
   private final CommandMode mode;
   private final byte command;
   private final short address;
   private final ByteBuffer data;
-  private final Lookup lookup;
-  private final CanId canId;
+  private final InstanceContent.Convertor<Packet, PacketAdapter> adapterFactory;
+  private final int canId;
+  private volatile PacketAdapter adapter;
+  private Lookup lookup;
   private String string;
 
-  @SuppressWarnings("LeakingThisInConstructor")
   DefaultPacket(@NotNull CommandGroup group,
                 @NotNull CommandMode mode,
                 byte command,
@@ -57,41 +59,116 @@ public final class DefaultPacket implements Packet
     this.mode = mode;
     this.command = command;
     this.address = address;
-    final int dataLen = data != null ? data.remaining() : 0;
-    if (dataLen > 0) {
-      ByteBuffer tmp = DCCUtils.allocateLEBuffer(dataLen);
-      tmp.put(data);
+    if (data != null && data.isReadOnly() && data.hasRemaining()) {
+      // read only buffers come from DefaultPacketBuilder, which never touches the content again
+      this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    } else if (data != null && data.hasRemaining()) {
+      ByteBuffer tmp = DCCUtils.allocateLEBuffer(data.remaining());
+      tmp.put(data.duplicate());
       tmp.clear();
-      this.data = tmp.asReadOnlyBuffer();
+      this.data = tmp.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
     } else {
-      this.data = ByteBuffer.allocate(0).asReadOnlyBuffer();
-    }
-    canId = CanId.valueOf(group,
-                          command,
-                          mode,
-                          address);
-    if (adapterFactory != null) {
-      InstanceContent ic = new InstanceContent();
-      ic.add(this,
-             adapterFactory);
-      lookup = new AbstractLookup(ic);
-    } else {
-      lookup = Lookup.EMPTY;
+      this.data = EMPTY;
     }
+    canId = CanId.intValueOf(group,
+                             command,
+                             mode,
+                             address);
+    this.adapterFactory = adapterFactory;
   }
 
   @Override
   public CanId getCanId()
+  {
+    return CanId.valueOf(canId);
+  }
+
+  @Override
+  public int getCanIdValue()
   {
     return canId;
   }
 
+  /**
+   * Compatibility view for clients using the lookup directly. It is only created on demand, {@link #getAdapter(java.lang.Class)
+   * } does not need it.
+   *
+   * @return lookup containing the adapter of this packet.
+   */
   @Override
-  public Lookup getLookup()
+  public synchronized Lookup getLookup()
   {
+    if (lookup == null) {
+      if (adapterFactory != null) {
+        InstanceContent ic = new InstanceContent();
+        ic.add(this,
+               new MemoizingConvertor());
+        lookup = new AbstractLookup(ic);
+      } else {
+        lookup = Lookup.EMPTY;
+      }
+    }
     return lookup;
   }
 
+  /**
+   * Creates the adapter on first use and returns the same instance afterwards. Like the lookup the adapter is only
+   * returned if the type declared by the factory is compatible with {@code clazz}.
+   *
+   * @param <T> requested adapter type
+   * @param clazz requested adapter type
+   * @return the adapter or {@code null}
+   */
+  @Override
+  public <T extends PacketAdapter> T getAdapter(Class<? extends T> clazz)
+  {
+    if (adapterFactory == null || !clazz.isAssignableFrom(adapterFactory.type(this))) {
+      return null;
+    }
+    PacketAdapter result = getAdapter();
+    return clazz.isInstance(result) ? clazz.cast(result) : null;
+  }
+
+  private PacketAdapter getAdapter()
+  {
+    PacketAdapter result = adapter;
+    if (result == null) {
+      // adapters are immutable views on the packet, a duplicate created by a concurrent caller is harmless
+      result = adapterFactory.convert(this);
+      adapter = result;
+    }
+    return result;
+  }
+
+  private final class MemoizingConvertor implements InstanceContent.Convertor<Packet, PacketAdapter>
+  {
+
+    @Override
+    public PacketAdapter convert(Packet obj)
+    {
+      return getAdapter();
+    }
+
+    @Override
+    public Class<? extends PacketAdapter> type(Packet obj)
+    {
+      return adapterFactory.type(obj);
+    }
+
+    @Override
+    public String id(Packet obj)
+    {
+      return adapterFactory.id(obj);
+    }
+
+    @Override
+    public String displayName(Packet obj)
+    {
+      return adapterFactory.displayName(obj);
+    }
+
+  }
+
   @Override
   public CommandGroup getCommandGroup()
   {
@@ -128,6 +205,16 @@ public final class DefaultPacket implements Packet
     return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
   }
 
+  /**
+   * The payload without duplicating it. Only absolute reads are allowed on the returned buffer.
+   *
+   * @return payload, read only and little endian.
+   */
+  ByteBuffer getDataView()
+  {
+    return data;
+  }
+
   @Override
   public int getDLC()
   {
@@ -137,7 +224,7 @@ public final class DefaultPacket implements Packet
   @Override
   public int hashCode()
   {
-    return getCanId().intValue();
+    return canId;
   }
 
   @Override
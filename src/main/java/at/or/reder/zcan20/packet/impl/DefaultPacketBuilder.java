@@ -23,7 +23,6 @@ import at.or.reder.zcan20.DataGroup;
 import at.or.reder.zcan20.InterfaceOptionType;
 import at.or.reder.zcan20.LocoActive;
 import at.or.reder.zcan20.ModuleInfoType;
-import at.or.reder.zcan20.PacketSelector;
 import at.or.reder.zcan20.PowerState;
 import at.or.reder.zcan20.Protocol;
 import at.or.reder.zcan20.SpeedFlags;
@@ -31,24 +30,19 @@ import at.or.reder.zcan20.SpeedSteps;
 import at.or.reder.zcan20.SpeedlimitMode;
 import at.or.reder.zcan20.ZCANFactory;
 import at.or.reder.zcan20.ZimoPowerMode;
-import at.or.reder.zcan20.impl.PacketSelectorImpl;
 import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.PacketAdapter;
-import at.or.reder.zcan20.packet.PacketAdapterFactory;
 import at.or.reder.zcan20.packet.PacketBuilder;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import org.openide.util.lookup.InstanceContent;
-import org.openide.util.lookup.Lookups;
 
 /**
  *
@@ -99,7 +93,6 @@ public final class DefaultPacketBuilder implements PacketBuilder
   private ByteBuffer data;
   private Function<Packet, PacketAdapter> givenAdapterFactory;
   private InstanceContent.Convertor<Packet, PacketAdapter> adapterFactory;
-  private final ConcurrentMap<PacketSelector, PacketAdapterFactory<PacketAdapter>> factoryCache = new ConcurrentHashMap<>();
 
   public DefaultPacketBuilder(short senderNID)
   {
@@ -184,8 +177,10 @@ public final class DefaultPacketBuilder implements PacketBuilder
   public PacketBuilder data(ByteBuffer data)
   {
     if (data != null && data.remaining() > 0) {
-      this.data = ByteBuffer.allocate(data.remaining());
-      this.data.put(data);
+      // the only copy of the payload, DefaultPacket shares it
+      byte[] tmp = new byte[data.remaining()];
+      data.get(tmp);
+      this.data = ByteBuffer.wrap(tmp).asReadOnlyBuffer();
     } else {
       this.data = null;
     }
@@ -199,29 +194,12 @@ public final class DefaultPacketBuilder implements PacketBuilder
     return this;
   }
 
-  private PacketAdapterFactory<PacketAdapter> lookupAdapterFactory(PacketSelector s)
-  {
-    @SuppressWarnings("unchecked")
-    Collection<? extends PacketAdapterFactory<PacketAdapter>> coll = Lookups.forPath(Packet.LOOKUPPATH).lookupAll(
-            PacketAdapterFactory.class);
-    for (PacketAdapterFactory<PacketAdapter> ef : coll) {
-      if (ef.isValid(s)) {
-        return ef;
-      }
-    }
-//    ZCAN.LOGGER.log(Level.WARNING,
-//                    () -> "Found no packetadapter for " + s.toString());
-    return null;
-  }
-
   private InstanceContent.Convertor<Packet, PacketAdapter> createAdapterFactory()
   {
-    PacketSelector selector = new PacketSelectorImpl(commandGroup,
-                                                     command,
-                                                     commandMode,
-                                                     data != null ? data.limit() : 0);
-    return factoryCache.computeIfAbsent(selector,
-                                        this::lookupAdapterFactory);
+    return PacketAdapterTable.getFactory(commandGroup,
+                                         command,
+                                         commandMode,
+                                         data != null ? data.limit() : 0);
   }
 
   @Override
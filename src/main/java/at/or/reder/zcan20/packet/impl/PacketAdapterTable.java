@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.packet.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.PacketSelector;
+import at.or.reder.zcan20.impl.PacketSelectorImpl;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.PacketAdapter;
+import at.or.reder.zcan20.packet.PacketAdapterFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+
+/**
+ * Process wide dispatch table from {@code (group,command,mode,dlc)} to the {@link PacketAdapterFactory} responsible for
+ * it.
+ *
+ * The factories are only asked once per key. For each command group a dense table covering all commands (0..0x3f),
+ * all modes and the dlc values 0..{@value #MAX_TABLE_DLC} is built on first use, other keys are cached in a map. The
+ * table is discarded whenever the registered factories change.
+ *
+ * @author Wolfgang Reder
+ */
+final class PacketAdapterTable
+{
+
+  static final int MAX_TABLE_DLC = 8;
+  private static final int NUM_COMMANDS = 0x40;
+  private static final int NUM_MODES = 4;
+  private static final int NUM_DLC = MAX_TABLE_DLC + 1;
+  private static final int GROUP_SIZE = NUM_COMMANDS * NUM_MODES * NUM_DLC;
+
+  private static final class Generation
+  {
+
+    private final int version;
+    private final List<PacketAdapterFactory<PacketAdapter>> factories;
+    private final AtomicReferenceArray<PacketAdapterFactory<?>[]> groups = new AtomicReferenceArray<>(256);
+    private final ConcurrentMap<PacketSelector, Object> overflow = new ConcurrentHashMap<>();
+
+    private Generation(int version,
+                       List<PacketAdapterFactory<PacketAdapter>> factories)
+    {
+      this.version = version;
+      this.factories = factories;
+    }
+
+    private PacketAdapterFactory<PacketAdapter> find(PacketSelector selector)
+    {
+      for (PacketAdapterFactory<PacketAdapter> f : factories) {
+        if (f.isValid(selector)) {
+          return f;
+        }
+      }
+      return null;
+    }
+
+    private PacketAdapterFactory<?>[] buildGroup(CommandGroup group)
+    {
+      PacketAdapterFactory<?>[] result = new PacketAdapterFactory<?>[GROUP_SIZE];
+      for (CommandMode mode : CommandMode.values()) {
+        for (int cmd = 0; cmd < NUM_COMMANDS; ++cmd) {
+          for (int dlc = 0; dlc < NUM_DLC; ++dlc) {
+            result[index(cmd,
+                         mode.getMagic(),
+                         dlc)] = find(new PacketSelectorImpl(group,
+                                                             (byte) cmd,
+                                                             mode,
+                                                             dlc));
+          }
+        }
+      }
+      return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private PacketAdapterFactory<PacketAdapter> get(CommandGroup group,
+                                                    byte command,
+                                                    CommandMode mode,
+                                                    int dlc)
+    {
+      if ((command & 0x3f) != command || dlc < 0 || dlc > MAX_TABLE_DLC) {
+        Object f = overflow.computeIfAbsent(new PacketSelectorImpl(group,
+                                                                   command,
+                                                                   mode,
+                                                                   dlc),
+                                            (s) -> {
+                                              PacketAdapterFactory<PacketAdapter> tmp = find(s);
+                                              return tmp != null ? tmp : NONE;
+                                            });
+        return f != NONE ? (PacketAdapterFactory<PacketAdapter>) f : null;
+      }
+      int g = group.getMagic() & 0xff;
+      PacketAdapterFactory<?>[] table = groups.get(g);
+      if (table == null) {
+        // concurrent builds of the same group yield identical tables, so the loser is simply discarded
+        table = buildGroup(group);
+        if (!groups.compareAndSet(g,
+                                  null,
+                                  table)) {
+          table = groups.get(g);
+        }
+      }
+      return (PacketAdapterFactory<PacketAdapter>) table[index(command,
+                                                               mode.getMagic(),
+                                                               dlc)];
+    }
+
+  }
+
+  private static final Object NONE = new Object();
+  private static final Lookup.Result<PacketAdapterFactory<?>> RESULT;
+  private static final AtomicInteger VERSION = new AtomicInteger();
+  private static final AtomicReference<Generation> GENERATION = new AtomicReference<>();
+
+  static {
+    RESULT = lookupFactories();
+    RESULT.addLookupListener((ev) -> invalidate());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Lookup.Result<PacketAdapterFactory<?>> lookupFactories()
+  {
+    Class<PacketAdapterFactory<?>> clazz = (Class<PacketAdapterFactory<?>>) (Class<?>) PacketAdapterFactory.class;
+    return Lookups.forPath(Packet.LOOKUPPATH).lookupResult(clazz);
+  }
+
+  private static int index(int command,
+                           int mode,
+                           int dlc)
+  {
+    return ((command * NUM_MODES) + (mode & 0x3)) * NUM_DLC + dlc;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Generation getGeneration()
+  {
+    Generation current = GENERATION.get();
+    // read the version before the factories, so a change that races the build leaves a newer version behind
+    int version = VERSION.get();
+    if (current != null && current.version == version) {
+      return current;
+    }
+    List<PacketAdapterFactory<PacketAdapter>> factories = new ArrayList<>();
+    for (PacketAdapterFactory<?> f : RESULT.allInstances()) {
+      factories.add((PacketAdapterFactory<PacketAdapter>) f);
+    }
+    Generation result = new Generation(version,
+                                       factories);
+    GENERATION.compareAndSet(current,
+                             result);
+    return result;
+  }
+
+  /**
+   * Returns the factory for the given key or {@code null} if no factory accepts it.
+   *
+   * @param group command group
+   * @param command command
+   * @param mode command mode
+   * @param dlc length of the payload
+   * @return the factory or {@code null}
+   */
+  static PacketAdapterFactory<PacketAdapter> getFactory(CommandGroup group,
+                                                        byte command,
+                                                        CommandMode mode,
+                                                        int dlc)
+  {
+    if (group == null || mode == null) {
+      return null;
+    }
+    return getGeneration().get(group,
+                               command,
+                               mode,
+                               dlc);
+  }
+
+  /**
+   * Drops the current table. The next lookup rebuilds it from the registered factories.
+   */
+  static void invalidate()
+  {
+    VERSION.incrementAndGet();
+    GENERATION.set(null);
+  }
+
+  private PacketAdapterTable()
+  {
+  }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.packet.impl;
+
+import at.or.reder.dcc.util.CanIdMatcher;
+import at.or.reder.zcan20.PacketSelector;
+import at.or.reder.zcan20.impl.PacketSelectorImpl;
+import at.or.reder.zcan20.ui.PatternPacketSelector;
+import at.or.reder.zcan20.util.ProxyPacketSelector;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Flattens selectors and decoder conditions to a table of mask, pattern, dlc and payload offset. Selectors of unknown
+ * type are kept and evaluated by their {@link PacketSelector#matches(at.or.reder.zcan20.packet.Packet) } method.
+ *
+ * @author Wolfgang Reder
+ */
+public final class PacketMatcherCompiler
+{
+
+  private static final int MASK_GROUP = 0x0f000000;
+  private static final int MASK_COMMAND = 0x00fc0000;
+  private static final int MASK_MODE = 0x00030000;
+  private int[] masks = new int[8];
+  private int[] patterns = new int[8];
+  private int[] dlcs = new int[8];
+  private int[] offsets = new int[8];
+  private short[] decoders = new short[8];
+  private PacketSelector[] selectors = new PacketSelector[8];
+  private int size;
+
+  /**
+   * Adds a rule matching every packet matched by {@code selector}.
+   *
+   * @param selector selector
+   * @return {@code this}
+   */
+  public PacketMatcherCompiler add(@NotNull PacketSelector selector)
+  {
+    return addDecoder(selector,
+                      -1,
+                      (short) 0);
+  }
+
+  /**
+   * Adds a rule matching packets matched by {@code selector}, that carry {@code decoderId} as little endian short at
+   * {@code offset} of the payload.
+   *
+   * @param selector selector
+   * @param offset offset of the decoder id in the payload, {@code -1} if the payload is not checked
+   * @param decoderId decoder id
+   * @return {@code this}
+   */
+  public PacketMatcherCompiler addDecoder(@NotNull PacketSelector selector,
+                                          int offset,
+                                          short decoderId)
+  {
+    Objects.requireNonNull(selector,
+                           "selector is null");
+    if (selector instanceof ProxyPacketSelector) {
+      for (PacketSelector s : ((ProxyPacketSelector) selector).getSelectors()) {
+        addDecoder(s,
+                   offset,
+                   decoderId);
+      }
+    } else if (selector instanceof PacketSelectorImpl) {
+      PacketSelectorImpl s = (PacketSelectorImpl) selector;
+      if ((s.getCommand() & ~0x3f) != 0) {
+        // the command field of the id has 6 bits, this selector never matches
+        return this;
+      }
+      int mask = MASK_COMMAND;
+      int pattern = (s.getCommand() & 0x3f) << 18;
+      if (s.getCommandGroup() != null) {
+        mask |= MASK_GROUP;
+        pattern |= (s.getCommandGroup().getMagic() & 0xf) << 24;
+      }
+      if (s.getCommandMode() != null) {
+        mask |= MASK_MODE;
+        pattern |= (s.getCommandMode().getMagic() & 0x3) << 16;
+      }
+      addRule(mask,
+              pattern,
+              s.getDLC(),
+              offset,
+              decoderId,
+              null);
+    } else if (selector instanceof PatternPacketSelector) {
+      PatternPacketSelector s = (PatternPacketSelector) selector;
+      addRule(s.getMask(),
+              s.getPattern(),
+              -1,
+              offset,
+              decoderId,
+              null);
+    } else {
+      addRule(0,
+              0,
+              -1,
+              offset,
+              decoderId,
+              selector);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a rule matching the packets matched by {@code matcher}.
+   *
+   * @param matcher matcher
+   * @return {@code this}
+   */
+  public PacketMatcherCompiler add(@NotNull CanIdMatcher matcher)
+  {
+    Objects.requireNonNull(matcher,
+                           "matcher is null");
+    addRule(matcher.getMask(),
+            matcher.getCanIdValue() & matcher.getMask(),
+            -1,
+            -1,
+            (short) 0,
+            null);
+    return this;
+  }
+
+  private void addRule(int mask,
+                       int pattern,
+                       int dlc,
+                       int offset,
+                       short decoder,
+                       PacketSelector selector)
+  {
+    int d = dlc < 0 ? -1 : dlc;
+    int o = offset < 0 ? -1 : offset;
+    short dec = o < 0 ? 0 : decoder;
+    for (int i = 0; i < size; ++i) {
+      if (masks[i] == mask && patterns[i] == pattern && dlcs[i] == d && offsets[i] == o && decoders[i] == dec
+                  && Objects.equals(selectors[i],
+                                    selector)) {
+        return;
+      }
+    }
+    if (size == masks.length) {
+      int newSize = size * 2;
+      masks = Arrays.copyOf(masks,
+                            newSize);
+      patterns = Arrays.copyOf(patterns,
+                               newSize);
+      dlcs = Arrays.copyOf(dlcs,
+                           newSize);
+      offsets = Arrays.copyOf(offsets,
+                              newSize);
+      decoders = Arrays.copyOf(decoders,
+                               newSize);
+      selectors = Arrays.copyOf(selectors,
+                                newSize);
+    }
+    masks[size] = mask;
+    patterns[size] = pattern;
+    dlcs[size] = d;
+    offsets[size] = o;
+    decoders[size] = dec;
+    selectors[size] = selector;
+    ++size;
+  }
+
+  public CompiledPacketMatcher compile()
+  {
+    return new CompiledPacketMatcher(Arrays.copyOf(masks,
+                                                   size),
+                                     Arrays.copyOf(patterns,
+                                                   size),
+                                     Arrays.copyOf(dlcs,
+                                                   size),
+                                     Arrays.copyOf(offsets,
+                                                   size),
+                                     Arrays.copyOf(decoders,
+                                                   size),
+                                     Arrays.copyOf(selectors,
+                                                   size));
+  }
+
+}
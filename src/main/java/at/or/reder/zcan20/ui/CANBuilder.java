@@ -241,7 +241,7 @@ public final class CANBuilder extends JFrame
               edCommandGroup);
       setEdit(packet.getData(),
               edData);
-      setEdit(packet.getCanId().intValue(),
+      setEdit(packet.getCanIdValue(),
               8,
               edCanId);
       setCommandMode(packet.getCommandMode());
@@ -239,7 +239,7 @@ public final class CANBuilderPanel extends JPanel
               edCommandGroup);
       setEdit(packet.getData(),
               edData);
-      setEdit(packet.getCanId().intValue(),
+      setEdit(packet.getCanIdValue(),
               8,
               edCanId);
       setCommandMode(packet.getCommandMode());
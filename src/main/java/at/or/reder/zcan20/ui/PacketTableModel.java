@@ -118,7 +118,7 @@ public final class PacketTableModel implements TableModel
                                                     (i) -> packet.getTimestamp().toString());
       case 1:
         return packet.getLabelMap().computeIfAbsent(columnIndex,
-                                                    (i) -> DCCUtils.appendHexString(packet.getCanId().intValue(),
+                                                    (i) -> DCCUtils.appendHexString(packet.getCanIdValue(),
                                                                                  new StringBuilder(),
                                                                                  4).toString());
       case 2:
@@ -36,16 +36,33 @@ public final class PatternPacketSelector implements PacketSelector
     this.pattern = pattern & mask;
   }
 
+  public int getMask()
+  {
+    return mask;
+  }
+
+  public int getPattern()
+  {
+    return pattern;
+  }
+
   @Override
   public boolean matches(Packet packet)
   {
     if (packet != null) {
-      int id = packet.getCanId().intValue();
-      return (id & mask) == pattern;
+      return matches(packet.getCanIdValue(),
+                     packet.getDLC());
     }
     return false;
   }
 
+  @Override
+  public boolean matches(int canId,
+                         int dlc)
+  {
+    return (canId & mask) == pattern;
+  }
+
   @Override
   public boolean test(PacketSelector t)
   {
@@ -75,6 +75,12 @@ public final class TSPacket implements Packet
     return packet.getCanId();
   }
 
+  @Override
+  public int getCanIdValue()
+  {
+    return packet.getCanIdValue();
+  }
+
   @Override
   public CommandGroup getCommandGroup()
   {
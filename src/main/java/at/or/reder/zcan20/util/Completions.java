@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.validation.constraints.NotNull;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Helpers for the blocking wrappers around the asynchronous request methods.
+ *
+ * @author Wolfgang Reder
+ */
+public final class Completions
+{
+
+  // blocking calls must not park the threads of the common pool
+  private static final RequestProcessor BLOCKING = new RequestProcessor("Completions",
+                                                                        8,
+                                                                        false,
+                                                                        false);
+
+  /**
+   * Waits for {@code stage} and unwraps its failure. The timeout is part of the stage, so no timeout is needed here.
+   *
+   * @param <T> result type
+   * @param stage stage to wait for
+   * @return result of the stage
+   * @throws IOException if the stage failed with an IOException, or any other checked exception. If the calling thread
+   * is interrupted a {@link InterruptedIOException} is thrown.
+   * @throws TimeoutException if the stage failed with a TimeoutException
+   */
+  public static <T> T await(@NotNull CompletionStage<T> stage) throws IOException, TimeoutException
+  {
+    CompletableFuture<T> future = stage.toCompletableFuture();
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      future.cancel(false);
+      InterruptedIOException result = new InterruptedIOException();
+      result.initCause(ex);
+      throw result;
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof TimeoutException) {
+        throw (TimeoutException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Runs a blocking {@code call} on a small pool reserved for blocking calls and returns its result as stage. Meant for
+   * default implementations of the asynchronous methods, an implementation with native asynchronous support should
+   * override them. An {@link ExecutionException} thrown by {@code call} fails the stage with its cause.
+   *
+   * @param <T> result type
+   * @param call the blocking call
+   * @return stage completing with the result of {@code call}
+   */
+  public static <T> CompletionStage<T> callAsync(@NotNull Callable<? extends T> call)
+  {
+    return callAsync(call,
+                     BLOCKING);
+  }
+
+  /**
+   * Runs a blocking {@code call} on {@code executor} and returns its result as stage. An {@link ExecutionException}
+   * thrown by {@code call} fails the stage with its cause.
+   *
+   * @param <T> result type
+   * @param call the blocking call
+   * @param executor executor running {@code call}
+   * @return stage completing with the result of {@code call}
+   */
+  public static <T> CompletionStage<T> callAsync(@NotNull Callable<? extends T> call,
+                                                 @NotNull Executor executor)
+  {
+    Objects.requireNonNull(call,
+                           "call is null");
+    Objects.requireNonNull(executor,
+                           "executor is null");
+    CompletableFuture<T> result = new CompletableFuture<>();
+    executor.execute(() -> {
+      try {
+        result.complete(call.call());
+      } catch (ExecutionException ex) {
+        result.completeExceptionally(ex.getCause());
+      } catch (Throwable th) {
+        result.completeExceptionally(th);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Sends a request and returns its answer as stage. {@code request} is called by the calling thread and must not block.
+   * If it returns a {@link CompletableFuture}, the stage is composed on it and no thread waits for the answer. Any other
+   * future is waited for like in {@link #callAsync(java.util.concurrent.Callable) }.
+   *
+   * @param <T> result type
+   * @param request sends the request and returns the future of the answer
+   * @param timeout time to wait for the answer
+   * @param unit unit of {@code timeout}
+   * @return stage completing with the answer, or failing with a {@link TimeoutException}
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> CompletionStage<T> requestAsync(@NotNull Callable<? extends Future<? extends T>> request,
+                                                    long timeout,
+                                                    @NotNull TimeUnit unit)
+  {
+    Objects.requireNonNull(request,
+                           "request is null");
+    Objects.requireNonNull(unit,
+                           "unit is null");
+    Future<? extends T> future;
+    try {
+      future = request.call();
+    } catch (Exception ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    if (future instanceof CompletableFuture) {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      ((CompletableFuture<? extends T>) future).whenComplete((v, th) -> {
+        if (th instanceof CompletionException && th.getCause() != null) {
+          result.completeExceptionally(th.getCause());
+        } else if (th != null) {
+          result.completeExceptionally(th);
+        } else {
+          result.complete(v);
+        }
+      });
+      return result.orTimeout(timeout,
+                              unit);
+    }
+    return callAsync(() -> future.get(timeout,
+                                      unit));
+  }
+
+  private Completions()
+  {
+  }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.util;
+
+import java.util.Arrays;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntFunction;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Listeners registered for an int index, typically a decoder address. Listeners registered for the wildcard index
+ * receive the events of all indices.
+ * <p>
+ * Every mutation publishes a new immutable snapshot where the listeners of each index are already merged with the
+ * wildcard listeners. {@link #getListener(int) } neither locks nor allocates, it returns an array of the snapshot that
+ * must not be modified.
+ *
+ * @param <L> listener type
+ * @author Wolfgang Reder
+ */
+public final class IntIndexedListenerSupport<L extends EventListener>
+{
+
+  private final class Snapshot
+  {
+
+    private final int[] indices;
+    private final L[][] listener;
+    private final L[] wildcard;
+
+    private Snapshot(int[] indices,
+                     L[][] listener,
+                     L[] wildcard)
+    {
+      this.indices = indices;
+      this.listener = listener;
+      this.wildcard = wildcard;
+    }
+
+  }
+
+  private final int wildcardIndex;
+  private final IntFunction<L[]> arrayFactory;
+  private final Map<Integer, Set<L>> listenerMap = new HashMap<>();
+  private volatile Snapshot snapshot;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param wildcardIndex index of the listeners receiving all events
+   * @param arrayFactory creates the listener arrays, e.g. {@code MyListener[]::new}
+   */
+  public IntIndexedListenerSupport(int wildcardIndex,
+                                   @NotNull IntFunction<L[]> arrayFactory)
+  {
+    this.wildcardIndex = wildcardIndex;
+    this.arrayFactory = Objects.requireNonNull(arrayFactory,
+                                               "arrayFactory is null");
+    rebuild();
+  }
+
+  /**
+   * The listeners of {@code index} including the wildcard listeners.
+   *
+   * @param index index
+   * @return listeners, never {@code null}. The array is shared and must not be modified.
+   */
+  public L[] getListener(int index)
+  {
+    Snapshot s = snapshot;
+    int pos = Arrays.binarySearch(s.indices,
+                                  index);
+    return pos >= 0 ? s.listener[pos] : s.wildcard;
+  }
+
+  public void addEventListener(int index,
+                               L listener)
+  {
+    if (listener != null) {
+      synchronized (listenerMap) {
+        if (listenerMap.computeIfAbsent(index,
+                                        (i) -> new LinkedHashSet<>()).add(listener)) {
+          rebuild();
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes {@code listener} from {@code index}.
+   *
+   * @param index index
+   * @param listener listener
+   * @return {@code true} if the listener was registered for {@code index}
+   */
+  public boolean removeEventListener(int index,
+                                     L listener)
+  {
+    if (listener != null) {
+      synchronized (listenerMap) {
+        Set<L> set = listenerMap.get(index);
+        if (set != null && set.remove(listener)) {
+          if (set.isEmpty()) {
+            listenerMap.remove(index);
+          }
+          rebuild();
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  public boolean isEmpty()
+  {
+    Snapshot s = snapshot;
+    return s.indices.length == 0 && s.wildcard.length == 0;
+  }
+
+  private void rebuild()
+  {
+    synchronized (listenerMap) {
+      Set<L> wildcardSet = listenerMap.get(wildcardIndex);
+      L[] wildcard = wildcardSet != null ? wildcardSet.toArray(arrayFactory.apply(wildcardSet.size())) : arrayFactory.
+              apply(0);
+      int[] indices = listenerMap.keySet().stream().
+              mapToInt(Integer::intValue).
+              filter((i) -> i != wildcardIndex).
+              sorted().
+              toArray();
+      @SuppressWarnings("unchecked")
+      L[][] listener = (L[][]) new EventListener[indices.length][];
+      for (int i = 0; i < indices.length; ++i) {
+        Set<L> merged = new LinkedHashSet<>(listenerMap.get(indices[i]));
+        if (wildcardSet != null) {
+          merged.addAll(wildcardSet);
+        }
+        listener[i] = merged.toArray(arrayFactory.apply(merged.size()));
+      }
+      snapshot = new Snapshot(indices,
+                              listener,
+                              wildcard);
+    }
+  }
+
+}
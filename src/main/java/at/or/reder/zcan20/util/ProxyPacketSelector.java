@@ -55,16 +55,44 @@ public final class ProxyPacketSelector implements PacketSelector
     this.predicates = predicates.stream().filter(Predicates::isNotNull).collect(Collectors.toUnmodifiableList());
   }
 
+  public PacketSelector[] getSelectors()
+  {
+    return predicates.toArray(new PacketSelector[predicates.size()]);
+  }
+
   @Override
   public boolean matches(Packet packet)
   {
-    return predicates.stream().parallel().filter((p) -> p.matches(packet)).findAny().isPresent();
+    for (PacketSelector p : predicates) {
+      if (p.matches(packet)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean matches(int canId,
+                         int dlc)
+  {
+    for (PacketSelector p : predicates) {
+      if (p.matches(canId,
+                    dlc)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
   public boolean test(PacketSelector s)
   {
-    return predicates.stream().parallel().filter((p) -> p.test(s)).findAny().isPresent();
+    for (PacketSelector p : predicates) {
+      if (p.test(s)) {
+        return true;
+      }
+    }
+    return false;
   }
 
 }
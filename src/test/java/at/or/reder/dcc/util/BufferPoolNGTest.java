@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class BufferPoolNGTest
+{
+
+  @Test
+  public void testReuse()
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4);
+    ByteBuffer first;
+    try (BufferPool.BufferItem item = pool.getBuffer()) {
+      first = item.getBuffer();
+      assertEquals(16,
+                   first.capacity());
+      first.put((byte) 1);
+      assertEquals(1,
+                   pool.getOutstandingCount());
+    }
+    assertEquals(0,
+                 pool.getOutstandingCount());
+    try (BufferPool.BufferItem item = pool.getBuffer()) {
+      assertSame(first,
+                 item.getBuffer());
+      assertEquals(0,
+                   item.getBuffer().position());
+    }
+    assertEquals(1,
+                 pool.getMissCount());
+    assertEquals(1,
+                 pool.getHitCount());
+  }
+
+  @Test
+  public void testNestedBuffersAreDistinct()
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4,
+                                     true,
+                                     BufferPool.DEFAULT_MAX_AGE);
+    try (BufferPool.BufferItem a = pool.getBuffer();
+            BufferPool.BufferItem b = pool.getBuffer()) {
+      assertNotSame(a.getBuffer(),
+                    b.getBuffer());
+      assertTrue(a.getBuffer().isDirect());
+      assertEquals(2,
+                   pool.getOutstandingCount());
+    }
+    assertEquals(0,
+                 pool.getOutstandingCount());
+  }
+
+  @Test
+  public void testDoubleClose()
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4);
+    BufferPool.BufferItem item = pool.getBuffer();
+    item.close();
+    item.close();
+    assertEquals(0,
+                 pool.getOutstandingCount());
+    try (BufferPool.BufferItem a = pool.getBuffer();
+            BufferPool.BufferItem b = pool.getBuffer()) {
+      assertNotSame(a.getBuffer(),
+                    b.getBuffer());
+    }
+  }
+
+  @Test
+  public void testTrim() throws Exception
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4,
+                                     false,
+                                     0);
+    BufferPool.BufferItem a = pool.getBuffer();
+    BufferPool.BufferItem b = pool.getBuffer();
+    a.close();
+    b.close();
+    assertEquals(1,
+                 pool.getFreeCount());
+    Thread.sleep(5);
+    pool.trim();
+    assertEquals(0,
+                 pool.getFreeCount());
+    // the buffer cached by this thread is dropped too
+    try (BufferPool.BufferItem c = pool.getBuffer()) {
+      assertEquals(3,
+                   pool.getMissCount());
+    }
+  }
+
+  @Test
+  public void testClose()
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4);
+    BufferPool.BufferItem a = pool.getBuffer();
+    BufferPool.BufferItem b = pool.getBuffer();
+    BufferPool.BufferItem c = pool.getBuffer();
+    a.close();
+    b.close();
+    pool.close();
+    assertEquals(0,
+                 pool.getFreeCount());
+    // still usable, but nothing is kept
+    c.close();
+    assertEquals(0,
+                 pool.getOutstandingCount());
+    try (BufferPool.BufferItem d = pool.getBuffer()) {
+      assertEquals(4,
+                   pool.getMissCount());
+    }
+    assertEquals(0,
+                 pool.getFreeCount());
+  }
+
+  @Test
+  public void testNotPinnedByThreadCache() throws Exception
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4);
+    pool.getBuffer().close();
+    WeakReference<BufferPool> ref = new WeakReference<>(pool);
+    pool = null;
+    for (int i = 0; i < 50 && ref.get() != null; ++i) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(ref.get());
+  }
+
+  @Test
+  public void testConcurrentOwnership() throws Exception
+  {
+    BufferPool pool = new BufferPool(16,
+                                     4);
+    Set<ByteBuffer> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    AtomicBoolean failed = new AtomicBoolean();
+    int numThreads = 8;
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int t = 0; t < numThreads; ++t) {
+        executor.execute(() -> {
+          try {
+            start.await();
+            for (int i = 0; i < 10_000; ++i) {
+              try (BufferPool.BufferItem item = pool.getBuffer()) {
+                if (!inUse.add(item.getBuffer())) {
+                  failed.set(true);
+                }
+                inUse.remove(item.getBuffer());
+              }
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      }
+      start.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(30,
+                                         TimeUnit.SECONDS));
+    assertFalse(failed.get());
+    assertEquals(0,
+                 pool.getOutstandingCount());
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the bitwise {@link DCCUtils#crc(int, java.nio.ByteBuffer, int, int)} with the table driven {@link CRC}. Run
+ * {@link #main(java.lang.String[]) } from the test classpath.
+ *
+ * @author Wolfgang Reder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRCBenchmark
+{
+
+  @Param({"13", "64", "1500"})
+  public int frameSize;
+  private ByteBuffer heapBuffer;
+  private ByteBuffer directBuffer;
+
+  @Setup
+  public void setup()
+  {
+    byte[] data = new byte[frameSize];
+    new Random(frameSize).nextBytes(data);
+    heapBuffer = ByteBuffer.wrap(data);
+    directBuffer = ByteBuffer.allocateDirect(frameSize).put(data).flip();
+  }
+
+  @Benchmark
+  public int bitwiseCrc16()
+  {
+    return DCCUtils.crc(0,
+                        heapBuffer,
+                        0x8810,
+                        0xffff);
+  }
+
+  @Benchmark
+  public int tableCrc16Heap()
+  {
+    return CRC.CRC16.update(0,
+                            heapBuffer);
+  }
+
+  @Benchmark
+  public int tableCrc16Direct()
+  {
+    return CRC.CRC16.update(0,
+                            directBuffer);
+  }
+
+  @Benchmark
+  public int tableCrc16ByteByByte()
+  {
+    int crc = 0;
+    for (int i = 0; i < frameSize; ++i) {
+      crc = CRC.CRC16.update(crc,
+                             heapBuffer.get(i));
+    }
+    return crc;
+  }
+
+  @Benchmark
+  public int bitwiseCrc8()
+  {
+    return DCCUtils.crc(0xff,
+                        heapBuffer,
+                        0x8c,
+                        0xff);
+  }
+
+  @Benchmark
+  public int tableCrc8Heap()
+  {
+    return CRC.CRC8.update(0xff,
+                           heapBuffer);
+  }
+
+  public static void main(String[] args) throws RunnerException
+  {
+    new Runner(new OptionsBuilder().include(CRCBenchmark.class.getSimpleName()).build()).run();
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class CRCNGTest
+{
+
+  private static byte[] randomBytes(int len,
+                                    long seed)
+  {
+    byte[] result = new byte[len];
+    new Random(seed).nextBytes(result);
+    return result;
+  }
+
+  @Test
+  public void testCrc8MatchesBitwise()
+  {
+    for (int len = 0; len < 64; ++len) {
+      byte[] data = randomBytes(len,
+                                len);
+      int expected = DCCUtils.crc(0xff,
+                                  ByteBuffer.wrap(data),
+                                  0x8c,
+                                  0xff);
+      assertEquals("len=" + len,
+                   expected,
+                   CRC.CRC8.update(0xff,
+                                   data,
+                                   0,
+                                   len));
+      assertEquals("len=" + len,
+                   expected,
+                   CRC.CRC8.update(0xff,
+                                   ByteBuffer.allocateDirect(len).put(data).flip()));
+    }
+  }
+
+  @Test
+  public void testCrc16MatchesBitwise()
+  {
+    for (int len = 0; len < 64; ++len) {
+      byte[] data = randomBytes(len,
+                                len + 100);
+      int expected = DCCUtils.crc(0x1234,
+                                  ByteBuffer.wrap(data),
+                                  0x8810,
+                                  0xffff);
+      assertEquals("len=" + len,
+                   expected,
+                   CRC.CRC16.update(0x1234,
+                                    data,
+                                    0,
+                                    len));
+      assertEquals("len=" + len,
+                   expected,
+                   CRC.CRC16.update(0x1234,
+                                    ByteBuffer.allocateDirect(len).put(data).flip()));
+    }
+  }
+
+  @Test
+  public void testIncremental()
+  {
+    byte[] data = randomBytes(37,
+                              4711);
+    int crc = 0;
+    for (byte b : data) {
+      crc = CRC.CRC16.update(crc,
+                             b);
+    }
+    assertEquals(CRC.CRC16.update(0,
+                                  data,
+                                  0,
+                                  data.length),
+                 crc);
+  }
+
+  @Test
+  public void testBufferUnchanged()
+  {
+    ByteBuffer buffer = ByteBuffer.wrap(randomBytes(10,
+                                                    1));
+    buffer.position(2);
+    buffer.limit(8);
+    int crc = CRC.CRC16.update(0,
+                               buffer);
+    assertEquals(2,
+                 buffer.position());
+    assertEquals(8,
+                 buffer.limit());
+    assertEquals(CRC.CRC16.update(0,
+                                  buffer.array(),
+                                  2,
+                                  6),
+                 crc);
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class LaneExecutorNGTest
+{
+
+  @Test
+  public void testOrderPerKey() throws InterruptedException
+  {
+    LaneExecutor executor = new LaneExecutor(4,
+                                             (r) -> {
+                                               Thread t = new Thread(r);
+                                               t.setDaemon(true);
+                                               return t;
+                                             });
+    final int numKeys = 16;
+    final int numTasks = 1000;
+    List<List<Integer>> results = new ArrayList<>();
+    for (int k = 0; k < numKeys; ++k) {
+      results.add(Collections.synchronizedList(new ArrayList<>()));
+    }
+    CountDownLatch latch = new CountDownLatch(numKeys * numTasks);
+    for (int i = 0; i < numTasks; ++i) {
+      for (int k = 0; k < numKeys; ++k) {
+        final int key = k;
+        final int value = i;
+        executor.execute(key,
+                         () -> {
+                           results.get(key).add(value);
+                           latch.countDown();
+                         });
+      }
+    }
+    assertTrue(latch.await(10,
+                           TimeUnit.SECONDS));
+    for (List<Integer> l : results) {
+      assertEquals(numTasks,
+                   l.size());
+      for (int i = 0; i < numTasks; ++i) {
+        assertEquals(i,
+                     l.get(i).intValue());
+      }
+    }
+    // the statistics are updated after the task has counted down the latch
+    long timeout = System.currentTimeMillis() + 5000;
+    while (executor.getQueueDepth() > 0 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    assertEquals(numKeys * numTasks,
+                 executor.getExecutedCount());
+    assertEquals(0,
+                 executor.getQueueDepth());
+  }
+
+  @Test
+  public void testRejected()
+  {
+    AtomicBoolean reject = new AtomicBoolean(true);
+    LaneExecutor executor = new LaneExecutor(1,
+                                             (Runnable r) -> {
+                                               if (reject.get()) {
+                                                 throw new RejectedExecutionException();
+                                               }
+                                               r.run();
+                                             });
+    AtomicInteger counter = new AtomicInteger();
+    try {
+      executor.execute(1,
+                       counter::incrementAndGet);
+      fail("RejectedExecutionException expected");
+    } catch (RejectedExecutionException ex) {
+    }
+    assertEquals(0,
+                 executor.getQueueDepth());
+    assertEquals(0,
+                 counter.get());
+    reject.set(false);
+    executor.execute(1,
+                     counter::incrementAndGet);
+    assertEquals(1,
+                 counter.get());
+    assertEquals(0,
+                 executor.getQueueDepth());
+  }
+
+}
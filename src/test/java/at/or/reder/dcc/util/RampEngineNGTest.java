@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import at.or.reder.dcc.Direction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class RampEngineNGTest
+{
+
+  @Test
+  public void testLinear()
+  {
+    RampProfile.Ramp ramp = RampProfile.linear(100).start(10,
+                                                          50);
+    assertEquals(10,
+                 ramp.speedAt(0));
+    assertEquals(30,
+                 ramp.speedAt(200));
+    assertEquals(50,
+                 ramp.speedAt(1000));
+    ramp = RampProfile.linear(100).start(50,
+                                         0);
+    assertEquals(40,
+                 ramp.speedAt(100));
+    assertEquals(0,
+                 ramp.speedAt(600));
+  }
+
+  @Test
+  public void testSCurve()
+  {
+    RampProfile.Ramp ramp = RampProfile.sCurve(100).start(0,
+                                                          100);
+    assertEquals(0,
+                 ramp.speedAt(0));
+    assertEquals(50,
+                 ramp.speedAt(500));
+    assertTrue(ramp.speedAt(100) < 10);
+    assertEquals(100,
+                 ramp.speedAt(1000));
+  }
+
+  @Test
+  public void testBrakingTable()
+  {
+    // 1 unit per second at speed 1, 100 units to go
+    RampProfile.Ramp ramp = RampProfile.brakingTable(100,
+                                                     1,
+                                                     new double[]{0, 50},
+                                                     new int[]{5, 50}).start(50,
+                                                                             0);
+    assertEquals(50,
+                 ramp.speedAt(0));
+    // 50 units travelled in one second
+    int speed = ramp.speedAt(1000);
+    assertEquals(50,
+                 speed);
+    speed = ramp.speedAt(1500);
+    assertTrue(speed < 50 && speed > 5);
+    long elapsed = 1500;
+    while (speed != 0 && elapsed < 100000) {
+      elapsed += 100;
+      speed = ramp.speedAt(elapsed);
+      assertTrue(speed == 0 || speed >= 5);
+    }
+    assertEquals(0,
+                 speed);
+  }
+
+  @Test
+  public void testEngine() throws Exception
+  {
+    RampEngine engine = new RampEngine("RampEngineNGTest",
+                                       5);
+    List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+    CompletableFuture<Void> done = engine.start("loco",
+                                                (dir, speed) -> sent.add(speed),
+                                                Direction.FORWARD,
+                                                0,
+                                                10,
+                                                RampProfile.linear(100));
+    done.get(5,
+             TimeUnit.SECONDS);
+    assertEquals(0,
+                 engine.getActiveCount());
+    assertEquals(Integer.valueOf(10),
+                 sent.get(sent.size() - 1));
+    for (int i = 1; i < sent.size(); ++i) {
+      assertTrue(sent.get(i) > sent.get(i - 1));
+    }
+    // nothing to do, nothing sent
+    sent.clear();
+    engine.start("loco",
+                 (dir, speed) -> sent.add(speed),
+                 Direction.FORWARD,
+                 10,
+                 10,
+                 RampProfile.linear(100)).get(5,
+                                              TimeUnit.SECONDS);
+    assertTrue(sent.isEmpty());
+  }
+
+  @Test
+  public void testReplace()
+  {
+    RampEngine engine = new RampEngine("RampEngineNGTest",
+                                       5);
+    CompletableFuture<Void> first = engine.start("loco",
+                                                 (dir, speed) -> {
+                                                 },
+                                                 Direction.FORWARD,
+                                                 0,
+                                                 100,
+                                                 RampProfile.linear(1));
+    engine.start("loco",
+                 (dir, speed) -> {
+                 },
+                 Direction.FORWARD,
+                 0,
+                 100,
+                 RampProfile.linear(1));
+    assertTrue(first.isCompletedExceptionally());
+    assertEquals(1,
+                 engine.getActiveCount());
+    assertTrue(engine.cancel("loco"));
+    assertEquals(0,
+                 engine.getActiveCount());
+  }
+
+  @Test
+  public void testReverse() throws Exception
+  {
+    RampEngine engine = new RampEngine("RampEngineNGTest",
+                                       5);
+    List<Map.Entry<Direction, Integer>> sent = Collections.synchronizedList(new ArrayList<>());
+    engine.start("loco",
+                 (dir, speed) -> sent.add(Map.entry(dir,
+                                                    speed)),
+                 Direction.FORWARD,
+                 10,
+                 Direction.REVERSE,
+                 10,
+                 RampProfile.linear(100)).get(5,
+                                              TimeUnit.SECONDS);
+    int stop = sent.indexOf(Map.entry(Direction.FORWARD,
+                                      0));
+    assertTrue(stop > 0);
+    for (int i = 1; i <= stop; ++i) {
+      assertSame(Direction.FORWARD,
+                 sent.get(i).getKey());
+      assertTrue(sent.get(i).getValue() < sent.get(i - 1).getValue());
+    }
+    assertEquals(Map.entry(Direction.REVERSE,
+                           0),
+                 sent.get(stop + 1));
+    for (int i = stop + 2; i < sent.size(); ++i) {
+      assertSame(Direction.REVERSE,
+                 sent.get(i).getKey());
+      assertTrue(sent.get(i).getValue() > sent.get(i - 1).getValue());
+    }
+    assertEquals(Map.entry(Direction.REVERSE,
+                           10),
+                 sent.get(sent.size() - 1));
+    // standing, the direction is sent at once
+    sent.clear();
+    engine.start("loco",
+                 (dir, speed) -> sent.add(Map.entry(dir,
+                                                    speed)),
+                 Direction.REVERSE,
+                 0,
+                 Direction.FORWARD,
+                 0,
+                 RampProfile.linear(100)).get(5,
+                                              TimeUnit.SECONDS);
+    assertEquals(List.of(Map.entry(Direction.FORWARD,
+                                   0)),
+                 sent);
+  }
+
+}
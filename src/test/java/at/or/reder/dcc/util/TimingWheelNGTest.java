@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class TimingWheelNGTest
+{
+
+  @Test
+  public void testExpire() throws InterruptedException
+  {
+    TimingWheel wheel = new TimingWheel("test",
+                                        5,
+                                        8);
+    CountDownLatch latch = new CountDownLatch(2);
+    long start = System.nanoTime();
+    long[] fired = new long[2];
+    wheel.schedule(() -> {
+      fired[0] = System.nanoTime();
+      latch.countDown();
+    },
+                   20,
+                   TimeUnit.MILLISECONDS);
+    // longer than one revolution of the wheel
+    wheel.schedule(() -> {
+      fired[1] = System.nanoTime();
+      latch.countDown();
+    },
+                   100,
+                   TimeUnit.MILLISECONDS);
+    assertEquals(2,
+                 wheel.getPendingCount());
+    assertTrue(latch.await(5,
+                           TimeUnit.SECONDS));
+    assertTrue(fired[0] - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertTrue(fired[1] - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(0,
+                 wheel.getPendingCount());
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException
+  {
+    TimingWheel wheel = new TimingWheel("test",
+                                        5,
+                                        8);
+    AtomicInteger counter = new AtomicInteger();
+    // far enough in the future not to expire before the cancel on a loaded machine
+    TimingWheel.Timeout timeout = wheel.schedule(counter::incrementAndGet,
+                                                 200,
+                                                 TimeUnit.MILLISECONDS);
+    CountDownLatch latch = new CountDownLatch(1);
+    wheel.schedule(latch::countDown,
+                   300,
+                   TimeUnit.MILLISECONDS);
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    assertTrue(timeout.isCancelled());
+    assertTrue(latch.await(5,
+                           TimeUnit.SECONDS));
+    assertEquals(0,
+                 counter.get());
+    assertFalse(timeout.isExpired());
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.dcc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class TokenBucketNGTest
+{
+
+  @Test
+  public void testRate()
+  {
+    AtomicLong now = new AtomicLong();
+    TokenBucket bucket = new TokenBucket(10,
+                                         2,
+                                         now::get);
+    assertTrue(bucket.tryAcquire());
+    assertTrue(bucket.tryAcquire());
+    assertFalse(bucket.tryAcquire());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100),
+                 bucket.getWaitNanos());
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(0,
+                 bucket.getWaitNanos());
+    assertTrue(bucket.tryAcquire());
+    assertFalse(bucket.tryAcquire());
+    // the bucket never holds more than its capacity
+    now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    assertEquals(2.0,
+                 bucket.getTokens(),
+                 1e-9);
+  }
+
+  @Test
+  public void testDebt()
+  {
+    AtomicLong now = new AtomicLong();
+    TokenBucket bucket = new TokenBucket(10,
+                                         1,
+                                         now::get);
+    bucket.acquire();
+    bucket.acquire();
+    bucket.acquire();
+    assertEquals(-1.0,
+                 bucket.getTokens(),
+                 1e-9);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(200),
+                 bucket.getWaitNanos());
+  }
+
+  @Test
+  public void testPermits()
+  {
+    AtomicLong now = new AtomicLong();
+    TokenBucket bucket = new TokenBucket(10,
+                                         4,
+                                         now::get);
+    assertTrue(bucket.tryAcquire(3));
+    assertFalse(bucket.tryAcquire(2));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100),
+                 bucket.getWaitNanos(2));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    // more than the capacity needs a full bucket and leaves a debt
+    assertTrue(bucket.tryAcquire(6));
+    assertEquals(-2.0,
+                 bucket.getTokens(),
+                 1e-9);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(600),
+                 bucket.getWaitNanos(6));
+    bucket.acquire(10);
+    assertEquals(-4.0,
+                 bucket.getTokens(),
+                 1e-9);
+  }
+
+}
@@ -89,4 +89,29 @@ public class CanIdNGTest
                  senderNid);
   }
 
+  @Test
+  public void testIntValueOf()
+  {
+    int id = CanId.intValueOf(CommandGroup.LOCO,
+                              CommandGroup.LOCO_SPEED,
+                              CommandMode.EVENT,
+                              (short) 0xc3c9);
+    CanId canId = CanId.valueOf(id);
+    assertSame(canId,
+               CanId.valueOf(id));
+    assertSame(canId,
+               CanId.valueOf(CommandGroup.LOCO,
+                             CommandGroup.LOCO_SPEED,
+                             CommandMode.EVENT,
+                             (short) 0xc3c9));
+    assertSame(CommandGroup.LOCO,
+               CanId.commandGroupOf(id));
+    assertEquals(CommandGroup.LOCO_SPEED,
+                 CanId.commandOf(id));
+    assertSame(CommandMode.EVENT,
+               CanId.commandModeOf(id));
+    assertEquals((short) 0xc3c9,
+                 CanId.senderNidOf(id));
+  }
+
 }
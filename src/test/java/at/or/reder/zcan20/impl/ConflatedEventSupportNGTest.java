@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.TimingWheel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.testng.AssertJUnit.*;
+import org.openide.util.RequestProcessor;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class ConflatedEventSupportNGTest
+{
+
+  private static final class TestListener implements EventListener
+  {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+  }
+
+  @Test
+  public void testConflation() throws Exception
+  {
+    ConflatedEventSupport<TestListener, String> support = new ConflatedEventSupport<>((l, e) -> l.events.add(e),
+                                                                                      new RequestProcessor(
+                                                                                              "ConflatedEventSupportNGTest"),
+                                                                                      TimingWheel.getDefault()::schedule);
+    TestListener listener = new TestListener();
+    assertFalse(support.hasListener(3));
+    support.addEventListener(0,
+                             listener,
+                             200,
+                             TimeUnit.MILLISECONDS);
+    assertTrue(support.hasListener(3));
+    // the first event is delivered at once, the others wait for the interval
+    support.offer(3,
+                  "3-0");
+    long timeout = System.currentTimeMillis() + 5000;
+    while (listener.events.isEmpty() && System.currentTimeMillis() < timeout) {
+      Thread.sleep(5);
+    }
+    for (int i = 1; i <= 100; ++i) {
+      support.offer(3,
+                    "3-" + i);
+      support.offer(4,
+                    "4-" + i);
+    }
+    while (listener.events.size() < 3 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(5);
+    }
+    Thread.sleep(50);
+    assertEquals(List.of("3-0",
+                         "3-100",
+                         "4-100"),
+                 listener.events);
+    support.removeEventListener(0,
+                                listener);
+    assertFalse(support.hasListener(3));
+  }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.Direction;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.LocoActive;
+import at.or.reder.zcan20.MX10PropertiesSet;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.List;
+import java.util.Map;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class ConsistImplNGTest
+{
+
+  private static final short LEAD = 3;
+  private static final short INVERTED = 4;
+  private TestPort port;
+  private ZCANImpl zcan;
+  private ConsistImpl consist;
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    port = new TestPort();
+    zcan = TestPort.open(port);
+    // never opened, only the owner of the consist
+    MX10Control controller = new MX10Control(Map.of(MX10PropertiesSet.PROP_HOST,
+                                                    "127.0.0.1",
+                                                    MX10PropertiesSet.PROP_INPORT,
+                                                    "14521",
+                                                    MX10PropertiesSet.PROP_OUTPORT,
+                                                    "14520"));
+    consist = new ConsistImpl(controller,
+                              () -> zcan);
+    consist.addMember(LEAD,
+                      false);
+    consist.addMember(INVERTED,
+                      true);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    consist.close();
+    zcan.close();
+  }
+
+  private List<Packet> sent(byte command,
+                            CommandMode mode)
+  {
+    return port.getSent((p) -> p.getCommandGroup() == CommandGroup.LOCO
+                                       && p.getCommand() == command
+                                       && p.getCommandMode() == mode);
+  }
+
+  private static short locoOf(Packet p)
+  {
+    return p.getData().getShort(0);
+  }
+
+  @Test
+  public void testMembers() throws Exception
+  {
+    List<Packet> active = sent(CommandGroup.LOCO_ACTIVE,
+                               CommandMode.COMMAND);
+    assertEquals(2,
+                 active.size());
+    assertEquals(LEAD,
+                 locoOf(active.get(0)));
+    assertEquals(LocoActive.ACTIVE.getMagic(),
+                 active.get(0).getData().getShort(2));
+    assertEquals(2,
+                 zcan.getLocoKeepAlive().getLocoCount());
+    assertEquals(List.of(3, 4),
+                 consist.getMembers());
+    // changing the inversion takes no new ownership
+    consist.addMember(INVERTED,
+                      true);
+    assertEquals(2,
+                 sent(CommandGroup.LOCO_ACTIVE,
+                      CommandMode.COMMAND).size());
+    assertTrue(consist.removeMember(INVERTED));
+    assertFalse(consist.removeMember(INVERTED));
+    assertEquals(1,
+                 zcan.getLocoKeepAlive().getLocoCount());
+    consist.close();
+    assertEquals(0,
+                 zcan.getLocoKeepAlive().getLocoCount());
+    assertTrue(consist.getMembers().isEmpty());
+  }
+
+  @Test
+  public void testInversion() throws Exception
+  {
+    port.clearSent();
+    consist.control(Direction.FORWARD,
+                    50);
+    TestPort.waitFor(() -> sent(CommandGroup.LOCO_SPEED,
+                                CommandMode.COMMAND).size() == 2);
+    List<Packet> speed = sent(CommandGroup.LOCO_SPEED,
+                              CommandMode.COMMAND);
+    assertEquals(LEAD,
+                 locoOf(speed.get(0)));
+    assertEquals(50,
+                 speed.get(0).getData().getShort(2) & 0x7ff);
+    assertEquals(INVERTED,
+                 locoOf(speed.get(1)));
+    assertEquals(0x400 | 50,
+                 speed.get(1).getData().getShort(2) & 0x7ff);
+    // the system reports the inverted member reverse, the consist runs forward
+    port.receive(TestPort.packet(CommandGroup.LOCO,
+                                 CommandGroup.LOCO_SPEED,
+                                 CommandMode.EVENT,
+                                 TestPort.MASTER_NID,
+                                 INVERTED,
+                                 0x800 | 50,
+                                 1));
+    port.receive(TestPort.packet(CommandGroup.LOCO,
+                                 CommandGroup.LOCO_SPEED,
+                                 CommandMode.EVENT,
+                                 TestPort.MASTER_NID,
+                                 LEAD,
+                                 50,
+                                 1));
+    TestPort.waitFor(() -> consist.getCurrentSpeed() != null);
+    TestPort.waitFor(() -> consist.getDirection(INVERTED) != null);
+    assertSame(Direction.FORWARD,
+               consist.getDirection(INVERTED));
+    assertSame(Direction.FORWARD,
+               consist.getDirection());
+    assertEquals(Integer.valueOf(50),
+                 consist.getCurrentSpeed());
+  }
+
+  @Test
+  public void testSetFunctions() throws Exception
+  {
+    // f0 of the lead is known to be on
+    port.receive(TestPort.packet(CommandGroup.LOCO,
+                                 CommandGroup.LOCO_FUNC_SWITCH,
+                                 CommandMode.EVENT,
+                                 TestPort.MASTER_NID,
+                                 LEAD,
+                                 0,
+                                 1));
+    TestPort.waitFor(() -> zcan.getLocoStateTable().getFunction(LEAD,
+                                                                0) == 1);
+    port.clearSent();
+    consist.setFunctions(Map.of(0,
+                                1));
+    TestPort.waitFor(() -> !sent(CommandGroup.LOCO_FUNC_SWITCH,
+                                 CommandMode.COMMAND).isEmpty());
+    List<Packet> functions = sent(CommandGroup.LOCO_FUNC_SWITCH,
+                                  CommandMode.COMMAND);
+    assertEquals(1,
+                 functions.size());
+    assertEquals(INVERTED,
+                 locoOf(functions.get(0)));
+    try {
+      consist.setFunctions(Map.of(-1,
+                                  1));
+      fail("IndexOutOfBoundsException expected");
+    } catch (IndexOutOfBoundsException ex) {
+    }
+  }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.TimingWheel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class DeadlineTimerNGTest
+{
+
+  private static final class ManualTimeout implements TimingWheel.Timeout
+  {
+
+    private final Runnable task;
+    private final long delayNanos;
+    private boolean cancelled;
+    private boolean expired;
+
+    private ManualTimeout(Runnable task,
+                          long delayNanos)
+    {
+      this.task = task;
+      this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public boolean cancel()
+    {
+      if (expired || cancelled) {
+        return false;
+      }
+      cancelled = true;
+      return true;
+    }
+
+    @Override
+    public boolean isExpired()
+    {
+      return expired;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+      return cancelled;
+    }
+
+    private void fire()
+    {
+      expired = true;
+      task.run();
+    }
+
+  }
+
+  /**
+   * Wheel and clock advanced by the test. Tasks run on the test thread.
+   */
+  private static final class Fixture
+  {
+
+    private final List<ManualTimeout> timeouts = new ArrayList<>();
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(10));
+    private final AtomicInteger runs = new AtomicInteger();
+    private final DeadlineTimer timer = new DeadlineTimer(runs::incrementAndGet,
+                                                          Runnable::run,
+                                                          this::schedule,
+                                                          now::get);
+
+    private TimingWheel.Timeout schedule(Runnable task,
+                                         long delay,
+                                         TimeUnit unit)
+    {
+      ManualTimeout result = new ManualTimeout(task,
+                                               unit.toNanos(delay));
+      timeouts.add(result);
+      return result;
+    }
+
+    private ManualTimeout last()
+    {
+      return timeouts.get(timeouts.size() - 1);
+    }
+
+    private void advance(long millis)
+    {
+      now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+  }
+
+  @Test
+  public void testSchedule()
+  {
+    Fixture f = new Fixture();
+    f.timer.schedule(100);
+    assertEquals(1,
+                 f.timeouts.size());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100),
+                 f.last().delayNanos);
+    f.advance(100);
+    f.last().fire();
+    assertEquals(1,
+                 f.runs.get());
+    assertEquals(1,
+                 f.timeouts.size());
+  }
+
+  @Test
+  public void testPushBack()
+  {
+    Fixture f = new Fixture();
+    f.timer.schedule(100);
+    f.advance(50);
+    f.timer.schedule(100);
+    // a later deadline does not touch the wheel
+    assertEquals(1,
+                 f.timeouts.size());
+    assertFalse(f.last().isCancelled());
+    f.advance(50);
+    f.last().fire();
+    assertEquals(0,
+                 f.runs.get());
+    assertEquals(2,
+                 f.timeouts.size());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(50),
+                 f.last().delayNanos);
+    f.advance(50);
+    f.last().fire();
+    assertEquals(1,
+                 f.runs.get());
+  }
+
+  @Test
+  public void testPullForward()
+  {
+    Fixture f = new Fixture();
+    f.timer.schedule(100);
+    ManualTimeout first = f.last();
+    f.timer.schedule(10);
+    assertTrue(first.isCancelled());
+    assertEquals(2,
+                 f.timeouts.size());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10),
+                 f.last().delayNanos);
+    f.advance(10);
+    f.last().fire();
+    assertEquals(1,
+                 f.runs.get());
+    // a stale timeout must not run the task again
+    first.task.run();
+    assertEquals(1,
+                 f.runs.get());
+  }
+
+  @Test
+  public void testCancel()
+  {
+    Fixture f = new Fixture();
+    f.timer.schedule(100);
+    ManualTimeout t = f.last();
+    f.timer.cancel();
+    assertTrue(t.isCancelled());
+    f.advance(100);
+    t.task.run();
+    assertEquals(0,
+                 f.runs.get());
+    f.timer.schedule(100);
+    f.advance(100);
+    f.last().fire();
+    assertEquals(1,
+                 f.runs.get());
+  }
+
+  @Test
+  public void testScheduleNow()
+  {
+    Fixture f = new Fixture();
+    f.timer.schedule(100);
+    ManualTimeout t = f.last();
+    f.timer.schedule(0);
+    assertEquals(1,
+                 f.runs.get());
+    assertTrue(t.isCancelled());
+    assertEquals(1,
+                 f.timeouts.size());
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.DCCConstants;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class LocoImplNGTest
+{
+
+  private static final short LOCO = 3;
+  private TestPort port;
+  private ZCANImpl zcan;
+  private LocoImpl loco;
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    port = new TestPort();
+    zcan = TestPort.open(port);
+    loco = new LocoImpl(zcan,
+                        null,
+                        LOCO,
+                        false);
+    port.clearSent();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    zcan.close();
+  }
+
+  private static Packet function(CommandMode mode,
+                                 int fx,
+                                 int value)
+  {
+    return TestPort.packet(CommandGroup.LOCO,
+                           CommandGroup.LOCO_FUNC_SWITCH,
+                           mode,
+                           TestPort.MASTER_NID,
+                           LOCO,
+                           fx,
+                           value);
+  }
+
+  private List<Packet> functionRequests(CommandMode mode)
+  {
+    return port.getSent((p) -> p.getCommandGroup() == CommandGroup.LOCO
+                                       && p.getCommand() == CommandGroup.LOCO_FUNC_SWITCH
+                                       && p.getCommandMode() == mode);
+  }
+
+  private static int fxOf(Packet p)
+  {
+    return p.getData().getShort(2) & 0xffff;
+  }
+
+  @Test
+  public void testSetFunctions() throws Exception
+  {
+    Map<Integer, Integer> functions = new HashMap<>();
+    functions.put(0,
+                  1);
+    functions.put(1,
+                  0);
+    functions.put(null,
+                  1);
+    functions.put(2,
+                  null);
+    // nothing is known yet, everything is sent
+    assertEquals(2,
+                 loco.setFunctions(functions));
+    TestPort.waitFor(() -> functionRequests(CommandMode.COMMAND).size() == 2);
+    port.receive(function(CommandMode.ACK,
+                          0,
+                          1));
+    port.receive(function(CommandMode.ACK,
+                          1,
+                          0));
+    TestPort.waitFor(() -> loco.getFunction(1) != null);
+    port.clearSent();
+    functions.put(1,
+                  1);
+    assertEquals(1,
+                 loco.setFunctions(functions));
+    TestPort.waitFor(() -> functionRequests(CommandMode.COMMAND).size() == 1);
+    assertEquals(1,
+                 fxOf(functionRequests(CommandMode.COMMAND).get(0)));
+    assertEquals(0,
+                 loco.setFunctions(Map.of(0,
+                                          1)));
+    try {
+      loco.setFunctions(Map.of(DCCConstants.NUM_FUNCTION,
+                               1));
+      fail("IndexOutOfBoundsException expected");
+    } catch (IndexOutOfBoundsException ex) {
+    }
+  }
+
+  @Test
+  public void testScanFunctions() throws Exception
+  {
+    CompletableFuture<SortedMap<Integer, Integer>> scan = loco.scanFunctionsAsync(300,
+                                                                                 TimeUnit.MILLISECONDS).
+            toCompletableFuture();
+    TestPort.waitFor(() -> functionRequests(CommandMode.REQUEST).size() == LocoImpl.MAX_SCAN_IN_FLIGHT);
+    Thread.sleep(50);
+    assertEquals(LocoImpl.MAX_SCAN_IN_FLIGHT,
+                 functionRequests(CommandMode.REQUEST).size());
+    // answers of other locos, unrequested functions and events do not count
+    port.receive(TestPort.packet(CommandGroup.LOCO,
+                                 CommandGroup.LOCO_FUNC_SWITCH,
+                                 CommandMode.ACK,
+                                 TestPort.MASTER_NID,
+                                 LOCO + 1,
+                                 0,
+                                 1));
+    port.receive(function(CommandMode.ACK,
+                          20,
+                          1));
+    port.receive(function(CommandMode.EVENT,
+                          0,
+                          1));
+    Thread.sleep(50);
+    assertEquals(LocoImpl.MAX_SCAN_IN_FLIGHT,
+                 functionRequests(CommandMode.REQUEST).size());
+    // answer in reverse order, every answer releases the next request. Functions 5 and 7 are never answered.
+    int answered = 0;
+    while (answered < DCCConstants.NUM_FUNCTION) {
+      List<Packet> requests = functionRequests(CommandMode.REQUEST);
+      assertTrue(requests.size() - answered <= LocoImpl.MAX_SCAN_IN_FLIGHT);
+      if (requests.size() == answered) {
+        TestPort.waitFor(() -> functionRequests(CommandMode.REQUEST).size() > requests.size() || scan.isDone());
+        if (scan.isDone()) {
+          break;
+        }
+        continue;
+      }
+      for (int i = requests.size() - 1; i >= answered; --i) {
+        int fx = fxOf(requests.get(i));
+        if (fx != 5 && fx != 7) {
+          port.receive(function(CommandMode.ACK,
+                                fx,
+                                fx + 100));
+        }
+      }
+      answered = requests.size();
+    }
+    SortedMap<Integer, Integer> result = scan.get(5,
+                                                  TimeUnit.SECONDS);
+    assertEquals(DCCConstants.NUM_FUNCTION,
+                 functionRequests(CommandMode.REQUEST).size());
+    assertEquals(DCCConstants.NUM_FUNCTION,
+                 result.size());
+    for (int fx = 0; fx < DCCConstants.NUM_FUNCTION; ++fx) {
+      if (fx == 5 || fx == 7) {
+        assertTrue(result.containsKey(fx));
+        assertNull(result.get(fx));
+      } else {
+        assertEquals(Integer.valueOf(fx + 100),
+                     result.get(fx));
+      }
+    }
+  }
+
+}
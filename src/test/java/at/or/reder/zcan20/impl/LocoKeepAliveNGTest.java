@@ -0,0 +1,268 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class LocoKeepAliveNGTest
+{
+
+  private static final class ManualTimeout implements TimingWheel.Timeout
+  {
+
+    private final Runnable task;
+    private boolean cancelled;
+    private boolean expired;
+
+    private ManualTimeout(Runnable task)
+    {
+      this.task = task;
+    }
+
+    @Override
+    public boolean cancel()
+    {
+      if (expired || cancelled) {
+        return false;
+      }
+      cancelled = true;
+      return true;
+    }
+
+    @Override
+    public boolean isExpired()
+    {
+      return expired;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+      return cancelled;
+    }
+
+  }
+
+  /**
+   * Wheel and clock advanced by the test. Tasks run on the test thread.
+   */
+  private static final class Fixture
+  {
+
+    private final Deque<ManualTimeout> timeouts = new ArrayDeque<>();
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(10));
+    private final List<Short> pings = new ArrayList<>();
+    // thrown by the sender instead of recording the ping
+    private RuntimeException failure;
+    private final LocoKeepAlive keepAlive = new LocoKeepAlive(this::sendPing,
+                                                              this::schedule,
+                                                              Runnable::run,
+                                                              now::get);
+
+    private void sendPing(short loco)
+    {
+      if (failure != null) {
+        throw failure;
+      }
+      pings.add(loco);
+    }
+
+    private TimingWheel.Timeout schedule(Runnable task,
+                                         long delay,
+                                         TimeUnit unit)
+    {
+      ManualTimeout result = new ManualTimeout(task);
+      timeouts.add(result);
+      return result;
+    }
+
+    /**
+     * Runs the next slot.
+     *
+     * @return {@code false} if no slot is scheduled.
+     */
+    private boolean step()
+    {
+      ManualTimeout t;
+      do {
+        t = timeouts.poll();
+      } while (t != null && t.isCancelled());
+      if (t == null) {
+        return false;
+      }
+      now.addAndGet(LocoKeepAlive.SLOT_NANOS);
+      t.expired = true;
+      t.task.run();
+      return true;
+    }
+
+    private void cycle()
+    {
+      for (int i = 0; i < LocoKeepAlive.NUM_SLOTS; ++i) {
+        assertTrue(step());
+      }
+    }
+
+  }
+
+  private static Packet speedPacket(int loco)
+  {
+    ByteBuffer data = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    data.putShort((short) loco);
+    data.putShort((short) 10);
+    data.flip();
+    return ZCANFactory.createPacketBuilder((short) 0xc001).
+            commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_SPEED).
+            commandMode(CommandMode.COMMAND).
+            data(data).
+            build();
+  }
+
+  @Test
+  public void testSlotBalancing()
+  {
+    Fixture f = new Fixture();
+    for (int loco = 1; loco <= 25; ++loco) {
+      f.keepAlive.register((short) loco);
+    }
+    assertEquals(25,
+                 f.keepAlive.getLocoCount());
+    for (int s = 0; s < LocoKeepAlive.NUM_SLOTS; ++s) {
+      int load = f.keepAlive.getSlotLoad(s);
+      assertTrue(load == 2 || load == 3);
+    }
+    // locos 1 and 11 share slot 0, a second registration is only counted
+    f.keepAlive.unregister((short) 1);
+    f.keepAlive.unregister((short) 11);
+    f.keepAlive.register((short) 2);
+    assertEquals(23,
+                 f.keepAlive.getLocoCount());
+    f.keepAlive.register((short) 100);
+    assertEquals(2,
+                 f.keepAlive.getSlotLoad(0));
+    // the first one is still registered
+    f.keepAlive.unregister((short) 2);
+    assertEquals(24,
+                 f.keepAlive.getLocoCount());
+  }
+
+  @Test
+  public void testPingAndSkip()
+  {
+    Fixture f = new Fixture();
+    f.keepAlive.register((short) 3);
+    f.keepAlive.register((short) 4);
+    f.cycle();
+    assertEquals(List.of((short) 3, (short) 4),
+                 f.pings);
+    assertEquals(2,
+                 f.keepAlive.getPingCount());
+    assertEquals(2 * 1000d / LocoKeepAlive.INTERVAL_MS,
+                 f.keepAlive.getPingRate(),
+                 1e-9);
+    // loco 3 is under control, its keepalive is not needed
+    f.pings.clear();
+    f.keepAlive.onPacketSent(speedPacket(3));
+    f.cycle();
+    assertEquals(List.of((short) 4),
+                 f.pings);
+    assertEquals(1,
+                 f.keepAlive.getSkipCount());
+    assertEquals(1000d / LocoKeepAlive.INTERVAL_MS,
+                 f.keepAlive.getPingRate(),
+                 1e-9);
+    // without traffic loco 3 is pinged again
+    f.pings.clear();
+    f.cycle();
+    assertEquals(List.of((short) 3, (short) 4),
+                 f.pings);
+  }
+
+  @Test
+  public void testSenderFailure()
+  {
+    Fixture f = new Fixture();
+    f.keepAlive.register((short) 3);
+    f.failure = new IllegalStateException("port closed");
+    f.cycle();
+    assertTrue(f.pings.isEmpty());
+    assertEquals(0,
+                 f.keepAlive.getPingCount());
+    // the failure must not end the chain of slots
+    f.failure = null;
+    f.cycle();
+    assertEquals(List.of((short) 3),
+                 f.pings);
+  }
+
+  @Test
+  public void testStopOnUnregister()
+  {
+    Fixture f = new Fixture();
+    f.keepAlive.register((short) 3);
+    f.cycle();
+    assertEquals(1,
+                 f.pings.size());
+    f.keepAlive.unregister((short) 3);
+    assertEquals(0,
+                 f.keepAlive.getLocoCount());
+    // the running chain ends at the next slot
+    assertTrue(f.step());
+    assertFalse(f.step());
+    assertEquals(1,
+                 f.pings.size());
+    assertEquals(0d,
+                 f.keepAlive.getPingRate(),
+                 1e-9);
+    // a new registration starts a new chain
+    f.keepAlive.register((short) 5);
+    f.cycle();
+    assertEquals(2,
+                 f.pings.size());
+  }
+
+  @Test
+  public void testClose()
+  {
+    Fixture f = new Fixture();
+    f.keepAlive.register((short) 3);
+    f.keepAlive.close();
+    assertFalse(f.step());
+    assertTrue(f.pings.isEmpty());
+    assertEquals(0,
+                 f.keepAlive.getLocoCount());
+  }
+
+}
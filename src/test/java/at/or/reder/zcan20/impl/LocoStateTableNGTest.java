@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.Direction;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class LocoStateTableNGTest
+{
+
+  private static Packet packet(CommandGroup group,
+                               byte command,
+                               CommandMode mode,
+                               int nid,
+                               int... words)
+  {
+    ByteBuffer data = ByteBuffer.allocate(words.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+    for (int w : words) {
+      data.putShort((short) w);
+    }
+    data.flip();
+    return ZCANFactory.createPacketBuilder((short) nid).
+            commandGroup(group).
+            command(command).
+            commandMode(mode).
+            data(data).
+            build();
+  }
+
+  @Test
+  public void testSpeed()
+  {
+    LocoStateTable table = new LocoStateTable();
+    assertEquals(LocoStateTable.UNKNOWN,
+                 table.getSpeed(3));
+    assertNull(table.getDirection(3));
+    assertEquals(0,
+                 table.getLastSeen(3));
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_SPEED,
+                          CommandMode.COMMAND,
+                          0xc001,
+                          3,
+                          0x400 | 100,
+                          0));
+    assertEquals(100,
+                 table.getSpeed(3));
+    assertEquals(Direction.REVERSE,
+                 table.getDirection(3));
+    assertEquals(0xc001,
+                 table.getOwner(3));
+    assertTrue(table.getLastSeen(3) > 0);
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_SPEED,
+                          CommandMode.EVENT,
+                          0x2000,
+                          3,
+                          20,
+                          0));
+    assertEquals(20,
+                 table.getSpeed(3));
+    assertEquals(Direction.FORWARD,
+                 table.getDirection(3));
+    assertEquals(0xc001,
+                 table.getOwner(3));
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_SPEED,
+                          CommandMode.EVENT,
+                          0x2000,
+                          3,
+                          0x800 | 30,
+                          0));
+    assertEquals(30,
+                 table.getSpeed(3));
+    assertEquals(Direction.REVERSE,
+                 table.getDirection(3));
+    // the direction from the system is no direction of a command
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_SPEED,
+                          CommandMode.COMMAND,
+                          0xc001,
+                          3,
+                          0x800 | 40,
+                          0));
+    assertEquals(40,
+                 table.getSpeed(3));
+    assertEquals(Direction.FORWARD,
+                 table.getDirection(3));
+    assertEquals(LocoStateTable.UNKNOWN,
+                 table.getSpeed(ZCANFactory.LOCO_MAX + 1));
+  }
+
+  @Test
+  public void testFunctions()
+  {
+    LocoStateTable table = new LocoStateTable();
+    assertEquals(LocoStateTable.UNKNOWN,
+                 table.getFunction(5,
+                                   0));
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_FUNC_SWITCH,
+                          CommandMode.EVENT,
+                          0x2000,
+                          5,
+                          2,
+                          1));
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_FUNC_SWITCH,
+                          CommandMode.EVENT,
+                          0x2000,
+                          5,
+                          0,
+                          0));
+    assertEquals(1,
+                 table.getFunction(5,
+                                   2));
+    assertEquals(0,
+                 table.getFunction(5,
+                                   0));
+    assertEquals(LocoStateTable.UNKNOWN,
+                 table.getFunction(5,
+                                   1));
+    assertEquals(0x4,
+                 table.getFunctions(5));
+    assertEquals(0x5,
+                 table.getKnownFunctions(5));
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_FUNC_SWITCH,
+                          CommandMode.EVENT,
+                          0x2000,
+                          5,
+                          2,
+                          0));
+    assertEquals(0,
+                 table.getFunctions(5));
+  }
+
+  @Test
+  public void testActive()
+  {
+    LocoStateTable table = new LocoStateTable();
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_ACTIVE,
+                          CommandMode.COMMAND,
+                          0xc002,
+                          7,
+                          1));
+    table.onPacket(null,
+                   packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_ACTIVE,
+                          CommandMode.ACK,
+                          0x2000,
+                          7,
+                          1));
+    assertEquals(0xc002,
+                 table.getOwner(7));
+    assertEquals(LocoStateTable.UNKNOWN,
+                 table.getOwner(8));
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.CanIdMatcher;
+import at.or.reder.zcan20.CanId;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.PacketListener;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.LocoSpeedPacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class PacketListenerIndexNGTest
+{
+
+  private static Packet speedEvent(int loco)
+  {
+    return ZCANFactory.createPacketBuilder((short) 0xc000).
+            commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_SPEED).
+            commandMode(CommandMode.EVENT).
+            data(ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN).
+                    putShort((short) loco).
+                    putShort((short) 0x123).
+                    putShort((short) 1).
+                    flip()).
+            build();
+  }
+
+  @Test
+  public void testDispatch()
+  {
+    PacketListenerIndex index = new PacketListenerIndex();
+    List<String> fired = new ArrayList<>();
+    for (int i = 1; i <= 200; ++i) {
+      final int loco = i;
+      index.add(new DecoderPacketMatcher(CommandGroup.LOCO,
+                                         CommandGroup.LOCO_SPEED,
+                                         (short) loco),
+                (c, p) -> fired.add("loco" + loco));
+      index.add(new DecoderPacketMatcher(CommandGroup.LOCO,
+                                         CommandGroup.LOCO_FUNC_SWITCH,
+                                         (short) loco),
+                (c, p) -> fired.add("func" + loco));
+    }
+    index.add(new CanIdMatcher(CanId.valueOf(CommandGroup.LOCO,
+                                             CommandGroup.LOCO_SPEED,
+                                             CommandMode.EVENT,
+                                             (short) 0),
+                               CanIdMatcher.MASK_NO_ADDRESS),
+              (c, p) -> fired.add("id"));
+    index.add(SelectorMatcher.of(LocoSpeedPacketAdapter.SELECTOR),
+              (c, p) -> fired.add("selector"));
+    index.add((p) -> p.getDLC() == 6,
+              (c, p) -> fired.add("opaque"));
+    assertEquals(403,
+                 index.size());
+    index.dispatch(null,
+                   speedEvent(42));
+    assertEquals(4,
+                 fired.size());
+    assertTrue(fired.contains("loco42"));
+    assertTrue(fired.contains("id"));
+    assertTrue(fired.contains("selector"));
+    assertTrue(fired.contains("opaque"));
+    fired.clear();
+    index.dispatch(null,
+                   speedEvent(1000));
+    assertEquals(3,
+                 fired.size());
+    assertFalse(fired.stream().anyMatch((s) -> s.startsWith("loco")));
+  }
+
+  @Test
+  public void testRemove()
+  {
+    PacketListenerIndex index = new PacketListenerIndex();
+    List<String> fired = new ArrayList<>();
+    DecoderPacketMatcher matcher = new DecoderPacketMatcher(CommandGroup.LOCO,
+                                                            CommandGroup.LOCO_SPEED,
+                                                            (short) 42);
+    PacketListener listener = (c, p) -> fired.add("loco");
+    assertTrue(index.add(matcher,
+                         listener));
+    assertFalse(index.add(new DecoderPacketMatcher(CommandGroup.LOCO,
+                                                   CommandGroup.LOCO_SPEED,
+                                                   (short) 42),
+                          listener));
+    assertTrue(index.remove(matcher,
+                            listener));
+    index.dispatch(null,
+                   speedEvent(42));
+    assertTrue(fired.isEmpty());
+  }
+
+}
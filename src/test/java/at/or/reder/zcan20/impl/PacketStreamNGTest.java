@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.OverflowPolicy;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class PacketStreamNGTest
+{
+
+  private static final class TestSubscriber implements Flow.Subscriber<Packet>
+  {
+
+    private final List<Packet> packets = new ArrayList<>();
+    private Flow.Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(Packet item)
+    {
+      packets.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable)
+    {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete()
+    {
+      completed = true;
+    }
+
+  }
+
+  private static Packet speedEvent(int loco,
+                                   int speed)
+  {
+    return ZCANFactory.createPacketBuilder((short) (0xc000 + loco)).
+            commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_SPEED).
+            commandMode(CommandMode.EVENT).
+            data(ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN).
+                    putShort((short) loco).
+                    putShort((short) speed).
+                    putShort((short) 1).
+                    flip()).
+            build();
+  }
+
+  private static Packet ping()
+  {
+    return ZCANFactory.createPacketBuilder((short) 0xc000).
+            commandGroup(CommandGroup.NETWORK).
+            command(CommandGroup.NETWORK_PING).
+            commandMode(CommandMode.EVENT).
+            build();
+  }
+
+  @Test
+  public void testDropOldest()
+  {
+    PacketStream stream = new PacketStream(Runnable::run);
+    TestSubscriber subscriber = new TestSubscriber();
+    stream.createPublisher(OverflowPolicy.DROP_OLDEST,
+                           2).
+            filter(CommandGroup.LOCO).
+            subscribe(subscriber);
+    for (int i = 0; i < 4; ++i) {
+      stream.publish(speedEvent(1,
+                                i));
+      stream.publish(ping());
+    }
+    subscriber.subscription.request(10);
+    assertEquals(2,
+                 subscriber.packets.size());
+    assertSame(CommandGroup.LOCO,
+               subscriber.packets.get(0).getCommandGroup());
+    stream.publish(speedEvent(1,
+                              5));
+    assertEquals(3,
+                 subscriber.packets.size());
+    stream.completeAll();
+    assertTrue(subscriber.completed);
+    assertEquals(0,
+                 stream.getSubscriptionCount());
+  }
+
+  @Test
+  public void testConflate()
+  {
+    PacketStream stream = new PacketStream(Runnable::run);
+    TestSubscriber subscriber = new TestSubscriber();
+    stream.createPublisher(OverflowPolicy.CONFLATE,
+                           16).
+            subscribe(subscriber);
+    for (int i = 0; i < 10; ++i) {
+      stream.publish(speedEvent(1,
+                                i));
+      stream.publish(speedEvent(2,
+                                i));
+    }
+    subscriber.subscription.request(1);
+    assertEquals(1,
+                 subscriber.packets.size());
+    subscriber.subscription.request(5);
+    assertEquals(2,
+                 subscriber.packets.size());
+    assertEquals(9,
+                 subscriber.packets.get(0).getData().getShort(2));
+    assertEquals(0xc002,
+                 subscriber.packets.get(1).getSenderNID() & 0xffff);
+  }
+
+  @Test
+  public void testFail()
+  {
+    PacketStream stream = new PacketStream(Runnable::run);
+    TestSubscriber subscriber = new TestSubscriber();
+    stream.createPublisher(OverflowPolicy.FAIL,
+                           2).
+            subscribe(subscriber);
+    stream.publish(ping());
+    stream.publish(ping());
+    assertNull(subscriber.error);
+    stream.publish(ping());
+    assertTrue(subscriber.error instanceof IllegalStateException);
+    assertTrue(subscriber.packets.isEmpty());
+    assertEquals(0,
+                 stream.getSubscriptionCount());
+  }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.PowerPort;
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.LocoModePacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.TSETrackModePacketAdapter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class PendingRequestTableNGTest
+{
+
+  private static final TimingWheel WHEEL = new TimingWheel("PendingRequestTableNGTest",
+                                                           5,
+                                                           64);
+
+  private static Packet locoMode(CommandMode mode,
+                                 int loco,
+                                 int dlc)
+  {
+    ByteBuffer data = ByteBuffer.allocate(dlc).order(ByteOrder.LITTLE_ENDIAN);
+    data.putShort((short) loco);
+    data.clear();
+    return ZCANFactory.createPacketBuilder((short) 0xc001).
+            commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_MODE).
+            commandMode(mode).
+            data(data).
+            build();
+  }
+
+  private static CompletableFuture<Packet> register(PendingRequestTable table,
+                                                    int loco)
+  {
+    return table.register(locoMode(CommandMode.REQUEST,
+                                    loco,
+                                    2),
+                          SelectorMatcher.of(LocoModePacketAdapter.SELECTOR),
+                          Packet.class,
+                          10,
+                          TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testKeyOf()
+  {
+    Packet request = locoMode(CommandMode.REQUEST,
+                              3,
+                              2);
+    long key = PendingRequestTable.keyOf(request,
+                                         SelectorMatcher.of(LocoModePacketAdapter.SELECTOR));
+    assertEquals(3,
+                 (int) key);
+    // the matcher waits for another command than the request has sent
+    assertEquals(-1,
+                 PendingRequestTable.keyOf(request,
+                                           SelectorMatcher.of(TSETrackModePacketAdapter.SELECTOR)));
+    assertEquals(-1,
+                 PendingRequestTable.keyOf(request,
+                                           (p) -> true));
+    assertEquals(-1,
+                 PendingRequestTable.keyOf(null,
+                                           SelectorMatcher.of(LocoModePacketAdapter.SELECTOR)));
+    ByteBuffer data = ByteBuffer.allocate(3).order(ByteOrder.LITTLE_ENDIAN);
+    data.putShort((short) 0xc000);
+    data.put(PowerPort.OUT_2.getMagic());
+    data.clear();
+    Packet tse = ZCANFactory.createPacketBuilder((short) 0xc001).
+            commandGroup(CommandGroup.TRACK_CONFIG_PUBLIC).
+            command(CommandGroup.TSE_PROG_MODE).
+            commandMode(CommandMode.REQUEST).
+            data(data).
+            build();
+    assertEquals(PowerPort.OUT_2.getMagic() & 0xff,
+                 (int) PendingRequestTable.keyOf(tse,
+                                                 SelectorMatcher.of(TSETrackModePacketAdapter.SELECTOR)));
+  }
+
+  @Test
+  public void testDecoderKey() throws Exception
+  {
+    PendingRequestTable table = new PendingRequestTable(WHEEL);
+    CompletableFuture<Packet> loco3 = register(table,
+                                               3);
+    CompletableFuture<Packet> loco4 = register(table,
+                                               4);
+    assertEquals(2,
+                 table.getDepth());
+    Packet response = locoMode(CommandMode.ACK,
+                               4,
+                               5);
+    table.dispatch(response);
+    assertFalse(loco3.isDone());
+    assertSame(response,
+               loco4.get());
+    assertEquals(1,
+                 table.getDepth());
+    // not selected by the matcher
+    table.dispatch(locoMode(CommandMode.ACK,
+                            3,
+                            2));
+    assertFalse(loco3.isDone());
+    table.dispatch(locoMode(CommandMode.EVENT,
+                            3,
+                            5));
+    assertFalse(loco3.isDone());
+    table.dispatch(locoMode(CommandMode.COMMAND,
+                            3,
+                            5));
+    assertTrue(loco3.isDone());
+    assertEquals(0,
+                 table.getDepth());
+  }
+
+  @Test
+  public void testFifo() throws Exception
+  {
+    PendingRequestTable table = new PendingRequestTable(WHEEL);
+    CompletableFuture<Packet> first = register(table,
+                                               3);
+    CompletableFuture<Packet> second = register(table,
+                                                3);
+    Packet response1 = locoMode(CommandMode.ACK,
+                                3,
+                                5);
+    table.dispatch(response1);
+    assertSame(response1,
+               first.get());
+    assertFalse(second.isDone());
+    Packet response2 = locoMode(CommandMode.ACK,
+                                3,
+                                5);
+    table.dispatch(response2);
+    assertSame(response2,
+               second.get());
+  }
+
+  @Test
+  public void testUnkeyed() throws Exception
+  {
+    PendingRequestTable table = new PendingRequestTable(WHEEL);
+    CompletableFuture<Packet> any1 = table.register(null,
+                                                    (p) -> p.getCommand() == CommandGroup.LOCO_MODE,
+                                                    Packet.class,
+                                                    10,
+                                                    TimeUnit.SECONDS);
+    CompletableFuture<Packet> any2 = table.register(null,
+                                                    (p) -> p.getCommand() == CommandGroup.LOCO_MODE,
+                                                    Packet.class,
+                                                    10,
+                                                    TimeUnit.SECONDS);
+    table.dispatch(locoMode(CommandMode.ACK,
+                            7,
+                            5));
+    assertTrue(any1.isDone());
+    assertTrue(any2.isDone());
+    assertEquals(0,
+                 table.getDepth());
+  }
+
+  @Test
+  public void testTimeoutAndCancel() throws Exception
+  {
+    PendingRequestTable table = new PendingRequestTable(WHEEL);
+    CompletableFuture<Packet> timedOut = table.register(locoMode(CommandMode.REQUEST,
+                                                                 3,
+                                                                 2),
+                                                        SelectorMatcher.of(LocoModePacketAdapter.SELECTOR),
+                                                        Packet.class,
+                                                        20,
+                                                        TimeUnit.MILLISECONDS);
+    try {
+      timedOut.get(5,
+                   TimeUnit.SECONDS);
+      fail("TimeoutException expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof TimeoutException);
+    }
+    CompletableFuture<Packet> cancelled = register(table,
+                                                   3);
+    cancelled.cancel(false);
+    assertEquals(0,
+                 table.getDepth());
+    CompletableFuture<Packet> live = register(table,
+                                              3);
+    table.dispatch(locoMode(CommandMode.ACK,
+                            3,
+                            5));
+    assertTrue(live.isDone());
+  }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.PowerPort;
+import at.or.reder.dcc.util.TimingWheel;
+import at.or.reder.dcc.util.TokenBucket;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.SendPriority;
+import at.or.reder.zcan20.SpeedFlags;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.ZimoPowerMode;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.testng.AssertJUnit.*;
+import org.openide.util.RequestProcessor;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class SendSchedulerNGTest
+{
+
+  private static Packet packet(CommandGroup group,
+                               byte command,
+                               CommandMode mode)
+  {
+    return ZCANFactory.createPacketBuilder((short) 0xc000).
+            commandGroup(group).
+            command(command).
+            commandMode(mode).
+            build();
+  }
+
+  @Test
+  public void testClassify()
+  {
+    assertSame(SendPriority.SAFETY,
+               SendScheduler.classify(ZCANFactory.createPacketBuilder((short) 0xc000).
+                       buildLocoSpeedPacket((short) 3,
+                                            (short) 0,
+                                            Set.of(SpeedFlags.FORWARD_TO_SYSTEM, SpeedFlags.EMERGENCY_STOP),
+                                            (short) 1)));
+    assertSame(SendPriority.CONTROL,
+               SendScheduler.classify(ZCANFactory.createPacketBuilder((short) 0xc000).
+                       buildLocoSpeedPacket((short) 3,
+                                            (short) 10,
+                                            Set.of(SpeedFlags.FORWARD_TO_SYSTEM),
+                                            (short) 1)));
+    assertSame(SendPriority.KEEPALIVE,
+               SendScheduler.classify(packet(CommandGroup.NETWORK,
+                                             CommandGroup.NETWORK_PING,
+                                             CommandMode.COMMAND)));
+    assertSame(SendPriority.BULK,
+               SendScheduler.classify(packet(CommandGroup.TRACK_CONFIG_PUBLIC,
+                                             CommandGroup.TSE_PROG_READ,
+                                             CommandMode.REQUEST)));
+  }
+
+  @Test
+  public void testPriority() throws Exception
+  {
+    List<Packet> sent = Collections.synchronizedList(new ArrayList<>());
+    SendScheduler scheduler = new SendScheduler(sent::add,
+                                                new TokenBucket(50,
+                                                                1),
+                                                new RequestProcessor("SendSchedulerNGTest"),
+                                                TimingWheel.getDefault()::schedule);
+    Packet first = packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_SPEED,
+                          CommandMode.COMMAND);
+    Packet bulk = packet(CommandGroup.DATA,
+                         CommandGroup.DATA_NAME,
+                         CommandMode.REQUEST);
+    Packet control = packet(CommandGroup.ACCESSORY,
+                            CommandGroup.ACCESSORY_PORT4,
+                            CommandMode.COMMAND);
+    Packet safety = packet(CommandGroup.SYSTEM,
+                           CommandGroup.SYSTEM_POWER,
+                           CommandMode.COMMAND);
+    assertTrue(scheduler.send(first,
+                              SendPriority.CONTROL).isDone());
+    CompletableFuture<Void> bulkSent = scheduler.send(bulk,
+                                                      SendPriority.BULK);
+    CompletableFuture<Void> controlSent = scheduler.send(control,
+                                                         SendPriority.CONTROL);
+    assertTrue(scheduler.send(safety,
+                              SendPriority.SAFETY).isDone());
+    bulkSent.get(5,
+                 TimeUnit.SECONDS);
+    assertTrue(controlSent.isDone());
+    assertEquals(List.of(first, safety, control, bulk),
+                 sent);
+    assertEquals(0,
+                 scheduler.getQueueLength(SendPriority.BULK));
+    assertEquals(2,
+                 scheduler.getSentCount(SendPriority.CONTROL));
+    assertTrue(scheduler.getMaxLatency(SendPriority.BULK,
+                                       TimeUnit.NANOSECONDS) > 0);
+  }
+
+  @Test
+  public void testBatch() throws Exception
+  {
+    List<List<Packet>> batches = Collections.synchronizedList(new ArrayList<>());
+    AtomicLong now = new AtomicLong();
+    TokenBucket bucket = new TokenBucket(50,
+                                         2,
+                                         now::get);
+    SendScheduler scheduler = new SendScheduler(new SendScheduler.Transmitter()
+    {
+      @Override
+      public void transmit(Packet packet)
+      {
+        batches.add(List.of(packet));
+      }
+
+      @Override
+      public void transmit(List<Packet> packets)
+      {
+        batches.add(packets);
+      }
+
+    },
+                                                bucket,
+                                                new RequestProcessor("SendSchedulerNGTest"),
+                                                TimingWheel.getDefault()::schedule);
+    List<Packet> packets = List.of(packet(CommandGroup.LOCO,
+                                          CommandGroup.LOCO_SPEED,
+                                          CommandMode.COMMAND),
+                                   packet(CommandGroup.LOCO,
+                                          CommandGroup.LOCO_SPEED,
+                                          CommandMode.COMMAND));
+    assertTrue(scheduler.send(packets,
+                              SendPriority.CONTROL).isDone());
+    // each packet of a batch takes a token
+    CompletableFuture<Void> second = scheduler.send(packets,
+                                                    SendPriority.CONTROL);
+    assertFalse(second.isDone());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(40),
+                 bucket.getWaitNanos(packets.size()));
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(40));
+    second.get(5,
+               TimeUnit.SECONDS);
+    // the batch is transmitted at once
+    assertEquals(List.of(packets, packets),
+                 batches);
+  }
+
+  @Test
+  public void testNoOvertakeWhileDraining() throws Exception
+  {
+    List<Packet> sent = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch transmitting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Packet first = packet(CommandGroup.LOCO,
+                          CommandGroup.LOCO_SPEED,
+                          CommandMode.COMMAND);
+    Packet queued = packet(CommandGroup.ACCESSORY,
+                           CommandGroup.ACCESSORY_PORT4,
+                           CommandMode.COMMAND);
+    Packet last = packet(CommandGroup.LOCO,
+                         CommandGroup.LOCO_FUNC_SWITCH,
+                         CommandMode.COMMAND);
+    TokenBucket bucket = new TokenBucket(50,
+                                         1);
+    SendScheduler scheduler = new SendScheduler((p) -> {
+      if (p == queued) {
+        transmitting.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      sent.add(p);
+    },
+                                                bucket,
+                                                new RequestProcessor("SendSchedulerNGTest"),
+                                                TimingWheel.getDefault()::schedule);
+    assertTrue(scheduler.send(first,
+                              SendPriority.CONTROL).isDone());
+    CompletableFuture<Void> queuedSent = scheduler.send(queued,
+                                                        SendPriority.CONTROL);
+    assertTrue(transmitting.await(5,
+                                  TimeUnit.SECONDS));
+    while (bucket.getTokens() < 1) {
+      Thread.sleep(5);
+    }
+    // the queue is empty and a token is available, but the drain task is still transmitting
+    CompletableFuture<Void> lastSent = scheduler.send(last,
+                                                      SendPriority.CONTROL);
+    assertFalse(lastSent.isDone());
+    release.countDown();
+    queuedSent.get(5,
+                   TimeUnit.SECONDS);
+    lastSent.get(5,
+                 TimeUnit.SECONDS);
+    assertEquals(List.of(first, queued, last),
+                 sent);
+  }
+
+  private static Packet speed(int loco,
+                              int speed,
+                              Set<SpeedFlags> flags)
+  {
+    return ZCANFactory.createPacketBuilder((short) 0xc000).buildLocoSpeedPacket((short) loco,
+                                                                               (short) speed,
+                                                                               flags,
+                                                                               (short) 1);
+  }
+
+  @Test
+  public void testLatestSpeedWins() throws Exception
+  {
+    List<Packet> sent = Collections.synchronizedList(new ArrayList<>());
+    AtomicLong now = new AtomicLong();
+    SendScheduler scheduler = new SendScheduler(sent::add,
+                                                new TokenBucket(50,
+                                                                1,
+                                                                now::get),
+                                                new RequestProcessor("SendSchedulerNGTest"),
+                                                TimingWheel.getDefault()::schedule);
+    Packet first = speed(3,
+                         10,
+                         Set.of(SpeedFlags.FORWARD_TO_SYSTEM));
+    assertTrue(scheduler.send(first,
+                              SendPriority.CONTROL).isDone());
+    CompletableFuture<Void> queued = null;
+    for (int i = 11; i <= 20; ++i) {
+      queued = scheduler.send(speed(3,
+                                    i,
+                                    Set.of(SpeedFlags.FORWARD_TO_SYSTEM)),
+                              SendPriority.CONTROL);
+    }
+    Packet other = speed(4,
+                         5,
+                         Set.of(SpeedFlags.FORWARD_TO_SYSTEM));
+    CompletableFuture<Void> otherSent = scheduler.send(other,
+                                                       SendPriority.CONTROL);
+    assertEquals(2,
+                 scheduler.getQueueLength(SendPriority.CONTROL));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    queued.get(5,
+               TimeUnit.SECONDS);
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    otherSent.get(5,
+                  TimeUnit.SECONDS);
+    assertEquals(3,
+                 sent.size());
+    assertSame(first,
+               sent.get(0));
+    assertEquals(20,
+                 sent.get(1).getData().getShort(2) & 0x3ff);
+    assertSame(other,
+               sent.get(2));
+  }
+
+  @Test
+  public void testEmergencyStopDropsQueuedSpeed() throws Exception
+  {
+    List<Packet> sent = Collections.synchronizedList(new ArrayList<>());
+    AtomicLong now = new AtomicLong();
+    SendScheduler scheduler = new SendScheduler(sent::add,
+                                                new TokenBucket(50,
+                                                                1,
+                                                                now::get),
+                                                new RequestProcessor("SendSchedulerNGTest"),
+                                                TimingWheel.getDefault()::schedule);
+    Packet first = speed(4,
+                         10,
+                         Set.of(SpeedFlags.FORWARD_TO_SYSTEM));
+    assertTrue(scheduler.send(first,
+                              SendPriority.CONTROL).isDone());
+    CompletableFuture<Void> old = scheduler.send(speed(3,
+                                                       80,
+                                                       Set.of(SpeedFlags.FORWARD_TO_SYSTEM)),
+                                                 SendPriority.CONTROL);
+    Packet kept = speed(4,
+                        20,
+                        Set.of(SpeedFlags.FORWARD_TO_SYSTEM));
+    CompletableFuture<Void> keptSent = scheduler.send(kept,
+                                                      SendPriority.CONTROL);
+    Packet stop = speed(3,
+                        0,
+                        Set.of(SpeedFlags.FORWARD_TO_SYSTEM, SpeedFlags.EMERGENCY_STOP));
+    assertSame(SendPriority.SAFETY,
+               SendScheduler.classify(stop));
+    assertTrue(scheduler.send(stop,
+                              SendPriority.SAFETY).isDone());
+    assertTrue(old.isCompletedExceptionally());
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    keptSent.get(5,
+                 TimeUnit.SECONDS);
+    // the old speed of loco 3 is never transmitted after the stop
+    assertEquals(List.of(first, stop, kept),
+                 sent);
+  }
+
+  @Test
+  public void testSystemStopDropsAllSpeeds() throws Exception
+  {
+    List<Packet> sent = Collections.synchronizedList(new ArrayList<>());
+    AtomicLong now = new AtomicLong();
+    SendScheduler scheduler = new SendScheduler(sent::add,
+                                                new TokenBucket(50,
+                                                                1,
+                                                                now::get),
+                                                new RequestProcessor("SendSchedulerNGTest"),
+                                                TimingWheel.getDefault()::schedule);
+    Packet control = packet(CommandGroup.ACCESSORY,
+                            CommandGroup.ACCESSORY_PORT4,
+                            CommandMode.COMMAND);
+    assertTrue(scheduler.send(control,
+                              SendPriority.CONTROL).isDone());
+    CompletableFuture<Void> single = scheduler.send(speed(3,
+                                                          80,
+                                                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)),
+                                                    SendPriority.CONTROL);
+    Packet function = ZCANFactory.createPacketBuilder((short) 0xc000).buildLocoFunctionPacket((short) 4,
+                                                                                             (short) 0,
+                                                                                             (short) 1);
+    CompletableFuture<Void> batch = scheduler.send(List.of(speed(4,
+                                                                 50,
+                                                                 Set.of(SpeedFlags.FORWARD_TO_SYSTEM)),
+                                                           function),
+                                                   SendPriority.CONTROL);
+    Packet stop = ZCANFactory.createPacketBuilder((short) 0xc000).buildSystemPowerInfoPacket((short) 0xc000,
+                                                                                            Set.of(PowerPort.OUT_1),
+                                                                                            ZimoPowerMode.SSPE);
+    assertTrue(scheduler.send(stop,
+                              SendPriority.SAFETY).isDone());
+    assertTrue(single.isCompletedExceptionally());
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    batch.get(5,
+              TimeUnit.SECONDS);
+    assertEquals(List.of(control, stop, function),
+                 sent);
+  }
+
+}
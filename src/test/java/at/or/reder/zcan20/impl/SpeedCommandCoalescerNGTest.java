@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.SpeedFlags;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class SpeedCommandCoalescerNGTest
+{
+
+  private static Packet speed(int loco,
+                              int speed,
+                              Set<SpeedFlags> flags)
+  {
+    return ZCANFactory.createPacketBuilder((short) 0xc000).buildLocoSpeedPacket((short) loco,
+                                                                               (short) speed,
+                                                                               flags,
+                                                                               (short) 1);
+  }
+
+  private static int speedOf(Packet packet)
+  {
+    return packet.getData().getShort(2) & 0x3ff;
+  }
+
+  @Test
+  public void testLatestWins() throws Exception
+  {
+    List<Packet> sent = new ArrayList<>();
+    List<Runnable> tasks = new ArrayList<>();
+    SpeedCommandCoalescer coalescer = new SpeedCommandCoalescer(sent::add,
+                                                                tasks::add);
+    Packet first = speed(3,
+                         10,
+                         Set.of(SpeedFlags.FORWARD_TO_SYSTEM));
+    assertTrue(SpeedCommandCoalescer.isSpeedCommand(first));
+    coalescer.offer(first);
+    for (int i = 11; i <= 20; ++i) {
+      coalescer.offer(speed(3,
+                            i,
+                            Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    }
+    coalescer.offer(speed(4,
+                          5,
+                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    assertTrue(sent.isEmpty());
+    assertEquals(1,
+                 tasks.size());
+    tasks.get(0).run();
+    assertEquals(2,
+                 sent.size());
+    assertEquals(20,
+                 speedOf(sent.get(0)));
+    assertEquals(5,
+                 speedOf(sent.get(1)));
+    assertEquals(12,
+                 coalescer.getOfferedCount());
+    assertEquals(10,
+                 coalescer.getReplacedCount());
+  }
+
+  @Test
+  public void testImmediate() throws Exception
+  {
+    List<Packet> sent = new ArrayList<>();
+    List<Runnable> tasks = new ArrayList<>();
+    SpeedCommandCoalescer coalescer = new SpeedCommandCoalescer(sent::add,
+                                                                tasks::add);
+    coalescer.offer(speed(3,
+                          10,
+                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    // direction change
+    coalescer.offer(speed(3,
+                          0,
+                          Set.of(SpeedFlags.REVERSE_TO_SYSTEM)));
+    assertEquals(1,
+                 sent.size());
+    assertEquals(0x400,
+                 sent.get(0).getData().getShort(2) & 0x400);
+    // emergency stop
+    coalescer.offer(speed(3,
+                          30,
+                          Set.of(SpeedFlags.REVERSE_TO_SYSTEM)));
+    coalescer.offer(speed(3,
+                          0,
+                          Set.of(SpeedFlags.REVERSE_TO_SYSTEM, SpeedFlags.EMERGENCY_STOP)));
+    assertEquals(2,
+                 sent.size());
+    for (Runnable r : tasks) {
+      r.run();
+    }
+    // the commands replaced by the immediate ones are never sent
+    assertEquals(2,
+                 sent.size());
+  }
+
+  @Test
+  public void testSendFailure() throws Exception
+  {
+    List<Packet> sent = new ArrayList<>();
+    List<Runnable> tasks = new ArrayList<>();
+    SpeedCommandCoalescer coalescer = new SpeedCommandCoalescer((p) -> {
+      if (speedOf(p) == 10) {
+        throw new IllegalStateException("failed");
+      }
+      sent.add(p);
+    },
+                                                                tasks::add);
+    coalescer.offer(speed(3,
+                          10,
+                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    coalescer.offer(speed(4,
+                          20,
+                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    tasks.get(0).run();
+    assertEquals(1,
+                 sent.size());
+    // a failed command does not stop the drain
+    coalescer.offer(speed(3,
+                          11,
+                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    assertEquals(2,
+                 tasks.size());
+    tasks.get(1).run();
+    assertEquals(2,
+                 sent.size());
+    assertEquals(11,
+                 speedOf(sent.get(1)));
+  }
+
+  @Test
+  public void testSupersede() throws Exception
+  {
+    List<Packet> sent = new ArrayList<>();
+    List<Runnable> tasks = new ArrayList<>();
+    SpeedCommandCoalescer coalescer = new SpeedCommandCoalescer(sent::add,
+                                                                tasks::add);
+    coalescer.offer(speed(3,
+                          10,
+                          Set.of(SpeedFlags.FORWARD_TO_SYSTEM)));
+    // sent past the coalescer, e.g. by a consist
+    coalescer.supersede(speed(3,
+                              40,
+                              Set.of(SpeedFlags.REVERSE_TO_SYSTEM)));
+    for (Runnable r : tasks) {
+      r.run();
+    }
+    assertTrue(sent.isEmpty());
+    assertEquals(1,
+                 coalescer.getReplacedCount());
+    // the direction of the superseding command is known, reverse is no change
+    coalescer.offer(speed(3,
+                          50,
+                          Set.of(SpeedFlags.REVERSE_TO_SYSTEM)));
+    assertTrue(sent.isEmpty());
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.Ping;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import static org.testng.AssertJUnit.*;
+
+/**
+ * In memory port answering the login with a ping. Everything sent is recorded, received packets are injected by the
+ * test.
+ *
+ * @author Wolfgang Reder
+ */
+final class TestPort implements ZPort
+{
+
+  static final short MASTER_NID = (short) 0xc000;
+  private final BlockingQueue<Packet> incoming = new LinkedBlockingQueue<>();
+  // guarded by this
+  private final List<Packet> sent = new ArrayList<>();
+
+  /**
+   * Creates a connection over a new TestPort and opens it.
+   *
+   * @param port the port
+   * @return the open connection
+   * @throws IOException on error
+   */
+  static ZCANImpl open(TestPort port) throws IOException
+  {
+    ZCANImpl result = new ZCANImpl(port,
+                                   null,
+                                   null);
+    result.open(5,
+                TimeUnit.SECONDS);
+    assertTrue(result.isOpen());
+    return result;
+  }
+
+  static Packet packet(CommandGroup group,
+                       byte command,
+                       CommandMode mode,
+                       short nid,
+                       int... words)
+  {
+    ByteBuffer data = ByteBuffer.allocate(words.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+    for (int w : words) {
+      data.putShort((short) w);
+    }
+    data.flip();
+    return ZCANFactory.createPacketBuilder(nid).
+            commandGroup(group).
+            command(command).
+            commandMode(mode).
+            data(data).
+            build();
+  }
+
+  /**
+   * Waits up to 5s for {@code condition}.
+   *
+   * @param condition condition to wait for
+   */
+  static void waitFor(BooleanSupplier condition) throws InterruptedException
+  {
+    long end = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Condition not met within 5s",
+                 System.currentTimeMillis() < end);
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * Passes {@code packet} to the connection as if it was received.
+   *
+   * @param packet packet to receive
+   */
+  void receive(Packet packet)
+  {
+    incoming.add(packet);
+  }
+
+  synchronized List<Packet> getSent(Predicate<? super Packet> filter)
+  {
+    List<Packet> result = new ArrayList<>();
+    for (Packet p : sent) {
+      if (filter.test(p)) {
+        result.add(p);
+      }
+    }
+    return result;
+  }
+
+  synchronized void clearSent()
+  {
+    sent.clear();
+  }
+
+  @Override
+  public String getName()
+  {
+    return "TestPort";
+  }
+
+  @Override
+  public void start() throws IOException
+  {
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+  }
+
+  @Override
+  public void sendPacket(Packet packet) throws IOException
+  {
+    synchronized (this) {
+      sent.add(packet);
+    }
+    if (packet.getCommand() == CommandGroup.NETWORK_PORT_OPEN) {
+      ByteBuffer data = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      data.putInt(0x12345678);
+      data.putShort((short) 0);
+      data.putShort((short) 1);
+      data.flip();
+      receive(ZCANFactory.createPacketBuilder(MASTER_NID).
+              commandGroup(CommandGroup.NETWORK).
+              command(CommandGroup.NETWORK_PING).
+              commandMode(CommandMode.EVENT).
+              data(data).
+              build());
+    }
+  }
+
+  @Override
+  public void sendRaw(ByteBuffer buffer) throws IOException
+  {
+  }
+
+  @Override
+  public Packet readPacket() throws IOException
+  {
+    try {
+      return incoming.poll(20,
+                           TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  @Override
+  public Future<Ping> sendInitPacket(ZCANImpl zcan) throws IOException
+  {
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public int getSendRate()
+  {
+    return 100000;
+  }
+
+  @Override
+  public int getSendBurst()
+  {
+    return 1000;
+  }
+
+}
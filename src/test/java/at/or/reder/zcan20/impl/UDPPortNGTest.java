@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.zcan20.SpeedFlags;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.Packet;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class UDPPortNGTest
+{
+
+  @Test
+  public void testSendPackets() throws Exception
+  {
+    List<Packet> packets = new ArrayList<>();
+    for (int i = 1; i <= 7; ++i) {
+      packets.add(ZCANFactory.createPacketBuilder((short) 0xc000).buildLocoSpeedPacket((short) i,
+                                                                                      (short) 10,
+                                                                                      Set.of(SpeedFlags.FORWARD_TO_SYSTEM),
+                                                                                      (short) 1));
+    }
+    int packetSize = UDPMarshaller.getRequiredBufferSize(packets.get(0));
+    try (DatagramSocket receiver = new DatagramSocket(0,
+                                                      InetAddress.getByName("127.0.0.1"))) {
+      receiver.setSoTimeout(5000);
+      // room for 3 packets per datagram
+      UDPPort port = new UDPPort("127.0.0.1",
+                                 receiver.getLocalPort(),
+                                 0,
+                                 28 + 3 * packetSize + 1);
+      try {
+        port.start();
+        port.sendPackets(packets);
+      } finally {
+        port.close();
+      }
+      List<Integer> sizes = new ArrayList<>();
+      List<Packet> received = new ArrayList<>();
+      DatagramPacket datagram = new DatagramPacket(new byte[1500],
+                                                   1500);
+      while (received.size() < packets.size()) {
+        receiver.receive(datagram);
+        ByteBuffer buffer = ByteBuffer.wrap(datagram.getData(),
+                                            0,
+                                            datagram.getLength());
+        sizes.add(buffer.remaining());
+        while (buffer.hasRemaining()) {
+          Packet p = UDPMarshaller.unmarshalPacket(buffer);
+          received.add(p);
+          buffer.position(buffer.position() + UDPMarshaller.getRequiredBufferSize(p));
+        }
+      }
+      assertEquals(List.of(3 * packetSize, 3 * packetSize, packetSize),
+                   sizes);
+      for (int i = 0; i < packets.size(); ++i) {
+        assertEquals(packets.get(i).getData(),
+                     received.get(i).getData());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.impl;
+
+import at.or.reder.dcc.util.CRC;
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.packet.Packet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class VCOMFrameDecoderNGTest
+{
+
+  private static byte[] createFrame(int group,
+                                    int command,
+                                    int mode,
+                                    int nid,
+                                    byte[] data,
+                                    boolean validCRC)
+  {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write(group);
+    body.write((command << 2) | mode);
+    body.write(nid & 0xff);
+    body.write((nid >> 8) & 0xff);
+    body.write(data,
+               0,
+               data.length);
+    byte[] crcBytes = body.toByteArray();
+    int crc = CRC.CRC16.update(0,
+                               crcBytes,
+                               0,
+                               crcBytes.length);
+    if (!validCRC) {
+      crc ^= 0x1;
+    }
+    ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    frame.write(0x5a);
+    frame.write(0x32);
+    frame.write(data.length);
+    frame.write(crcBytes,
+                0,
+                crcBytes.length);
+    frame.write((crc >> 8) & 0xff);
+    frame.write(crc & 0xff);
+    frame.write(0x32);
+    frame.write(0x5a);
+    return frame.toByteArray();
+  }
+
+  private static List<Packet> decode(VCOMFrameDecoder[] decoderHolder,
+                                     byte[] stream,
+                                     int chunkSize)
+  {
+    List<Packet> result = new ArrayList<>();
+    VCOMFrameDecoder decoder = new VCOMFrameDecoder((frame) -> {
+      try {
+        result.add(VCOMMarshaller.unmarshalPacket(frame));
+      } catch (IOException ex) {
+        fail(ex.getMessage());
+      }
+    });
+    decoderHolder[0] = decoder;
+    for (int i = 0; i < stream.length; i += chunkSize) {
+      decoder.decode(ByteBuffer.wrap(stream,
+                                     i,
+                                     Math.min(chunkSize,
+                                              stream.length - i)));
+    }
+    return result;
+  }
+
+  @Test
+  public void testDecodeSplitFrames()
+  {
+    byte[] frame1 = createFrame(CommandGroup.LOCO.getMagic(),
+                                CommandGroup.LOCO_SPEED,
+                                CommandMode.EVENT.getMagic(),
+                                0xc0a6,
+                                new byte[]{0x08, 0x00, 0x10, 0x00, 0x00, 0x00});
+    byte[] frame2 = createFrame(CommandGroup.NETWORK.getMagic(),
+                                CommandGroup.NETWORK_PING,
+                                CommandMode.EVENT.getMagic(),
+                                0xc0a6,
+                                new byte[0]);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write(0x11);
+    stream.write(0x5a);
+    stream.write(frame1,
+                 0,
+                 frame1.length);
+    stream.write(frame2,
+                 0,
+                 frame2.length);
+    byte[] bytes = stream.toByteArray();
+    for (int chunkSize = 1; chunkSize <= bytes.length; ++chunkSize) {
+      VCOMFrameDecoder[] decoder = new VCOMFrameDecoder[1];
+      List<Packet> packets = decode(decoder,
+                                    bytes,
+                                    chunkSize);
+      assertEquals("chunkSize=" + chunkSize,
+                   2,
+                   packets.size());
+      Packet p = packets.get(0);
+      assertSame(CommandGroup.LOCO,
+                 p.getCommandGroup());
+      assertEquals(CommandGroup.LOCO_SPEED,
+                   p.getCommand());
+      assertSame(CommandMode.EVENT,
+                 p.getCommandMode());
+      assertEquals((short) 0xc0a6,
+                   p.getSenderNID());
+      assertEquals(6,
+                   p.getDLC());
+      assertEquals((short) 8,
+                   p.getData().getShort(0));
+      assertEquals(0,
+                   packets.get(1).getDLC());
+      assertEquals(0,
+                   decoder[0].getCRCErrorCount());
+    }
+  }
+
+  @Test
+  public void testCRCError()
+  {
+    byte[] bad = createFrame(CommandGroup.LOCO.getMagic(),
+                             CommandGroup.LOCO_SPEED,
+                             CommandMode.EVENT.getMagic(),
+                             0xc0a6,
+                             new byte[]{0x08, 0x00},
+                             false);
+    byte[] good = createFrame(CommandGroup.LOCO.getMagic(),
+                              CommandGroup.LOCO_SPEED,
+                              CommandMode.EVENT.getMagic(),
+                              0xc0a6,
+                              new byte[]{0x09, 0x00});
+    byte[] stream = new byte[bad.length + good.length];
+    System.arraycopy(bad,
+                     0,
+                     stream,
+                     0,
+                     bad.length);
+    System.arraycopy(good,
+                     0,
+                     stream,
+                     bad.length,
+                     good.length);
+    VCOMFrameDecoder[] decoder = new VCOMFrameDecoder[1];
+    List<Packet> packets = decode(decoder,
+                                  stream,
+                                  stream.length);
+    assertEquals(1,
+                 packets.size());
+    assertEquals((short) 9,
+                 packets.get(0).getData().getShort(0));
+    assertEquals(1,
+                 decoder[0].getCRCErrorCount());
+    assertEquals(1,
+                 decoder[0].getFrameCount());
+  }
+
+  @Test
+  public void testCRCByteOrder()
+  {
+    byte[] frame = createFrame(CommandGroup.NETWORK.getMagic(),
+                               CommandGroup.NETWORK_PING,
+                               CommandMode.EVENT.getMagic(),
+                               0xc0a6,
+                               new byte[0]);
+    int crcEnd = frame.length - 4;
+    int crc = CRC.CRC16.update(0,
+                               frame,
+                               3,
+                               crcEnd - 3);
+    assertTrue("test needs a CRC with different bytes",
+               (crc & 0xff) != ((crc >> 8) & 0xff));
+    assertEquals((byte) (crc >> 8),
+                 frame[crcEnd]);
+    VCOMFrameDecoder[] decoder = new VCOMFrameDecoder[1];
+    assertEquals(1,
+                 decode(decoder,
+                        frame,
+                        frame.length).size());
+    byte tmp = frame[crcEnd];
+    frame[crcEnd] = frame[crcEnd + 1];
+    frame[crcEnd + 1] = tmp;
+    assertEquals(0,
+                 decode(decoder,
+                        frame,
+                        frame.length).size());
+    assertEquals(1,
+                 decoder[0].getCRCErrorCount());
+  }
+
+  private static byte[] createFrame(int group,
+                                    int command,
+                                    int mode,
+                                    int nid,
+                                    byte[] data)
+  {
+    return createFrame(group,
+                       command,
+                       mode,
+                       nid,
+                       data,
+                       true);
+  }
+
+}
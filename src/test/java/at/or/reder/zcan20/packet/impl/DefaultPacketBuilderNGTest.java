@@ -39,6 +39,8 @@ import at.or.reder.zcan20.packet.ModulePowerInfoRequestAdapter;
 import at.or.reder.zcan20.packet.NIDOnlyPacketAdapter;
 import at.or.reder.zcan20.packet.Packet;
 import at.or.reder.zcan20.packet.PowerInfoRequestAdapter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
@@ -91,6 +93,29 @@ public class DefaultPacketBuilderNGTest
                adapter.getPacket());
   }
 
+  @Test
+  public void testAdapterMemoized()
+  {
+    DefaultPacketBuilder builder = new DefaultPacketBuilder((short) 0xbabe);
+    Packet packet = builder.commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_SPEED).
+            commandMode(CommandMode.EVENT).
+            data(ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN).
+                    putShort((short) 3).
+                    putShort((short) 0x123).
+                    putShort((short) 1).
+                    flip()).
+            build();
+    LocoSpeedPacketAdapter adapter = packet.getAdapter(LocoSpeedPacketAdapter.class);
+    assertNotNull(adapter);
+    assertSame(adapter,
+               packet.getAdapter(LocoSpeedPacketAdapter.class));
+    assertSame(adapter,
+               packet.getLookup().lookup(LocoSpeedPacketAdapter.class));
+    assertNull(packet.getAdapter(NIDOnlyPacketAdapter.class));
+    assertNull(packet.getLookup().lookup(NIDOnlyPacketAdapter.class));
+  }
+
   @Test(enabled = false)
 
   public void testBuildDataGroupCountPacket()
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.packet.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.packet.LocoSpeedPacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cost of building a received packet and decoding its adapter, the work done for every packet on the bus. Run
+ * {@link #main(java.lang.String[]) } from the test classpath; the gc profiler reports the allocation per packet.
+ *
+ * @author Wolfgang Reder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark
+{
+
+  private DefaultPacketBuilder builder;
+  private ByteBuffer payload;
+
+  @Setup
+  public void setup()
+  {
+    builder = new DefaultPacketBuilder((short) 0xc000);
+    payload = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+    payload.putShort((short) 0x0003).putShort((short) 0x0123).putShort((short) 0x0001).flip();
+  }
+
+  private Packet buildSpeedEvent()
+  {
+    payload.rewind();
+    return builder.commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_SPEED).
+            commandMode(CommandMode.EVENT).
+            adapterFactory(null).
+            data(payload).
+            build();
+  }
+
+  @Benchmark
+  public Packet build()
+  {
+    return buildSpeedEvent();
+  }
+
+  @Benchmark
+  public int buildAndDecode()
+  {
+    LocoSpeedPacketAdapter adapter = buildSpeedEvent().getAdapter(LocoSpeedPacketAdapter.class);
+    return adapter.getSpeed();
+  }
+
+  public static void main(String[] args) throws RunnerException
+  {
+    new Runner(new OptionsBuilder().include(PacketBenchmark.class.getSimpleName()).addProfiler("gc").build()).run();
+  }
+
+}
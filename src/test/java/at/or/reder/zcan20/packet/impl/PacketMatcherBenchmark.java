@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.packet.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.PacketSelector;
+import at.or.reder.zcan20.packet.CVInfoAdapter;
+import at.or.reder.zcan20.packet.DecoderResponsePacketAdapter;
+import at.or.reder.zcan20.packet.LocoActivePacketAdapter;
+import at.or.reder.zcan20.packet.LocoFuncPacketAdapter;
+import at.or.reder.zcan20.packet.LocoModePacketAdapter;
+import at.or.reder.zcan20.packet.LocoSpeedPacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.ZCANDecoderPacketMatcher;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Decoder matcher evaluated for a matching speed event and for a packet of another decoder. {@code selectorStream} is
+ * the former implementation of {@link ZCANDecoderPacketMatcher}, {@code selectorLoop} evaluates the same selectors
+ * sequentially and {@code compiled} is the current matcher.
+ *
+ * @author Wolfgang Reder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketMatcherBenchmark
+{
+
+  private static final List<PacketSelector> SELECTORS = Arrays.asList(LocoActivePacketAdapter.SELECTOR,
+                                                                      LocoFuncPacketAdapter.SELECTOR,
+                                                                      LocoModePacketAdapter.SELECTOR,
+                                                                      LocoSpeedPacketAdapter.SELECTOR,
+                                                                      CVInfoAdapter.SELECTOR);
+  private static final short DECODER = 3;
+  private Predicate<Packet> compiled;
+  private Packet hit;
+  private Packet miss;
+
+  @Setup
+  public void setup()
+  {
+    compiled = ZCANDecoderPacketMatcher.getLocomotiveInstance(DECODER);
+    hit = speedEvent(DECODER);
+    miss = speedEvent((short) (DECODER + 1));
+  }
+
+  private static Packet speedEvent(short decoder)
+  {
+    ByteBuffer payload = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+    payload.putShort(decoder).putShort((short) 0x0123).putShort((short) 0x0001).flip();
+    return new DefaultPacketBuilder((short) 0xc000).commandGroup(CommandGroup.LOCO).
+            command(CommandGroup.LOCO_SPEED).
+            commandMode(CommandMode.EVENT).
+            data(payload).
+            build();
+  }
+
+  private static boolean selectorStream(Packet t)
+  {
+    if (SELECTORS.stream().parallel().filter((s) -> s.matches(t)).findAny().isPresent()) {
+      DecoderResponsePacketAdapter adapter = t.getAdapter(DecoderResponsePacketAdapter.class);
+      return adapter != null && adapter.getDecoderId() == DECODER;
+    }
+    return false;
+  }
+
+  private static boolean selectorLoop(Packet t)
+  {
+    for (PacketSelector s : SELECTORS) {
+      if (s.matches(t)) {
+        DecoderResponsePacketAdapter adapter = t.getAdapter(DecoderResponsePacketAdapter.class);
+        return adapter != null && adapter.getDecoderId() == DECODER;
+      }
+    }
+    return false;
+  }
+
+  @Benchmark
+  public boolean selectorStream()
+  {
+    return selectorStream(hit) ^ selectorStream(miss);
+  }
+
+  @Benchmark
+  public boolean selectorLoop()
+  {
+    return selectorLoop(hit) ^ selectorLoop(miss);
+  }
+
+  @Benchmark
+  public boolean compiled()
+  {
+    return compiled.test(hit) ^ compiled.test(miss);
+  }
+
+  public static void main(String[] args) throws RunnerException
+  {
+    new Runner(new OptionsBuilder().include(PacketMatcherBenchmark.class.getSimpleName()).addProfiler("gc").build()).
+            run();
+  }
+
+}
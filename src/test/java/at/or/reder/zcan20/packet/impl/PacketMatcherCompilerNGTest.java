@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.packet.impl;
+
+import at.or.reder.zcan20.CommandGroup;
+import at.or.reder.zcan20.CommandMode;
+import at.or.reder.zcan20.PacketSelector;
+import at.or.reder.zcan20.ZCANFactory;
+import at.or.reder.zcan20.packet.CVInfoAdapter;
+import at.or.reder.zcan20.packet.LocoFuncPacketAdapter;
+import at.or.reder.zcan20.packet.LocoSpeedPacketAdapter;
+import at.or.reder.zcan20.packet.Packet;
+import at.or.reder.zcan20.packet.PowerInfo;
+import at.or.reder.zcan20.packet.ZCANDecoderPacketMatcher;
+import at.or.reder.zcan20.ui.PatternPacketSelector;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Predicate;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class PacketMatcherCompilerNGTest
+{
+
+  private static Packet packet(CommandGroup group,
+                               byte command,
+                               CommandMode mode,
+                               int dlc,
+                               int decoderOffset,
+                               int decoder)
+  {
+    ByteBuffer data = ByteBuffer.allocate(dlc).order(ByteOrder.LITTLE_ENDIAN);
+    if (decoderOffset + 2 <= dlc) {
+      data.putShort(decoderOffset,
+                    (short) decoder);
+    }
+    return ZCANFactory.createPacketBuilder((short) 0xc000).
+            commandGroup(group).
+            command(command).
+            commandMode(mode).
+            data(data).
+            build();
+  }
+
+  @Test
+  public void testSelectors()
+  {
+    PacketSelector[] selectors = {LocoSpeedPacketAdapter.SELECTOR,
+                                  LocoFuncPacketAdapter.SELECTOR,
+                                  PowerInfo.SELECTOR,
+                                  new PatternPacketSelector(0x0f000000,
+                                                            0x02000000)};
+    PacketMatcherCompiler compiler = new PacketMatcherCompiler();
+    for (PacketSelector s : selectors) {
+      compiler.add(s);
+    }
+    CompiledPacketMatcher matcher = compiler.compile();
+    for (CommandGroup group : new CommandGroup[]{CommandGroup.LOCO, CommandGroup.CONFIG, CommandGroup.CONFIG_CAN,
+                                                 CommandGroup.NETWORK}) {
+      for (int command = 0; command < 0x40; ++command) {
+        for (CommandMode mode : CommandMode.values()) {
+          for (int dlc = 0; dlc <= 8; ++dlc) {
+            Packet p = packet(group,
+                              (byte) command,
+                              mode,
+                              dlc,
+                              0,
+                              0);
+            boolean expected = false;
+            for (PacketSelector s : selectors) {
+              expected |= s.matches(p.getCanIdValue(),
+                                    p.getDLC());
+            }
+            assertEquals(p.toString(),
+                         expected,
+                         matcher.test(p));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDecoder()
+  {
+    Predicate<Packet> matcher = ZCANDecoderPacketMatcher.getLocomotiveInstance(42);
+    assertTrue(matcher.test(packet(CommandGroup.LOCO,
+                                   CommandGroup.LOCO_SPEED,
+                                   CommandMode.EVENT,
+                                   6,
+                                   0,
+                                   42)));
+    assertFalse(matcher.test(packet(CommandGroup.LOCO,
+                                    CommandGroup.LOCO_SPEED,
+                                    CommandMode.EVENT,
+                                    6,
+                                    0,
+                                    43)));
+    assertFalse(matcher.test(packet(CommandGroup.LOCO,
+                                    CommandGroup.LOCO_SPEED,
+                                    CommandMode.EVENT,
+                                    5,
+                                    0,
+                                    42)));
+    Packet cvInfo = packet(CommandGroup.TRACK_CONFIG_PUBLIC,
+                           CommandGroup.TSE_PROG_READ,
+                           CommandMode.ACK,
+                           10,
+                           2,
+                           42);
+    assertTrue(CVInfoAdapter.SELECTOR.matches(cvInfo));
+    assertTrue(matcher.test(cvInfo));
+    assertFalse(ZCANDecoderPacketMatcher.getLocomotiveInstance(2).test(cvInfo));
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.util;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class CompletionsNGTest
+{
+
+  public CompletionsNGTest()
+  {
+  }
+
+  @Test
+  public void testAwait() throws Exception
+  {
+    assertEquals(Integer.valueOf(42),
+                 Completions.await(CompletableFuture.completedFuture(42)));
+  }
+
+  @Test(expectedExceptions = TimeoutException.class)
+  public void testAwaitTimeout() throws Exception
+  {
+    Completions.await(CompletableFuture.failedFuture(new TimeoutException()));
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testAwaitIOException() throws Exception
+  {
+    Completions.await(CompletableFuture.failedFuture(new IOException()).
+            thenApply((o) -> o));
+  }
+
+  @Test
+  public void testCallAsync() throws Exception
+  {
+    assertEquals(Integer.valueOf(42),
+                 Completions.await(Completions.callAsync(() -> 42)));
+  }
+
+  @Test(expectedExceptions = TimeoutException.class)
+  public void testCallAsyncUnwrapsExecutionException() throws Exception
+  {
+    Completions.await(Completions.callAsync(() -> {
+      throw new ExecutionException(new TimeoutException());
+    }));
+  }
+
+  @Test
+  public void testCallAsyncExecutor() throws Exception
+  {
+    Thread[] runner = new Thread[1];
+    assertEquals(Integer.valueOf(42),
+                 Completions.await(Completions.callAsync(() -> {
+                   runner[0] = Thread.currentThread();
+                   return 42;
+                 },
+                                                         Runnable::run)));
+    assertSame(Thread.currentThread(),
+               runner[0]);
+  }
+
+  @Test
+  public void testRequestAsync() throws Exception
+  {
+    CompletableFuture<Integer> answer = new CompletableFuture<>();
+    CompletionStage<Integer> stage = Completions.requestAsync(() -> answer,
+                                                              5,
+                                                              TimeUnit.SECONDS);
+    assertFalse(stage.toCompletableFuture().isDone());
+    answer.complete(42);
+    assertEquals(Integer.valueOf(42),
+                 Completions.await(stage));
+  }
+
+  @Test(expectedExceptions = TimeoutException.class)
+  public void testRequestAsyncTimeout() throws Exception
+  {
+    Completions.await(Completions.requestAsync(CompletableFuture::new,
+                                               10,
+                                               TimeUnit.MILLISECONDS));
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testRequestAsyncFailure() throws Exception
+  {
+    Completions.await(Completions.requestAsync(() -> CompletableFuture.failedFuture(new IOException()).
+            thenApply((o) -> o),
+                                               5,
+                                               TimeUnit.SECONDS));
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testRequestAsyncNotSent() throws Exception
+  {
+    Completions.await(Completions.requestAsync(() -> {
+      throw new IOException();
+    },
+                                               5,
+                                               TimeUnit.SECONDS));
+  }
+
+}
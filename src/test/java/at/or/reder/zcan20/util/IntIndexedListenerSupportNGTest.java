@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Wolfgang Reder.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.or.reder.zcan20.util;
+
+import java.util.Arrays;
+import java.util.EventListener;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Wolfgang Reder
+ */
+public class IntIndexedListenerSupportNGTest
+{
+
+  private static final class TestListener implements EventListener
+  {
+  }
+
+  public IntIndexedListenerSupportNGTest()
+  {
+  }
+
+  @Test
+  public void testGetListener()
+  {
+    IntIndexedListenerSupport<TestListener> support = new IntIndexedListenerSupport<>(0,
+                                                                                      TestListener[]::new);
+    assertTrue(support.isEmpty());
+    assertEquals(0,
+                 support.getListener(3).length);
+    TestListener a = new TestListener();
+    TestListener b = new TestListener();
+    TestListener w = new TestListener();
+    support.addEventListener(3,
+                             a);
+    support.addEventListener(5,
+                             b);
+    support.addEventListener(5,
+                             w);
+    support.addEventListener(0,
+                             w);
+    assertEquals(Arrays.asList(a,
+                               w),
+                 Arrays.asList(support.getListener(3)));
+    assertEquals(Arrays.asList(b,
+                               w),
+                 Arrays.asList(support.getListener(5)));
+    assertEquals(Arrays.asList(w),
+                 Arrays.asList(support.getListener(4)));
+    assertSame(support.getListener(3),
+               support.getListener(3));
+    support.removeEventListener(0,
+                                w);
+    support.removeEventListener(3,
+                                a);
+    assertEquals(0,
+                 support.getListener(3).length);
+    assertEquals(Arrays.asList(b,
+                               w),
+                 Arrays.asList(support.getListener(5)));
+    support.removeEventListener(5,
+                                b);
+    support.removeEventListener(5,
+                                w);
+    assertTrue(support.isEmpty());
+  }
+
+}